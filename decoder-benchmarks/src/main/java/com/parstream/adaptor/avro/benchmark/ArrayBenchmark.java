@@ -0,0 +1,115 @@
+/**
+ * Copyright 2015 ParStream GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parstream.adaptor.avro.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.parstream.adaptor.avro.AvroAdaptor;
+import com.parstream.adaptor.avro.AvroAdaptorException;
+import com.parstream.driver.ColumnInfo;
+
+/**
+ * Converts records with a single array of records, or with an array of
+ * strings nested in each of those records. A record therefore produces
+ * <code>fanOut</code> or <code>fanOut * fanOut</code> rows, each repeating the
+ * top level columns.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ArrayBenchmark {
+
+    /**
+     * the number of elements of every array
+     */
+    @Param({ "1", "10", "100" })
+    public int fanOut;
+
+    /**
+     * the number of arrays nested into each other
+     */
+    @Param({ "1", "2" })
+    public int arrays;
+
+    private AvroAdaptor _adaptor;
+    private GenericRecord _record;
+
+    @Setup
+    public void setUp() throws Exception {
+        Schema itemsSchema = SchemaBuilder.array().items().stringType();
+        Schema orderSchema = SchemaBuilder.record("order").fields().requiredLong("orderId").name("items")
+                .type(itemsSchema).noDefault().endRecord();
+        Schema ordersSchema = SchemaBuilder.array().items(orderSchema);
+        Schema schema = SchemaBuilder.record("rootRecord").fields().requiredLong("id").requiredString("name")
+                .name("orders").type(ordersSchema).noDefault().endRecord();
+
+        List<GenericRecord> orders = new ArrayList<GenericRecord>(fanOut);
+        for (int i = 0; i < fanOut; ++i) {
+            List<String> items = new ArrayList<String>(fanOut);
+            for (int j = 0; j < fanOut; ++j) {
+                items.add("item" + j);
+            }
+            GenericRecord order = new GenericData.Record(orderSchema);
+            order.put("orderId", (long) i);
+            order.put("items", new GenericData.Array<String>(itemsSchema, items));
+            orders.add(order);
+        }
+        _record = new GenericData.Record(schema);
+        _record.put("id", 1L);
+        _record.put("name", "customer");
+        _record.put("orders", new GenericData.Array<GenericRecord>(ordersSchema, orders));
+
+        List<ColumnInfo> columns = new ArrayList<ColumnInfo>(4);
+        List<String> paths = new ArrayList<String>(4);
+        columns.add(BenchmarkTables.createColumn("id", BenchmarkTables.INT64));
+        paths.add("rootRecord.id");
+        columns.add(BenchmarkTables.createColumn("name", BenchmarkTables.VARSTRING));
+        paths.add("rootRecord.name");
+        columns.add(BenchmarkTables.createColumn("orderId", BenchmarkTables.INT64));
+        paths.add("rootRecord.orders.order.orderId");
+        if (arrays > 1) {
+            columns.add(BenchmarkTables.createColumn("item", BenchmarkTables.VARSTRING));
+            paths.add("rootRecord.orders.order.items");
+        }
+        _adaptor = BenchmarkTables.createAdaptor(columns, paths);
+    }
+
+    @Benchmark
+    public List<Object[]> convertRecord() throws AvroAdaptorException {
+        return _adaptor.convertRecord(_record);
+    }
+}
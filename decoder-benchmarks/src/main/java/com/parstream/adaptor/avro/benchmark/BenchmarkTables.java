@@ -0,0 +1,106 @@
+/**
+ * Copyright 2015 ParStream GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parstream.adaptor.avro.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.util.List;
+import java.util.Properties;
+
+import com.parstream.adaptor.avro.AvroAdaptor;
+import com.parstream.adaptor.avro.AvroAdaptorException;
+import com.parstream.driver.ColumnInfo;
+
+/**
+ * Creates the ParStream columns and the adaptors used by the benchmarks.
+ */
+final class BenchmarkTables {
+
+    static final int INT64 = 520;
+    static final int DOUBLE = 776;
+    static final int VARSTRING = 1025;
+    static final int SHORTDATE = 1281;
+    static final int DATE = 1282;
+    static final int TIME = 1284;
+    static final int TIMESTAMP = 1288;
+
+    private BenchmarkTables() {
+    }
+
+    /**
+     * Creates a column description. The constructors of ColumnInfo are
+     * private, as the driver reads the columns from the database, so the
+     * column is created by reflection.
+     *
+     * @param name
+     *            the column name
+     * @param type
+     *            the ParStream type code of the column
+     * @return the column description
+     */
+    static ColumnInfo createColumn(String name, int type) {
+        try {
+            Constructor<ColumnInfo> constructor = ColumnInfo.class.getDeclaredConstructor(String.class, Integer.TYPE,
+                    Integer.TYPE, Integer.TYPE, Integer.TYPE);
+            constructor.setAccessible(true);
+            return constructor.newInstance(name, type, 0, 0, 0);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("cannot create ColumnInfo", e);
+        }
+    }
+
+    /**
+     * Creates an adaptor for the given columns, mapping each column to the
+     * Avro path of the same index.
+     *
+     * @param columns
+     *            the ParStream columns
+     * @param paths
+     *            the fully qualified Avro paths
+     * @return the adaptor
+     */
+    static AvroAdaptor createAdaptor(List<ColumnInfo> columns, List<String> paths) throws AvroAdaptorException,
+            IOException {
+        return createAdaptor(columns, paths, new Properties());
+    }
+
+    /**
+     * Creates an adaptor for the given columns, mapping each column to the
+     * Avro path of the same index, with additional mapping file entries.
+     *
+     * @param columns
+     *            the ParStream columns
+     * @param paths
+     *            the fully qualified Avro paths
+     * @param options
+     *            further mapping file entries, e.g. string dictionaries
+     * @return the adaptor
+     */
+    static AvroAdaptor createAdaptor(List<ColumnInfo> columns, List<String> paths, Properties options)
+            throws AvroAdaptorException, IOException {
+        Properties mapping = new Properties();
+        mapping.putAll(options);
+        for (int i = 0; i < columns.size(); ++i) {
+            mapping.setProperty("column." + columns.get(i).getName(), paths.get(i));
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        mapping.store(out, null);
+        return new AvroAdaptor(new ByteArrayInputStream(out.toByteArray()),
+                columns.toArray(new ColumnInfo[columns.size()]));
+    }
+}
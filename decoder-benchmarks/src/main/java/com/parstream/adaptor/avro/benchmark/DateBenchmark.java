@@ -0,0 +1,92 @@
+/**
+ * Copyright 2015 ParStream GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parstream.adaptor.avro.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.SchemaBuilder.FieldAssembler;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.parstream.adaptor.avro.AvroAdaptor;
+import com.parstream.adaptor.avro.AvroAdaptorException;
+import com.parstream.driver.ColumnInfo;
+
+/**
+ * Converts flat records of date and time columns, cycling through the
+ * SHORTDATE, DATE, TIME and TIMESTAMP types. The values are milliseconds a
+ * few minutes apart, so most values of a record fall on the same day.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DateBenchmark {
+
+    private static final int[] TYPES = { BenchmarkTables.SHORTDATE, BenchmarkTables.DATE, BenchmarkTables.TIME,
+            BenchmarkTables.TIMESTAMP };
+
+    /**
+     * the number of columns
+     */
+    @Param({ "4", "40" })
+    public int width;
+
+    private AvroAdaptor _adaptor;
+    private GenericRecord _record;
+
+    @Setup
+    public void setUp() throws Exception {
+        FieldAssembler<Schema> fields = SchemaBuilder.record("dateRecord").fields();
+        for (int i = 0; i < width; ++i) {
+            fields = fields.requiredLong("field" + i);
+        }
+        Schema schema = fields.endRecord();
+
+        List<ColumnInfo> columns = new ArrayList<ColumnInfo>(width);
+        List<String> paths = new ArrayList<String>(width);
+        _record = new GenericData.Record(schema);
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < width; ++i) {
+            columns.add(BenchmarkTables.createColumn("column" + i, TYPES[i % TYPES.length]));
+            paths.add("dateRecord.field" + i);
+            _record.put(i, start + i * 60000L);
+        }
+        _adaptor = BenchmarkTables.createAdaptor(columns, paths);
+    }
+
+    @Benchmark
+    public List<Object[]> convertRecord() throws AvroAdaptorException {
+        return _adaptor.convertRecord(_record);
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ * Copyright 2015 ParStream GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parstream.adaptor.avro.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.SchemaBuilder.FieldAssembler;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.parstream.adaptor.avro.AvroAdaptor;
+import com.parstream.adaptor.avro.AvroAdaptorException;
+import com.parstream.driver.ColumnInfo;
+
+/**
+ * Converts flat records, every third column a string and the others longs
+ * and doubles.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FlatRecordBenchmark {
+
+    /**
+     * the number of columns
+     */
+    @Param({ "10", "50", "300" })
+    public int width;
+
+    /**
+     * true to generate the conversion code, see
+     * {@link AvroAdaptor#setCodeGeneration(boolean)}
+     */
+    @Param({ "false", "true" })
+    public boolean codeGeneration;
+
+    /**
+     * the number of conversions per measured conversion time, see
+     * {@link AvroAdaptor#setLatencySampling(int)}, to report the overhead of
+     * the latency metrics
+     */
+    @Param({ "0", "16", "1" })
+    public int latencySampling;
+
+    private AvroAdaptor _adaptor;
+    private GenericRecord _record;
+
+    @Setup
+    public void setUp() throws Exception {
+        FieldAssembler<Schema> fields = SchemaBuilder.record("flatRecord").fields();
+        for (int i = 0; i < width; ++i) {
+            switch (i % 3) {
+            case 0:
+                fields = fields.requiredLong("field" + i);
+                break;
+            case 1:
+                fields = fields.requiredDouble("field" + i);
+                break;
+            default:
+                fields = fields.requiredString("field" + i);
+                break;
+            }
+        }
+        Schema schema = fields.endRecord();
+
+        List<ColumnInfo> columns = new ArrayList<ColumnInfo>(width);
+        List<String> paths = new ArrayList<String>(width);
+        _record = new GenericData.Record(schema);
+        for (int i = 0; i < width; ++i) {
+            switch (i % 3) {
+            case 0:
+                columns.add(BenchmarkTables.createColumn("column" + i, BenchmarkTables.INT64));
+                _record.put(i, (long) i);
+                break;
+            case 1:
+                columns.add(BenchmarkTables.createColumn("column" + i, BenchmarkTables.DOUBLE));
+                _record.put(i, i / 3.0);
+                break;
+            default:
+                columns.add(BenchmarkTables.createColumn("column" + i, BenchmarkTables.VARSTRING));
+                _record.put(i, "value" + i);
+                break;
+            }
+            paths.add("flatRecord.field" + i);
+        }
+        _adaptor = BenchmarkTables.createAdaptor(columns, paths);
+        _adaptor.setCodeGeneration(codeGeneration);
+        _adaptor.setLatencySampling(latencySampling);
+    }
+
+    @Benchmark
+    public List<Object[]> convertRecord() throws AvroAdaptorException {
+        return _adaptor.convertRecord(_record);
+    }
+}
@@ -0,0 +1,94 @@
+/**
+ * Copyright 2015 ParStream GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parstream.adaptor.avro.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.parstream.adaptor.avro.AvroAdaptor;
+import com.parstream.adaptor.avro.AvroAdaptorException;
+import com.parstream.driver.ColumnInfo;
+
+/**
+ * Converts records nested into each other, with one mapped long field in
+ * every level.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class NestedRecordBenchmark {
+
+    /**
+     * the number of nested records below the top level record
+     */
+    @Param({ "1", "4", "16" })
+    public int depth;
+
+    private AvroAdaptor _adaptor;
+    private GenericRecord _record;
+
+    @Setup
+    public void setUp() throws Exception {
+        Schema[] schemas = new Schema[depth + 1];
+        schemas[depth] = SchemaBuilder.record("level" + depth).fields().requiredLong("value").endRecord();
+        for (int i = depth - 1; i >= 0; --i) {
+            schemas[i] = SchemaBuilder.record("level" + i).fields().requiredLong("value").name("child")
+                    .type(schemas[i + 1]).noDefault().endRecord();
+        }
+
+        List<ColumnInfo> columns = new ArrayList<ColumnInfo>(depth + 1);
+        List<String> paths = new ArrayList<String>(depth + 1);
+        GenericRecord[] records = new GenericRecord[depth + 1];
+        String path = "";
+        for (int i = 0; i <= depth; ++i) {
+            records[i] = new GenericData.Record(schemas[i]);
+            records[i].put("value", (long) i);
+            if (i > 0) {
+                records[i - 1].put("child", records[i]);
+            }
+            path += "level" + i + ".";
+            columns.add(BenchmarkTables.createColumn("value" + i, BenchmarkTables.INT64));
+            paths.add(path + "value");
+        }
+        _record = records[0];
+        _adaptor = BenchmarkTables.createAdaptor(columns, paths);
+    }
+
+    @Benchmark
+    public List<Object[]> convertRecord() throws AvroAdaptorException {
+        return _adaptor.convertRecord(_record);
+    }
+}
@@ -0,0 +1,128 @@
+/**
+ * Copyright 2015 ParStream GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parstream.adaptor.avro.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.SchemaBuilder.FieldAssembler;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.EncoderFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.parstream.adaptor.avro.AvroAdaptor;
+import com.parstream.adaptor.avro.AvroAdaptorException;
+import com.parstream.driver.ColumnInfo;
+
+/**
+ * Converts binary encoded flat records of VARSTRING columns, so every value
+ * has to be decoded into a String, or found in the string dictionary of its
+ * column.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class StringBenchmark {
+
+    /**
+     * the number of columns
+     */
+    @Param({ "10", "100" })
+    public int width;
+
+    /**
+     * the number of characters of every value
+     */
+    @Param({ "8", "64" })
+    public int length;
+
+    /**
+     * true to enable the string dictionary of every column
+     */
+    @Param({ "false", "true" })
+    public boolean dictionary;
+
+    private AvroAdaptor _adaptor;
+    private Schema _schema;
+    private byte[] _encoded;
+    private BinaryDecoder _decoder;
+
+    @Setup
+    public void setUp() throws Exception {
+        FieldAssembler<Schema> fields = SchemaBuilder.record("stringRecord").fields();
+        for (int i = 0; i < width; ++i) {
+            fields = fields.requiredString("field" + i);
+        }
+        _schema = fields.endRecord();
+
+        List<ColumnInfo> columns = new ArrayList<ColumnInfo>(width);
+        List<String> paths = new ArrayList<String>(width);
+        Properties options = new Properties();
+        GenericRecord record = new GenericData.Record(_schema);
+        for (int i = 0; i < width; ++i) {
+            columns.add(BenchmarkTables.createColumn("column" + i, BenchmarkTables.VARSTRING));
+            paths.add("stringRecord.field" + i);
+            if (dictionary) {
+                options.setProperty("dictionary.column" + i, "100");
+            }
+            StringBuilder value = new StringBuilder(length);
+            while (value.length() < length) {
+                value.append((char) ('a' + (value.length() + i) % 26));
+            }
+            record.put(i, value.toString());
+        }
+        _adaptor = BenchmarkTables.createAdaptor(columns, paths, options);
+        _encoded = encode(record);
+    }
+
+    private static byte[] encode(GenericRecord record) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(out, null);
+        new GenericDatumWriter<GenericRecord>(record.getSchema()).write(record, encoder);
+        encoder.flush();
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public List<Object[]> convertBinary() throws AvroAdaptorException, IOException {
+        _decoder = DecoderFactory.get().binaryDecoder(_encoded, _decoder);
+        return _adaptor.convertBinary(_decoder, _schema);
+    }
+}
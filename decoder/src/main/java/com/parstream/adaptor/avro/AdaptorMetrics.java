@@ -0,0 +1,156 @@
+/**
+ * Copyright 2015 ParStream GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parstream.adaptor.avro;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.parstream.driver.ColumnInfo;
+
+/**
+ * Records the conversion metrics of an adaptor. Produced rows and the
+ * histograms are kept in striped counters, so recording costs a few
+ * uncontended atomic additions per record. The number of records is the sum
+ * of the fan-out histogram. Failures are rare and counted per column without
+ * striping, as are the string dictionary lookups, which are published in
+ * batches.
+ */
+class AdaptorMetrics {
+
+    /**
+     * The number of buckets of the fan-out histogram, the last bucket counts
+     * records producing 2^20 rows or more.
+     */
+    static final int FAN_OUT_BUCKETS = 22;
+
+    /**
+     * The number of buckets of the latency histogram, the last bucket counts
+     * conversions taking 2^38 nanoseconds, about 4.6 minutes, or longer.
+     */
+    static final int LATENCY_BUCKETS = 40;
+
+    private static final int ROWS = 0;
+    private static final int FAN_OUT = 1;
+    private static final int LATENCY = FAN_OUT + FAN_OUT_BUCKETS;
+
+    private final ColumnInfo[] _columnInfo;
+    private final StripedCounters _counters;
+    private final AtomicLongArray _columnFailures;
+    private final AtomicLongArray _dictionaryHits;
+    private final AtomicLongArray _dictionaryMisses;
+
+    /**
+     * Creates metrics without any recorded conversion.
+     *
+     * @param columnInfo
+     *            the ParStream table column information
+     */
+    AdaptorMetrics(ColumnInfo[] columnInfo) {
+        _columnInfo = columnInfo;
+        _counters = new StripedCounters(LATENCY + LATENCY_BUCKETS);
+        _columnFailures = new AtomicLongArray(columnInfo.length);
+        _dictionaryHits = new AtomicLongArray(columnInfo.length);
+        _dictionaryMisses = new AtomicLongArray(columnInfo.length);
+    }
+
+    /**
+     * Records a converted record whose conversion time was not measured. The
+     * records are counted by the fan-out histogram, so this costs two
+     * uncontended atomic additions.
+     *
+     * @param rows
+     *            the number of rows the record produced
+     */
+    void recordConversion(int rows) {
+        _counters.add(ROWS, rows);
+        _counters.add(FAN_OUT + getBucket(rows, FAN_OUT_BUCKETS), 1);
+    }
+
+    /**
+     * Records a converted record with the time its conversion took.
+     *
+     * @param rows
+     *            the number of rows the record produced
+     * @param nanos
+     *            the time the conversion took
+     */
+    void recordConversion(int rows, long nanos) {
+        recordConversion(rows);
+        _counters.add(LATENCY + getBucket(nanos, LATENCY_BUCKETS), 1);
+    }
+
+    /**
+     * Records a value which could not be converted.
+     *
+     * @param column
+     *            the index of the ParStream column
+     */
+    void recordFailure(int column) {
+        _columnFailures.incrementAndGet(column);
+    }
+
+    /**
+     * Records a batch of string dictionary lookups.
+     *
+     * @param column
+     *            the index of the ParStream column
+     * @param hits
+     *            the number of values found in the dictionary
+     * @param misses
+     *            the number of values decoded
+     */
+    void recordDictionaryLookups(int column, int hits, int misses) {
+        _dictionaryHits.addAndGet(column, hits);
+        _dictionaryMisses.addAndGet(column, misses);
+    }
+
+    /**
+     * @return the current state of all metrics
+     */
+    MetricsSnapshot createSnapshot() {
+        long[] counters = _counters.getAll();
+        long[] fanOut = new long[FAN_OUT_BUCKETS];
+        System.arraycopy(counters, FAN_OUT, fanOut, 0, FAN_OUT_BUCKETS);
+        long[] latency = new long[LATENCY_BUCKETS];
+        System.arraycopy(counters, LATENCY, latency, 0, LATENCY_BUCKETS);
+        long[] failures = new long[_columnFailures.length()];
+        for (int i = 0; i < failures.length; ++i) {
+            failures[i] = _columnFailures.get(i);
+        }
+        long[] dictionaryHits = new long[_dictionaryHits.length()];
+        long[] dictionaryMisses = new long[_dictionaryMisses.length()];
+        for (int i = 0; i < dictionaryHits.length; ++i) {
+            dictionaryHits[i] = _dictionaryHits.get(i);
+            dictionaryMisses[i] = _dictionaryMisses.get(i);
+        }
+        long records = 0;
+        for (long count : fanOut) {
+            records += count;
+        }
+        return new MetricsSnapshot(records, counters[ROWS], fanOut, latency, _columnInfo, failures,
+                dictionaryHits, dictionaryMisses);
+    }
+
+    /**
+     * Returns the histogram bucket of a value, bucket 0 holds 0 and bucket
+     * <code>i</code> the values from 2^(i-1) up to 2^i - 1.
+     */
+    private static int getBucket(long value, int buckets) {
+        if (value <= 0) {
+            return 0;
+        }
+        return Math.min(64 - Long.numberOfLeadingZeros(value), buckets - 1);
+    }
+}
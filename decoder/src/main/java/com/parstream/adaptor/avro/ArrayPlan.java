@@ -0,0 +1,267 @@
+/**
+ * Copyright 2015 ParStream GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parstream.adaptor.avro;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.IndexedRecord;
+import org.apache.avro.io.Decoder;
+import org.apache.avro.util.Utf8;
+
+/**
+ * The compiled form of an Avro array which is expanded into multiple rows.
+ * Primitive elements feed the columns mapped to the array itself, record
+ * elements are evaluated with the compiled plans of their schema.
+ */
+class ArrayPlan {
+
+    /**
+     * The maximum initial capacity of the element list of a binary decoded
+     * array. The block count is read from the data, which is not trusted.
+     */
+    private static final int MAX_INITIAL_ELEMENTS = 1024;
+
+    private final String _elementPrefix;
+    private final int[] _columns;
+    private final int[] _stringColumns;
+    private final int[] _dictionaryColumns;
+    private final int[] _scopeColumns;
+    private final NestedRecordPlans _records;
+
+    private ArrayPlan(String elementPrefix, int[] columns, int[] scopeColumns, NestedRecordPlans records,
+            ColumnMapping mapping) {
+        _elementPrefix = elementPrefix;
+        _columns = columns;
+        _stringColumns = mapping.selectColumns(columns, false);
+        _dictionaryColumns = mapping.selectColumns(columns, true);
+        _scopeColumns = scopeColumns;
+        _records = records;
+    }
+
+    /**
+     * Compiles the plan for an array.
+     *
+     * @param path
+     *            the path of the array field
+     * @param elementSchema
+     *            the schema of the array elements
+     * @param mapping
+     *            the resolved column mapping
+     * @return the compiled plan
+     */
+    static ArrayPlan compile(String path, Schema elementSchema, ColumnMapping mapping) {
+        String elementPrefix = path + AvroAdaptor.FIELD_DELIMITER;
+        return new ArrayPlan(elementPrefix, mapping.getColumns(path), mapping.getColumnsAtOrBelow(path),
+                new NestedRecordPlans(elementPrefix, elementSchema, mapping), mapping);
+    }
+
+    /**
+     * Collects the fields of all records nested in the array elements which
+     * feed at least one column.
+     * 
+     * @param fieldsByRecord
+     *            receives the names of the used fields, by record full name
+     */
+    void collectMappedFields(Map<String, Set<String>> fieldsByRecord) {
+        for (RecordPlan record : _records.getPlans()) {
+            record.collectMappedFields(fieldsByRecord);
+        }
+    }
+
+    /**
+     * @return the columns an element of this array may set, including those
+     *         of nested arrays
+     */
+    int[] getScopeColumns() {
+        return _scopeColumns;
+    }
+
+    /**
+     * Resets all slots an element of this array may set.
+     *
+     * @param values
+     *            the value slots, one per ParStream column
+     */
+    void clear(Object[] values) {
+        for (int column : _scopeColumns) {
+            values[column] = null;
+        }
+    }
+
+    /**
+     * Stores the values of a single array element into the value slots.
+     *
+     * @param arrayElement
+     *            the array element
+     * @param values
+     *            the value slots, one per ParStream column
+     * @param arrays
+     *            receives the non-empty arrays nested in the element
+     * @throws AvroAdaptorException
+     *             if the element has an unsupported datatype
+     */
+    void evaluate(Object arrayElement, Object[] values, List<Instance> arrays) throws AvroAdaptorException {
+        if (arrayElement instanceof DecodedElement) {
+            DecodedElement decoded = (DecodedElement) arrayElement;
+            if (decoded._values != null) {
+                for (int i = 0; i < _scopeColumns.length; ++i) {
+                    values[_scopeColumns[i]] = decoded._values[i];
+                }
+                arrays.addAll(decoded._arrays);
+            }
+        } else if (arrayElement instanceof IndexedRecord) {
+            IndexedRecord nested = (IndexedRecord) arrayElement;
+            RecordPlan plan = _records.select(nested.getSchema());
+            if (plan != null) {
+                plan.evaluate(nested, values, arrays);
+            }
+        } else if (arrayElement instanceof Utf8 || arrayElement instanceof String) {
+            FieldPlan.putString(values, _stringColumns, _dictionaryColumns, arrayElement);
+        } else if (arrayElement instanceof Integer || arrayElement instanceof Long || arrayElement instanceof Float
+                || arrayElement instanceof Double) {
+            FieldPlan.put(values, _columns, arrayElement);
+        } else if (arrayElement == null) {
+            throw new AvroAdaptorException("Unsupported array datatype: null");
+        } else {
+            throw new AvroAdaptorException("Unsupported array datatype: " + arrayElement.getClass());
+        }
+    }
+
+    /**
+     * Reads a binary encoded array. As the elements are expanded only after
+     * the whole record is read, the mapped values of every element are kept
+     * until then, values of unmapped fields are skipped.
+     *
+     * @param in
+     *            the decoder positioned at the array
+     * @param elementSchema
+     *            the writer schema of the array elements
+     * @param values
+     *            the value slots, one per ParStream column
+     * @param arrays
+     *            receives the array if it is not empty
+     * @throws AvroAdaptorException
+     *             if an element has an unsupported datatype
+     * @throws IOException
+     *             if reading from the decoder fails
+     */
+    void read(Decoder in, Schema elementSchema, Object[] values, List<Instance> arrays)
+            throws AvroAdaptorException, IOException {
+        List<Object> elements = null;
+        for (long count = in.readArrayStart(); count != 0; count = in.arrayNext()) {
+            if (elements == null) {
+                elements = new ArrayList<Object>((int) Math.min(count, MAX_INITIAL_ELEMENTS));
+            }
+            for (long i = 0; i < count; ++i) {
+                elements.add(readElement(in, elementSchema, values));
+            }
+        }
+        if (elements != null) {
+            arrays.add(new Instance(this, elements));
+        }
+    }
+
+    private Object readElement(Decoder in, Schema schema, Object[] values) throws AvroAdaptorException,
+            IOException {
+        switch (schema.getType()) {
+        case UNION:
+            return readElement(in, schema.getTypes().get(in.readIndex()), values);
+        case RECORD:
+            RecordPlan plan = _records.select(schema);
+            if (plan == null) {
+                BinarySkipper.skip(schema, in);
+                return DecodedElement.EMPTY;
+            }
+            // the value slots of this array are unused while the record is
+            // read, so they serve as scratch space for the element
+            List<Instance> nestedArrays = new ArrayList<Instance>(0);
+            plan.read(in, values, nestedArrays);
+            Object[] elementValues = new Object[_scopeColumns.length];
+            for (int i = 0; i < _scopeColumns.length; ++i) {
+                elementValues[i] = values[_scopeColumns[i]];
+                values[_scopeColumns[i]] = null;
+            }
+            return new DecodedElement(elementValues, nestedArrays);
+        case STRING:
+            if (_dictionaryColumns.length > 0) {
+                return in.readString(null);
+            }
+            return in.readString();
+        case INT:
+            return Integer.valueOf(in.readInt());
+        case LONG:
+            return Long.valueOf(in.readLong());
+        case FLOAT:
+            return Float.valueOf(in.readFloat());
+        case DOUBLE:
+            return Double.valueOf(in.readDouble());
+        default:
+            throw new AvroAdaptorException("Unsupported array datatype: " + schema.getType());
+        }
+    }
+
+    /**
+     * The mapped values of a binary decoded record element, stored in the
+     * order of the array's scope columns. Elements without any mapped field
+     * share the instance without values.
+     */
+    private static final class DecodedElement {
+
+        static final DecodedElement EMPTY = new DecodedElement(null, new ArrayList<Instance>(0));
+
+        private final Object[] _values;
+        private final List<Instance> _arrays;
+
+        DecodedElement(Object[] values, List<Instance> arrays) {
+            _values = values;
+            _arrays = arrays;
+        }
+    }
+
+    /**
+     * A non-empty array value found while evaluating a record, waiting to be
+     * expanded into rows.
+     */
+    static class Instance {
+
+        private final ArrayPlan _plan;
+        private final List<?> _elements;
+
+        /**
+         * @param plan
+         *            the compiled plan of the array
+         * @param elements
+         *            the array elements
+         */
+        Instance(ArrayPlan plan, List<?> elements) {
+            _plan = plan;
+            _elements = elements;
+        }
+
+        ArrayPlan getPlan() {
+            return _plan;
+        }
+
+        List<?> getElements() {
+            return _elements;
+        }
+    }
+}
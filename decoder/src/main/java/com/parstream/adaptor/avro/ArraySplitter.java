@@ -0,0 +1,208 @@
+/**
+ * Copyright 2015 ParStream GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parstream.adaptor.avro;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.apache.avro.generic.GenericRecord;
+
+/**
+ * Expands a record holding a large array on a fork join pool. The elements
+ * of the array expanded first are split into contiguous slices of at most
+ * the threshold, the rows of every slice are produced by their own task and
+ * concatenated in the order of the slices. The rows are the same as those of
+ * a sequential expansion, in the same order.
+ * <p>
+ * A splitter is immutable and may be shared by all threads of an adaptor.
+ */
+final class ArraySplitter {
+
+    private final ForkJoinPool _pool;
+    private final int _threshold;
+
+    /**
+     * @param pool
+     *            the pool running the slices
+     * @param threshold
+     *            the number of array elements above which a record is split,
+     *            also the maximum number of elements of a slice
+     */
+    ArraySplitter(ForkJoinPool pool, int threshold) {
+        _pool = pool;
+        _threshold = threshold;
+    }
+
+    /**
+     * @return the number of array elements above which a record is split
+     */
+    int getThreshold() {
+        return _threshold;
+    }
+
+    /**
+     * @param rows
+     *            an iterator holding an evaluated record, not started yet
+     * @return true if the array expanded first has more elements than the
+     *         threshold
+     */
+    boolean accepts(RowIterator rows) {
+        return rows.getFirstArraySize() > _threshold;
+    }
+
+    /**
+     * Produces all rows of an evaluated record, the slices are expanded
+     * concurrently. The row budget is applied while the slices are merged,
+     * the result is the same as that of a sequential expansion.
+     *
+     * @param rows
+     *            an iterator holding the evaluated record, not started yet.
+     *            It is not modified
+     * @param record
+     *            the evaluated record, passed to the dead letter sink if it
+     *            is rejected
+     * @param deadLetters
+     *            the dead letter sink of the adaptor, may be null
+     * @param rowLimit
+     *            the row budget of the record, 0 if unlimited
+     * @param policy
+     *            the handling of a record exceeding the row budget, not
+     *            {@link RowBudgetPolicy#STREAM} if there is a budget
+     * @return the rows of the record, empty if the record was rejected
+     * @throws AvroAdaptorException
+     *             if an incompatible datatype conversion is encountered or
+     *             the record exceeds the row budget with
+     *             {@link RowBudgetPolicy#REJECT}
+     */
+    List<Object[]> createRows(RowIterator rows, GenericRecord record, DeadLetterSink deadLetters, int rowLimit,
+            RowBudgetPolicy policy) throws AvroAdaptorException {
+        if (!rows.checkBudget()) {
+            return new ArrayList<Object[]>(0);
+        }
+
+        int size = rows.getFirstArraySize();
+        List<SliceTask> slices = new ArrayList<SliceTask>(size / _threshold + 1);
+        for (int from = 0; from < size; from += _threshold) {
+            slices.add(new SliceTask(rows, from, Math.min(size, from + _threshold), rowLimit));
+        }
+        _pool.invoke(new SplitTask(slices));
+
+        // the first failed slice decides, like the first failed row. A failure
+        // beyond the budget is never reached by a sequential expansion, it
+        // only tells that the budget is exceeded
+        List<Object[]> head = new ArrayList<Object[]>();
+        boolean exceeded = false;
+        for (SliceTask slice : slices) {
+            boolean failed = slice._failure != null || slice._reason != null;
+            if (failed && (rowLimit == 0 || head.size() + slice._rows.size() < rowLimit)) {
+                if (slice._failure != null) {
+                    throw slice._failure;
+                }
+                deadLetters.accept(record, slice._reason);
+                return new ArrayList<Object[]>(0);
+            }
+
+            for (Object[] row : slice._rows) {
+                if (rowLimit > 0 && head.size() == rowLimit) {
+                    exceeded = true;
+                    break;
+                }
+                head.add(row);
+            }
+            if (failed || slice._truncated) {
+                exceeded = true;
+            }
+            if (exceeded) {
+                break;
+            }
+        }
+
+        if (exceeded && policy == RowBudgetPolicy.REJECT) {
+            rows.rejectOverBudget();
+            return new ArrayList<Object[]>(0);
+        }
+        return head;
+    }
+
+    /**
+     * Runs all slices of a record.
+     */
+    private static final class SplitTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1;
+
+        private final List<SliceTask> _slices;
+
+        SplitTask(List<SliceTask> slices) {
+            _slices = slices;
+        }
+
+        @Override
+        protected void compute() {
+            invokeAll(_slices);
+        }
+    }
+
+    /**
+     * Produces the rows of a single slice. A failed conversion is kept instead
+     * of thrown, so that it is reported by the calling thread unchanged, and a
+     * rejected record is only passed to the dead letter sink once. A slice
+     * alone exceeding the row budget stops early.
+     */
+    private static final class SliceTask extends RecursiveAction implements DeadLetterSink {
+
+        private static final long serialVersionUID = 1;
+
+        private final RowIterator _record;
+        private final int _from;
+        private final int _to;
+        private final int _rowLimit;
+        private List<Object[]> _rows;
+        private boolean _truncated;
+        private AvroAdaptorException _failure;
+        private String _reason;
+
+        SliceTask(RowIterator record, int from, int to, int rowLimit) {
+            _record = record;
+            _from = from;
+            _to = to;
+            _rowLimit = rowLimit;
+        }
+
+        @Override
+        protected void compute() {
+            RowIterator rows = _record.slice(_from, _to, this);
+            rows.setRowBudget(_rowLimit, RowBudgetPolicy.TRUNCATE);
+            _rows = new ArrayList<Object[]>(_to - _from);
+            try {
+                rows.start();
+                while (rows.hasNext()) {
+                    _rows.add(rows.next());
+                }
+                _truncated = rows.isTruncated();
+            } catch (AvroAdaptorException e) {
+                _failure = e;
+            }
+        }
+
+        @Override
+        public void accept(GenericRecord record, String reason) {
+            _reason = reason;
+        }
+    }
+}
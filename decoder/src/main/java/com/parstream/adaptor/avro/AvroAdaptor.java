@@ -19,28 +19,25 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.Calendar;
-import java.util.GregorianCalendar;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Properties;
+import java.util.concurrent.ForkJoinPool;
 
-import org.apache.avro.Schema.Field;
-import org.apache.avro.generic.GenericData.Array;
-import org.apache.avro.generic.GenericData.Record;
+import javax.management.JMException;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+import org.apache.avro.Schema;
 import org.apache.avro.generic.GenericRecord;
-import org.apache.avro.util.Utf8;
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.DecoderFactory;
 
 import com.parstream.driver.ColumnInfo;
-import com.parstream.driver.ParstreamDate;
-import com.parstream.driver.ParstreamException;
-import com.parstream.driver.ParstreamShortDate;
-import com.parstream.driver.ParstreamTime;
-import com.parstream.driver.ParstreamTimestamp;
 
 /**
  * This adaptor converts Avro records into ParStream rows. A single Avro record
@@ -58,17 +55,78 @@ import com.parstream.driver.ParstreamTimestamp;
  * <pre>
  * column.psColumnName = recordName.fieldName2
  * </pre>
+ * <p>
+ * VARSTRING columns holding few distinct values, like a country or a status,
+ * may enable a string dictionary. It returns the same String instance for
+ * repeated values instead of decoding every value, at most the given number
+ * of distinct values are kept per thread:
+ * 
+ * <pre>
+ * dictionary.psColumnName = 1000
+ * </pre>
+ * 
+ * The dictionary switches itself off if most values are distinct, its hit
+ * ratio is reported by {@link #getMetrics()}.
+ * <p>
+ * Records generated by the Avro compiler are converted like generic records,
+ * as they extend <code>SpecificRecordBase</code>. All fields, including those
+ * of nested records, are read by position, and arrays may be any
+ * <code>java.util.List</code>.
+ * <p>
+ * An adaptor is thread-safe and a single instance may be shared by all threads
+ * converting records for the same table. The mapping is resolved once when the
+ * adaptor is created and never modified afterwards, compiled conversion plans
+ * are immutable, and the state reused between conversions is kept per thread.
+ * Setters like {@link #setPlanCacheSize(int)} should be called before the
+ * adaptor is shared.
+ * <p>
+ * The adaptor counts converted records, produced rows, the array fan-out and
+ * failed values, and samples conversion times, see
+ * {@link #setLatencySampling(int)}. The metrics can be polled by
+ * {@link #getMetrics()} or published over JMX by
+ * {@link #registerMBean(String)}.
+ * <p>
+ * By default a value which cannot be stored in its column fails the
+ * conversion of the record. Bad input data can instead drop the affected rows,
+ * store null or route the record to a dead letter file, see
+ * {@link #setErrorPolicy(ErrorPolicy)}. A row budget bounds the number of
+ * rows a single record may explode into, see
+ * {@link #setRowBudget(int, int, RowBudgetPolicy)}.
  */
 public class AvroAdaptor {
 
     private static final String ERROR_NULL_COLUMN_INFO = "ColumnInfo must not be null";
     private static final String ERROR_NULL_INPUT_STREAM = "config file stream must not be null";
     private static final String ERROR_NULL_MAP_FILE = "config file path must not be null";
-    private static final String FIELD_DELIMITER = ".";
+    static final String FIELD_DELIMITER = ".";
+
+    /**
+     * The default number of conversions per conversion whose time is
+     * measured, see {@link #setLatencySampling(int)}.
+     */
+    public static final int DEFAULT_LATENCY_SAMPLING = 16;
+
+    // marks a conversion which is not measured, instead of its start time
+    private static final long NOT_MEASURED = Long.MIN_VALUE;
 
     private ColumnInfo[] _columnInfo;
     private Properties _mappingProps;
-    private Map<String, Boolean> _columnsInConfigFile;
+    private ColumnMapping _mapping;
+    private ColumnConverter[] _converters;
+    private int[] _mappedColumns;
+    private volatile PlanCache _planCache;
+    private int _planCacheSize;
+    private boolean _codeGeneration;
+    private int _rowPoolDepth;
+    private ArraySplitter _arraySplitter;
+    private int _maxRecordRows;
+    private int _maxBatchRows;
+    private RowBudgetPolicy _rowBudgetPolicy;
+    private volatile ThreadLocal<ThreadState> _threadState;
+    private AdaptorMetrics _metrics;
+    private int _latencySampling;
+    private ErrorPolicy _errorPolicy;
+    private DeadLetterSink _deadLetters;
 
     /**
      * Creates a new instance of this adaptor.
@@ -136,326 +194,849 @@ public class AvroAdaptor {
             return new ArrayList<Object[]>(0);
         }
 
-        return createRowSet(parseRecord(record, null));
+        ThreadState state = _threadState.get();
+        long start = startConversion(state);
+        ConversionPlan plan = _planCache.getPlan(record.getSchema());
+        List<Object[]> rows = createRows(plan.evaluate(record, state._rows), record, state._rowPool);
+        recordConversion(rows.size(), start);
+        return rows;
     }
 
-    private void initialize(InputStream inputStream, ColumnInfo[] columnInfo) throws IOException, AvroAdaptorException {
-        _mappingProps = new Properties();
-        _mappingProps.load(inputStream);
+    /**
+     * Converts a single binary encoded Avro record into zero or more ParStream
+     * rows. The record is decoded straight into the rows without building a
+     * GenericRecord first, fields which feed no column are skipped.
+     * 
+     * @param data
+     *            the binary encoded record
+     * @param writerSchema
+     *            the schema the record was written with
+     * @return a list of Object[]. Each Object[] represents a single row in a
+     *         ParStream table
+     * @throws AvroAdaptorException
+     *             if an incompatible datatype conversion is encountered
+     * @throws IOException
+     *             if the data is not a valid encoding of the writer schema
+     */
+    public List<Object[]> convertBinary(byte[] data, Schema writerSchema) throws AvroAdaptorException, IOException {
+        return convertBinary(data, 0, data.length, writerSchema);
+    }
 
-        if (_mappingProps.size() == 0) {
-            throw new AvroAdaptorException("no column mappings specified");
+    /**
+     * Converts a single binary encoded Avro record into zero or more ParStream
+     * rows, see {@link #convertBinary(byte[], Schema)}. The position of the
+     * buffer is left unchanged.
+     * 
+     * @param data
+     *            the buffer holding the binary encoded record between its
+     *            position and limit
+     * @param writerSchema
+     *            the schema the record was written with
+     * @return a list of Object[]. Each Object[] represents a single row in a
+     *         ParStream table
+     * @throws AvroAdaptorException
+     *             if an incompatible datatype conversion is encountered
+     * @throws IOException
+     *             if the data is not a valid encoding of the writer schema
+     */
+    public List<Object[]> convertBinary(ByteBuffer data, Schema writerSchema) throws AvroAdaptorException,
+            IOException {
+        if (data.hasArray()) {
+            return convertBinary(data.array(), data.arrayOffset() + data.position(), data.remaining(), writerSchema);
         }
-
-        _columnInfo = columnInfo;
-        _columnsInConfigFile = new HashMap<String, Boolean>(_mappingProps.size());
+        byte[] copy = new byte[data.remaining()];
+        data.duplicate().get(copy);
+        return convertBinary(copy, 0, copy.length, writerSchema);
     }
 
-    private Map<String, Object> parseRecord(GenericRecord record, String prefix) throws AvroAdaptorException {
-        List<Field> fields = record.getSchema().getFields();
-        Map<String, Object> recordData = new HashMap<String, Object>(fields.size());
+    /**
+     * Reads a single binary encoded Avro record from the decoder and converts
+     * it into zero or more ParStream rows, see
+     * {@link #convertBinary(byte[], Schema)}. Afterwards the decoder is
+     * positioned behind the record. If an exception is thrown, the position
+     * of the decoder is undefined.
+     * 
+     * @param decoder
+     *            the decoder positioned at the record
+     * @param writerSchema
+     *            the schema the record was written with
+     * @return a list of Object[]. Each Object[] represents a single row in a
+     *         ParStream table
+     * @throws AvroAdaptorException
+     *             if an incompatible datatype conversion is encountered
+     * @throws IOException
+     *             if reading from the decoder fails
+     */
+    public List<Object[]> convertBinary(BinaryDecoder decoder, Schema writerSchema) throws AvroAdaptorException,
+            IOException {
+        ThreadState state = _threadState.get();
+        long start = startConversion(state);
+        ConversionPlan plan = _planCache.getPlan(writerSchema);
+        List<Object[]> rows = createRows(plan.evaluate(decoder, state._rows), null, state._rowPool);
+        recordConversion(rows.size(), start);
+        return rows;
+    }
 
-        String newName;
-        if (prefix == null) {
-            newName = record.getSchema().getFullName();
-        } else {
-            newName = prefix + record.getSchema().getFullName();
+    /**
+     * Converts a single Avro record like {@link #convertRecord(GenericRecord)},
+     * but produces the rows one by one while iterating. Arrays are expanded on
+     * demand, so records whose arrays explode into many rows can be streamed
+     * into ParStream without holding all rows in memory.
+     *
+     * <pre>
+     * RowIterator rows = adaptor.iterateRecord(record);
+     * while (rows.hasNext()) {
+     *     connection.rawInsert(rows.next());
+     * }
+     * </pre>
+     *
+     * @param record
+     *            the input avro record to be converted
+     * @return the iterator over the produced rows
+     * @throws AvroAdaptorException
+     *             if a field has an unsupported datatype
+     */
+    public RowIterator iterateRecord(GenericRecord record) throws AvroAdaptorException {
+        if (record == null) {
+            return createRowIterator();
         }
 
-        for (Field field : fields) {
-            Object res = record.get(field.name());
-            if (res != null) {
-                if (res instanceof Record) {
-                    Map<String, Object> nestedRecord = parseRecord((Record) res, newName + FIELD_DELIMITER);
-                    if (nestedRecord != null) {
-                        recordData.putAll(nestedRecord);
-                    }
-                } else if (res instanceof Utf8 || res instanceof String) {
-                    recordData.put(newName + FIELD_DELIMITER + field.name(), res.toString());
-                } else if (res instanceof Boolean) {
-                    Integer boolValue;
-                    if ((Boolean) res) {
-                        boolValue = 1;
-                    } else {
-                        boolValue = 0;
-                    }
-                    recordData.put(newName + FIELD_DELIMITER + field.name(), boolValue);
-                } else if (res instanceof Integer || res instanceof Long || res instanceof Float
-                        || res instanceof Double) {
-                    recordData.put(newName + FIELD_DELIMITER + field.name(), res);
-                } else if (res instanceof Array) {
-                    Map<String, Object> parsedArrayHashMap = parseArray((Array<?>) res, newName + FIELD_DELIMITER
-                            + field.name());
-                    if (parsedArrayHashMap != null) {
-                        recordData.putAll(parsedArrayHashMap);
-                    }
-                } else {
-                    throw new AvroAdaptorException("Unsupported datatype: " + res.getClass());
-                }
+        return _planCache.getPlan(record.getSchema()).iterate(record, createRowIterator());
+    }
+
+    /**
+     * Reads a single binary encoded Avro record from the decoder like
+     * {@link #convertBinary(BinaryDecoder, Schema)}, but produces the rows one
+     * by one while iterating. The record is read completely before this
+     * method returns, so the decoder may be used for the next record while
+     * the rows are still iterated.
+     *
+     * @param decoder
+     *            the decoder positioned at the record
+     * @param writerSchema
+     *            the schema the record was written with
+     * @return the iterator over the produced rows
+     * @throws AvroAdaptorException
+     *             if a field has an unsupported datatype
+     * @throws IOException
+     *             if reading from the decoder fails
+     */
+    public RowIterator iterateBinary(BinaryDecoder decoder, Schema writerSchema) throws AvroAdaptorException,
+            IOException {
+        return _planCache.getPlan(writerSchema).iterate(decoder, createRowIterator());
+    }
+
+    /**
+     * Converts a single Avro record and passes each produced row to the sink,
+     * instead of collecting the rows in a list. If the sink consumes the rows
+     * synchronously, the same row array is reused for all rows and all
+     * records, so converting flat records allocates no conversion state.
+     * 
+     * @param record
+     *            the input avro record to be converted
+     * @param sink
+     *            receives the produced rows
+     * @throws AvroAdaptorException
+     *             if an incompatible datatype conversion is encountered or
+     *             the sink fails
+     */
+    public void convertRecord(GenericRecord record, RowSink sink) throws AvroAdaptorException {
+        if (record == null) {
+            return;
+        }
+        if (_errorPolicy == ErrorPolicy.DEAD_LETTER) {
+            // a rejected record must not pass any of its rows to the sink,
+            // which may keep them, so they are never taken from the row pool
+            ThreadState state = _threadState.get();
+            long start = startConversion(state);
+            List<Object[]> rows = createRows(_planCache.getPlan(record.getSchema()).evaluate(record, state._rows),
+                    record, null);
+            for (Object[] row : rows) {
+                sink.accept(row);
             }
+            recordConversion(rows.size(), start);
+            return;
         }
-        return recordData;
-    }
-
-    private Map<String, Object> parseArray(Array<?> arr, String name) throws AvroAdaptorException {
-        // initialize a new hash map, that will keep track of array
-        Map<String, Object> recordData = null;
-
-        if (arr.size() > 0) {
-            List<Map<String, Object>> arrayValues = new ArrayList<Map<String, Object>>(arr.size());
-            Iterator<?> arrayIterator = arr.iterator();
-            while (arrayIterator.hasNext()) {
-                Object arrayElement = arrayIterator.next();
-                if (arrayElement instanceof Record) {
-                    Map<String, Object> arrayRecordValues = parseRecord((Record) arrayElement, name + FIELD_DELIMITER);
-                    arrayValues.add(arrayRecordValues);
-                } else if (arrayElement instanceof Utf8 || arrayElement instanceof String) {
-                    Map<String, Object> arrayRecordValues = new HashMap<String, Object>(1);
-                    arrayRecordValues.put(name, arrayElement.toString());
-                    arrayValues.add(arrayRecordValues);
-                } else if (arrayElement instanceof Integer || arrayElement instanceof Long
-                        || arrayElement instanceof Float || arrayElement instanceof Double) {
-                    Map<String, Object> arrayRecordValues = new HashMap<String, Object>(1);
-                    arrayRecordValues.put(name, arrayElement);
-                    arrayValues.add(arrayRecordValues);
-                } else {
-                    throw new AvroAdaptorException("Unsupported array datatype: " + arrayElement.getClass());
+
+        ThreadState state = _threadState.get();
+        long start = startConversion(state);
+        int rows = emitRows(_planCache.getPlan(record.getSchema()).iterate(record, state._rows), state._row, sink);
+        recordConversion(rows, start);
+    }
+
+    /**
+     * Converts several Avro records into a single batch of rows stored
+     * column by column, see {@link ColumnBatch}. The rows are in the order of
+     * the records, the rows of each record in the order of
+     * {@link #convertRecord(GenericRecord)}. Null records are skipped.
+     * <p>
+     * If a batch budget is set, see
+     * {@link #setRowBudget(int, int, RowBudgetPolicy)}, no further record is
+     * converted once the batch has reached it, so records may be left
+     * unconverted. Use {@link #convertRecords(Iterator)} to convert them into
+     * the next batch.
+     * 
+     * @param records
+     *            the input avro records to be converted
+     * @return the rows of all records
+     * @throws AvroAdaptorException
+     *             if an incompatible datatype conversion is encountered or
+     *             a row budget is exceeded with
+     *             {@link RowBudgetPolicy#REJECT}
+     */
+    public ColumnBatch convertRecords(Iterable<? extends GenericRecord> records) throws AvroAdaptorException {
+        return convertRecords(records.iterator());
+    }
+
+    /**
+     * Converts Avro records into a single batch of rows like
+     * {@link #convertRecords(Iterable)}. If the batch reaches its budget, the
+     * records not converted are left in the iterator, so that a loop can
+     * convert a stream of records into batches of bounded size.
+     * <p>
+     * A batch holds all rows of its records, so with
+     * {@link RowBudgetPolicy#STREAM} a record exceeding the record budget is
+     * rejected. A batch budget ends the batch with the record reaching it,
+     * {@link RowBudgetPolicy#TRUNCATE} drops the rows of that record beyond
+     * the budget and {@link RowBudgetPolicy#REJECT} fails the whole batch.
+     * 
+     * @param records
+     *            the input avro records to be converted, positioned at the
+     *            first record of the batch
+     * @return the rows of the converted records
+     * @throws AvroAdaptorException
+     *             if an incompatible datatype conversion is encountered or
+     *             a row budget is exceeded with
+     *             {@link RowBudgetPolicy#REJECT}
+     */
+    public ColumnBatch convertRecords(Iterator<? extends GenericRecord> records) throws AvroAdaptorException {
+        ColumnBatch batch = new ColumnBatch(_columnInfo);
+        ThreadState state = _threadState.get();
+        if (_rowBudgetPolicy == RowBudgetPolicy.STREAM) {
+            state._rows.setRowBudget(_maxRecordRows, RowBudgetPolicy.REJECT);
+        }
+        try {
+            while (records.hasNext()) {
+                GenericRecord record = records.next();
+                if (record == null) {
+                    continue;
                 }
-            }
 
-            // once the new hashmap is filled, push it back into recordData
-            recordData = new HashMap<String, Object>();
-            recordData.put(name, arrayValues);
-        }
-        return recordData;
-    }
-
-    private List<Object[]> createRowSet(Map<String, Object> recordToInsert) throws AvroAdaptorException {
-        // The following removes any keys from the hashmap, if they are not used
-        // in the mapping file
-        for (Object recordKey : recordToInsert.keySet().toArray()) {
-            Boolean exists = _columnsInConfigFile.get(recordKey);
-            // check if we already scanned the existence of this column in our
-            // mapping file
-            // true: a check was made with a positive result
-            // false: a check was made with a negative result
-            if (exists == null) {
-                // null: no check was make, make a check and update
-                // _columnsInConfigFile accordingly
-                boolean found = false;
-                for (Object k1 : _mappingProps.values()) {
-                    if (k1.toString().startsWith(recordKey.toString())) {
-                        found = true;
-                        break;
-                    }
+                long start = startConversion(state);
+                int firstRow = batch.getRowCount();
+                RowIterator rows = _planCache.getPlan(record.getSchema()).iterate(record, state._rows);
+                while (rows.hasNext()) {
+                    batch.addRow(rows.next(state._row));
                 }
-                if (found) {
-                    _columnsInConfigFile.put(recordKey.toString(), Boolean.valueOf(true));
-                } else {
-                    _columnsInConfigFile.put(recordKey.toString(), Boolean.valueOf(false));
-                    recordToInsert.remove(recordKey);
+                if (rows.isRejected()) {
+                    batch.truncate(firstRow);
+                }
+                recordConversion(batch.getRowCount() - firstRow, start);
+
+                if (_maxBatchRows > 0 && batch.getRowCount() >= _maxBatchRows) {
+                    if (_rowBudgetPolicy == RowBudgetPolicy.REJECT && batch.getRowCount() > _maxBatchRows) {
+                        throw new AvroAdaptorException("batch exceeds the row budget of " + _maxBatchRows + " rows");
+                    }
+                    if (_rowBudgetPolicy == RowBudgetPolicy.TRUNCATE) {
+                        batch.truncate(_maxBatchRows);
+                    }
+                    break;
                 }
-            } else if (!exists) {
-                recordToInsert.remove(recordKey);
+            }
+        } finally {
+            if (_rowBudgetPolicy == RowBudgetPolicy.STREAM) {
+                state._rows.setRowBudget(0, RowBudgetPolicy.STREAM);
             }
         }
+        return batch;
+    }
 
-        List<Map<String, Object>> initialList = new ArrayList<Map<String, Object>>();
-        initialList.add(recordToInsert);
+    /**
+     * Reads a single binary encoded Avro record from the decoder, see
+     * {@link #convertBinary(BinaryDecoder, Schema)}, and passes each produced
+     * row to the sink like {@link #convertRecord(GenericRecord, RowSink)}.
+     * 
+     * @param decoder
+     *            the decoder positioned at the record
+     * @param writerSchema
+     *            the schema the record was written with
+     * @param sink
+     *            receives the produced rows
+     * @throws AvroAdaptorException
+     *             if an incompatible datatype conversion is encountered or
+     *             the sink fails
+     * @throws IOException
+     *             if reading from the decoder fails
+     */
+    public void convertBinary(BinaryDecoder decoder, Schema writerSchema, RowSink sink)
+            throws AvroAdaptorException, IOException {
+        ThreadState state = _threadState.get();
+        long start = startConversion(state);
+        int rows = emitRows(_planCache.getPlan(writerSchema).iterate(decoder, state._rows), state._row, sink);
+        recordConversion(rows, start);
+    }
 
-        List<Map<String, Object>> finalList = new ArrayList<Map<String, Object>>(10);
+    /**
+     * Creates a reader schema for the given writer schema, which only holds the
+     * fields mapped to a ParStream column. Reading Avro data with this schema,
+     * e.g. by passing it as expected schema to a <code>GenericDatumReader</code>
+     * of a <code>DataFileReader</code>, skips all unmapped fields and
+     * sub-records while decoding. The records read this way convert into the
+     * same rows as the complete records.
+     * 
+     * <pre>
+     * GenericDatumReader&lt;GenericRecord&gt; datumReader = new GenericDatumReader&lt;GenericRecord&gt;();
+     * DataFileReader&lt;GenericRecord&gt; fileReader = new DataFileReader&lt;GenericRecord&gt;(file, datumReader);
+     * datumReader.setExpected(adaptor.createReaderSchema(fileReader.getSchema()));
+     * </pre>
+     * 
+     * @param writerSchema
+     *            the schema the Avro data was written with
+     * @return the pruned reader schema
+     */
+    public Schema createReaderSchema(Schema writerSchema) {
+        return ReaderSchemaBuilder.build(RecordPlan.compile(null, writerSchema, _mapping));
+    }
 
-        while (initialList.size() != 0) {
-            Map<String, Object> currentHashMap = initialList.remove(0);
-            List<Map<String, Object>> flattened = expandArrays(currentHashMap);
-            if (flattened == null) {
-                finalList.add(currentHashMap);
-            } else {
-                initialList.addAll(flattened);
-            }
+    /**
+     * Sets the number of writer schemas for which the compiled conversion plan
+     * is kept. Streams mixing more writer schema versions than this recompile
+     * the least recently used plans. The default is 16. Setting the size
+     * discards all cached plans.
+     * 
+     * @param maxEntries
+     *            the maximum number of cached plans, must be positive
+     */
+    public void setPlanCacheSize(int maxEntries) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("plan cache size must be positive: " + maxEntries);
         }
-        List<Object[]> listToInsert = new ArrayList<Object[]>(finalList.size());
-
-        for (Map<String, Object> recordData : finalList) {
-            Object[] insertValues = new Object[_columnInfo.length];
-
-            for (int i = 0; i < _columnInfo.length; ++i) {
-                String psColumnKey = _columnInfo[i].getName();
-                String avroKey = _mappingProps.getProperty("column." + psColumnKey);
-
-                if (avroKey == null || "".equals(avroKey.trim())) {
-                    insertValues[i] = null;
-                } else {
-                    Object avroValueObj = recordData.get(avroKey);
-                    if (avroValueObj == null) {
-                        insertValues[i] = null;
-                    } else {
-                        // incompatible datatype check
-                        switch (_columnInfo[i].getType()) {
-                        case UINT8:
-                        case UINT16:
-                        case UINT32:
-                        case UINT64:
-                        case INT8:
-                        case INT16:
-                        case INT32:
-                        case INT64:
-                        case BITVECTOR8:
-                            if (avroValueObj instanceof Integer || avroValueObj instanceof Long) {
-                                insertValues[i] = avroValueObj;
-                            } else {
-                                throwIncompatibleTypeException(psColumnKey, _columnInfo[i], avroValueObj);
-                            }
-                            break;
-
-                        case SHORTDATE:
-                            try {
-                                insertValues[i] = new ParstreamShortDate((GregorianCalendar) valueToDate(avroValueObj,
-                                        psColumnKey, _columnInfo[i]));
-                            } catch (ParstreamException e) {
-                                throw new AvroAdaptorException(e.getMessage());
-                            }
-                            break;
-
-                        case DATE:
-                            try {
-                                insertValues[i] = new ParstreamDate((GregorianCalendar) valueToDate(avroValueObj,
-                                        psColumnKey, _columnInfo[i]));
-                            } catch (ParstreamException e) {
-                                throw new AvroAdaptorException(e.getMessage());
-                            }
-                            break;
-
-                        case TIME:
-                            try {
-                                insertValues[i] = new ParstreamTime((GregorianCalendar) valueToDate(avroValueObj,
-                                        psColumnKey, _columnInfo[i]));
-                            } catch (ParstreamException e) {
-                                throw new AvroAdaptorException(e.getMessage());
-                            }
-                            break;
-
-                        case TIMESTAMP:
-                            try {
-                                insertValues[i] = new ParstreamTimestamp((GregorianCalendar) valueToDate(avroValueObj,
-                                        psColumnKey, _columnInfo[i]));
-                            } catch (ParstreamException e) {
-                                throw new AvroAdaptorException(e.getMessage());
-                            }
-                            break;
-
-                        case VARSTRING:
-                            if (avroValueObj instanceof String) {
-                                insertValues[i] = avroValueObj;
-                            } else {
-                                insertValues[i] = avroValueObj.toString();
-                            }
-                            break;
-
-                        case FLOAT:
-                            if (avroValueObj instanceof Float) {
-                                insertValues[i] = avroValueObj;
-                            } else {
-                                insertValues[i] = null;
-                                throwIncompatibleTypeException(psColumnKey, _columnInfo[i], avroValueObj);
-                            }
-                            break;
-
-                        case DOUBLE:
-                            if (avroValueObj instanceof Double) {
-                                insertValues[i] = avroValueObj;
-                            } else {
-                                insertValues[i] = null;
-                                throwIncompatibleTypeException(psColumnKey, _columnInfo[i], avroValueObj);
-                            }
-                            break;
-
-                        case BLOB:
-                            throw new AvroAdaptorException("ParStream BLOB column type not supported for decoding");
-
-                        default:
-                            throw new AvroAdaptorException("Unknown ParStream column type: " + _columnInfo[i].getType());
-                        }
-                    }
-                }
-            }
-            listToInsert.add(insertValues);
+        _planCacheSize = maxEntries;
+        _planCache = new PlanCache(_mapping, _planCacheSize, _codeGeneration);
+    }
+
+    /**
+     * Enables generating the conversion code of the top level record. The
+     * int, long, float, double, string and boolean fields of the record are
+     * then read and stored by a method handle composed for the writer schema
+     * instead of being dispatched on the type of each value. Nested records
+     * and arrays are always interpreted, as are records for which no code can
+     * be generated. Both produce the same rows. Every generated plan loads a
+     * small class of its own, which is unloaded with the plan. The default is
+     * disabled. Setting it discards all cached plans.
+     * 
+     * @param enabled
+     *            true to generate code for newly compiled plans
+     */
+    public void setCodeGeneration(boolean enabled) {
+        _codeGeneration = enabled;
+        _planCache = new PlanCache(_mapping, _planCacheSize, _codeGeneration);
+    }
+
+    /**
+     * @return true if the conversion code of the top level record is
+     *         generated
+     */
+    public boolean isCodeGeneration() {
+        return _codeGeneration;
+    }
+
+    /**
+     * Enables reusing the row arrays of {@link #convertRecord(GenericRecord)}
+     * and {@link #convertBinary(BinaryDecoder, Schema)} and their variants.
+     * Every thread then fills its rows from a ring of <code>depth</code>
+     * lists of preallocated rows instead of allocating new ones, and only
+     * writes the mapped columns of a row, the unmapped columns stay null.
+     * <p>
+     * A returned list and its rows remain valid until the same thread has
+     * converted <code>depth</code> further records into lists, afterwards
+     * they are overwritten. A caller passing the rows of each record to a
+     * synchronous consumer like <code>rawInsert</code> before converting the
+     * next record may use a depth of 1. Rows which are kept longer, e.g.
+     * collected into a batch, must be copied. The default is 0, which returns
+     * new rows for every record. Setting the depth discards all pooled rows.
+     * 
+     * @param depth
+     *            the number of lists per thread whose rows may be in use at
+     *            the same time, 0 to disable pooling
+     */
+    public void setRowPoolDepth(int depth) {
+        if (depth < 0) {
+            throw new IllegalArgumentException("row pool depth must not be negative: " + depth);
         }
+        _rowPoolDepth = depth;
+        _threadState = createThreadState();
+    }
 
-        return listToInsert;
+    /**
+     * @return the number of lists per thread whose rows are reused, 0 if
+     *         every conversion returns new rows
+     */
+    public int getRowPoolDepth() {
+        return _rowPoolDepth;
     }
 
-    private void throwIncompatibleTypeException(String psColumnKey, final ColumnInfo columnInfo,
-            final Object avroValueObj) throws AvroAdaptorException {
-        throw new AvroAdaptorException(
-                String.format(
-                        "Incompatible datatypes for column (%s). Database type is %s, JAVA type is %s, Value attempted for insertion: %s",
-                        psColumnKey, columnInfo.getType().toString(), avroValueObj.getClass(), avroValueObj.toString()));
+    /**
+     * Enables expanding records holding a large array on a fork join pool.
+     * If the array expanded first, i.e. the first array of the record in
+     * schema order, has more elements than the threshold,
+     * {@link #convertRecord(GenericRecord)} and
+     * {@link #convertBinary(BinaryDecoder, Schema)} split its elements into
+     * slices of at most <code>threshold</code> elements and produce the rows
+     * of all slices concurrently. The rows and their order are the same as
+     * without splitting. Split records always return new rows, even if a
+     * row pool is set, see {@link #setRowPoolDepth(int)}. The variants
+     * passing rows to a {@link RowSink} never split, nor do records with a
+     * row budget of {@link RowBudgetPolicy#STREAM}, whose rows beyond the
+     * budget are produced sequentially. The default is disabled.
+     * 
+     * @param pool
+     *            the pool expanding the slices, null to disable splitting
+     * @param threshold
+     *            the number of array elements above which a record is split,
+     *            must be positive
+     */
+    public void setArraySplitting(ForkJoinPool pool, int threshold) {
+        if (pool == null) {
+            _arraySplitter = null;
+            return;
+        }
+        if (threshold < 1) {
+            throw new IllegalArgumentException("array split threshold must be positive: " + threshold);
+        }
+        _arraySplitter = new ArraySplitter(pool, threshold);
     }
 
-    private Calendar valueToDate(Object avroValueObj, String psColumnKey, ColumnInfo colInfo)
-            throws AvroAdaptorException {
-        Calendar cal = new GregorianCalendar();
+    /**
+     * @return the number of array elements above which a record is split, 0
+     *         if records are never split
+     */
+    public int getArraySplitThreshold() {
+        if (_arraySplitter == null) {
+            return 0;
+        }
+        return _arraySplitter.getThreshold();
+    }
 
-        if (avroValueObj instanceof Integer) {
-            cal.setTimeInMillis(((Integer) avroValueObj).intValue() * 1000L);
-        } else if (avroValueObj instanceof Long) {
-            cal.setTimeInMillis(((Long) avroValueObj).longValue());
-        } else {
-            throwIncompatibleTypeException(psColumnKey, colInfo, avroValueObj);
+    /**
+     * Limits the number of rows a single record and a single batch of
+     * {@link #convertRecords(Iterator)} may produce, so that the memory held
+     * by the adaptor stays bounded even for records whose sibling arrays
+     * explode into the cartesian product of their elements. The policy
+     * decides what happens to the rows beyond a budget, see
+     * {@link RowBudgetPolicy}. The default is unlimited.
+     * 
+     * @param maxRecordRows
+     *            the maximum number of rows of a record, 0 if unlimited
+     * @param maxBatchRows
+     *            the maximum number of rows of a batch, 0 if unlimited
+     * @param policy
+     *            the handling of rows beyond a budget
+     */
+    public void setRowBudget(int maxRecordRows, int maxBatchRows, RowBudgetPolicy policy) {
+        if (maxRecordRows < 0 || maxBatchRows < 0) {
+            throw new IllegalArgumentException("row budget must not be negative: " + maxRecordRows + ", "
+                    + maxBatchRows);
+        }
+        if (policy == null) {
+            throw new IllegalArgumentException("row budget policy must not be null");
+        }
+        _maxRecordRows = maxRecordRows;
+        _maxBatchRows = maxBatchRows;
+        _rowBudgetPolicy = policy;
+        _threadState = createThreadState();
+    }
+
+    /**
+     * @return the maximum number of rows of a record, 0 if unlimited
+     */
+    public int getMaxRecordRows() {
+        return _maxRecordRows;
+    }
+
+    /**
+     * @return the maximum number of rows of a batch, 0 if unlimited
+     */
+    public int getMaxBatchRows() {
+        return _maxBatchRows;
+    }
+
+    /**
+     * @return the handling of rows beyond a row budget
+     */
+    public RowBudgetPolicy getRowBudgetPolicy() {
+        return _rowBudgetPolicy;
+    }
+
+    /**
+     * @return the number of converted records whose writer schema had an
+     *         already compiled conversion plan
+     */
+    public long getPlanCacheHits() {
+        return _planCache.getHits();
+    }
+
+    /**
+     * @return the number of conversion plans compiled, i.e. the number of
+     *         converted records whose writer schema was not in the cache
+     */
+    public long getPlanCacheMisses() {
+        return _planCache.getMisses();
+    }
+
+    /**
+     * Returns the conversion metrics collected since the adaptor was created.
+     * Every record converted by {@link #convertRecord(GenericRecord)},
+     * {@link #convertBinary(BinaryDecoder, Schema)} and their variants is
+     * counted with its rows and conversion time, the time of the sink
+     * variants includes the time spent in the sink. Records iterated through
+     * {@link #iterateRecord(GenericRecord)} and
+     * {@link #iterateBinary(BinaryDecoder, Schema)} are not counted, as the
+     * caller decides how many of their rows are produced, but the values
+     * which fail to convert are counted for all methods.
+     * 
+     * @return the current state of the metrics
+     */
+    public MetricsSnapshot getMetrics() {
+        return _metrics.createSnapshot();
+    }
+
+    /**
+     * Sets how often the conversion time of a record is measured for the
+     * latency histogram of the metrics. Every thread measures one conversion
+     * out of <code>interval</code>, so the histogram holds a sample of the
+     * conversions. Records and rows are always counted. The default is
+     * {@link #DEFAULT_LATENCY_SAMPLING}.
+     * 
+     * @param interval
+     *            1 to measure every conversion, 0 to measure none
+     */
+    public void setLatencySampling(int interval) {
+        if (interval < 0) {
+            throw new IllegalArgumentException("latency sampling interval must not be negative: " + interval);
+        }
+        _latencySampling = interval;
+    }
+
+    /**
+     * @return the number of conversions per measured conversion, 0 if none
+     *         is measured
+     */
+    public int getLatencySampling() {
+        return _latencySampling;
+    }
+
+    /**
+     * Publishes the conversion metrics over JMX, as an
+     * {@link AvroAdaptorMXBean} registered with the platform MBean server
+     * under the object name
+     * <code>com.parstream.adaptor.avro:type=AvroAdaptor,name=&lt;name&gt;</code>.
+     * 
+     * @param name
+     *            the name distinguishing this adaptor, e.g. the table name
+     * @throws AvroAdaptorException
+     *             if the name is already registered
+     */
+    public void registerMBean(String name) throws AvroAdaptorException {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsBean(this), createObjectName(name));
+        } catch (JMException e) {
+            throw new AvroAdaptorException("cannot register MBean " + name + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Removes the MBean registered by {@link #registerMBean(String)}.
+     * 
+     * @param name
+     *            the name passed when registering
+     * @throws AvroAdaptorException
+     *             if no MBean is registered under the name
+     */
+    public void unregisterMBean(String name) throws AvroAdaptorException {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(createObjectName(name));
+        } catch (JMException e) {
+            throw new AvroAdaptorException("cannot unregister MBean " + name + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static ObjectName createObjectName(String name) throws MalformedObjectNameException {
+        return new ObjectName("com.parstream.adaptor.avro:type=AvroAdaptor,name=" + ObjectName.quote(name));
+    }
+
+    /**
+     * Sets how values which cannot be stored in their column are handled. The
+     * default is {@link ErrorPolicy#FAIL}.
+     * 
+     * @param policy
+     *            the error policy
+     */
+    public void setErrorPolicy(ErrorPolicy policy) {
+        if (policy == null) {
+            throw new IllegalArgumentException("error policy must not be null");
         }
-        return cal;
+        _errorPolicy = policy;
+        _threadState = createThreadState();
     }
 
-    private List<Map<String, Object>> expandArrays(Map<String, Object> hm) throws AvroAdaptorException {
+    /**
+     * @return the handling of values which cannot be stored in their column
+     */
+    public ErrorPolicy getErrorPolicy() {
+        return _errorPolicy;
+    }
+
+    /**
+     * Sets the sink receiving the records rejected with
+     * {@link ErrorPolicy#DEAD_LETTER}, e.g. an {@link AvroDeadLetterWriter}.
+     * 
+     * @param deadLetters
+     *            the dead letter sink, null to report rejected records like
+     *            {@link ErrorPolicy#FAIL}
+     */
+    public void setDeadLetterSink(DeadLetterSink deadLetters) {
+        _deadLetters = deadLetters;
+        _threadState = createThreadState();
+    }
 
-        /**
-         * Gets the key in a HashMap where it has an ArrayList. NULL of not
-         * found. The existence of an ArrayList means that, the current HashMap
-         * of a GenericRecord has an array that needs to be flattened when
-         * creating the ParStream Object[]
-         */
-        String arrayListItemKey = null;
-        for (Entry<String, Object> entry : hm.entrySet()) {
-            if (entry.getValue() instanceof ArrayList) {
-                arrayListItemKey = entry.getKey();
+    private static List<Object[]> createRows(RowIterator iterator) throws AvroAdaptorException {
+        List<Object[]> rows = new ArrayList<Object[]>(1);
+        while (iterator.hasNext()) {
+            rows.add(iterator.next());
+        }
+        if (iterator.isRejected()) {
+            rows.clear();
+        }
+        return rows;
+    }
+
+    /**
+     * Produces all rows of an evaluated record, splitting large arrays if
+     * enabled.
+     */
+    private List<Object[]> createRows(RowIterator rows, GenericRecord record, RowPool rowPool)
+            throws AvroAdaptorException {
+        ArraySplitter splitter = _arraySplitter;
+        boolean stream = _maxRecordRows > 0 && _rowBudgetPolicy == RowBudgetPolicy.STREAM;
+        if (splitter != null && !stream && splitter.accepts(rows)) {
+            return splitter.createRows(rows, record, _deadLetters, _maxRecordRows, _rowBudgetPolicy);
+        }
+        if (!stream || rows.getFirstArraySize() == 0) {
+            rows.start();
+            return collectRows(rows, rowPool);
+        }
+
+        // only lists pause at the budget, iterators stream all rows anyway.
+        // The rows beyond the budget are produced again from a snapshot, they
+        // are only converted now to report failed values and count them
+        RowIterator snapshot = rows.snapshot();
+        rows.setRowBudget(_maxRecordRows, RowBudgetPolicy.STREAM);
+        try {
+            rows.start();
+            List<Object[]> head = collectRows(rows, rowPool);
+            if (!rows.isTruncated()) {
+                return head;
             }
+            int size = head.size() + rows.countRemaining(Integer.MAX_VALUE - head.size());
+            if (rows.isRejected()) {
+                head.clear();
+                return head;
+            }
+            snapshot.detach(record);
+            return new StreamedRowList(head, snapshot, size);
+        } finally {
+            rows.setRowBudget(0, RowBudgetPolicy.STREAM);
         }
-        if (arrayListItemKey == null) {
-            return null;
+    }
+
+    private static List<Object[]> collectRows(RowIterator rows, RowPool rowPool) throws AvroAdaptorException {
+        if (rowPool == null) {
+            return createRows(rows);
         }
+        return rowPool.createRows(rows);
+    }
 
-        // the SuppressWarnings was added, because the item we will retrieve was
-        // already checked in
-        // arrayListItemKey hasArrayList if it was an instanceof ArrayList
-        @SuppressWarnings("unchecked")
-        List<Object> nestedItem = (ArrayList<Object>) hm.get(arrayListItemKey);
-        hm.remove(arrayListItemKey);
+    private long startConversion(ThreadState state) {
+        int interval = _latencySampling;
+        if (interval == 0 || ++state._conversions < interval) {
+            return NOT_MEASURED;
+        }
+        state._conversions = 0;
+        return System.nanoTime();
+    }
 
-        List<Map<String, Object>> res = new ArrayList<Map<String, Object>>(nestedItem.size());
-        if (nestedItem.size() == 0) {
-            res.add(hm);
+    private void recordConversion(int rows, long start) {
+        if (start == NOT_MEASURED) {
+            _metrics.recordConversion(rows);
         } else {
-            // initialize resulting arraylist, based on the arraylist size
-            for (int i = 0; i < nestedItem.size(); ++i) {
-                Map<String, Object> newHashMap = new HashMap<String, Object>(hm);
-
-                // retrieve an object from the array list
-                Object entryToAdd = nestedItem.get(i);
-
-                if (entryToAdd instanceof HashMap) {
-                    @SuppressWarnings("unchecked")
-                    Map<String, Object> entryToAddHashMap = (HashMap<String, Object>) entryToAdd;
-                    for (Entry<String, Object> entry : entryToAddHashMap.entrySet()) {
-                        newHashMap.put(entry.getKey(), entry.getValue());
-                    }
-                } else {
-                    throw new AvroAdaptorException(
-                            "INTERNAL ERROR: flattenArrayListsInHashMap: Unsupported type: ArrayList elemet not instance of HashMap");
-                }
-                res.add(newHashMap);
+            _metrics.recordConversion(rows, System.nanoTime() - start);
+        }
+    }
+
+    private static int emitRows(RowIterator rows, Object[] row, RowSink sink) throws AvroAdaptorException {
+        int count = 0;
+        if (sink.consumesRowsSynchronously()) {
+            while (rows.hasNext()) {
+                sink.accept(rows.next(row));
+                ++count;
+            }
+        } else {
+            while (rows.hasNext()) {
+                sink.accept(rows.next());
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    private List<Object[]> convertBinary(byte[] data, int offset, int length, Schema writerSchema)
+            throws AvroAdaptorException, IOException {
+        ThreadState state = _threadState.get();
+        state._decoder = DecoderFactory.get().binaryDecoder(data, offset, length, state._decoder);
+        return convertBinary(state._decoder, writerSchema);
+    }
+
+    private void initialize(InputStream inputStream, ColumnInfo[] columnInfo) throws IOException, AvroAdaptorException {
+        _mappingProps = new Properties();
+        _mappingProps.load(inputStream);
+
+        if (_mappingProps.size() == 0) {
+            throw new AvroAdaptorException("no column mappings specified");
+        }
+
+        _columnInfo = columnInfo;
+        _mapping = new ColumnMapping(_mappingProps, columnInfo);
+        _metrics = new AdaptorMetrics(columnInfo);
+        _converters = new ColumnConverter[columnInfo.length];
+        for (int i = 0; i < columnInfo.length; ++i) {
+            _converters[i] = ColumnConverter.create(columnInfo[i], i, _metrics, _mapping.getDictionarySize(i));
+        }
+        _mappedColumns = _mapping.getMappedColumns();
+        _planCacheSize = PlanCache.DEFAULT_CAPACITY;
+        _codeGeneration = false;
+        _rowPoolDepth = 0;
+        _arraySplitter = null;
+        _maxRecordRows = 0;
+        _maxBatchRows = 0;
+        _rowBudgetPolicy = RowBudgetPolicy.REJECT;
+        _latencySampling = DEFAULT_LATENCY_SAMPLING;
+        _planCache = new PlanCache(_mapping, _planCacheSize, _codeGeneration);
+        _errorPolicy = ErrorPolicy.FAIL;
+        _threadState = createThreadState();
+    }
+
+    private ThreadLocal<ThreadState> createThreadState() {
+        return new ThreadLocal<ThreadState>() {
+
+            @Override
+            protected ThreadState initialValue() {
+                return new ThreadState(createRowIterator(), _converters.length, _rowPoolDepth);
             }
+        };
+    }
+
+    private RowIterator createRowIterator() {
+        RowIterator rows = new RowIterator(_converters, _mappedColumns, _errorPolicy, _deadLetters);
+        // iterators and sinks hold a single row, they stream all rows
+        if (_rowBudgetPolicy != RowBudgetPolicy.STREAM) {
+            rows.setRowBudget(_maxRecordRows, _rowBudgetPolicy);
+        }
+        return rows;
+    }
+
+    /**
+     * The conversion state reused by the calls of a single thread.
+     */
+    private static final class ThreadState {
+
+        private final RowIterator _rows;
+        private final Object[] _row;
+        private final RowPool _rowPool;
+        private BinaryDecoder _decoder;
+        // the conversions since the last one measured
+        private int _conversions;
+
+        ThreadState(RowIterator rows, int columnCount, int rowPoolDepth) {
+            _rows = rows;
+            _row = new Object[columnCount];
+            if (rowPoolDepth > 0) {
+                _rowPool = new RowPool(rowPoolDepth, columnCount);
+            } else {
+                _rowPool = null;
+            }
+        }
+    }
+
+    /**
+     * Publishes the metrics of an adaptor over JMX.
+     */
+    private static final class MetricsBean implements AvroAdaptorMXBean {
+
+        private final AvroAdaptor _adaptor;
+
+        MetricsBean(AvroAdaptor adaptor) {
+            _adaptor = adaptor;
+        }
+
+        @Override
+        public long getRecords() {
+            return _adaptor.getMetrics().getRecords();
+        }
+
+        @Override
+        public long getRows() {
+            return _adaptor.getMetrics().getRows();
+        }
+
+        @Override
+        public double getMeanFanOut() {
+            return _adaptor.getMetrics().getMeanFanOut();
+        }
+
+        @Override
+        public long[] getFanOutHistogram() {
+            return _adaptor.getMetrics().getFanOutHistogram();
+        }
+
+        @Override
+        public long[] getLatencyHistogram() {
+            return _adaptor.getMetrics().getLatencyHistogram();
+        }
+
+        @Override
+        public long getFailures() {
+            return _adaptor.getMetrics().getFailures();
+        }
+
+        @Override
+        public Map<String, Long> getColumnFailures() {
+            return _adaptor.getMetrics().getColumnFailures();
+        }
+
+        @Override
+        public Map<String, Long> getFailuresByType() {
+            return _adaptor.getMetrics().getFailuresByType();
+        }
+
+        @Override
+        public Map<String, Long> getDictionaryHits() {
+            return _adaptor.getMetrics().getDictionaryHits();
+        }
+
+        @Override
+        public Map<String, Long> getDictionaryMisses() {
+            return _adaptor.getMetrics().getDictionaryMisses();
+        }
+
+        @Override
+        public long getPlanCacheHits() {
+            return _adaptor.getPlanCacheHits();
+        }
+
+        @Override
+        public long getPlanCacheMisses() {
+            return _adaptor.getPlanCacheMisses();
         }
-        return res;
     }
 }
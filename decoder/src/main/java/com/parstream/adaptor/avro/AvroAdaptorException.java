@@ -34,4 +34,19 @@ public class AvroAdaptorException extends Exception {
     public AvroAdaptorException(String msg) {
         super(msg);
     }
+
+    /**
+     * Constructs an AvroAdaptorException with the specified detail message and
+     * cause, e.g. an exception raised by a {@link RowSink}.
+     * 
+     * @param msg
+     *            The detail message (which is saved for later retrieval by the
+     *            Throwable.getMessage() method)
+     * @param cause
+     *            The cause (which is saved for later retrieval by the
+     *            Throwable.getCause() method)
+     */
+    public AvroAdaptorException(String msg, Throwable cause) {
+        super(msg, cause);
+    }
 }
@@ -0,0 +1,91 @@
+/**
+ * Copyright 2015 ParStream GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parstream.adaptor.avro;
+
+import java.util.Map;
+
+/**
+ * The management interface publishing the conversion metrics of an
+ * {@link AvroAdaptor} over JMX, see {@link AvroAdaptor#registerMBean(String)}.
+ * Every attribute is read from a new {@link MetricsSnapshot}.
+ */
+public interface AvroAdaptorMXBean {
+
+    /**
+     * @return the number of converted records
+     */
+    long getRecords();
+
+    /**
+     * @return the number of rows produced by the converted records
+     */
+    long getRows();
+
+    /**
+     * @return the average number of rows produced per record
+     */
+    double getMeanFanOut();
+
+    /**
+     * @return the number of records per number of produced rows, see
+     *         {@link MetricsSnapshot#getFanOutHistogram()}
+     */
+    long[] getFanOutHistogram();
+
+    /**
+     * @return the number of records per conversion time in nanoseconds, see
+     *         {@link MetricsSnapshot#getLatencyHistogram()}
+     */
+    long[] getLatencyHistogram();
+
+    /**
+     * @return the number of values which could not be converted
+     */
+    long getFailures();
+
+    /**
+     * @return the number of failed values per column name
+     */
+    Map<String, Long> getColumnFailures();
+
+    /**
+     * @return the number of failed values per ParStream column type
+     */
+    Map<String, Long> getFailuresByType();
+
+    /**
+     * @return the number of values found in the string dictionary per column
+     *         name
+     */
+    Map<String, Long> getDictionaryHits();
+
+    /**
+     * @return the number of values not found in the string dictionary per
+     *         column name
+     */
+    Map<String, Long> getDictionaryMisses();
+
+    /**
+     * @return the number of records served by an already compiled conversion
+     *         plan
+     */
+    long getPlanCacheHits();
+
+    /**
+     * @return the number of compiled conversion plans
+     */
+    long getPlanCacheMisses();
+}
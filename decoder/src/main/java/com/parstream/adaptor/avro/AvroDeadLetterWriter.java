@@ -0,0 +1,215 @@
+/**
+ * Copyright 2015 ParStream GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parstream.adaptor.avro;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.avro.Schema;
+import org.apache.avro.Schema.Field;
+import org.apache.avro.SchemaNormalization;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+
+/**
+ * Writes rejected records into Avro container files. Every entry is a
+ * <code>com.parstream.adaptor.avro.DeadLetter</code> record with the fields
+ * <code>reason</code>, the string describing the failed value, and
+ * <code>record</code>, the original record.
+ * <p>
+ * A container file holds a single schema, so there is one file per record
+ * schema. The records of the schema rejected first are written to the given
+ * file. The records of any other schema are written next to it, to a file
+ * whose name carries the fingerprint of the schema, e.g.
+ * <code>deadLetters-1f3c5a7e9b2d4c6f.avro</code> for
+ * <code>deadLetters.avro</code>, see {@link #getFiles()}.
+ * <p>
+ * To replay the records, read the files with a <code>DataFileReader</code>
+ * and convert the <code>record</code> field of every entry. The writer is
+ * thread-safe.
+ */
+public class AvroDeadLetterWriter implements DeadLetterSink, Closeable {
+
+    /**
+     * The name of the field holding the reason of the rejection.
+     */
+    public static final String REASON_FIELD = "reason";
+
+    /**
+     * The name of the field holding the rejected record.
+     */
+    public static final String RECORD_FIELD = "record";
+
+    /**
+     * Bounds the remembered schema instances, for sources which create a new
+     * schema instance for every record.
+     */
+    private static final int MAX_SCHEMA_INSTANCES = 64;
+
+    private final File _file;
+    // the open files by record schema instance and by schema fingerprint
+    private final Map<Schema, DeadLetterFile> _filesBySchema;
+    private final Map<Long, DeadLetterFile> _filesByFingerprint;
+    private final List<DeadLetterFile> _files;
+
+    /**
+     * Creates a writer, the files are only created by the first rejected
+     * record of their schema.
+     *
+     * @param file
+     *            the Avro container file of the schema rejected first, an
+     *            existing file is overwritten
+     */
+    public AvroDeadLetterWriter(File file) {
+        _file = file;
+        _filesBySchema = new IdentityHashMap<Schema, DeadLetterFile>();
+        _filesByFingerprint = new HashMap<Long, DeadLetterFile>();
+        _files = new ArrayList<DeadLetterFile>();
+    }
+
+    @Override
+    public synchronized void accept(GenericRecord record, String reason) throws AvroAdaptorException {
+        DeadLetterFile file = null;
+        try {
+            file = getFile(record.getSchema());
+            GenericRecord entry = new GenericData.Record(file._schema);
+            entry.put(REASON_FIELD, reason);
+            entry.put(RECORD_FIELD, record);
+            file._writer.append(entry);
+        } catch (IOException e) {
+            File failed = _file;
+            if (file != null) {
+                failed = file._file;
+            }
+            throw new AvroAdaptorException("cannot write dead letter file " + failed + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return the files created so far, the given file first if it was
+     *         created
+     */
+    public synchronized List<File> getFiles() {
+        List<File> files = new ArrayList<File>(_files.size());
+        for (DeadLetterFile file : _files) {
+            files.add(file._file);
+        }
+        return files;
+    }
+
+    /**
+     * Writes the buffered records to the files.
+     *
+     * @throws IOException
+     *             if writing fails
+     */
+    public synchronized void flush() throws IOException {
+        for (DeadLetterFile file : _files) {
+            file._writer.flush();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        IOException failure = null;
+        for (DeadLetterFile file : _files) {
+            try {
+                file._writer.close();
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private DeadLetterFile getFile(Schema recordSchema) throws IOException {
+        DeadLetterFile file = _filesBySchema.get(recordSchema);
+        if (file != null) {
+            return file;
+        }
+
+        // equal schemas of other instances share the file
+        long fingerprint = SchemaNormalization.parsingFingerprint64(recordSchema);
+        file = _filesByFingerprint.get(fingerprint);
+        if (file == null) {
+            file = create(recordSchema, fingerprint);
+            _filesByFingerprint.put(fingerprint, file);
+            _files.add(file);
+        }
+        if (_filesBySchema.size() < MAX_SCHEMA_INSTANCES) {
+            _filesBySchema.put(recordSchema, file);
+        }
+        return file;
+    }
+
+    private DeadLetterFile create(Schema recordSchema, long fingerprint) throws IOException {
+        File target = _file;
+        if (!_files.isEmpty()) {
+            target = fingerprintFile(fingerprint);
+        }
+
+        List<Field> fields = new ArrayList<Field>(2);
+        fields.add(new Field(REASON_FIELD, Schema.create(Schema.Type.STRING), null, null));
+        fields.add(new Field(RECORD_FIELD, recordSchema, null, null));
+        Schema schema = Schema.createRecord("DeadLetter", "records rejected by the ParStream Avro adaptor",
+                "com.parstream.adaptor.avro", false);
+        schema.setFields(fields);
+
+        DataFileWriter<GenericRecord> writer = new DataFileWriter<GenericRecord>(
+                new GenericDatumWriter<GenericRecord>(schema));
+        writer.create(schema, target);
+        return new DeadLetterFile(target, schema, writer);
+    }
+
+    private File fingerprintFile(long fingerprint) {
+        String name = _file.getName();
+        String suffix = "";
+        int dot = name.lastIndexOf('.');
+        if (dot > 0) {
+            suffix = name.substring(dot);
+            name = name.substring(0, dot);
+        }
+        return new File(_file.getParentFile(), name + "-" + String.format("%016x", fingerprint) + suffix);
+    }
+
+    /**
+     * An open container file holding the dead letters of one record schema.
+     */
+    private static final class DeadLetterFile {
+
+        private final File _file;
+        private final Schema _schema;
+        private final DataFileWriter<GenericRecord> _writer;
+
+        DeadLetterFile(File file, Schema schema, DataFileWriter<GenericRecord> writer) {
+            _file = file;
+            _schema = schema;
+            _writer = writer;
+        }
+    }
+}
@@ -0,0 +1,379 @@
+/**
+ * Copyright 2015 ParStream GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parstream.adaptor.avro;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.avro.generic.GenericRecord;
+
+/**
+ * Converts a backpressured stream of Avro records into a backpressured stream
+ * of row batches, see {@link ReactiveStreams}. The processor subscribes to a
+ * publisher of records and publishes the rows of up to
+ * <code>batchSize</code> consecutive records as one batch to a single
+ * subscriber, in the order of the records.
+ * <p>
+ * Records are only requested from the upstream publisher while the
+ * subscriber has requested batches, at most one batch worth of records at a
+ * time, so a slow subscriber like a ParStream inserter throttles the reader
+ * of the records and at most <code>batchSize</code> records and the rows of
+ * one batch are buffered. Records are converted on the given executor, one
+ * record at a time, never on the thread of the upstream publisher.
+ *
+ * <pre>
+ * AvroRowProcessor processor = new AvroRowProcessor(adaptor, executor, 256);
+ * recordPublisher.subscribe(processor);
+ * processor.subscribe(inserterSubscriber);
+ * </pre>
+ *
+ * A batch is published once it holds the rows of <code>batchSize</code>
+ * records or the upstream publisher completes. A record which fails to
+ * convert cancels the upstream subscription and is passed to
+ * {@link ReactiveStreams.Subscriber#onError(Throwable)}, records rejected
+ * according to the error policy of the adaptor produce no rows. An upstream
+ * failure is forwarded immediately, dropping the records not yet converted.
+ * A runtime exception thrown by the subscriber's <code>onNext</code> ends the
+ * stream the same way, one thrown by <code>onError</code> or
+ * <code>onComplete</code> and any {@link Error} propagate to the executor.
+ */
+public class AvroRowProcessor implements ReactiveStreams.Processor<GenericRecord, List<Object[]>> {
+
+    /**
+     * The default number of records converted into one batch.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 256;
+
+    private final AvroAdaptor _adaptor;
+    private final Executor _executor;
+    private final int _batchSize;
+
+    private final AtomicReference<ReactiveStreams.Subscriber<? super List<Object[]>>> _subscriber;
+    private final AtomicReference<ReactiveStreams.Subscription> _upstream;
+    private final Queue<GenericRecord> _records;
+    private final AtomicLong _demand;
+    private final AtomicInteger _pendingDrains;
+    private final AtomicReference<Throwable> _failure;
+    private final Drain _drain;
+    private volatile Throwable _upstreamFailure;
+    private volatile boolean _upstreamComplete;
+    private volatile boolean _cancelled;
+
+    /**
+     * Creates a processor publishing batches of {@link #DEFAULT_BATCH_SIZE}
+     * records.
+     *
+     * @param adaptor
+     *            the adaptor converting the records
+     * @param executor
+     *            runs the conversion, it must not reject tasks
+     */
+    public AvroRowProcessor(AvroAdaptor adaptor, Executor executor) {
+        this(adaptor, executor, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Creates a processor.
+     *
+     * @param adaptor
+     *            the adaptor converting the records
+     * @param executor
+     *            runs the conversion, it must not reject tasks
+     * @param batchSize
+     *            the maximum number of records whose rows form one batch,
+     *            must be positive
+     */
+    public AvroRowProcessor(AvroAdaptor adaptor, Executor executor, int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batch size must be positive: " + batchSize);
+        }
+        _adaptor = adaptor;
+        _executor = executor;
+        _batchSize = batchSize;
+        _subscriber = new AtomicReference<ReactiveStreams.Subscriber<? super List<Object[]>>>();
+        _upstream = new AtomicReference<ReactiveStreams.Subscription>();
+        _records = new ConcurrentLinkedQueue<GenericRecord>();
+        _demand = new AtomicLong();
+        _pendingDrains = new AtomicInteger();
+        _failure = new AtomicReference<Throwable>();
+        _drain = new Drain();
+    }
+
+    @Override
+    public void subscribe(ReactiveStreams.Subscriber<? super List<Object[]>> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber must not be null");
+        }
+        if (!_subscriber.compareAndSet(null, subscriber)) {
+            subscriber.onSubscribe(new RefusedSubscription());
+            subscriber.onError(new IllegalStateException("processor already has a subscriber"));
+            return;
+        }
+        subscriber.onSubscribe(new BatchSubscription());
+        schedule();
+    }
+
+    @Override
+    public void onSubscribe(ReactiveStreams.Subscription subscription) {
+        if (subscription == null) {
+            throw new NullPointerException("subscription must not be null");
+        }
+        if (!_upstream.compareAndSet(null, subscription)) {
+            subscription.cancel();
+            return;
+        }
+        schedule();
+    }
+
+    @Override
+    public void onNext(GenericRecord record) {
+        if (record == null) {
+            throw new NullPointerException("record must not be null");
+        }
+        _records.offer(record);
+        schedule();
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        if (throwable == null) {
+            throw new NullPointerException("throwable must not be null");
+        }
+        _upstreamFailure = throwable;
+        schedule();
+    }
+
+    @Override
+    public void onComplete() {
+        _upstreamComplete = true;
+        schedule();
+    }
+
+    /**
+     * Runs the drain unless it is running already, in which case it repeats
+     * its pass.
+     */
+    private void schedule() {
+        if (_pendingDrains.getAndIncrement() == 0) {
+            _executor.execute(_drain);
+        }
+    }
+
+    /**
+     * Converts the received records and publishes the batches. Only a single
+     * drain runs at a time, so its state is confined to it.
+     */
+    private final class Drain implements Runnable, RowSink {
+
+        private List<Object[]> _batch;
+        private int _batchRecords;
+        // the records requested from upstream and not yet converted
+        private long _outstanding;
+        private boolean _terminated;
+
+        Drain() {
+            _batch = new ArrayList<Object[]>();
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            do {
+                try {
+                    drain();
+                } catch (RuntimeException e) {
+                    fail(e);
+                }
+                missed = _pendingDrains.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void drain() {
+            if (_terminated) {
+                _records.clear();
+                return;
+            }
+            if (_cancelled) {
+                terminate();
+                cancelUpstream();
+                return;
+            }
+            ReactiveStreams.Subscriber<? super List<Object[]>> subscriber = _subscriber.get();
+            ReactiveStreams.Subscription upstream = _upstream.get();
+            if (subscriber == null || upstream == null) {
+                return;
+            }
+            if (_failure.get() != null) {
+                terminate();
+                cancelUpstream();
+                subscriber.onError(_failure.get());
+                return;
+            }
+            if (_upstreamFailure != null) {
+                terminate();
+                subscriber.onError(_upstreamFailure);
+                return;
+            }
+
+            while (_demand.get() > 0) {
+                GenericRecord record = _records.poll();
+                if (record == null) {
+                    break;
+                }
+                --_outstanding;
+                try {
+                    _adaptor.convertRecord(record, this);
+                } catch (AvroAdaptorException e) {
+                    terminate();
+                    cancelUpstream();
+                    subscriber.onError(e);
+                    return;
+                }
+                if (++_batchRecords == _batchSize) {
+                    publish(subscriber);
+                }
+                if (_cancelled) {
+                    return;
+                }
+            }
+
+            // reading the flag first, all records before completion are queued
+            if (_upstreamComplete && _records.isEmpty()) {
+                if (_batchRecords > 0) {
+                    if (_demand.get() == 0) {
+                        return;
+                    }
+                    publish(subscriber);
+                }
+                if (!_cancelled) {
+                    terminate();
+                    subscriber.onComplete();
+                }
+                return;
+            }
+            if (_demand.get() > 0 && _outstanding == 0 && !_upstreamComplete) {
+                _outstanding = _batchSize - _batchRecords;
+                upstream.request(_outstanding);
+            }
+        }
+
+        /**
+         * Ends the stream after an unexpected failure of the adaptor, the
+         * upstream subscription or the subscriber's onNext. Errors are not
+         * handled here, they reach the executor.
+         */
+        private void fail(RuntimeException e) {
+            if (_terminated) {
+                // the subscriber failed in a terminal signal, it must not be
+                // signalled again, so the failure is left to the executor
+                throw e;
+            }
+            terminate();
+            cancelUpstream();
+            _subscriber.get().onError(e);
+        }
+
+        private void publish(ReactiveStreams.Subscriber<? super List<Object[]>> subscriber) {
+            List<Object[]> batch = _batch;
+            _batch = new ArrayList<Object[]>(batch.size());
+            _batchRecords = 0;
+            if (_demand.get() != Long.MAX_VALUE) {
+                _demand.decrementAndGet();
+            }
+            subscriber.onNext(batch);
+        }
+
+        private void terminate() {
+            _terminated = true;
+            _batch = null;
+            _records.clear();
+        }
+
+        private void cancelUpstream() {
+            ReactiveStreams.Subscription upstream = _upstream.get();
+            if (upstream != null) {
+                upstream.cancel();
+            }
+        }
+
+        @Override
+        public boolean consumesRowsSynchronously() {
+            return false;
+        }
+
+        @Override
+        public void accept(Object[] row) {
+            _batch.add(row);
+        }
+    }
+
+    /**
+     * The subscription of the single subscriber, counting its demand for
+     * batches.
+     */
+    private final class BatchSubscription implements ReactiveStreams.Subscription {
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                _failure.compareAndSet(null, new IllegalArgumentException("requested batches must be positive: "
+                        + n));
+            } else {
+                long current = _demand.get();
+                long next = current + n;
+                if (next < 0) {
+                    next = Long.MAX_VALUE;
+                }
+                while (!_demand.compareAndSet(current, next)) {
+                    current = _demand.get();
+                    next = current + n;
+                    if (next < 0) {
+                        next = Long.MAX_VALUE;
+                    }
+                }
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            _cancelled = true;
+            schedule();
+        }
+    }
+
+    /**
+     * Handed to a subscriber refused by the processor.
+     */
+    private static final class RefusedSubscription implements ReactiveStreams.Subscription {
+
+        @Override
+        public void request(long n) {
+            // nothing will be published
+        }
+
+        @Override
+        public void cancel() {
+            // nothing to cancel
+        }
+    }
+}
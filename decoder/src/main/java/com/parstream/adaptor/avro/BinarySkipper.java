@@ -0,0 +1,105 @@
+/**
+ * Copyright 2015 ParStream GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parstream.adaptor.avro;
+
+import java.io.IOException;
+
+import org.apache.avro.Schema;
+import org.apache.avro.Schema.Field;
+import org.apache.avro.io.Decoder;
+
+/**
+ * Skips over binary encoded Avro values which feed no ParStream column,
+ * without materializing them. Arrays and maps written with block sizes are
+ * skipped block-wise.
+ */
+final class BinarySkipper {
+
+    private BinarySkipper() {
+    }
+
+    /**
+     * Skips a single value.
+     *
+     * @param schema
+     *            the writer schema of the value
+     * @param in
+     *            the decoder positioned at the value
+     * @throws IOException
+     *             if reading from the decoder fails
+     */
+    static void skip(Schema schema, Decoder in) throws IOException {
+        switch (schema.getType()) {
+        case NULL:
+            in.readNull();
+            break;
+        case BOOLEAN:
+            in.readBoolean();
+            break;
+        case INT:
+            in.readInt();
+            break;
+        case LONG:
+            in.readLong();
+            break;
+        case FLOAT:
+            in.readFloat();
+            break;
+        case DOUBLE:
+            in.readDouble();
+            break;
+        case STRING:
+            in.skipString();
+            break;
+        case BYTES:
+            in.skipBytes();
+            break;
+        case FIXED:
+            in.skipFixed(schema.getFixedSize());
+            break;
+        case ENUM:
+            in.readEnum();
+            break;
+        case UNION:
+            skip(schema.getTypes().get(in.readIndex()), in);
+            break;
+        case RECORD:
+            for (Field field : schema.getFields()) {
+                skip(field.schema(), in);
+            }
+            break;
+        case ARRAY:
+            Schema elementSchema = schema.getElementType();
+            for (long count = in.skipArray(); count != 0; count = in.skipArray()) {
+                for (long i = 0; i < count; ++i) {
+                    skip(elementSchema, in);
+                }
+            }
+            break;
+        case MAP:
+            Schema valueSchema = schema.getValueType();
+            for (long count = in.skipMap(); count != 0; count = in.skipMap()) {
+                for (long i = 0; i < count; ++i) {
+                    in.skipString();
+                    skip(valueSchema, in);
+                }
+            }
+            break;
+        default:
+            throw new IOException("Unknown Avro schema type: " + schema.getType());
+        }
+    }
+}
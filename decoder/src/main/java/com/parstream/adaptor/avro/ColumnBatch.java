@@ -0,0 +1,385 @@
+/**
+ * Copyright 2015 ParStream GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parstream.adaptor.avro;
+
+import java.util.Arrays;
+
+import com.parstream.driver.ColumnInfo;
+
+/**
+ * The rows of several converted Avro records, stored column by column, see
+ * {@link AvroAdaptor#convertRecords(Iterable)}. Integer and bit vector columns
+ * are stored in a <code>long[]</code>, FLOAT columns in a
+ * <code>float[]</code> and DOUBLE columns in a <code>double[]</code>, so
+ * consumers can process a whole column in a tight loop without unboxing.
+ * VARSTRING, date and time columns keep the values the ParStream Java
+ * Streaming Import Interface expects in an <code>Object[]</code>. Null values
+ * are marked in a bitmap per column.
+ * <p>
+ * The arrays returned by the column accessors are the storage of the batch,
+ * they may be longer than the number of rows and must not be modified.
+ * {@link #getRow(int, Object[])} provides the row view of the batch, the
+ * returned rows are equal to those of
+ * {@link AvroAdaptor#convertRecord(org.apache.avro.generic.GenericRecord)}.
+ */
+public final class ColumnBatch {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private static final int OBJECT = 0;
+    private static final int LONG = 1;
+    private static final int FLOAT = 2;
+    private static final int DOUBLE = 3;
+
+    private final ColumnInfo[] _columnInfo;
+    private final int[] _kinds;
+    private final long[][] _longs;
+    private final float[][] _floats;
+    private final double[][] _doubles;
+    private final Object[][] _objects;
+    // per column: one bit per row, set for null values
+    private final long[][] _nulls;
+    // per integer column: one bit per row, set for values which were a Long
+    private final long[][] _wide;
+    private int _capacity;
+    private int _rowCount;
+
+    /**
+     * Creates an empty batch.
+     *
+     * @param columnInfo
+     *            the ParStream table column information
+     */
+    ColumnBatch(ColumnInfo[] columnInfo) {
+        _columnInfo = columnInfo;
+        _kinds = new int[columnInfo.length];
+        _longs = new long[columnInfo.length][];
+        _floats = new float[columnInfo.length][];
+        _doubles = new double[columnInfo.length][];
+        _objects = new Object[columnInfo.length][];
+        _nulls = new long[columnInfo.length][];
+        _wide = new long[columnInfo.length][];
+        _capacity = INITIAL_CAPACITY;
+        _rowCount = 0;
+
+        for (int i = 0; i < columnInfo.length; ++i) {
+            _kinds[i] = getKind(columnInfo[i]);
+            switch (_kinds[i]) {
+            case LONG:
+                _longs[i] = new long[_capacity];
+                _wide[i] = new long[getWords(_capacity)];
+                break;
+            case FLOAT:
+                _floats[i] = new float[_capacity];
+                break;
+            case DOUBLE:
+                _doubles[i] = new double[_capacity];
+                break;
+            default:
+                _objects[i] = new Object[_capacity];
+                break;
+            }
+            _nulls[i] = new long[getWords(_capacity)];
+        }
+    }
+
+    private static int getKind(ColumnInfo columnInfo) {
+        switch (columnInfo.getType()) {
+        case UINT8:
+        case UINT16:
+        case UINT32:
+        case UINT64:
+        case INT8:
+        case INT16:
+        case INT32:
+        case INT64:
+        case BITVECTOR8:
+            return LONG;
+
+        case FLOAT:
+            return FLOAT;
+
+        case DOUBLE:
+            return DOUBLE;
+
+        default:
+            return OBJECT;
+        }
+    }
+
+    private static int getWords(int rows) {
+        return (rows + 63) >>> 6;
+    }
+
+    /**
+     * @return the number of rows in this batch
+     */
+    public int getRowCount() {
+        return _rowCount;
+    }
+
+    /**
+     * @return the number of columns of a row
+     */
+    public int getColumnCount() {
+        return _columnInfo.length;
+    }
+
+    /**
+     * @param column
+     *            the index of the column
+     * @return the ParStream column information of the column
+     */
+    public ColumnInfo getColumnInfo(int column) {
+        return _columnInfo[column];
+    }
+
+    /**
+     * @param column
+     *            the index of the column
+     * @param row
+     *            the index of the row
+     * @return true if the value is null
+     */
+    public boolean isNull(int column, int row) {
+        checkRow(row);
+        return isSet(_nulls[column], row);
+    }
+
+    /**
+     * Returns the null bitmap of a column, bit <code>row % 64</code> of word
+     * <code>row / 64</code> is set for null values.
+     *
+     * @param column
+     *            the index of the column
+     * @return the null bitmap
+     */
+    public long[] getNulls(int column) {
+        return _nulls[column];
+    }
+
+    /**
+     * @param column
+     *            the index of an integer or bit vector column
+     * @return the values of the column, 0 for null values
+     * @throws IllegalArgumentException
+     *             if the column is not stored as long values
+     */
+    public long[] getLongs(int column) {
+        checkKind(column, LONG);
+        return _longs[column];
+    }
+
+    /**
+     * @param column
+     *            the index of a FLOAT column
+     * @return the values of the column, 0 for null values
+     * @throws IllegalArgumentException
+     *             if the column is not stored as float values
+     */
+    public float[] getFloats(int column) {
+        checkKind(column, FLOAT);
+        return _floats[column];
+    }
+
+    /**
+     * @param column
+     *            the index of a DOUBLE column
+     * @return the values of the column, 0 for null values
+     * @throws IllegalArgumentException
+     *             if the column is not stored as double values
+     */
+    public double[] getDoubles(int column) {
+        checkKind(column, DOUBLE);
+        return _doubles[column];
+    }
+
+    /**
+     * @param column
+     *            the index of a VARSTRING, date, time or any other column not
+     *            stored as primitive values
+     * @return the values of the column, null for null values
+     * @throws IllegalArgumentException
+     *             if the column is stored as primitive values
+     */
+    public Object[] getObjects(int column) {
+        checkKind(column, OBJECT);
+        return _objects[column];
+    }
+
+    /**
+     * Returns a single value as it would be stored in a row.
+     *
+     * @param column
+     *            the index of the column
+     * @param row
+     *            the index of the row
+     * @return the value, boxed for primitive columns, may be null
+     */
+    public Object getValue(int column, int row) {
+        checkRow(row);
+        if (isSet(_nulls[column], row)) {
+            return null;
+        }
+        switch (_kinds[column]) {
+        case LONG:
+            if (isSet(_wide[column], row)) {
+                return Long.valueOf(_longs[column][row]);
+            }
+            return Integer.valueOf((int) _longs[column][row]);
+        case FLOAT:
+            return Float.valueOf(_floats[column][row]);
+        case DOUBLE:
+            return Double.valueOf(_doubles[column][row]);
+        default:
+            return _objects[column][row];
+        }
+    }
+
+    /**
+     * @param row
+     *            the index of the row
+     * @return a new array with the values of the row, one per ParStream
+     *         column
+     */
+    public Object[] getRow(int row) {
+        return getRow(row, new Object[_columnInfo.length]);
+    }
+
+    /**
+     * Stores a row of this batch into the given array, for consumers
+     * inserting rows one by one.
+     *
+     * @param row
+     *            the index of the row
+     * @param values
+     *            receives the values of the row, one per ParStream column
+     * @return the given array
+     */
+    public Object[] getRow(int row, Object[] values) {
+        for (int i = 0; i < _columnInfo.length; ++i) {
+            values[i] = getValue(i, row);
+        }
+        return values;
+    }
+
+    /**
+     * Appends a converted row.
+     *
+     * @param row
+     *            the values of the row, one per ParStream column
+     */
+    void addRow(Object[] row) {
+        if (_rowCount == _capacity) {
+            grow();
+        }
+        int index = _rowCount;
+        for (int i = 0; i < row.length; ++i) {
+            Object value = row[i];
+            setBit(_nulls[i], index, value == null);
+            switch (_kinds[i]) {
+            case LONG:
+                if (value == null) {
+                    _longs[i][index] = 0;
+                } else {
+                    _longs[i][index] = ((Number) value).longValue();
+                }
+                setBit(_wide[i], index, value instanceof Long);
+                break;
+            case FLOAT:
+                if (value == null) {
+                    _floats[i][index] = 0;
+                } else {
+                    _floats[i][index] = ((Float) value).floatValue();
+                }
+                break;
+            case DOUBLE:
+                if (value == null) {
+                    _doubles[i][index] = 0;
+                } else {
+                    _doubles[i][index] = ((Double) value).doubleValue();
+                }
+                break;
+            default:
+                _objects[i][index] = value;
+                break;
+            }
+        }
+        ++_rowCount;
+    }
+
+    /**
+     * Discards the rows appended last, e.g. those of a rejected record.
+     *
+     * @param rowCount
+     *            the number of rows to keep
+     */
+    void truncate(int rowCount) {
+        for (int i = 0; i < _columnInfo.length; ++i) {
+            if (_objects[i] != null) {
+                Arrays.fill(_objects[i], rowCount, _rowCount, null);
+            }
+        }
+        _rowCount = rowCount;
+    }
+
+    private void grow() {
+        _capacity *= 2;
+        for (int i = 0; i < _columnInfo.length; ++i) {
+            switch (_kinds[i]) {
+            case LONG:
+                _longs[i] = Arrays.copyOf(_longs[i], _capacity);
+                _wide[i] = Arrays.copyOf(_wide[i], getWords(_capacity));
+                break;
+            case FLOAT:
+                _floats[i] = Arrays.copyOf(_floats[i], _capacity);
+                break;
+            case DOUBLE:
+                _doubles[i] = Arrays.copyOf(_doubles[i], _capacity);
+                break;
+            default:
+                _objects[i] = Arrays.copyOf(_objects[i], _capacity);
+                break;
+            }
+            _nulls[i] = Arrays.copyOf(_nulls[i], getWords(_capacity));
+        }
+    }
+
+    private void checkRow(int row) {
+        if (row < 0 || row >= _rowCount) {
+            throw new IndexOutOfBoundsException("row " + row + ", row count " + _rowCount);
+        }
+    }
+
+    private void checkKind(int column, int kind) {
+        if (_kinds[column] != kind) {
+            throw new IllegalArgumentException("column " + _columnInfo[column].getName() + " has type "
+                    + _columnInfo[column].getType());
+        }
+    }
+
+    private static boolean isSet(long[] bits, int index) {
+        return (bits[index >>> 6] & (1L << index)) != 0;
+    }
+
+    private static void setBit(long[] bits, int index, boolean set) {
+        if (set) {
+            bits[index >>> 6] |= 1L << index;
+        } else {
+            bits[index >>> 6] &= ~(1L << index);
+        }
+    }
+}
@@ -0,0 +1,497 @@
+/**
+ * Copyright 2015 ParStream GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parstream.adaptor.avro;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+
+import org.apache.avro.util.Utf8;
+
+import com.parstream.driver.ColumnInfo;
+import com.parstream.driver.ParstreamDate;
+import com.parstream.driver.ParstreamException;
+import com.parstream.driver.ParstreamShortDate;
+import com.parstream.driver.ParstreamTime;
+import com.parstream.driver.ParstreamTimestamp;
+
+/**
+ * Converts a decoded Avro value into the Java representation expected by the
+ * ParStream Java Streaming Import Interface for a single column. The type of
+ * the column is resolved once by
+ * {@link #create(ColumnInfo, int, AdaptorMetrics, int)}, which returns a
+ * converter specialized for that type, so converting a value only checks the
+ * Java type of the value.
+ */
+abstract class ColumnConverter {
+
+    /**
+     * Returned by {@link #tryConvert(Object)} for values which cannot be
+     * stored in the column.
+     */
+    static final Object INVALID = new Object();
+
+    private final String _columnName;
+    private final ColumnInfo _columnInfo;
+    private final int _column;
+    private final AdaptorMetrics _metrics;
+
+    /**
+     * Creates a converter for the given ParStream column.
+     *
+     * @param columnInfo
+     *            the column the converted values are inserted into
+     * @param column
+     *            the index of the column
+     * @param metrics
+     *            records the values which cannot be converted
+     */
+    ColumnConverter(ColumnInfo columnInfo, int column, AdaptorMetrics metrics) {
+        _columnName = columnInfo.getName();
+        _columnInfo = columnInfo;
+        _column = column;
+        _metrics = metrics;
+    }
+
+    /**
+     * Creates the converter for the type of the given ParStream column.
+     *
+     * @param columnInfo
+     *            the column the converted values are inserted into
+     * @param column
+     *            the index of the column
+     * @param metrics
+     *            records the values which cannot be converted
+     * @param dictionarySize
+     *            the maximum number of entries of the string dictionary of a
+     *            VARSTRING column, 0 for none
+     * @return the converter specialized for the column type
+     */
+    static ColumnConverter create(ColumnInfo columnInfo, int column, AdaptorMetrics metrics, int dictionarySize) {
+        switch (columnInfo.getType()) {
+        case UINT8:
+        case UINT16:
+        case UINT32:
+        case UINT64:
+        case INT8:
+        case INT16:
+        case INT32:
+        case INT64:
+        case BITVECTOR8:
+            return new IntegerConverter(columnInfo, column, metrics);
+
+        case SHORTDATE:
+            return new ShortDateConverter(columnInfo, column, metrics);
+
+        case DATE:
+            return new DateConverter(columnInfo, column, metrics);
+
+        case TIME:
+            return new TimeConverter(columnInfo, column, metrics);
+
+        case TIMESTAMP:
+            return new TimestampConverter(columnInfo, column, metrics);
+
+        case VARSTRING:
+            if (dictionarySize > 0) {
+                return new DictionaryConverter(columnInfo, column, metrics, dictionarySize);
+            }
+            return new StringConverter(columnInfo, column, metrics);
+
+        case FLOAT:
+            return new FloatConverter(columnInfo, column, metrics);
+
+        case DOUBLE:
+            return new DoubleConverter(columnInfo, column, metrics);
+
+        case BLOB:
+            return new FailingConverter(columnInfo, column, metrics,
+                    "ParStream BLOB column type not supported for decoding");
+
+        default:
+            return new FailingConverter(columnInfo, column, metrics,
+                    "Unknown ParStream column type: " + columnInfo.getType());
+        }
+    }
+
+    /**
+     * Converts a single value, failing with an exception describing the
+     * value if it cannot be stored in the column.
+     *
+     * @param avroValueObj
+     *            the decoded Avro value, must not be null
+     * @return the value to insert into the column
+     * @throws AvroAdaptorException
+     *             if the value cannot be stored in the column
+     */
+    Object convert(Object avroValueObj) throws AvroAdaptorException {
+        Object value = tryConvert(avroValueObj);
+        if (value == INVALID) {
+            recordFailure();
+            throw createException(avroValueObj);
+        }
+        return value;
+    }
+
+    /**
+     * Converts a single value without throwing, so that callers tolerating
+     * bad values do not pay for building an exception. The failure is not
+     * recorded, see {@link #recordFailure()}.
+     *
+     * @param avroValueObj
+     *            the decoded Avro value, must not be null
+     * @return the value to insert into the column, or {@link #INVALID} if the
+     *         value cannot be stored in the column
+     */
+    abstract Object tryConvert(Object avroValueObj);
+
+    /**
+     * Records a value which could not be converted in the metrics.
+     */
+    final void recordFailure() {
+        _metrics.recordFailure(_column);
+    }
+
+    /**
+     * Creates the exception reporting a value which cannot be stored in the
+     * column.
+     *
+     * @param avroValueObj
+     *            the value {@link #tryConvert(Object)} returned
+     *            {@link #INVALID} for
+     * @return the exception to report the value with
+     */
+    final AvroAdaptorException createException(Object avroValueObj) {
+        return new AvroAdaptorException(describeFailure(avroValueObj));
+    }
+
+    /**
+     * Describes why a value cannot be stored in the column, without
+     * constructing an exception.
+     *
+     * @param avroValueObj
+     *            the value {@link #tryConvert(Object)} returned
+     *            {@link #INVALID} for
+     * @return the reason the value is rejected with
+     */
+    String describeFailure(Object avroValueObj) {
+        return "Incompatible datatypes for column (" + _columnName + "). Database type is "
+                + _columnInfo.getType().toString() + ", JAVA type is " + avroValueObj.getClass()
+                + ", Value attempted for insertion: " + avroValueObj.toString();
+    }
+
+    /**
+     * Integer and bit vector columns, taking Avro int and long values.
+     */
+    private static final class IntegerConverter extends ColumnConverter {
+
+        IntegerConverter(ColumnInfo columnInfo, int column, AdaptorMetrics metrics) {
+            super(columnInfo, column, metrics);
+        }
+
+        @Override
+        Object tryConvert(Object avroValueObj) {
+            if (!(avroValueObj instanceof Integer || avroValueObj instanceof Long)) {
+                return INVALID;
+            }
+            return avroValueObj;
+        }
+    }
+
+    /**
+     * VARSTRING columns, taking any Avro value by its string representation.
+     */
+    private static final class StringConverter extends ColumnConverter {
+
+        StringConverter(ColumnInfo columnInfo, int column, AdaptorMetrics metrics) {
+            super(columnInfo, column, metrics);
+        }
+
+        @Override
+        Object tryConvert(Object avroValueObj) {
+            if (avroValueObj instanceof String) {
+                return avroValueObj;
+            }
+            return avroValueObj.toString();
+        }
+    }
+
+    /**
+     * VARSTRING columns with a string dictionary, see
+     * {@link StringDictionary}. Every thread has its own dictionary.
+     */
+    private static final class DictionaryConverter extends ColumnConverter {
+
+        private final ThreadLocal<StringDictionary> _dictionary;
+
+        DictionaryConverter(ColumnInfo columnInfo, final int column, final AdaptorMetrics metrics,
+                final int maxEntries) {
+            super(columnInfo, column, metrics);
+            _dictionary = new ThreadLocal<StringDictionary>() {
+
+                @Override
+                protected StringDictionary initialValue() {
+                    return new StringDictionary(maxEntries, metrics, column);
+                }
+            };
+        }
+
+        @Override
+        Object tryConvert(Object avroValueObj) {
+            if (avroValueObj instanceof Utf8) {
+                return _dictionary.get().get((Utf8) avroValueObj);
+            }
+            if (avroValueObj instanceof String) {
+                return avroValueObj;
+            }
+            return avroValueObj.toString();
+        }
+    }
+
+    private static final class FloatConverter extends ColumnConverter {
+
+        FloatConverter(ColumnInfo columnInfo, int column, AdaptorMetrics metrics) {
+            super(columnInfo, column, metrics);
+        }
+
+        @Override
+        Object tryConvert(Object avroValueObj) {
+            if (!(avroValueObj instanceof Float)) {
+                return INVALID;
+            }
+            return avroValueObj;
+        }
+    }
+
+    private static final class DoubleConverter extends ColumnConverter {
+
+        DoubleConverter(ColumnInfo columnInfo, int column, AdaptorMetrics metrics) {
+            super(columnInfo, column, metrics);
+        }
+
+        @Override
+        Object tryConvert(Object avroValueObj) {
+            if (!(avroValueObj instanceof Double)) {
+                return INVALID;
+            }
+            return avroValueObj;
+        }
+    }
+
+    /**
+     * Columns no value can be converted for, failing on the first value only,
+     * so that the column may still be left unmapped.
+     */
+    private static final class FailingConverter extends ColumnConverter {
+
+        private final String _message;
+
+        FailingConverter(ColumnInfo columnInfo, int column, AdaptorMetrics metrics, String message) {
+            super(columnInfo, column, metrics);
+            _message = message;
+        }
+
+        @Override
+        Object tryConvert(Object avroValueObj) {
+            return INVALID;
+        }
+
+        @Override
+        String describeFailure(Object avroValueObj) {
+            return _message;
+        }
+    }
+
+    /**
+     * Date and time columns, taking Avro long values as milliseconds and int
+     * values as seconds since the epoch.
+     */
+    private abstract static class TemporalConverter extends ColumnConverter {
+
+        private final ThreadLocal<DateState> _dateState;
+
+        TemporalConverter(ColumnInfo columnInfo, int column, AdaptorMetrics metrics) {
+            super(columnInfo, column, metrics);
+            _dateState = new ThreadLocal<DateState>() {
+
+                @Override
+                protected DateState initialValue() {
+                    return new DateState();
+                }
+            };
+        }
+
+        @Override
+        final Object tryConvert(Object avroValueObj) {
+            long millis;
+            if (avroValueObj instanceof Long) {
+                millis = ((Long) avroValueObj).longValue();
+            } else if (avroValueObj instanceof Integer) {
+                millis = ((Integer) avroValueObj).intValue() * 1000L;
+            } else {
+                return INVALID;
+            }
+
+            try {
+                return convert(_dateState.get(), millis);
+            } catch (ParstreamException e) {
+                return INVALID;
+            }
+        }
+
+        /**
+         * Reports a value rejected by the driver with the message of the
+         * driver, a value of another type as incompatible.
+         */
+        @Override
+        final String describeFailure(Object avroValueObj) {
+            // only failed values get here, so converting once more is cheap
+            // compared to keeping the driver's exception for every value
+            long millis;
+            if (avroValueObj instanceof Long) {
+                millis = ((Long) avroValueObj).longValue();
+            } else if (avroValueObj instanceof Integer) {
+                millis = ((Integer) avroValueObj).intValue() * 1000L;
+            } else {
+                return super.describeFailure(avroValueObj);
+            }
+
+            try {
+                convert(_dateState.get(), millis);
+            } catch (ParstreamException e) {
+                return e.getMessage();
+            }
+            return super.describeFailure(avroValueObj);
+        }
+
+        abstract Object convert(DateState state, long millis) throws ParstreamException;
+    }
+
+    private static final class ShortDateConverter extends TemporalConverter {
+
+        ShortDateConverter(ColumnInfo columnInfo, int column, AdaptorMetrics metrics) {
+            super(columnInfo, column, metrics);
+        }
+
+        @Override
+        Object convert(DateState state, long millis) throws ParstreamException {
+            if (!state.isSameDay(millis)) {
+                state.setDay(millis, new ParstreamShortDate(state.setTime(millis)));
+            }
+            return state._day;
+        }
+    }
+
+    private static final class DateConverter extends TemporalConverter {
+
+        DateConverter(ColumnInfo columnInfo, int column, AdaptorMetrics metrics) {
+            super(columnInfo, column, metrics);
+        }
+
+        @Override
+        Object convert(DateState state, long millis) throws ParstreamException {
+            if (!state.isSameDay(millis)) {
+                state.setDay(millis, new ParstreamDate(state.setTime(millis)));
+            }
+            return state._day;
+        }
+    }
+
+    private static final class TimeConverter extends TemporalConverter {
+
+        TimeConverter(ColumnInfo columnInfo, int column, AdaptorMetrics metrics) {
+            super(columnInfo, column, metrics);
+        }
+
+        @Override
+        Object convert(DateState state, long millis) throws ParstreamException {
+            return new ParstreamTime(state.setTime(millis));
+        }
+    }
+
+    private static final class TimestampConverter extends TemporalConverter {
+
+        TimestampConverter(ColumnInfo columnInfo, int column, AdaptorMetrics metrics) {
+            super(columnInfo, column, metrics);
+        }
+
+        @Override
+        Object convert(DateState state, long millis) throws ParstreamException {
+            return new ParstreamTimestamp(state.setTime(millis));
+        }
+    }
+
+    /**
+     * The calendar a thread passes to the ParStream date and time types, which
+     * only read the calendar fields while they are constructed. Creating a
+     * calendar looks up the default time zone, so every thread reuses its own
+     * calendar instead, fixing the time zone when the thread first converts a
+     * value of the column.
+     * <p>
+     * Date columns additionally keep the value converted last together with
+     * the bounds of its day in the default time zone. The ParStream date types
+     * are immutable, so values of the same day share one instance without
+     * touching the calendar at all.
+     */
+    private static final class DateState {
+
+        private final GregorianCalendar _calendar;
+        private long _dayStart;
+        private long _dayEnd;
+        private Object _day;
+
+        DateState() {
+            _calendar = new GregorianCalendar();
+            _dayStart = Long.MAX_VALUE;
+            _dayEnd = Long.MIN_VALUE;
+        }
+
+        GregorianCalendar setTime(long millis) {
+            _calendar.setTimeInMillis(millis);
+            return _calendar;
+        }
+
+        boolean isSameDay(long millis) {
+            return millis >= _dayStart && millis < _dayEnd;
+        }
+
+        /**
+         * Remembers the converted value of a day, the calendar must still be
+         * set to the converted time. Days with a change of the time zone
+         * offset, i.e. of the daylight saving time, are not remembered, as
+         * their local date does not necessarily change at midnight only.
+         */
+        void setDay(long millis, Object day) {
+            _calendar.set(Calendar.HOUR_OF_DAY, 0);
+            _calendar.set(Calendar.MINUTE, 0);
+            _calendar.set(Calendar.SECOND, 0);
+            _calendar.set(Calendar.MILLISECOND, 0);
+            long dayStart = _calendar.getTimeInMillis();
+            _calendar.add(Calendar.DAY_OF_MONTH, 1);
+            long dayEnd = _calendar.getTimeInMillis();
+
+            TimeZone zone = _calendar.getTimeZone();
+            if (millis >= dayStart && millis < dayEnd && zone.getOffset(dayStart) == zone.getOffset(dayEnd - 1)) {
+                _dayStart = dayStart;
+                _dayEnd = dayEnd;
+            } else {
+                _dayStart = Long.MAX_VALUE;
+                _dayEnd = Long.MIN_VALUE;
+            }
+            _day = day;
+        }
+    }
+}
@@ -0,0 +1,277 @@
+/**
+ * Copyright 2015 ParStream GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parstream.adaptor.avro;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import com.parstream.driver.ColumnInfo;
+
+/**
+ * The resolved form of the mapping configuration file. Every
+ * <code>column.&lt;name&gt;</code> entry is bound to the index of the
+ * ParStream column it feeds, so that Avro paths only need to be looked up
+ * while a conversion plan is compiled and never per record.
+ * <p>
+ * The mapped paths are indexed in a trie over their
+ * {@link AvroAdaptor#FIELD_DELIMITER} separated segments. Looking up a path
+ * costs one hash lookup per segment, independent of the number of mapped
+ * paths, and tells whether any mapped path lies below it.
+ * <p>
+ * A <code>dictionary.&lt;name&gt;</code> entry enables the string dictionary
+ * of a VARSTRING column, its value is the maximum number of distinct values
+ * kept, see {@link StringDictionary}.
+ */
+class ColumnMapping {
+
+    static final String COLUMN_KEY_PREFIX = "column.";
+    static final String DICTIONARY_KEY_PREFIX = "dictionary.";
+
+    /**
+     * The largest accepted dictionary size.
+     */
+    static final int MAX_DICTIONARY_SIZE = 1 << 20;
+
+    private static final int[] NO_COLUMNS = new int[0];
+
+    private final int _columnCount;
+    private final PathNode _root;
+    private final int[] _dictionarySizes;
+
+    /**
+     * Resolves the mapping entries for the given ParStream columns.
+     *
+     * @param mappingProps
+     *            the loaded mapping configuration
+     * @param columnInfo
+     *            the ParStream table column information
+     * @throws AvroAdaptorException
+     *             if a dictionary size is not a number between 1 and
+     *             {@link #MAX_DICTIONARY_SIZE} or its column is no VARSTRING
+     *             column
+     */
+    ColumnMapping(Properties mappingProps, ColumnInfo[] columnInfo) throws AvroAdaptorException {
+        _columnCount = columnInfo.length;
+        _root = new PathNode();
+        _dictionarySizes = new int[columnInfo.length];
+
+        for (int i = 0; i < columnInfo.length; ++i) {
+            _dictionarySizes[i] = parseDictionarySize(mappingProps, columnInfo[i]);
+            String avroKey = mappingProps.getProperty(COLUMN_KEY_PREFIX + columnInfo[i].getName());
+            if (avroKey == null || "".equals(avroKey.trim())) {
+                continue;
+            }
+            PathNode node = _root;
+            int start = 0;
+            int end = avroKey.indexOf(AvroAdaptor.FIELD_DELIMITER);
+            while (end >= 0) {
+                node = node.addChild(avroKey.substring(start, end));
+                start = end + AvroAdaptor.FIELD_DELIMITER.length();
+                end = avroKey.indexOf(AvroAdaptor.FIELD_DELIMITER, start);
+            }
+            node = node.addChild(avroKey.substring(start));
+            node._columns.add(i);
+        }
+        _root.resolve();
+    }
+
+    private static int parseDictionarySize(Properties mappingProps, ColumnInfo columnInfo)
+            throws AvroAdaptorException {
+        String size = mappingProps.getProperty(DICTIONARY_KEY_PREFIX + columnInfo.getName());
+        if (size == null || "".equals(size.trim())) {
+            return 0;
+        }
+
+        switch (columnInfo.getType()) {
+        case VARSTRING:
+            break;
+        default:
+            throw new AvroAdaptorException("dictionary requires a VARSTRING column: " + columnInfo.getName());
+        }
+        try {
+            int maxEntries = Integer.parseInt(size.trim());
+            if (maxEntries >= 1 && maxEntries <= MAX_DICTIONARY_SIZE) {
+                return maxEntries;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new AvroAdaptorException("invalid dictionary size for column " + columnInfo.getName() + ": " + size);
+    }
+
+    /**
+     * @return the number of columns of a produced row
+     */
+    int getColumnCount() {
+        return _columnCount;
+    }
+
+    /**
+     * @return the indexes of all columns with a mapped Avro path, in
+     *         ascending order
+     */
+    int[] getMappedColumns() {
+        int[] columns = _root._columnsAtOrBelow.clone();
+        Arrays.sort(columns);
+        return columns;
+    }
+
+    /**
+     * @param column
+     *            the index of the column
+     * @return the maximum number of entries of the string dictionary of the
+     *         column, 0 if it has none
+     */
+    int getDictionarySize(int column) {
+        return _dictionarySizes[column];
+    }
+
+    /**
+     * Selects the columns with or without a string dictionary. Strings are
+     * stored undecoded into the slots of dictionary columns.
+     *
+     * @param columns
+     *            the column indexes
+     * @param dictionary
+     *            true to select the columns with a dictionary
+     * @return the selected column indexes
+     */
+    int[] selectColumns(int[] columns, boolean dictionary) {
+        List<Integer> selected = new ArrayList<Integer>(columns.length);
+        for (int column : columns) {
+            if ((_dictionarySizes[column] > 0) == dictionary) {
+                selected.add(column);
+            }
+        }
+        return PathNode.toArray(selected);
+    }
+
+    /**
+     * Returns the indexes of the columns mapped to exactly the given Avro path.
+     *
+     * @param path
+     *            the fully qualified Avro path
+     * @return the column indexes, an empty array if no column uses this path
+     */
+    int[] getColumns(String path) {
+        PathNode node = find(path);
+        if (node == null) {
+            return NO_COLUMNS;
+        }
+        return node._columnsAt;
+    }
+
+    /**
+     * Checks whether at least one mapped Avro path lies below the given path,
+     * i.e. the path is a record or an array some column is reading from.
+     *
+     * @param path
+     *            the fully qualified Avro path
+     * @return true if a mapped path starts with the given path followed by the
+     *         field delimiter
+     */
+    boolean hasPathsBelow(String path) {
+        PathNode node = find(path);
+        return node != null && !node._children.isEmpty();
+    }
+
+    /**
+     * Returns the indexes of all columns mapped to the given Avro path or to a
+     * path below it.
+     *
+     * @param path
+     *            the fully qualified Avro path
+     * @return the column indexes, an empty array if there are none
+     */
+    int[] getColumnsAtOrBelow(String path) {
+        PathNode node = find(path);
+        if (node == null) {
+            return NO_COLUMNS;
+        }
+        return node._columnsAtOrBelow;
+    }
+
+    private PathNode find(String path) {
+        PathNode node = _root;
+        int start = 0;
+        int end = path.indexOf(AvroAdaptor.FIELD_DELIMITER);
+        while (end >= 0) {
+            node = node._children.get(path.substring(start, end));
+            if (node == null) {
+                return null;
+            }
+            start = end + AvroAdaptor.FIELD_DELIMITER.length();
+            end = path.indexOf(AvroAdaptor.FIELD_DELIMITER, start);
+        }
+        return node._children.get(path.substring(start));
+    }
+
+    /**
+     * A segment of the mapped paths, with the columns mapped to the path
+     * ending in this segment.
+     */
+    private static final class PathNode {
+
+        private final Map<String, PathNode> _children;
+        private final List<Integer> _columns;
+        private int[] _columnsAt;
+        private int[] _columnsAtOrBelow;
+
+        PathNode() {
+            _children = new HashMap<String, PathNode>();
+            _columns = new ArrayList<Integer>(1);
+        }
+
+        PathNode addChild(String segment) {
+            PathNode child = _children.get(segment);
+            if (child == null) {
+                child = new PathNode();
+                _children.put(segment, child);
+            }
+            return child;
+        }
+
+        /**
+         * Computes the column arrays of this node and all nodes below it.
+         *
+         * @return the columns at or below this node
+         */
+        List<Integer> resolve() {
+            List<Integer> atOrBelow = new ArrayList<Integer>(_columns);
+            for (PathNode child : _children.values()) {
+                atOrBelow.addAll(child.resolve());
+            }
+            _columnsAt = toArray(_columns);
+            _columnsAtOrBelow = toArray(atOrBelow);
+            return atOrBelow;
+        }
+
+        private static int[] toArray(List<Integer> indexes) {
+            if (indexes.isEmpty()) {
+                return NO_COLUMNS;
+            }
+            int[] columns = new int[indexes.size()];
+            for (int i = 0; i < columns.length; ++i) {
+                columns[i] = indexes.get(i);
+            }
+            return columns;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/**
+ * Copyright 2015 ParStream GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parstream.adaptor.avro;
+
+import java.io.IOException;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.Decoder;
+
+/**
+ * A conversion plan compiled once for a writer schema and the column mapping.
+ * All Avro paths of the mapping are resolved into positional field accesses
+ * while compiling, so converting a record neither builds nor hashes any
+ * String.
+ * <p>
+ * A record is converted by storing its mapped values into one slot per
+ * ParStream column. Arrays are expanded afterwards by a {@link RowIterator}:
+ * every element of an array produces its own row, sibling arrays produce the
+ * cartesian product of their elements with the first array in schema order
+ * varying slowest.
+ * <p>
+ * Optionally the evaluation of the scalar fields of the top level record is
+ * generated, see {@link GeneratedPlan}. The plan falls back to interpreting
+ * the record if no code can be generated for it.
+ */
+class ConversionPlan {
+
+    private final Schema _schema;
+    private final RecordPlan _root;
+    private final GeneratedPlan _generated;
+
+    /**
+     * Compiles the plan for a writer schema.
+     *
+     * @param schema
+     *            the writer schema of the converted records
+     * @param mapping
+     *            the resolved column mapping
+     * @param codeGeneration
+     *            true to generate the evaluation of the top level record
+     */
+    ConversionPlan(Schema schema, ColumnMapping mapping, boolean codeGeneration) {
+        _schema = schema;
+        _root = RecordPlan.compile(null, schema, mapping);
+        if (codeGeneration) {
+            _generated = GeneratedPlan.generate(_root);
+        } else {
+            _generated = null;
+        }
+    }
+
+    /**
+     * @return the writer schema this plan was compiled for
+     */
+    Schema getSchema() {
+        return _schema;
+    }
+
+    /**
+     * Evaluates a single Avro record, its arrays are expanded while iterating
+     * over the returned rows.
+     *
+     * @param record
+     *            the record to convert, its schema must be the compiled schema
+     * @param rows
+     *            the iterator to reuse, any remaining rows of it are discarded
+     * @return the given iterator, positioned at the first produced row
+     * @throws AvroAdaptorException
+     *             if a field has an unsupported datatype
+     */
+    RowIterator iterate(GenericRecord record, RowIterator rows) throws AvroAdaptorException {
+        evaluate(record, rows).start();
+        return rows;
+    }
+
+    /**
+     * Reads a single binary encoded Avro record, its arrays are expanded
+     * while iterating over the returned rows. The whole record is read before
+     * this method returns.
+     *
+     * @param in
+     *            the decoder positioned at the record, written with the
+     *            compiled schema
+     * @param rows
+     *            the iterator to reuse, any remaining rows of it are discarded
+     * @return the given iterator, positioned at the first produced row
+     * @throws AvroAdaptorException
+     *             if a field has an unsupported datatype
+     * @throws IOException
+     *             if reading from the decoder fails
+     */
+    RowIterator iterate(Decoder in, RowIterator rows) throws AvroAdaptorException, IOException {
+        evaluate(in, rows).start();
+        return rows;
+    }
+
+    /**
+     * Evaluates a single Avro record like
+     * {@link #iterate(GenericRecord, RowIterator)}, but leaves the iteration
+     * to be started by the caller, so that it can be split first.
+     *
+     * @param record
+     *            the record to convert, its schema must be the compiled schema
+     * @param rows
+     *            the iterator to reuse, any remaining rows of it are discarded
+     * @return the given iterator, holding the evaluated record
+     * @throws AvroAdaptorException
+     *             if a field has an unsupported datatype
+     */
+    RowIterator evaluate(GenericRecord record, RowIterator rows) throws AvroAdaptorException {
+        rows.reset(record);
+        if (_generated == null) {
+            _root.evaluate(record, rows.getValues(), rows.getArrays());
+        } else {
+            _generated.evaluate(record, rows.getValues(), rows.getArrays());
+        }
+        return rows;
+    }
+
+    /**
+     * Reads a single binary encoded Avro record like
+     * {@link #iterate(Decoder, RowIterator)}, but leaves the iteration to be
+     * started by the caller, so that it can be split first.
+     *
+     * @param in
+     *            the decoder positioned at the record, written with the
+     *            compiled schema
+     * @param rows
+     *            the iterator to reuse, any remaining rows of it are discarded
+     * @return the given iterator, holding the evaluated record
+     * @throws AvroAdaptorException
+     *             if a field has an unsupported datatype
+     * @throws IOException
+     *             if reading from the decoder fails
+     */
+    RowIterator evaluate(Decoder in, RowIterator rows) throws AvroAdaptorException, IOException {
+        rows.reset(null);
+        _root.read(in, rows.getValues(), rows.getArrays());
+        return rows;
+    }
+}
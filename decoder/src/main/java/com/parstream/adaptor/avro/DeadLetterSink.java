@@ -0,0 +1,40 @@
+/**
+ * Copyright 2015 ParStream GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parstream.adaptor.avro;
+
+import org.apache.avro.generic.GenericRecord;
+
+/**
+ * Receives the records rejected by an adaptor using
+ * {@link ErrorPolicy#DEAD_LETTER}, see {@link AvroDeadLetterWriter}. An
+ * adaptor shared between threads calls the sink concurrently.
+ */
+public interface DeadLetterSink {
+
+    /**
+     * Receives a rejected record.
+     *
+     * @param record
+     *            the original record
+     * @param reason
+     *            describes the first value of the record which cannot be
+     *            converted
+     * @throws AvroAdaptorException
+     *             if the record cannot be stored, it is then reported to the
+     *             caller of the adaptor
+     */
+    void accept(GenericRecord record, String reason) throws AvroAdaptorException;
+}
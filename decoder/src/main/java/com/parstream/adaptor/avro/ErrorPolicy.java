@@ -0,0 +1,55 @@
+/**
+ * Copyright 2015 ParStream GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parstream.adaptor.avro;
+
+/**
+ * Defines how an {@link AvroAdaptor} handles a value which cannot be stored in
+ * its ParStream column, see {@link AvroAdaptor#setErrorPolicy(ErrorPolicy)}.
+ * All policies count the failed values in the metrics of the adaptor. Except
+ * for {@link #FAIL}, a failed value does not construct an exception, a
+ * rejected record only gets the reason string, so bad input data costs little
+ * more than good data.
+ */
+public enum ErrorPolicy {
+
+    /**
+     * Throws an {@link AvroAdaptorException} describing the value, the
+     * default.
+     */
+    FAIL,
+
+    /**
+     * Drops every row containing a value which cannot be converted. The other
+     * rows of the record, e.g. those of other array elements, are kept.
+     */
+    SKIP_ROW,
+
+    /**
+     * Stores null instead of a value which cannot be converted.
+     */
+    NULL_VALUE,
+
+    /**
+     * Drops the whole record and passes it with the reason to the
+     * {@link DeadLetterSink} of the adaptor, so that it can be replayed. Rows
+     * of the record already returned by a {@link RowIterator} stay valid,
+     * all other methods produce no row for a rejected record. Records
+     * decoded from binary data have no <code>GenericRecord</code> to pass,
+     * they are reported like {@link #FAIL}, and so are all records if no
+     * sink is set.
+     */
+    DEAD_LETTER
+}
@@ -0,0 +1,312 @@
+/**
+ * Copyright 2015 ParStream GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parstream.adaptor.avro;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Set;
+
+import org.apache.avro.Schema;
+import org.apache.avro.Schema.Field;
+import org.apache.avro.Schema.Type;
+import org.apache.avro.generic.IndexedRecord;
+import org.apache.avro.io.Decoder;
+import org.apache.avro.util.Utf8;
+
+/**
+ * The compiled form of a single record field. It knows the position of the
+ * field, the columns mapped to the field itself and the plans of the nested
+ * records and arrays the field may hold.
+ */
+class FieldPlan {
+
+    private static final Integer TRUE_VALUE = Integer.valueOf(1);
+    private static final Integer FALSE_VALUE = Integer.valueOf(0);
+
+    private final int _position;
+    private final String _name;
+    private final String _recordPrefix;
+    private final int[] _columns;
+    private final int[] _stringColumns;
+    private final int[] _dictionaryColumns;
+    private final NestedRecordPlans _records;
+    private final ArrayPlan _array;
+
+    private FieldPlan(int position, String name, String recordPrefix, int[] columns, NestedRecordPlans records,
+            ArrayPlan array, ColumnMapping mapping) {
+        _position = position;
+        _name = name;
+        _recordPrefix = recordPrefix;
+        _columns = columns;
+        _stringColumns = mapping.selectColumns(columns, false);
+        _dictionaryColumns = mapping.selectColumns(columns, true);
+        _records = records;
+        _array = array;
+    }
+
+    /**
+     * Compiles the plan for a field.
+     *
+     * @param recordPath
+     *            the path of the record owning the field
+     * @param field
+     *            the field
+     * @param mapping
+     *            the resolved column mapping
+     * @return the compiled plan, null if the field feeds no column
+     */
+    static FieldPlan compile(String recordPath, Field field, ColumnMapping mapping) {
+        String recordPrefix = recordPath + AvroAdaptor.FIELD_DELIMITER;
+        String path = recordPrefix + field.name();
+
+        int[] columns = mapping.getColumns(path);
+        NestedRecordPlans records = new NestedRecordPlans(recordPrefix, field.schema(), mapping);
+
+        ArrayPlan array = null;
+        Schema arraySchema = arrayBranch(field.schema());
+        if (arraySchema != null && (columns.length > 0 || mapping.hasPathsBelow(path))) {
+            array = ArrayPlan.compile(path, arraySchema.getElementType(), mapping);
+        }
+
+        if (columns.length == 0 && records.isEmpty() && array == null) {
+            return null;
+        }
+        return new FieldPlan(field.pos(), field.name(), recordPrefix, columns, records, array, mapping);
+    }
+
+    private static Schema arrayBranch(Schema schema) {
+        if (schema.getType() == Type.ARRAY) {
+            return schema;
+        }
+        if (schema.getType() == Type.UNION) {
+            for (Schema branch : schema.getTypes()) {
+                if (branch.getType() == Type.ARRAY) {
+                    return branch;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Stores a value into the given slots.
+     *
+     * @param values
+     *            the value slots, one per ParStream column
+     * @param columns
+     *            the slots to set
+     * @param value
+     *            the value to store
+     */
+    static void put(Object[] values, int[] columns, Object value) {
+        for (int column : columns) {
+            values[column] = value;
+        }
+    }
+
+    /**
+     * Stores a string into the given slots, decoded into a String for plain
+     * columns and as it is for columns with a string dictionary, which decode
+     * it themselves.
+     *
+     * @param values
+     *            the value slots, one per ParStream column
+     * @param stringColumns
+     *            the slots of the columns without a dictionary
+     * @param dictionaryColumns
+     *            the slots of the columns with a dictionary
+     * @param value
+     *            the string, a Utf8 or a String
+     */
+    static void putString(Object[] values, int[] stringColumns, int[] dictionaryColumns, Object value) {
+        if (stringColumns.length > 0) {
+            put(values, stringColumns, value.toString());
+        }
+        if (dictionaryColumns.length > 0) {
+            put(values, dictionaryColumns, value);
+        }
+    }
+
+    /**
+     * Stores a string value of this field into its slots.
+     *
+     * @param values
+     *            the value slots, one per ParStream column
+     * @param value
+     *            the string, a Utf8 or a String
+     */
+    void putString(Object[] values, Object value) {
+        putString(values, _stringColumns, _dictionaryColumns, value);
+    }
+
+    /**
+     * @return the position of the field in its record
+     */
+    int getPosition() {
+        return _position;
+    }
+
+    /**
+     * @return the slots of the columns fed by the field value itself
+     */
+    int[] getColumns() {
+        return _columns;
+    }
+
+    /**
+     * @return the name of the field
+     */
+    String getName() {
+        return _name;
+    }
+
+    /**
+     * Collects the fields of all records nested in this field which feed at
+     * least one column.
+     * 
+     * @param fieldsByRecord
+     *            receives the names of the used fields, by record full name
+     */
+    void collectMappedFields(Map<String, Set<String>> fieldsByRecord) {
+        for (RecordPlan record : _records.getPlans()) {
+            record.collectMappedFields(fieldsByRecord);
+        }
+        if (_array != null) {
+            _array.collectMappedFields(fieldsByRecord);
+        }
+    }
+
+    /**
+     * Stores a non-null field value, or the values nested in it, into the
+     * value slots.
+     *
+     * @param res
+     *            the field value, must not be null
+     * @param values
+     *            the value slots, one per ParStream column
+     * @param arrays
+     *            receives the non-empty arrays to expand
+     * @throws AvroAdaptorException
+     *             if the value has an unsupported datatype
+     */
+    void evaluate(Object res, Object[] values, List<ArrayPlan.Instance> arrays) throws AvroAdaptorException {
+        if (res instanceof IndexedRecord) {
+            IndexedRecord nested = (IndexedRecord) res;
+            RecordPlan plan = _records.select(nested.getSchema());
+            if (plan != null) {
+                plan.evaluate(nested, values, arrays);
+            }
+        } else if (res instanceof Utf8 || res instanceof String) {
+            putString(values, _stringColumns, _dictionaryColumns, res);
+        } else if (res instanceof Boolean) {
+            if ((Boolean) res) {
+                put(values, _columns, TRUE_VALUE);
+            } else {
+                put(values, _columns, FALSE_VALUE);
+            }
+        } else if (res instanceof Integer || res instanceof Long || res instanceof Float || res instanceof Double) {
+            put(values, _columns, res);
+        } else if (res instanceof List) {
+            List<?> arr = (List<?>) res;
+            if (_array != null && arr.size() > 0) {
+                if (!(arr instanceof RandomAccess)) {
+                    // the elements are accessed by index while expanding
+                    arr = new ArrayList<Object>(arr);
+                }
+                arrays.add(new ArrayPlan.Instance(_array, arr));
+            }
+        } else {
+            throw new AvroAdaptorException("Unsupported datatype: " + res.getClass());
+        }
+    }
+
+    /**
+     * Reads a binary encoded field value and stores it, or the values nested
+     * in it, into the value slots.
+     *
+     * @param in
+     *            the decoder positioned at the value
+     * @param schema
+     *            the writer schema of the value
+     * @param values
+     *            the value slots, one per ParStream column
+     * @param arrays
+     *            receives the non-empty arrays to expand
+     * @throws AvroAdaptorException
+     *             if the value has an unsupported datatype
+     * @throws IOException
+     *             if reading from the decoder fails
+     */
+    void read(Decoder in, Schema schema, Object[] values, List<ArrayPlan.Instance> arrays)
+            throws AvroAdaptorException, IOException {
+        switch (schema.getType()) {
+        case NULL:
+            in.readNull();
+            break;
+        case UNION:
+            read(in, schema.getTypes().get(in.readIndex()), values, arrays);
+            break;
+        case RECORD:
+            RecordPlan plan = _records.select(schema);
+            if (plan == null) {
+                BinarySkipper.skip(schema, in);
+            } else {
+                plan.read(in, values, arrays);
+            }
+            break;
+        case ARRAY:
+            if (_array == null) {
+                BinarySkipper.skip(schema, in);
+            } else {
+                _array.read(in, schema.getElementType(), values, arrays);
+            }
+            break;
+        case STRING:
+            if (_dictionaryColumns.length > 0) {
+                putString(values, _stringColumns, _dictionaryColumns, in.readString(null));
+            } else if (_columns.length > 0) {
+                put(values, _columns, in.readString());
+            } else {
+                in.skipString();
+            }
+            break;
+        case BOOLEAN:
+            if (in.readBoolean()) {
+                put(values, _columns, TRUE_VALUE);
+            } else {
+                put(values, _columns, FALSE_VALUE);
+            }
+            break;
+        case INT:
+            put(values, _columns, Integer.valueOf(in.readInt()));
+            break;
+        case LONG:
+            put(values, _columns, Long.valueOf(in.readLong()));
+            break;
+        case FLOAT:
+            put(values, _columns, Float.valueOf(in.readFloat()));
+            break;
+        case DOUBLE:
+            put(values, _columns, Double.valueOf(in.readDouble()));
+            break;
+        default:
+            throw new AvroAdaptorException("Unsupported datatype: " + schema.getType());
+        }
+    }
+}
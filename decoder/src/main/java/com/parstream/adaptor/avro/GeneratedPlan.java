@@ -0,0 +1,344 @@
+/**
+ * Copyright 2015 ParStream GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parstream.adaptor.avro;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.avro.Schema;
+import org.apache.avro.Schema.Type;
+import org.apache.avro.generic.IndexedRecord;
+import org.apache.avro.util.Utf8;
+
+/**
+ * The evaluation of a top level record plan with its scalar fields generated
+ * into a single method handle. The handle reads every int, long, float,
+ * double, string and boolean field, or a union of null and one of them, by
+ * its constant position and stores it into its constant slots, without the
+ * type dispatch of {@link FieldPlan#evaluate}. Nested records and arrays are
+ * still evaluated by their field plans.
+ * <p>
+ * A value not matching the type of its field schema is passed to the field
+ * plan, so both evaluations produce the same rows.
+ * <p>
+ * The JIT only inlines a method handle it sees as a constant, which a handle
+ * in an instance field is not. So every plan loads its own copy of
+ * {@link ScalarHolder} with a class loader of its own, which holds the
+ * handle of this plan in a static final field.
+ */
+final class GeneratedPlan {
+
+    private static final Integer TRUE_VALUE = Integer.valueOf(1);
+    private static final Integer FALSE_VALUE = Integer.valueOf(0);
+
+    private static final MethodType FIELD_TYPE = MethodType.methodType(void.class, IndexedRecord.class,
+            Object[].class, List.class);
+
+    private static final String HOLDER_NAME = GeneratedPlan.class.getName() + "$ScalarHolder";
+
+    /** the class file of {@link ScalarHolder}, null if it cannot be read */
+    private static final byte[] HOLDER_CLASS = readHolderClass();
+
+    private final Scalars _scalars;
+    private final FieldPlan[] _fields;
+
+    private GeneratedPlan(Scalars scalars, FieldPlan[] fields) {
+        _scalars = scalars;
+        _fields = fields;
+    }
+
+    /**
+     * Generates the evaluation of a record plan.
+     *
+     * @param plan
+     *            the compiled plan of the top level record
+     * @return the generated evaluation, null if the record has no scalar
+     *         field or generating fails, then the plan is interpreted
+     */
+    static GeneratedPlan generate(RecordPlan plan) {
+        if (HOLDER_CLASS == null) {
+            return null;
+        }
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            MethodHandle get = lookup.findVirtual(IndexedRecord.class, "get",
+                    MethodType.methodType(Object.class, int.class));
+            MethodHandle scalars = MethodHandles.dropArguments(
+                    lookup.findStatic(GeneratedPlan.class, "skip", MethodType.methodType(void.class)), 0,
+                    FIELD_TYPE.parameterList());
+
+            List<FieldPlan> interpreted = new ArrayList<FieldPlan>();
+            boolean generated = false;
+            FieldPlan[] fields = plan.getFields();
+            for (int i = fields.length - 1; i >= 0; --i) {
+                String store = getStoreMethod(plan.getSchema().getFields().get(fields[i].getPosition()).schema());
+                if (store == null) {
+                    interpreted.add(0, fields[i]);
+                    continue;
+                }
+
+                MethodHandle storeHandle = lookup.findStatic(GeneratedPlan.class, store, MethodType.methodType(
+                        void.class, Object.class, Object[].class, List.class, FieldPlan.class, int[].class));
+                storeHandle = MethodHandles.insertArguments(storeHandle, 3, fields[i], fields[i].getColumns());
+                MethodHandle read = MethodHandles.insertArguments(get, 1, fields[i].getPosition());
+                scalars = MethodHandles.foldArguments(scalars, MethodHandles.filterArguments(storeHandle, 0, read));
+                generated = true;
+            }
+            if (!generated) {
+                return null;
+            }
+            Scalars holder = (Scalars) new HolderLoader(scalars).loadClass(HOLDER_NAME).newInstance();
+            return new GeneratedPlan(holder, interpreted.toArray(new FieldPlan[interpreted.size()]));
+        } catch (ReflectiveOperationException e) {
+            return null;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static byte[] readHolderClass() {
+        InputStream in = GeneratedPlan.class.getResourceAsStream("GeneratedPlan$ScalarHolder.class");
+        if (in == null) {
+            return null;
+        }
+        try {
+            try {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buffer = new byte[4096];
+                int read;
+                while ((read = in.read(buffer)) >= 0) {
+                    out.write(buffer, 0, read);
+                }
+                return out.toByteArray();
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static String getStoreMethod(Schema schema) {
+        if (schema.getType() == Type.UNION) {
+            List<Schema> branches = schema.getTypes();
+            if (branches.size() != 2) {
+                return null;
+            }
+            if (branches.get(0).getType() == Type.NULL) {
+                return getStoreMethod(branches.get(1));
+            }
+            if (branches.get(1).getType() == Type.NULL) {
+                return getStoreMethod(branches.get(0));
+            }
+            return null;
+        }
+
+        switch (schema.getType()) {
+        case INT:
+            return "storeInt";
+        case LONG:
+            return "storeLong";
+        case FLOAT:
+            return "storeFloat";
+        case DOUBLE:
+            return "storeDouble";
+        case STRING:
+            return "storeString";
+        case BOOLEAN:
+            return "storeBoolean";
+        default:
+            return null;
+        }
+    }
+
+    /**
+     * Stores the mapped values of a record into the value slots, see
+     * {@link RecordPlan#evaluate}.
+     *
+     * @param record
+     *            the record to read, must match the compiled schema
+     * @param values
+     *            the value slots, one per ParStream column
+     * @param arrays
+     *            receives the arrays found in this record
+     * @throws AvroAdaptorException
+     *             if a mapped field holds an unsupported datatype
+     */
+    void evaluate(IndexedRecord record, Object[] values, List<ArrayPlan.Instance> arrays)
+            throws AvroAdaptorException {
+        try {
+            _scalars.evaluate(record, values, arrays);
+        } catch (AvroAdaptorException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new AvroAdaptorException("generated conversion failed: " + e, e);
+        }
+
+        for (FieldPlan field : _fields) {
+            Object res = record.get(field.getPosition());
+            if (res != null) {
+                field.evaluate(res, values, arrays);
+            }
+        }
+    }
+
+    private static void skip() {
+    }
+
+    /**
+     * The generated evaluation of the scalar fields of one plan. Public, as it
+     * is implemented by a class of another class loader.
+     */
+    public interface Scalars {
+
+        /**
+         * Stores the scalar fields of a record into the value slots.
+         *
+         * @param record
+         *            the record to read, must match the compiled schema
+         * @param values
+         *            the value slots, one per ParStream column
+         * @param arrays
+         *            receives the arrays found in this record
+         * @throws Throwable
+         *             if a field plan fails to store a value
+         */
+        void evaluate(IndexedRecord record, Object[] values, List<ArrayPlan.Instance> arrays) throws Throwable;
+    }
+
+    /**
+     * Loads {@link ScalarHolder} for a single plan and hands the generated
+     * handle to its static initializer. All other classes are loaded by the
+     * class loader of this class.
+     */
+    public static final class HolderLoader extends ClassLoader {
+
+        private final MethodHandle _scalars;
+
+        HolderLoader(MethodHandle scalars) {
+            super(GeneratedPlan.class.getClassLoader());
+            _scalars = scalars;
+        }
+
+        /**
+         * @return the generated handle of the plan
+         */
+        public MethodHandle getScalars() {
+            return _scalars;
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (!HOLDER_NAME.equals(name)) {
+                return super.loadClass(name, resolve);
+            }
+            synchronized (getClassLoadingLock(name)) {
+                Class<?> holder = findLoadedClass(name);
+                if (holder == null) {
+                    holder = defineClass(name, HOLDER_CLASS, 0, HOLDER_CLASS.length);
+                }
+                if (resolve) {
+                    resolveClass(holder);
+                }
+                return holder;
+            }
+        }
+    }
+
+    /**
+     * Holds the generated handle of a single plan as a constant, only
+     * initialized when loaded by a {@link HolderLoader}.
+     */
+    public static final class ScalarHolder implements Scalars {
+
+        private static final MethodHandle SCALARS = ((HolderLoader) ScalarHolder.class.getClassLoader())
+                .getScalars();
+
+        @Override
+        public void evaluate(IndexedRecord record, Object[] values, List<ArrayPlan.Instance> arrays)
+                throws Throwable {
+            SCALARS.invokeExact(record, values, arrays);
+        }
+    }
+
+    private static void storeInt(Object value, Object[] values, List<ArrayPlan.Instance> arrays, FieldPlan field,
+            int[] columns) throws AvroAdaptorException {
+        if (value instanceof Integer) {
+            FieldPlan.put(values, columns, value);
+        } else if (value != null) {
+            field.evaluate(value, values, arrays);
+        }
+    }
+
+    private static void storeLong(Object value, Object[] values, List<ArrayPlan.Instance> arrays, FieldPlan field,
+            int[] columns) throws AvroAdaptorException {
+        if (value instanceof Long) {
+            FieldPlan.put(values, columns, value);
+        } else if (value != null) {
+            field.evaluate(value, values, arrays);
+        }
+    }
+
+    private static void storeFloat(Object value, Object[] values, List<ArrayPlan.Instance> arrays, FieldPlan field,
+            int[] columns) throws AvroAdaptorException {
+        if (value instanceof Float) {
+            FieldPlan.put(values, columns, value);
+        } else if (value != null) {
+            field.evaluate(value, values, arrays);
+        }
+    }
+
+    private static void storeDouble(Object value, Object[] values, List<ArrayPlan.Instance> arrays, FieldPlan field,
+            int[] columns) throws AvroAdaptorException {
+        if (value instanceof Double) {
+            FieldPlan.put(values, columns, value);
+        } else if (value != null) {
+            field.evaluate(value, values, arrays);
+        }
+    }
+
+    private static void storeString(Object value, Object[] values, List<ArrayPlan.Instance> arrays,
+            FieldPlan field, int[] columns) throws AvroAdaptorException {
+        if (value instanceof Utf8 || value instanceof String) {
+            field.putString(values, value);
+        } else if (value != null) {
+            field.evaluate(value, values, arrays);
+        }
+    }
+
+    private static void storeBoolean(Object value, Object[] values, List<ArrayPlan.Instance> arrays,
+            FieldPlan field, int[] columns) throws AvroAdaptorException {
+        if (value instanceof Boolean) {
+            if ((Boolean) value) {
+                FieldPlan.put(values, columns, TRUE_VALUE);
+            } else {
+                FieldPlan.put(values, columns, FALSE_VALUE);
+            }
+        } else if (value != null) {
+            field.evaluate(value, values, arrays);
+        }
+    }
+}
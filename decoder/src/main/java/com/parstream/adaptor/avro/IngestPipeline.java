@@ -0,0 +1,410 @@
+/**
+ * Copyright 2015 ParStream GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parstream.adaptor.avro;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.avro.generic.GenericRecord;
+
+/**
+ * Ingests Avro records into ParStream in three pipelined stages: the calling
+ * thread reads the records, a pool of converter threads converts them with a
+ * shared {@link AvroAdaptor}, and a single inserter thread passes the rows to
+ * a {@link RowInserter}, which usually owns the ParStream connection. Reading,
+ * converting and inserting thereby overlap instead of alternating.
+ * <p>
+ * Records and rows are handed between the stages in batches through bounded
+ * queues. A full queue blocks the stage in front of it, so a slow inserter
+ * slows down reading instead of filling the memory. The queue depths show the
+ * stage limiting the throughput: a full record queue means the converters are
+ * too slow, a full row queue means the inserter is. Rows are inserted in the
+ * order the converters finish their batches, not in the order of the input.
+ *
+ * <pre>
+ * IngestPipeline pipeline = new IngestPipeline(adaptor, new ParstreamRowInserter(connection, tableName));
+ * pipeline.setCommitInterval(100000);
+ * pipeline.run(dataFileReader);
+ * </pre>
+ */
+public class IngestPipeline {
+
+    /**
+     * The default number of records converted as one batch.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 256;
+
+    /**
+     * The default number of batches each queue holds.
+     */
+    public static final int DEFAULT_QUEUE_CAPACITY = 16;
+
+    private static final long POLL_MILLIS = 100;
+
+    private static final List<GenericRecord> END_OF_RECORDS = new ArrayList<GenericRecord>(0);
+    private static final List<Object[]> END_OF_ROWS = new ArrayList<Object[]>(0);
+
+    private final AvroAdaptor _adaptor;
+    private final RowInserter _inserter;
+    private int _converterThreads;
+    private int _batchSize;
+    private int _queueCapacity;
+    private long _commitInterval;
+
+    private volatile BlockingQueue<List<GenericRecord>> _recordQueue;
+    private volatile BlockingQueue<List<Object[]>> _rowQueue;
+    private volatile boolean _stopped;
+    private final AtomicReference<Throwable> _failure;
+    private final AtomicLong _recordsRead;
+    private final AtomicLong _rowsInserted;
+    private final AtomicLong _commits;
+
+    /**
+     * Creates a pipeline with one converter thread per available processor,
+     * the default batch size and queue capacity, committing only once all
+     * records are inserted.
+     *
+     * @param adaptor
+     *            the adaptor converting the records, shared by all converter
+     *            threads
+     * @param inserter
+     *            receives the converted rows on the inserter thread
+     */
+    public IngestPipeline(AvroAdaptor adaptor, RowInserter inserter) {
+        _adaptor = adaptor;
+        _inserter = inserter;
+        _converterThreads = Runtime.getRuntime().availableProcessors();
+        _batchSize = DEFAULT_BATCH_SIZE;
+        _queueCapacity = DEFAULT_QUEUE_CAPACITY;
+        _commitInterval = 0;
+        _failure = new AtomicReference<Throwable>();
+        _recordsRead = new AtomicLong();
+        _rowsInserted = new AtomicLong();
+        _commits = new AtomicLong();
+    }
+
+    /**
+     * @param converterThreads
+     *            the number of threads converting records, must be positive
+     */
+    public void setConverterThreads(int converterThreads) {
+        if (converterThreads < 1) {
+            throw new IllegalArgumentException("converter threads must be positive: " + converterThreads);
+        }
+        _converterThreads = converterThreads;
+    }
+
+    /**
+     * @param batchSize
+     *            the number of records read before they are handed to a
+     *            converter as one batch, must be positive
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batch size must be positive: " + batchSize);
+        }
+        _batchSize = batchSize;
+    }
+
+    /**
+     * @param queueCapacity
+     *            the number of batches the record queue and the row queue
+     *            each hold before the stage in front of them blocks, must be
+     *            positive
+     */
+    public void setQueueCapacity(int queueCapacity) {
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("queue capacity must be positive: " + queueCapacity);
+        }
+        _queueCapacity = queueCapacity;
+    }
+
+    /**
+     * @param commitInterval
+     *            the number of inserted rows after which the inserter commits,
+     *            0 to commit only once all records are inserted
+     */
+    public void setCommitInterval(long commitInterval) {
+        if (commitInterval < 0) {
+            throw new IllegalArgumentException("commit interval must not be negative: " + commitInterval);
+        }
+        _commitInterval = commitInterval;
+    }
+
+    /**
+     * Reads all records on the calling thread and returns once they are
+     * converted, inserted and committed. If a stage fails, the other stages
+     * stop, rows inserted since the last commit are not committed, and the
+     * exception of the failed stage is thrown.
+     *
+     * @param records
+     *            the records to ingest, e.g. a <code>DataFileReader</code>.
+     *            Each record must be a new instance, as records are converted
+     *            after the next one is read
+     * @return the number of inserted rows
+     * @throws AvroAdaptorException
+     *             if an incompatible datatype conversion is encountered or
+     *             inserting fails
+     * @throws InterruptedException
+     *             if the calling thread is interrupted
+     */
+    public long run(Iterator<? extends GenericRecord> records) throws AvroAdaptorException, InterruptedException {
+        _recordQueue = new ArrayBlockingQueue<List<GenericRecord>>(_queueCapacity);
+        _rowQueue = new ArrayBlockingQueue<List<Object[]>>(_queueCapacity);
+        _stopped = false;
+        _failure.set(null);
+        _recordsRead.set(0);
+        _rowsInserted.set(0);
+        _commits.set(0);
+
+        List<Thread> threads = new ArrayList<Thread>(_converterThreads + 1);
+        for (int i = 0; i < _converterThreads; ++i) {
+            threads.add(new Thread(new Converter(), "avro-ingest-converter-" + i));
+        }
+        threads.add(new Thread(new Inserter(_converterThreads), "avro-ingest-inserter"));
+        for (Thread thread : threads) {
+            thread.start();
+        }
+
+        try {
+            read(records);
+        } catch (PipelineAbortedException e) {
+            // the failure of another stage is thrown below
+        } catch (Throwable e) {
+            fail(e);
+        } finally {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        }
+
+        Throwable failure = _failure.get();
+        if (failure == null) {
+            return _rowsInserted.get();
+        }
+        if (failure instanceof AvroAdaptorException) {
+            throw (AvroAdaptorException) failure;
+        }
+        if (failure instanceof InterruptedException) {
+            throw (InterruptedException) failure;
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+        if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+        throw new AvroAdaptorException("ingest failed: " + failure, failure);
+    }
+
+    /**
+     * Stops reading further records. The records read so far are still
+     * converted, inserted and committed before {@link #run(Iterator)} returns.
+     * This method may be called from any thread.
+     */
+    public void shutdown() {
+        _stopped = true;
+    }
+
+    /**
+     * @return the number of record batches read but not yet taken by a
+     *         converter
+     */
+    public int getRecordQueueDepth() {
+        BlockingQueue<List<GenericRecord>> queue = _recordQueue;
+        if (queue == null) {
+            return 0;
+        }
+        return queue.size();
+    }
+
+    /**
+     * @return the number of row batches converted but not yet taken by the
+     *         inserter
+     */
+    public int getRowQueueDepth() {
+        BlockingQueue<List<Object[]>> queue = _rowQueue;
+        if (queue == null) {
+            return 0;
+        }
+        return queue.size();
+    }
+
+    /**
+     * @return the number of records read by the current or last run
+     */
+    public long getRecordsRead() {
+        return _recordsRead.get();
+    }
+
+    /**
+     * @return the number of rows inserted by the current or last run
+     */
+    public long getRowsInserted() {
+        return _rowsInserted.get();
+    }
+
+    /**
+     * @return the number of commits of the current or last run
+     */
+    public long getCommits() {
+        return _commits.get();
+    }
+
+    private void read(Iterator<? extends GenericRecord> records) throws InterruptedException {
+        List<GenericRecord> batch = new ArrayList<GenericRecord>(_batchSize);
+        while (!_stopped && records.hasNext()) {
+            checkFailure();
+            batch.add(records.next());
+            _recordsRead.incrementAndGet();
+            if (batch.size() == _batchSize) {
+                put(_recordQueue, batch);
+                batch = new ArrayList<GenericRecord>(_batchSize);
+            }
+        }
+        if (!batch.isEmpty()) {
+            put(_recordQueue, batch);
+        }
+        for (int i = 0; i < _converterThreads; ++i) {
+            put(_recordQueue, END_OF_RECORDS);
+        }
+    }
+
+    private void fail(Throwable e) {
+        _failure.compareAndSet(null, e);
+    }
+
+    private void checkFailure() {
+        if (_failure.get() != null) {
+            throw new PipelineAbortedException();
+        }
+    }
+
+    private <T> void put(BlockingQueue<T> queue, T item) throws InterruptedException {
+        while (!queue.offer(item, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+            checkFailure();
+        }
+    }
+
+    private <T> T take(BlockingQueue<T> queue) throws InterruptedException {
+        T item = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+        while (item == null) {
+            checkFailure();
+            item = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        return item;
+    }
+
+    /**
+     * The converter stage, converting record batches into row batches.
+     */
+    private final class Converter implements Runnable, RowSink {
+
+        private List<Object[]> _rows;
+
+        @Override
+        public void run() {
+            try {
+                List<GenericRecord> records = take(_recordQueue);
+                while (records != END_OF_RECORDS) {
+                    checkFailure();
+                    _rows = new ArrayList<Object[]>(records.size());
+                    for (GenericRecord record : records) {
+                        _adaptor.convertRecord(record, this);
+                    }
+                    if (!_rows.isEmpty()) {
+                        put(_rowQueue, _rows);
+                    }
+                    records = take(_recordQueue);
+                }
+                put(_rowQueue, END_OF_ROWS);
+            } catch (PipelineAbortedException e) {
+                // stopped because another stage failed
+            } catch (Throwable e) {
+                fail(e);
+            }
+        }
+
+        @Override
+        public boolean consumesRowsSynchronously() {
+            return false;
+        }
+
+        @Override
+        public void accept(Object[] row) {
+            _rows.add(row);
+        }
+    }
+
+    /**
+     * The inserter stage, passing the row batches of all converters to the
+     * row inserter.
+     */
+    private final class Inserter implements Runnable {
+
+        private final int _converters;
+
+        Inserter(int converters) {
+            _converters = converters;
+        }
+
+        @Override
+        public void run() {
+            try {
+                int finishedConverters = 0;
+                long uncommittedRows = 0;
+                while (finishedConverters < _converters) {
+                    List<Object[]> rows = take(_rowQueue);
+                    if (rows == END_OF_ROWS) {
+                        ++finishedConverters;
+                        continue;
+                    }
+                    checkFailure();
+                    _inserter.accept(rows);
+                    _rowsInserted.addAndGet(rows.size());
+                    uncommittedRows += rows.size();
+                    if (_commitInterval > 0 && uncommittedRows >= _commitInterval) {
+                        _inserter.commit();
+                        _commits.incrementAndGet();
+                        uncommittedRows = 0;
+                    }
+                }
+                if (uncommittedRows > 0) {
+                    _inserter.commit();
+                    _commits.incrementAndGet();
+                }
+            } catch (PipelineAbortedException e) {
+                // stopped because another stage failed
+            } catch (Throwable e) {
+                fail(e);
+            }
+        }
+    }
+
+    /**
+     * Unwinds a stage once another stage has failed.
+     */
+    private static final class PipelineAbortedException extends RuntimeException {
+
+        private static final long serialVersionUID = 1;
+    }
+}
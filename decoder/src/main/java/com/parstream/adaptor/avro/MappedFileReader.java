@@ -0,0 +1,380 @@
+/**
+ * Copyright 2015 ParStream GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parstream.adaptor.avro;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.apache.avro.Schema;
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.DecoderFactory;
+
+/**
+ * Reads an Avro container file through memory mapped windows of the file
+ * instead of stream buffers, so reading a block costs no system call once its
+ * pages are cached. The header and the block headers are parsed in place, the
+ * records of a block are decoded by a {@link BinaryDecoder}, e.g. by
+ * {@link AvroAdaptor#convertBinary(BinaryDecoder, Schema, RowSink)}.
+ * <p>
+ * A window of the file is mapped at a time and moved forward whenever a block
+ * does not fit into it, so files larger than 2 GB are read like any other.
+ * A single block must not exceed 2 GB. Mapped windows are released by the
+ * garbage collector, not by {@link #close()}.
+ * <p>
+ * The Avro 1.7 decoder and the Java 7 inflater only read from byte arrays,
+ * so the bytes of each block are copied once in bulk into a buffer reused for
+ * all blocks. Blocks of the <code>null</code> and <code>deflate</code> codecs
+ * are supported, files of other codecs are rejected when opened.
+ *
+ * <pre>
+ * MappedFileReader reader = new MappedFileReader(file);
+ * try {
+ *     reader.convert(adaptor, sink);
+ * } finally {
+ *     reader.close();
+ * }
+ * </pre>
+ */
+public class MappedFileReader implements Closeable {
+
+    /**
+     * The default size of a mapped window of 256 MB.
+     */
+    public static final long DEFAULT_WINDOW_SIZE = 256L * 1024 * 1024;
+
+    private static final byte[] MAGIC = { 'O', 'b', 'j', 1 };
+    private static final int SYNC_SIZE = 16;
+    // the longest encoding of a long
+    private static final int MAX_LONG_SIZE = 10;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File _file;
+    private final RandomAccessFile _randomAccessFile;
+    private final FileChannel _channel;
+    private final long _fileSize;
+    private final long _windowSize;
+    private MappedByteBuffer _window;
+    private long _windowStart;
+    private long _position;
+
+    private Schema _schema;
+    private String _codec;
+    private final byte[] _sync;
+    private Inflater _inflater;
+
+    private byte[] _block;
+    private byte[] _inflated;
+    private int _blockLength;
+    private long _blockRecords;
+    private BinaryDecoder _decoder;
+
+    /**
+     * Opens a container file with the default window size and reads its
+     * header.
+     *
+     * @param file
+     *            the Avro container file
+     * @throws IOException
+     *             if the file cannot be read or is no Avro container file
+     */
+    public MappedFileReader(File file) throws IOException {
+        this(file, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Opens a container file and reads its header.
+     *
+     * @param file
+     *            the Avro container file
+     * @param windowSize
+     *            the number of bytes mapped at a time, at most 2 GB. Windows
+     *            are enlarged for blocks which are larger
+     * @throws IOException
+     *             if the file cannot be read or is no Avro container file
+     */
+    public MappedFileReader(File file, long windowSize) throws IOException {
+        if (windowSize < 1 || windowSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("invalid window size: " + windowSize);
+        }
+        _file = file;
+        _windowSize = windowSize;
+        _sync = new byte[SYNC_SIZE];
+        _block = new byte[0];
+        _randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            _channel = _randomAccessFile.getChannel();
+            _fileSize = _channel.size();
+            _windowStart = 0;
+            _position = 0;
+            readHeader();
+        } catch (IOException e) {
+            _randomAccessFile.close();
+            throw e;
+        } catch (RuntimeException e) {
+            _randomAccessFile.close();
+            throw e;
+        }
+    }
+
+    private void readHeader() throws IOException {
+        byte[] magic = readBytes(MAGIC.length);
+        if (!Arrays.equals(MAGIC, magic)) {
+            throw new IOException("not an Avro container file: " + _file);
+        }
+
+        String schema = null;
+        String codec = "null";
+        for (long count = readLong(); count != 0; count = readLong()) {
+            if (count < 0) {
+                // the entries are preceded by their size in bytes
+                count = -count;
+                readLong();
+            }
+            for (long i = 0; i < count; ++i) {
+                String key = new String(readBytes(readLength()), UTF_8);
+                byte[] value = readBytes(readLength());
+                if ("avro.schema".equals(key)) {
+                    schema = new String(value, UTF_8);
+                } else if ("avro.codec".equals(key)) {
+                    codec = new String(value, UTF_8);
+                }
+            }
+        }
+        System.arraycopy(readBytes(SYNC_SIZE), 0, _sync, 0, SYNC_SIZE);
+
+        if (schema == null) {
+            throw new IOException("missing schema in Avro container file: " + _file);
+        }
+        _schema = new Schema.Parser().parse(schema);
+        _codec = codec;
+        if ("deflate".equals(codec)) {
+            _inflater = new Inflater(true);
+            _inflated = new byte[0];
+        } else if (!"null".equals(codec)) {
+            throw new IOException("unsupported codec " + codec + " of Avro container file: " + _file);
+        }
+    }
+
+    /**
+     * @return the schema the records of the file were written with
+     */
+    public Schema getSchema() {
+        return _schema;
+    }
+
+    /**
+     * @return the compression codec of the blocks
+     */
+    public String getCodec() {
+        return _codec;
+    }
+
+    /**
+     * Moves to the next block of the file and decompresses it.
+     *
+     * @return false if there are no more blocks
+     * @throws IOException
+     *             if the block is damaged or reading it fails
+     */
+    public boolean nextBlock() throws IOException {
+        if (_position >= _fileSize) {
+            _blockRecords = 0;
+            return false;
+        }
+
+        long records = readLong();
+        long size = readLong();
+        if (records < 0 || size < 0 || size > Integer.MAX_VALUE - SYNC_SIZE) {
+            throw new IOException("invalid block at offset " + _position + " of " + _file);
+        }
+
+        int length = (int) size;
+        map(_position, length + SYNC_SIZE);
+        if (_block.length < length) {
+            _block = new byte[Math.max(length, _block.length * 2)];
+        }
+        _window.position((int) (_position - _windowStart));
+        _window.get(_block, 0, length);
+        for (int i = 0; i < SYNC_SIZE; ++i) {
+            if (_window.get() != _sync[i]) {
+                throw new IOException("invalid sync marker at offset " + (_position + length) + " of " + _file);
+            }
+        }
+        _position += length + SYNC_SIZE;
+
+        _blockRecords = records;
+        if (_inflater == null) {
+            _blockLength = length;
+            _decoder = DecoderFactory.get().binaryDecoder(_block, 0, length, _decoder);
+        } else {
+            _blockLength = inflate(length);
+            _decoder = DecoderFactory.get().binaryDecoder(_inflated, 0, _blockLength, _decoder);
+        }
+        return true;
+    }
+
+    private int inflate(int length) throws IOException {
+        _inflater.reset();
+        _inflater.setInput(_block, 0, length);
+        int inflated = 0;
+        try {
+            while (!_inflater.finished()) {
+                if (inflated == _inflated.length) {
+                    _inflated = Arrays.copyOf(_inflated, Math.max(2 * length, 2 * _inflated.length));
+                }
+                int count = _inflater.inflate(_inflated, inflated, _inflated.length - inflated);
+                if (count == 0 && (_inflater.needsInput() || _inflater.needsDictionary())) {
+                    throw new IOException("truncated deflate block in " + _file);
+                }
+                inflated += count;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("invalid deflate block in " + _file + ": " + e.getMessage(), e);
+        }
+        return inflated;
+    }
+
+    /**
+     * @return the number of records in the current block
+     */
+    public long getBlockRecordCount() {
+        return _blockRecords;
+    }
+
+    /**
+     * @return the number of decompressed bytes of the current block
+     */
+    public int getBlockLength() {
+        return _blockLength;
+    }
+
+    /**
+     * Returns the decoder reading the records of the current block. It is
+     * reused for all blocks, so it must not be used once the next block is
+     * read.
+     *
+     * @return the decoder positioned at the next record of the current block
+     */
+    public BinaryDecoder getBlockDecoder() {
+        return _decoder;
+    }
+
+    /**
+     * Converts all remaining records of the file and passes their rows to the
+     * sink.
+     *
+     * @param adaptor
+     *            the adaptor converting the records
+     * @param sink
+     *            receives the produced rows
+     * @return the number of converted records
+     * @throws AvroAdaptorException
+     *             if an incompatible datatype conversion is encountered or
+     *             the sink fails
+     * @throws IOException
+     *             if reading the file fails
+     */
+    public long convert(AvroAdaptor adaptor, RowSink sink) throws AvroAdaptorException, IOException {
+        long records = 0;
+        while (nextBlock()) {
+            for (long i = 0; i < _blockRecords; ++i) {
+                adaptor.convertBinary(_decoder, _schema, sink);
+            }
+            records += _blockRecords;
+        }
+        return records;
+    }
+
+    /**
+     * Closes the file. Mapped windows stay valid until they are garbage
+     * collected.
+     *
+     * @throws IOException
+     *             if closing the file fails
+     */
+    @Override
+    public void close() throws IOException {
+        _window = null;
+        _decoder = null;
+        if (_inflater != null) {
+            _inflater.end();
+        }
+        _randomAccessFile.close();
+    }
+
+    /**
+     * Makes sure the given range of the file is mapped, moving the window to
+     * start at the given position if it is not.
+     */
+    private void map(long position, int length) throws IOException {
+        if (position + length > _fileSize) {
+            throw new IOException("unexpected end of " + _file + " at offset " + position);
+        }
+        if (_window != null && position >= _windowStart && position + length <= _windowStart + _window.limit()) {
+            return;
+        }
+        long size = Math.min(Math.max(_windowSize, length), _fileSize - position);
+        _window = _channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+        _windowStart = position;
+    }
+
+    private byte[] readBytes(int length) throws IOException {
+        map(_position, length);
+        byte[] bytes = new byte[length];
+        _window.position((int) (_position - _windowStart));
+        _window.get(bytes);
+        _position += length;
+        return bytes;
+    }
+
+    private int readLength() throws IOException {
+        long length = readLong();
+        if (length < 0 || length > Integer.MAX_VALUE) {
+            throw new IOException("invalid length " + length + " at offset " + _position + " of " + _file);
+        }
+        return (int) length;
+    }
+
+    /**
+     * Reads a zig-zag encoded variable length long, see the Avro binary
+     * encoding.
+     */
+    private long readLong() throws IOException {
+        map(_position, (int) Math.min(MAX_LONG_SIZE, _fileSize - _position));
+        int offset = (int) (_position - _windowStart);
+        long value = 0;
+        int shift = 0;
+        int b;
+        do {
+            if (shift >= 7 * MAX_LONG_SIZE || offset == _window.limit()) {
+                throw new IOException("invalid long at offset " + _position + " of " + _file);
+            }
+            b = _window.get(offset++);
+            value |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        _position = _windowStart + offset;
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
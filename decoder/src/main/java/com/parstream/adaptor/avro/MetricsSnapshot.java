@@ -0,0 +1,181 @@
+/**
+ * Copyright 2015 ParStream GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parstream.adaptor.avro;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.parstream.driver.ColumnInfo;
+
+/**
+ * The conversion metrics of an {@link AvroAdaptor} at a point in time, see
+ * {@link AvroAdaptor#getMetrics()}. The counters are summed while other
+ * threads keep converting, so they are not necessarily consistent with each
+ * other.
+ * <p>
+ * The histograms use power of two buckets. Bucket 0 counts the value 0, bucket
+ * <code>i</code> the values from 2^(i-1) up to 2^i - 1, and the last bucket
+ * additionally all larger values, see {@link #getBucketLowerBound(int)}.
+ */
+public final class MetricsSnapshot {
+
+    private final long _records;
+    private final long _rows;
+    private final long[] _fanOutHistogram;
+    private final long[] _latencyHistogram;
+    private final Map<String, Long> _columnFailures;
+    private final Map<String, Long> _failuresByType;
+    private final long _failures;
+    private final Map<String, Long> _dictionaryHits;
+    private final Map<String, Long> _dictionaryMisses;
+
+    MetricsSnapshot(long records, long rows, long[] fanOutHistogram, long[] latencyHistogram,
+            ColumnInfo[] columnInfo, long[] columnFailures, long[] dictionaryHits, long[] dictionaryMisses) {
+        _records = records;
+        _rows = rows;
+        _fanOutHistogram = fanOutHistogram;
+        _latencyHistogram = latencyHistogram;
+        _columnFailures = new LinkedHashMap<String, Long>();
+        _failuresByType = new LinkedHashMap<String, Long>();
+
+        long failures = 0;
+        for (int i = 0; i < columnInfo.length; ++i) {
+            if (columnFailures[i] == 0) {
+                continue;
+            }
+            failures += columnFailures[i];
+            _columnFailures.put(columnInfo[i].getName(), columnFailures[i]);
+            String type = columnInfo[i].getType().toString();
+            Long typeFailures = _failuresByType.get(type);
+            if (typeFailures == null) {
+                _failuresByType.put(type, columnFailures[i]);
+            } else {
+                _failuresByType.put(type, typeFailures + columnFailures[i]);
+            }
+        }
+        _failures = failures;
+
+        _dictionaryHits = new LinkedHashMap<String, Long>();
+        _dictionaryMisses = new LinkedHashMap<String, Long>();
+        for (int i = 0; i < columnInfo.length; ++i) {
+            if (dictionaryHits[i] != 0 || dictionaryMisses[i] != 0) {
+                _dictionaryHits.put(columnInfo[i].getName(), dictionaryHits[i]);
+                _dictionaryMisses.put(columnInfo[i].getName(), dictionaryMisses[i]);
+            }
+        }
+    }
+
+    /**
+     * Returns the smallest value counted by a histogram bucket.
+     *
+     * @param bucket
+     *            the index of the bucket
+     * @return 0 for bucket 0, otherwise 2^(bucket-1)
+     */
+    public static long getBucketLowerBound(int bucket) {
+        if (bucket == 0) {
+            return 0;
+        }
+        return 1L << (bucket - 1);
+    }
+
+    /**
+     * @return the number of converted records
+     */
+    public long getRecords() {
+        return _records;
+    }
+
+    /**
+     * @return the number of rows produced by the converted records
+     */
+    public long getRows() {
+        return _rows;
+    }
+
+    /**
+     * @return the average number of rows produced per record, 0 if no record
+     *         was converted
+     */
+    public double getMeanFanOut() {
+        if (_records == 0) {
+            return 0;
+        }
+        return (double) _rows / _records;
+    }
+
+    /**
+     * @return the number of records per number of produced rows, the array
+     *         fan-out
+     */
+    public long[] getFanOutHistogram() {
+        return _fanOutHistogram.clone();
+    }
+
+    /**
+     * @return the number of measured records per conversion time in
+     *         nanoseconds, see {@link AvroAdaptor#setLatencySampling(int)}
+     */
+    public long[] getLatencyHistogram() {
+        return _latencyHistogram.clone();
+    }
+
+    /**
+     * @return the number of values which could not be converted into their
+     *         column
+     */
+    public long getFailures() {
+        return _failures;
+    }
+
+    /**
+     * @return the number of failed values per column name, only for columns
+     *         with failures
+     */
+    public Map<String, Long> getColumnFailures() {
+        return new LinkedHashMap<String, Long>(_columnFailures);
+    }
+
+    /**
+     * @return the number of failed values per ParStream column type, only for
+     *         types with failures
+     */
+    public Map<String, Long> getFailuresByType() {
+        return new LinkedHashMap<String, Long>(_failuresByType);
+    }
+
+    /**
+     * Returns the number of values served by the string dictionary of a
+     * column, see {@link #getDictionaryMisses()}. The lookups are published
+     * in batches of 256 per thread.
+     *
+     * @return the number of values found per column name, only for columns
+     *         with a dictionary and published lookups
+     */
+    public Map<String, Long> getDictionaryHits() {
+        return new LinkedHashMap<String, Long>(_dictionaryHits);
+    }
+
+    /**
+     * @return the number of values which were decoded into a new String per
+     *         column name, including those decoded after the dictionary
+     *         switched itself off, only for columns with a dictionary and
+     *         published lookups
+     */
+    public Map<String, Long> getDictionaryMisses() {
+        return new LinkedHashMap<String, Long>(_dictionaryMisses);
+    }
+}
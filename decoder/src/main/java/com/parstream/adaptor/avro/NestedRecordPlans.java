@@ -0,0 +1,108 @@
+/**
+ * Copyright 2015 ParStream GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parstream.adaptor.avro;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.apache.avro.Schema;
+
+/**
+ * The record plans of a field or array element which may hold nested records.
+ * Plans are looked up by schema identity. A schema instance seen for the first
+ * time is matched by equality against the plans compiled for the expected
+ * schema, or gets a plan compiled on the spot. The outcome is remembered for
+ * that instance, so neither the deep comparison nor the compilation is
+ * repeated for later values.
+ */
+class NestedRecordPlans {
+
+    /**
+     * Bounds the remembered schema instances, for sources which create a new
+     * schema instance for every record.
+     */
+    private static final int MAX_SELECTED = 64;
+
+    private final String _prefix;
+    private final RecordPlan[] _plans;
+    private final ColumnMapping _mapping;
+    private volatile Map<Schema, RecordPlan> _selected;
+
+    /**
+     * Compiles the plans of all record schemas a value of the given schema may
+     * hold.
+     *
+     * @param prefix
+     *            the path of the enclosing element including the trailing
+     *            field delimiter
+     * @param schema
+     *            the schema of the value, may be null
+     * @param mapping
+     *            the resolved column mapping
+     */
+    NestedRecordPlans(String prefix, Schema schema, ColumnMapping mapping) {
+        _prefix = prefix;
+        _plans = RecordPlan.compileBranches(prefix, schema, mapping);
+        _mapping = mapping;
+        _selected = new IdentityHashMap<Schema, RecordPlan>();
+    }
+
+    /**
+     * @return the plans compiled for the expected schema, an empty array if
+     *         there are none
+     */
+    RecordPlan[] getPlans() {
+        return _plans;
+    }
+
+    /**
+     * @return true if no record schema of the expected schema feeds a column
+     */
+    boolean isEmpty() {
+        return _plans.length == 0;
+    }
+
+    /**
+     * Selects the plan for a nested record value.
+     *
+     * @param schema
+     *            the schema of the record value
+     * @return the plan to use, null if the record feeds no column
+     */
+    RecordPlan select(Schema schema) {
+        for (RecordPlan plan : _plans) {
+            if (plan.getSchema() == schema) {
+                return plan;
+            }
+        }
+
+        Map<Schema, RecordPlan> selected = _selected;
+        RecordPlan plan = selected.get(schema);
+        if (plan != null || selected.containsKey(schema)) {
+            return plan;
+        }
+
+        plan = RecordPlan.select(_plans, _prefix, schema, _mapping);
+        if (selected.size() < MAX_SELECTED) {
+            // copy on write, readers never lock; a lost update only costs
+            // one more selection for the same schema instance
+            Map<Schema, RecordPlan> copy = new IdentityHashMap<Schema, RecordPlan>(selected);
+            copy.put(schema, plan);
+            _selected = copy;
+        }
+        return plan;
+    }
+}
@@ -0,0 +1,263 @@
+/**
+ * Copyright 2015 ParStream GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parstream.adaptor.avro;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.apache.avro.Schema;
+import org.apache.avro.file.DataFileReader;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericRecord;
+
+/**
+ * Converts an Avro container file on several threads. The file is cut into
+ * splits of a fixed byte size. Each split is decoded by its own
+ * <code>DataFileReader</code>, which starts at the first sync marker inside
+ * the split and stops at the first block starting behind it, so every block
+ * of the file belongs to exactly one split. Only the fields mapped to a
+ * ParStream column are decoded, see {@link AvroAdaptor#createReaderSchema}.
+ * <p>
+ * The rows of a split are passed to a {@link RowBatchSink} as one batch,
+ * either in the order of the splits in the file, or as soon as a split is
+ * converted. The number of splits converted ahead of the sink is bounded to
+ * twice the parallelism, so the memory held is about that many splits worth
+ * of rows.
+ *
+ * <pre>
+ * ExecutorService executor = Executors.newFixedThreadPool(threads);
+ * ParallelFileConverter converter = new ParallelFileConverter(adaptor, executor, threads);
+ * converter.convert(file, sink);
+ * executor.shutdown();
+ * </pre>
+ */
+public class ParallelFileConverter {
+
+    /**
+     * The default split size of 8 MB.
+     */
+    public static final long DEFAULT_SPLIT_SIZE = 8L * 1024 * 1024;
+
+    private final AvroAdaptor _adaptor;
+    private final ExecutorService _executor;
+    private final int _parallelism;
+    private long _splitSize;
+    private boolean _ordered;
+
+    /**
+     * Creates a converter with the default split size and ordered output.
+     *
+     * @param adaptor
+     *            the adaptor converting the records, shared by all threads
+     * @param executor
+     *            the executor converting the splits, it is not shut down by
+     *            the converter
+     * @param parallelism
+     *            the number of splits converted at the same time, usually the
+     *            number of threads of the executor
+     */
+    public ParallelFileConverter(AvroAdaptor adaptor, ExecutorService executor, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+        }
+        _adaptor = adaptor;
+        _executor = executor;
+        _parallelism = parallelism;
+        _splitSize = DEFAULT_SPLIT_SIZE;
+        _ordered = true;
+    }
+
+    /**
+     * Sets the number of bytes of the file converted by a single task. A split
+     * always contains whole blocks, so splits smaller than the block size of
+     * the file produce empty batches, which are not passed to the sink.
+     *
+     * @param splitSize
+     *            the split size in bytes, must be positive
+     */
+    public void setSplitSize(long splitSize) {
+        if (splitSize < 1) {
+            throw new IllegalArgumentException("split size must be positive: " + splitSize);
+        }
+        _splitSize = splitSize;
+    }
+
+    /**
+     * Sets whether the batches are passed to the sink in the order of the
+     * file, which is the default. Unordered output passes each batch as soon
+     * as its split is converted, so a slow split does not hold back the
+     * others.
+     *
+     * @param ordered
+     *            true to keep the order of the file
+     */
+    public void setOrdered(boolean ordered) {
+        _ordered = ordered;
+    }
+
+    /**
+     * Converts all records of a container file. The sink is called from the
+     * calling thread only. If a split fails, the splits still being converted
+     * are cancelled and the exception of the failed split is thrown.
+     *
+     * @param file
+     *            the Avro container file
+     * @param sink
+     *            receives the converted rows, one batch per split
+     * @return the number of rows passed to the sink
+     * @throws AvroAdaptorException
+     *             if an incompatible datatype conversion is encountered or
+     *             the sink fails
+     * @throws IOException
+     *             if reading the file fails
+     * @throws InterruptedException
+     *             if the calling thread is interrupted while waiting for a
+     *             split
+     */
+    public long convert(File file, RowBatchSink sink) throws AvroAdaptorException, IOException,
+            InterruptedException {
+        Schema readerSchema;
+        DataFileReader<GenericRecord> headerReader = new DataFileReader<GenericRecord>(file,
+                new GenericDatumReader<GenericRecord>());
+        try {
+            readerSchema = _adaptor.createReaderSchema(headerReader.getSchema());
+        } finally {
+            headerReader.close();
+        }
+
+        long length = file.length();
+        long start = 0;
+        long rowCount = 0;
+        CompletionService<List<Object[]>> completion = new ExecutorCompletionService<List<Object[]>>(_executor);
+        LinkedList<Future<List<Object[]>>> pending = new LinkedList<Future<List<Object[]>>>();
+        try {
+            while (start < length || !pending.isEmpty()) {
+                while (start < length && pending.size() < 2 * _parallelism) {
+                    long end = Math.min(start + _splitSize, length);
+                    SplitTask task = new SplitTask(_adaptor, file, readerSchema, start, end);
+                    if (_ordered) {
+                        pending.add(_executor.submit(task));
+                    } else {
+                        pending.add(completion.submit(task));
+                    }
+                    start = end;
+                }
+
+                Future<List<Object[]>> done;
+                if (_ordered) {
+                    done = pending.removeFirst();
+                } else {
+                    done = completion.take();
+                    pending.remove(done);
+                }
+                List<Object[]> rows = getRows(done);
+                if (!rows.isEmpty()) {
+                    rowCount += rows.size();
+                    sink.accept(rows);
+                }
+            }
+        } finally {
+            for (Future<List<Object[]>> future : pending) {
+                future.cancel(true);
+            }
+        }
+        return rowCount;
+    }
+
+    private static List<Object[]> getRows(Future<List<Object[]>> future) throws AvroAdaptorException, IOException,
+            InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof AvroAdaptorException) {
+                throw (AvroAdaptorException) cause;
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new AvroAdaptorException("split conversion failed: " + cause, cause);
+        }
+    }
+
+    /**
+     * Converts the blocks of a single split.
+     */
+    private static final class SplitTask implements Callable<List<Object[]>>, RowSink {
+
+        private final AvroAdaptor _adaptor;
+        private final File _file;
+        private final Schema _readerSchema;
+        private final long _start;
+        private final long _end;
+        private final List<Object[]> _rows;
+
+        SplitTask(AvroAdaptor adaptor, File file, Schema readerSchema, long start, long end) {
+            _adaptor = adaptor;
+            _file = file;
+            _readerSchema = readerSchema;
+            _start = start;
+            _end = end;
+            _rows = new ArrayList<Object[]>();
+        }
+
+        @Override
+        public List<Object[]> call() throws Exception {
+            GenericDatumReader<GenericRecord> datumReader = new GenericDatumReader<GenericRecord>();
+            DataFileReader<GenericRecord> reader = new DataFileReader<GenericRecord>(_file, datumReader);
+            try {
+                datumReader.setExpected(_readerSchema);
+                reader.sync(_start);
+                GenericRecord record = null;
+                while (reader.hasNext() && !reader.pastSync(_end)) {
+                    if (Thread.interrupted()) {
+                        throw new InterruptedException();
+                    }
+                    record = reader.next(record);
+                    _adaptor.convertRecord(record, this);
+                }
+            } finally {
+                reader.close();
+            }
+            return _rows;
+        }
+
+        @Override
+        public boolean consumesRowsSynchronously() {
+            return false;
+        }
+
+        @Override
+        public void accept(Object[] row) {
+            _rows.add(row);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/**
+ * Copyright 2015 ParStream GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parstream.adaptor.avro;
+
+import java.util.List;
+
+import com.parstream.driver.ParstreamConnection;
+
+/**
+ * Inserts rows into a ParStream table through an established connection of the
+ * ParStream Java Streaming Import Interface. The insert is prepared before the
+ * first row and again after every commit. The connection is not closed.
+ */
+public class ParstreamRowInserter implements RowInserter {
+
+    private final ParstreamConnection _connection;
+    private final String _tableName;
+    private boolean _prepared;
+
+    /**
+     * Creates an inserter for the given table.
+     *
+     * @param connection
+     *            the connected ParStream connection, used by the inserter only
+     * @param tableName
+     *            the name of the table the rows are inserted into
+     */
+    public ParstreamRowInserter(ParstreamConnection connection, String tableName) {
+        _connection = connection;
+        _tableName = tableName;
+        _prepared = false;
+    }
+
+    @Override
+    public void accept(List<Object[]> rows) throws AvroAdaptorException {
+        try {
+            if (!_prepared) {
+                _connection.prepareInsert(_tableName);
+                _prepared = true;
+            }
+            for (Object[] row : rows) {
+                _connection.rawInsert(row);
+            }
+        } catch (Exception e) {
+            throw new AvroAdaptorException("insert into " + _tableName + " failed: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void commit() throws AvroAdaptorException {
+        if (!_prepared) {
+            return;
+        }
+        try {
+            _connection.commit();
+            _prepared = false;
+        } catch (Exception e) {
+            throw new AvroAdaptorException("commit into " + _tableName + " failed: " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/**
+ * Copyright 2015 ParStream GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parstream.adaptor.avro;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaNormalization;
+
+/**
+ * A bounded cache of conversion plans, keyed by the 64-bit parsing
+ * fingerprint of the writer schema. The least recently used plan is evicted
+ * once the cache is full.
+ * <p>
+ * Computing a fingerprint normalizes the whole schema, so every thread
+ * remembers the schema instance it has seen last and records of the same
+ * instance skip the lookup without any locking. The cache is thread-safe, only
+ * threads switching between schema instances contend for the lock. Hits are
+ * counted in striped counters, so the fast path writes no shared cache line.
+ */
+class PlanCache {
+
+    static final int DEFAULT_CAPACITY = 16;
+
+    private final ColumnMapping _mapping;
+    private final boolean _codeGeneration;
+    private final Map<Long, ConversionPlan> _plans;
+    private final ThreadLocal<LastPlan> _lastPlan;
+    private final StripedCounters _hits;
+    private final AtomicLong _misses;
+
+    /**
+     * Creates an empty cache.
+     * 
+     * @param mapping
+     *            the resolved column mapping plans are compiled with
+     * @param capacity
+     *            the maximum number of cached plans, must be positive
+     * @param codeGeneration
+     *            true to generate the evaluation of the compiled plans
+     */
+    PlanCache(ColumnMapping mapping, final int capacity, boolean codeGeneration) {
+        _mapping = mapping;
+        _codeGeneration = codeGeneration;
+        _plans = new LinkedHashMap<Long, ConversionPlan>(capacity, 0.75f, true) {
+
+            private static final long serialVersionUID = 1;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, ConversionPlan> eldest) {
+                return size() > capacity;
+            }
+        };
+        _lastPlan = new ThreadLocal<LastPlan>();
+        _hits = new StripedCounters(1);
+        _misses = new AtomicLong();
+    }
+
+    /**
+     * Returns the plan for a writer schema, compiling it on the first use.
+     * 
+     * @param schema
+     *            the writer schema
+     * @return the conversion plan
+     */
+    ConversionPlan getPlan(Schema schema) {
+        LastPlan last = _lastPlan.get();
+        if (last != null && last._schema == schema) {
+            _hits.add(0, 1);
+            return last._plan;
+        }
+
+        Long fingerprint = SchemaNormalization.parsingFingerprint64(schema);
+        ConversionPlan plan;
+        synchronized (_plans) {
+            plan = _plans.get(fingerprint);
+            if (plan == null) {
+                _misses.incrementAndGet();
+                plan = new ConversionPlan(schema, _mapping, _codeGeneration);
+                _plans.put(fingerprint, plan);
+            } else {
+                _hits.add(0, 1);
+            }
+        }
+
+        _lastPlan.set(new LastPlan(schema, plan));
+        return plan;
+    }
+
+    /**
+     * @return the number of records served by an already compiled plan
+     */
+    long getHits() {
+        return _hits.get(0);
+    }
+
+    /**
+     * @return the number of plans compiled so far
+     */
+    long getMisses() {
+        return _misses.get();
+    }
+
+    /**
+     * The writer schema instance a thread has seen last, with its plan.
+     */
+    private static final class LastPlan {
+
+        private final Schema _schema;
+        private final ConversionPlan _plan;
+
+        LastPlan(Schema schema, ConversionPlan plan) {
+            _schema = schema;
+            _plan = plan;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/**
+ * Copyright 2015 ParStream GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parstream.adaptor.avro;
+
+/**
+ * The interfaces of the Reactive Streams specification, mirroring
+ * <code>java.util.concurrent.Flow</code> of Java 9 and
+ * <code>org.reactivestreams</code> method by method, so that the adaptor can
+ * take part in backpressured streams while it targets Java 7 without further
+ * dependencies. Bridging to either API takes a one line delegate per method.
+ * <p>
+ * A {@link Subscriber} only receives as many items as it has requested
+ * through its {@link Subscription}, so a slow consumer throttles its
+ * publisher instead of being buffered for.
+ */
+public final class ReactiveStreams {
+
+    private ReactiveStreams() {
+    }
+
+    /**
+     * Produces items for a subscriber according to its demand.
+     *
+     * @param <T>
+     *            the type of the published items
+     */
+    public interface Publisher<T> {
+
+        /**
+         * Adds a subscriber, which receives
+         * {@link Subscriber#onSubscribe(Subscription)} first. A publisher
+         * refusing the subscriber signals
+         * {@link Subscriber#onError(Throwable)} after it.
+         *
+         * @param subscriber
+         *            the subscriber
+         */
+        void subscribe(Subscriber<? super T> subscriber);
+    }
+
+    /**
+     * Receives the items of a publisher. The methods are called one at a time,
+     * never concurrently.
+     *
+     * @param <T>
+     *            the type of the received items
+     */
+    public interface Subscriber<T> {
+
+        /**
+         * Called once before any other method.
+         *
+         * @param subscription
+         *            requests items and cancels the subscription
+         */
+        void onSubscribe(Subscription subscription);
+
+        /**
+         * Receives the next item, never more than requested.
+         *
+         * @param item
+         *            the item
+         */
+        void onNext(T item);
+
+        /**
+         * Receives the failure ending the subscription, no method is called
+         * afterwards.
+         *
+         * @param throwable
+         *            the failure
+         */
+        void onError(Throwable throwable);
+
+        /**
+         * Called once all items are received, no method is called afterwards.
+         */
+        void onComplete();
+    }
+
+    /**
+     * The link between a publisher and a single subscriber.
+     */
+    public interface Subscription {
+
+        /**
+         * Adds to the number of items the subscriber is ready to receive.
+         *
+         * @param n
+         *            the number of additional items, must be positive,
+         *            <code>Long.MAX_VALUE</code> for an unbounded demand
+         */
+        void request(long n);
+
+        /**
+         * Stops the publisher from sending further items, eventually.
+         */
+        void cancel();
+    }
+
+    /**
+     * A subscriber which publishes the items it derives from the received
+     * items.
+     *
+     * @param <T>
+     *            the type of the received items
+     * @param <R>
+     *            the type of the published items
+     */
+    public interface Processor<T, R> extends Subscriber<T>, Publisher<R> {
+    }
+}
@@ -0,0 +1,105 @@
+/**
+ * Copyright 2015 ParStream GmbH
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parstream.adaptor.avro;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.avro.Schema;
+import org.apache.avro.Schema.Field;
+
+/**
+ * Derives a reader schema from a writer schema which only contains the fields
+ * feeding at least one ParStream column. Reading data with this schema lets
+ * the Avro schema resolution skip all other fields while decoding.
+ * <p>
+ * A named record is defined only once in a schema, so a record reachable at
+ * several paths keeps the union of the fields used at any of them. Records
+ * without any used field are kept as empty records, as unions and arrays of
+ * the writer schema must still resolve.
+ */
+final class ReaderSchemaBuilder {
+
+    private final Map<String, Set<String>> _fieldsByRecord;
+    private final Map<String, Schema> _records;
+
+    private ReaderSchemaBuilder(Map<String, Set<String>> fieldsByRecord) {
+        _fieldsByRecord = fieldsByRecord;
+        _records = new HashMap<String, Schema>();
+    }
+
+    /**
+     * Builds the reader schema for a compiled record plan.
+     * 
+     * @param plan
+     *            the plan compiled for the writer schema
+     * @return the pruned reader schema
+     */
+    static Schema build(RecordPlan plan) {
+        Map<String, Set<String>> fieldsByRecord = new HashMap<String, Set<String>>();
+        plan.collectMappedFields(fieldsByRecord);
+        return new ReaderSchemaBuilder(fieldsByRecord).prune(plan.getSchema());
+    }
+
+    private Schema prune(Schema schema) {
+        switch (schema.getType()) {
+        case RECORD:
+            return pruneRecord(schema);
+        case UNION:
+            List<Schema> branches = new ArrayList<Schema>(schema.getTypes().size());
+            for (Schema branch : schema.getTypes()) {
+                branches.add(prune(branch));
+            }
+            return Schema.createUnion(branches);
+        case ARRAY:
+            return Schema.createArray(prune(schema.getElementType()));
+        case MAP:
+            return Schema.createMap(prune(schema.getValueType()));
+        default:
+            return schema;
+        }
+    }
+
+    private Schema pruneRecord(Schema schema) {
+        Schema record = _records.get(schema.getFullName());
+        if (record != null) {
+            return record;
+        }
+
+        // register the record before its fields are pruned, recursive schemas
+        // refer to it again
+        record = Schema.createRecord(schema.getName(), schema.getDoc(), schema.getNamespace(), schema.isError());
+        _records.put(schema.getFullName(), record);
+
+        Set<String> usedFields = _fieldsByRecord.get(schema.getFullName());
+        if (usedFields == null) {
+            usedFields = Collections.emptySet();
+        }
+
+        List<Field> fields = new ArrayList<Field>(usedFields.size());
+        for (Field field : schema.getFields()) {
+            if (usedFields.contains(field.name())) {
+                fields.add(new Field(field.name(), prune(field.schema()), field.doc(), null));
+            }
+        }
+        record.setFields(fields);
+        return record;
+    }
+}
@@ -0,0 +1,249 @@
+/**
+ * Copyright 2015 ParStream GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parstream.adaptor.avro;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.avro.Schema;
+import org.apache.avro.Schema.Field;
+import org.apache.avro.Schema.Type;
+import org.apache.avro.generic.IndexedRecord;
+import org.apache.avro.io.Decoder;
+
+/**
+ * The compiled form of a single Avro record schema. Only fields which feed at
+ * least one ParStream column, directly or through nested records and arrays,
+ * are kept. Each of them is read by position.
+ */
+class RecordPlan {
+
+    private static final RecordPlan[] NO_RECORDS = new RecordPlan[0];
+
+    private final Schema _schema;
+    private final FieldPlan[] _fields;
+    private final FieldPlan[] _fieldsByPosition;
+    private final Schema[] _fieldSchemas;
+
+    private RecordPlan(Schema schema, FieldPlan[] fields, FieldPlan[] fieldsByPosition) {
+        _schema = schema;
+        _fields = fields;
+        _fieldsByPosition = fieldsByPosition;
+        _fieldSchemas = new Schema[fieldsByPosition.length];
+        for (Field field : schema.getFields()) {
+            _fieldSchemas[field.pos()] = field.schema();
+        }
+    }
+
+    /**
+     * Compiles the plan for a record schema.
+     *
+     * @param prefix
+     *            the path of the enclosing element including the trailing
+     *            field delimiter, null for the top level record
+     * @param schema
+     *            the record schema
+     * @param mapping
+     *            the resolved column mapping
+     * @return the compiled plan, never null
+     */
+    static RecordPlan compile(String prefix, Schema schema, ColumnMapping mapping) {
+        String path;
+        if (prefix == null) {
+            path = schema.getFullName();
+        } else {
+            path = prefix + schema.getFullName();
+        }
+
+        List<FieldPlan> fields = new ArrayList<FieldPlan>();
+        FieldPlan[] fieldsByPosition = new FieldPlan[schema.getFields().size()];
+        for (Field field : schema.getFields()) {
+            FieldPlan fieldPlan = FieldPlan.compile(path, field, mapping);
+            if (fieldPlan != null) {
+                fields.add(fieldPlan);
+                fieldsByPosition[field.pos()] = fieldPlan;
+            }
+        }
+        return new RecordPlan(schema, fields.toArray(new FieldPlan[fields.size()]), fieldsByPosition);
+    }
+
+    /**
+     * Compiles the plans of all record schemas a value of the given schema may
+     * hold, i.e. the schema itself or the record branches of a union. Records
+     * without any mapped path below them are left out.
+     *
+     * @param prefix
+     *            the path of the enclosing element including the trailing
+     *            field delimiter
+     * @param schema
+     *            the schema of the value, may be null
+     * @param mapping
+     *            the resolved column mapping
+     * @return the compiled plans, an empty array if there are none
+     */
+    static RecordPlan[] compileBranches(String prefix, Schema schema, ColumnMapping mapping) {
+        if (schema == null) {
+            return NO_RECORDS;
+        }
+
+        List<RecordPlan> plans = new ArrayList<RecordPlan>(1);
+        if (schema.getType() == Type.RECORD) {
+            addIfMapped(plans, prefix, schema, mapping);
+        } else if (schema.getType() == Type.UNION) {
+            for (Schema branch : schema.getTypes()) {
+                if (branch.getType() == Type.RECORD) {
+                    addIfMapped(plans, prefix, branch, mapping);
+                }
+            }
+        }
+        return plans.toArray(new RecordPlan[plans.size()]);
+    }
+
+    /**
+     * Selects the plan for a nested record value. Values whose schema was not
+     * known at compile time get a plan compiled on the spot. Callers remember
+     * the outcome per schema instance, see {@link NestedRecordPlans}.
+     *
+     * @param plans
+     *            the plans compiled for the expected schema
+     * @param prefix
+     *            the path of the enclosing element including the trailing
+     *            field delimiter
+     * @param schema
+     *            the schema of the record value
+     * @param mapping
+     *            the resolved column mapping
+     * @return the plan to use, null if the record feeds no column
+     */
+    static RecordPlan select(RecordPlan[] plans, String prefix, Schema schema, ColumnMapping mapping) {
+        for (RecordPlan plan : plans) {
+            if (plan._schema == schema) {
+                return plan;
+            }
+        }
+        for (RecordPlan plan : plans) {
+            if (plan._schema.equals(schema)) {
+                return plan;
+            }
+        }
+        if (!mapping.hasPathsBelow(prefix + schema.getFullName())) {
+            return null;
+        }
+        return compile(prefix, schema, mapping);
+    }
+
+    private static void addIfMapped(List<RecordPlan> plans, String prefix, Schema schema, ColumnMapping mapping) {
+        // checking the mapping before descending also stops the compilation
+        // of recursive schemas once the path grows beyond any mapped path
+        if (mapping.hasPathsBelow(prefix + schema.getFullName())) {
+            plans.add(compile(prefix, schema, mapping));
+        }
+    }
+
+    /**
+     * @return the record schema this plan was compiled for
+     */
+    Schema getSchema() {
+        return _schema;
+    }
+
+    /**
+     * @return the fields feeding at least one column, in schema order
+     */
+    FieldPlan[] getFields() {
+        return _fields;
+    }
+
+    /**
+     * @return true if no field of this record feeds a column
+     */
+    boolean isEmpty() {
+        return _fields.length == 0;
+    }
+
+    /**
+     * Collects the fields of this record and all records nested in it which
+     * feed at least one column.
+     * 
+     * @param fieldsByRecord
+     *            receives the names of the used fields, by record full name
+     */
+    void collectMappedFields(Map<String, Set<String>> fieldsByRecord) {
+        Set<String> names = fieldsByRecord.get(_schema.getFullName());
+        if (names == null) {
+            names = new HashSet<String>();
+            fieldsByRecord.put(_schema.getFullName(), names);
+        }
+        for (FieldPlan field : _fields) {
+            names.add(field.getName());
+            field.collectMappedFields(fieldsByRecord);
+        }
+    }
+
+    /**
+     * Stores the mapped values of a record into the value slots. Non-empty
+     * arrays are not expanded but collected for the row expansion.
+     *
+     * @param record
+     *            the record to read, must match the compiled schema
+     * @param values
+     *            the value slots, one per ParStream column
+     * @param arrays
+     *            receives the arrays found in this record
+     * @throws AvroAdaptorException
+     *             if a mapped field holds an unsupported datatype
+     */
+    void evaluate(IndexedRecord record, Object[] values, List<ArrayPlan.Instance> arrays)
+            throws AvroAdaptorException {
+        for (FieldPlan field : _fields) {
+            Object res = record.get(field.getPosition());
+            if (res != null) {
+                field.evaluate(res, values, arrays);
+            }
+        }
+    }
+
+    /**
+     * Reads a binary encoded record and stores its mapped values into the
+     * value slots. Fields which feed no column are skipped.
+     *
+     * @param in
+     *            the decoder positioned at the record, written with the
+     *            compiled schema
+     * @param values
+     *            the value slots, one per ParStream column
+     * @param arrays
+     *            receives the arrays found in this record
+     * @throws AvroAdaptorException
+     *             if a mapped field holds an unsupported datatype
+     * @throws IOException
+     *             if reading from the decoder fails
+     */
+    void read(Decoder in, Object[] values, List<ArrayPlan.Instance> arrays) throws AvroAdaptorException,
+            IOException {
+        for (int i = 0; i < _fieldsByPosition.length; ++i) {
+            if (_fieldsByPosition[i] == null) {
+                BinarySkipper.skip(_fieldSchemas[i], in);
+            } else {
+                _fieldsByPosition[i].read(in, _fieldSchemas[i], values, arrays);
+            }
+        }
+    }
+}
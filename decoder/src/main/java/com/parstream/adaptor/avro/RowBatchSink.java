@@ -0,0 +1,38 @@
+/**
+ * Copyright 2015 ParStream GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parstream.adaptor.avro;
+
+import java.util.List;
+
+/**
+ * Receives batches of converted ParStream rows, see
+ * {@link ParallelFileConverter}. Batches are passed one at a time and never
+ * concurrently, so a sink may insert them through a single ParStream
+ * connection.
+ */
+public interface RowBatchSink {
+
+    /**
+     * Receives a batch of rows. The sink owns the passed list and rows.
+     *
+     * @param rows
+     *            the rows, each an Object[] with one value per ParStream
+     *            column
+     * @throws AvroAdaptorException
+     *             to abort the conversion
+     */
+    void accept(List<Object[]> rows) throws AvroAdaptorException;
+}
@@ -0,0 +1,54 @@
+/**
+ * Copyright 2015 ParStream GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parstream.adaptor.avro;
+
+/**
+ * Defines how an {@link AvroAdaptor} handles a record or a batch producing
+ * more rows than its row budget, see
+ * {@link AvroAdaptor#setRowBudget(int, int, RowBudgetPolicy)}. A budget
+ * bounds the memory held for records whose sibling arrays explode into the
+ * cartesian product of their elements.
+ */
+public enum RowBudgetPolicy {
+
+    /**
+     * Fails the record like a value which cannot be converted: it is passed
+     * to the dead letter sink with {@link ErrorPolicy#DEAD_LETTER}, otherwise
+     * an {@link AvroAdaptorException} is thrown. Records whose arrays alone
+     * produce too many rows fail before any row is converted. A batch
+     * exceeding its budget throws an {@link AvroAdaptorException}.
+     */
+    REJECT,
+
+    /**
+     * Keeps the first rows up to the budget and drops the others.
+     */
+    TRUNCATE,
+
+    /**
+     * Keeps the first rows up to the budget in memory and produces the others
+     * on demand, so no row is lost. A returned list keeps a copy of the
+     * arrays of the record and converts a row beyond the budget whenever it
+     * is requested, reading such rows in order is cheapest. All rows are
+     * converted once before the list is returned, so failed values are
+     * reported right away and the record may be reused. A record producing
+     * more rows than a list can hold is rejected. Iterators and sinks receive
+     * all rows, they hold no more than one row anyway. A batch ends with the
+     * record reaching its budget, the remaining records are left for the
+     * next batch.
+     */
+    STREAM
+}
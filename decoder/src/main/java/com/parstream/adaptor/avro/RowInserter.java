@@ -0,0 +1,32 @@
+/**
+ * Copyright 2015 ParStream GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parstream.adaptor.avro;
+
+/**
+ * The final stage of an {@link IngestPipeline}, which inserts the converted
+ * rows into a ParStream table. All methods are called from the single inserter
+ * thread of the pipeline.
+ */
+public interface RowInserter extends RowBatchSink {
+
+    /**
+     * Commits all rows inserted since the last commit.
+     *
+     * @throws AvroAdaptorException
+     *             if the commit fails
+     */
+    void commit() throws AvroAdaptorException;
+}
@@ -0,0 +1,714 @@
+/**
+ * Copyright 2015 ParStream GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parstream.adaptor.avro;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.generic.IndexedRecord;
+import org.apache.avro.util.Utf8;
+
+/**
+ * Iterates over the ParStream rows of a single converted Avro record. The
+ * arrays of the record are expanded on demand while iterating, so only the
+ * row returned last is held in memory and the extra state is constant per
+ * nesting level of the arrays.
+ * <p>
+ * Each call to {@link #next()} returns a new row. A value which cannot be
+ * stored in its column is handled according to the {@link ErrorPolicy} of the
+ * adaptor. With {@link ErrorPolicy#FAIL} it is reported by {@link #next()},
+ * the rows returned before remain valid. The policies dropping rows convert
+ * one row ahead, so that {@link #hasNext()} knows whether a row is left.
+ * <p>
+ * The columns outside of all arrays hold the same value in every row of a
+ * record. They are converted once per record into a prefix row, which is
+ * copied into each produced row, so that only the columns fed by array
+ * elements are converted per row.
+ * <p>
+ * The number of rows of a record may be limited by a row budget, see
+ * {@link RowBudgetPolicy}.
+ */
+public final class RowIterator {
+
+    private static final int INITIAL_DEPTH = 4;
+
+    private final Object[] _values;
+    private final List<ArrayPlan.Instance> _arrays;
+    private final ColumnConverter[] _converters;
+    private final int[] _columns;
+    private final ErrorPolicy _policy;
+    private final DeadLetterSink _deadLetters;
+    // the row converted ahead, if the policy drops rows
+    private final Object[] _lookahead;
+    // the converted columns shared by all rows of a record with arrays, the
+    // columns converted per row and the columns which failed in the prefix
+    private final Object[] _prefix;
+    private final boolean[] _varying;
+    private final int[] _prefixColumns;
+    private final int[] _varyingColumns;
+    private final int[] _prefixFailures;
+    private int _prefixCount;
+    private int _varyingCount;
+    private int _prefixFailureCount;
+    private boolean _hoisted;
+    private boolean _prefixReady;
+    private GenericRecord _record;
+    private boolean _rejected;
+    // true if the rows were produced before, so failures are not recorded
+    private boolean _replaying;
+    // the range of elements expanded of the array expanded first
+    private int _sliceFrom;
+    private int _sliceTo;
+    // the maximum number of rows of a record, 0 if unlimited
+    private int _rowLimit;
+    private RowBudgetPolicy _budgetPolicy;
+    private int _rowCount;
+    private boolean _truncated;
+
+    // per expanded array: the index of the current element and the number of
+    // pending arrays before the element was evaluated
+    private int[] _positions;
+    private int[] _marks;
+    private int _depth;
+    private boolean _hasNext;
+
+    /**
+     * Creates an iterator without any rows. A record is evaluated into the
+     * value slots and pending arrays of the iterator, then the iteration is
+     * started.
+     *
+     * @param converters
+     *            the value converters, one per ParStream column
+     * @param columns
+     *            the indexes of the columns any value is mapped to in
+     *            ascending order, the other columns of a row are never
+     *            written, so they stay null
+     * @param policy
+     *            the handling of values which cannot be converted
+     * @param deadLetters
+     *            receives the rejected records with
+     *            {@link ErrorPolicy#DEAD_LETTER}, may be null to report them
+     *            like {@link ErrorPolicy#FAIL}
+     */
+    RowIterator(ColumnConverter[] converters, int[] columns, ErrorPolicy policy, DeadLetterSink deadLetters) {
+        _values = new Object[converters.length];
+        _arrays = new ArrayList<ArrayPlan.Instance>(0);
+        _converters = converters;
+        _columns = columns;
+        _policy = policy;
+        _deadLetters = deadLetters;
+        if (policy == ErrorPolicy.SKIP_ROW || policy == ErrorPolicy.DEAD_LETTER) {
+            _lookahead = new Object[converters.length];
+        } else {
+            _lookahead = null;
+        }
+        _prefix = new Object[converters.length];
+        _varying = new boolean[converters.length];
+        _prefixColumns = new int[columns.length];
+        _varyingColumns = new int[columns.length];
+        _prefixFailures = new int[columns.length];
+        _hoisted = false;
+        _rowLimit = 0;
+        _budgetPolicy = RowBudgetPolicy.REJECT;
+        _positions = new int[INITIAL_DEPTH];
+        _marks = new int[INITIAL_DEPTH];
+        _depth = 0;
+        _hasNext = false;
+    }
+
+    /**
+     * Limits the number of rows produced for every record.
+     *
+     * @param limit
+     *            the maximum number of rows of a record, 0 if unlimited
+     * @param policy
+     *            the handling of records exceeding the limit. With
+     *            {@link RowBudgetPolicy#STREAM} the iteration pauses at the
+     *            limit, see {@link #isTruncated()}
+     */
+    void setRowBudget(int limit, RowBudgetPolicy policy) {
+        _rowLimit = limit;
+        _budgetPolicy = policy;
+    }
+
+    /**
+     * @return the value slots a record is evaluated into, one per ParStream
+     *         column
+     */
+    Object[] getValues() {
+        return _values;
+    }
+
+    /**
+     * @return the list receiving the non-empty arrays of the evaluated record
+     */
+    List<ArrayPlan.Instance> getArrays() {
+        return _arrays;
+    }
+
+    /**
+     * Discards the evaluated record and all remaining rows, so that the
+     * iterator can be used for the next record.
+     *
+     * @param record
+     *            the record evaluated next, passed to the dead letter sink if
+     *            it is rejected. Null if the record is decoded from binary
+     *            data, then a rejected record is reported like
+     *            {@link ErrorPolicy#FAIL}
+     */
+    void reset(GenericRecord record) {
+        Arrays.fill(_values, null);
+        _arrays.clear();
+        _depth = 0;
+        _hasNext = false;
+        _record = record;
+        _rejected = false;
+        _sliceFrom = 0;
+        _sliceTo = Integer.MAX_VALUE;
+        _rowCount = 0;
+        _truncated = false;
+    }
+
+    /**
+     * @return the number of elements of the array expanded first, 0 if the
+     *         evaluated record has no non-empty array
+     */
+    int getFirstArraySize() {
+        if (_arrays.isEmpty()) {
+            return 0;
+        }
+        return _arrays.get(0).getElements().size();
+    }
+
+    /**
+     * @return the number of rows the pending arrays of an evaluated record
+     *         produce at least, the product of their sizes
+     */
+    long getMinimumRowCount() {
+        long count = 1;
+        for (ArrayPlan.Instance array : _arrays) {
+            count *= array.getElements().size();
+            if (count > Integer.MAX_VALUE) {
+                break;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Creates an iterator over the rows of a contiguous range of elements of
+     * the array expanded first. The rows of consecutive ranges are
+     * consecutive rows of the record. This iterator must hold an evaluated
+     * record which is not started yet, it is not modified, so that several
+     * slices can be created and iterated concurrently.
+     *
+     * @param from
+     *            the index of the first element of the range
+     * @param to
+     *            the index after the last element of the range
+     * @param deadLetters
+     *            receives the record if the slice rejects it, only used if
+     *            this iterator has a dead letter sink
+     * @return the slice, positioned at its first row once started
+     */
+    RowIterator slice(int from, int to, DeadLetterSink deadLetters) {
+        DeadLetterSink sliceDeadLetters = null;
+        if (_deadLetters != null) {
+            sliceDeadLetters = deadLetters;
+        }
+        RowIterator slice = new RowIterator(_converters, _columns, _policy, sliceDeadLetters);
+        System.arraycopy(_values, 0, slice._values, 0, _values.length);
+        slice._arrays.addAll(_arrays);
+        slice._record = _record;
+        slice._sliceFrom = from;
+        slice._sliceTo = to;
+        return slice;
+    }
+
+    /**
+     * Creates an unstarted copy of the evaluated record, which produces its
+     * rows again, see {@link #replay()}. This iterator must not be started
+     * yet. The copy refers to the values of the record until it is detached,
+     * see {@link #detach(GenericRecord)}.
+     *
+     * @return the copy, never passing the record to a dead letter sink
+     */
+    RowIterator snapshot() {
+        RowIterator snapshot = slice(_sliceFrom, _sliceTo, null);
+        snapshot._record = null;
+        return snapshot;
+    }
+
+    /**
+     * Copies the strings, arrays and nested records a snapshot of a
+     * {@link GenericRecord} refers to, so that the record may be reused. The
+     * copy takes as much memory as the arrays of the record, regardless of
+     * the number of rows they produce. Decoded records are not copied, their
+     * values belong to the snapshot already.
+     *
+     * @param record
+     *            the record the snapshot was taken of, null if it was decoded
+     */
+    void detach(GenericRecord record) {
+        if (record == null) {
+            return;
+        }
+        for (int i = 0; i < _values.length; ++i) {
+            _values[i] = copyValue(_values[i]);
+        }
+        for (int i = 0; i < _arrays.size(); ++i) {
+            ArrayPlan.Instance array = _arrays.get(i);
+            List<Object> elements = new ArrayList<Object>(array.getElements().size());
+            for (Object element : array.getElements()) {
+                elements.add(copyValue(element));
+            }
+            _arrays.set(i, new ArrayPlan.Instance(array.getPlan(), elements));
+        }
+    }
+
+    private static Object copyValue(Object value) {
+        if (value instanceof Utf8) {
+            return new Utf8((Utf8) value);
+        }
+        if (value instanceof IndexedRecord) {
+            IndexedRecord record = (IndexedRecord) value;
+            return GenericData.get().deepCopy(record.getSchema(), record);
+        }
+        // the other values stored or expanded are immutable
+        return value;
+    }
+
+    /**
+     * Starts an iteration over all rows of a snapshot, see
+     * {@link #snapshot()}. The snapshot itself is not modified. Failed values
+     * were recorded when the rows were produced first, so they are not
+     * recorded again.
+     *
+     * @return the iteration, positioned at the first row of the record
+     * @throws AvroAdaptorException
+     *             if a row fails which did not fail before, as the values of
+     *             the snapshot were modified
+     */
+    RowIterator replay() throws AvroAdaptorException {
+        RowIterator replay = slice(_sliceFrom, _sliceTo, null);
+        replay._replaying = true;
+        replay.start();
+        return replay;
+    }
+
+    /**
+     * Starts the iteration over the rows of the evaluated record.
+     *
+     * @throws AvroAdaptorException
+     *             if an array element has an unsupported datatype
+     */
+    void start() throws AvroAdaptorException {
+        if (!checkBudget()) {
+            return;
+        }
+        hoist();
+        descend();
+        if (_lookahead == null) {
+            _hasNext = true;
+        } else {
+            _hasNext = findRow();
+        }
+    }
+
+    /**
+     * Rejects the evaluated record before any row is converted, if its
+     * arrays alone produce more rows than a row budget with
+     * {@link RowBudgetPolicy#REJECT}, or with {@link RowBudgetPolicy#STREAM}
+     * more rows than a list can hold. Records whose rows may be dropped by
+     * the error policy are only rejected while iterating.
+     *
+     * @return false if the record was rejected
+     * @throws AvroAdaptorException
+     *             if the record is rejected and not passed to the dead
+     *             letter sink
+     */
+    boolean checkBudget() throws AvroAdaptorException {
+        // rows are only dropped by the lookahead policies, so the arrays
+        // alone tell whether the budget is exceeded
+        if (_rowLimit > 0 && _budgetPolicy == RowBudgetPolicy.REJECT && _lookahead == null
+                && getMinimumRowCount() > _rowLimit) {
+            rejectOverBudget();
+            return false;
+        }
+        if (_rowLimit > 0 && _budgetPolicy == RowBudgetPolicy.STREAM && _lookahead == null
+                && getMinimumRowCount() > Integer.MAX_VALUE) {
+            rejectOversized();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the record was passed to the dead letter sink, its rows
+     *         returned before must be discarded
+     */
+    boolean isRejected() {
+        return _rejected;
+    }
+
+    /**
+     * @return true if rows beyond the row budget were dropped or, with
+     *         {@link RowBudgetPolicy#STREAM}, are left to be counted by
+     *         {@link #countRemaining(int)}
+     */
+    boolean isTruncated() {
+        return _truncated;
+    }
+
+    /**
+     * Converts the rows left after the iteration paused at the row budget,
+     * without keeping them, so that failed values are reported and the rows
+     * are counted.
+     *
+     * @param max
+     *            the maximum number of remaining rows, a record with more
+     *            rows is rejected like a failed value
+     * @return the number of remaining rows converted
+     * @throws AvroAdaptorException
+     *             if an incompatible datatype conversion is encountered or
+     *             the record has too many rows, and the record is not passed
+     *             to the dead letter sink
+     */
+    int countRemaining(int max) throws AvroAdaptorException {
+        int limit = _rowLimit;
+        _rowLimit = 0;
+        _hasNext = _truncated;
+        Object[] row = new Object[_values.length];
+        int count = 0;
+        try {
+            while (_hasNext) {
+                if (count == max) {
+                    rejectOversized();
+                    break;
+                }
+                next(row);
+                ++count;
+            }
+        } finally {
+            _rowLimit = limit;
+        }
+        return count;
+    }
+
+    /**
+     * @return true if the record produces another row
+     */
+    public boolean hasNext() {
+        return _hasNext;
+    }
+
+    /**
+     * Returns the next row and expands the arrays up to the row after it.
+     *
+     * @return the next row, an Object[] with one value per ParStream column
+     * @throws AvroAdaptorException
+     *             if an incompatible datatype conversion is encountered
+     * @throws NoSuchElementException
+     *             if there are no more rows
+     */
+    public Object[] next() throws AvroAdaptorException {
+        return next(new Object[_values.length]);
+    }
+
+    /**
+     * Stores the next row into the given array and expands the arrays up to
+     * the row after it.
+     *
+     * @param row
+     *            receives the values of the row, one per ParStream column
+     * @return the given row
+     * @throws AvroAdaptorException
+     *             if an incompatible datatype conversion is encountered
+     * @throws NoSuchElementException
+     *             if there are no more rows
+     */
+    Object[] next(Object[] row) throws AvroAdaptorException {
+        if (!_hasNext) {
+            throw new NoSuchElementException();
+        }
+
+        try {
+            if (_lookahead == null) {
+                createRow(row);
+                _hasNext = advance();
+            } else {
+                System.arraycopy(_lookahead, 0, row, 0, row.length);
+                _hasNext = advance() && findRow();
+            }
+        } catch (AvroAdaptorException e) {
+            _hasNext = false;
+            throw e;
+        }
+        if (_rowLimit > 0 && ++_rowCount == _rowLimit && _hasNext) {
+            exceedBudget();
+        }
+        return row;
+    }
+
+    /**
+     * Handles a row left after the last row of the budget.
+     */
+    private void exceedBudget() throws AvroAdaptorException {
+        if (_budgetPolicy == RowBudgetPolicy.REJECT) {
+            rejectOverBudget();
+        } else {
+            // the expansion state is kept, so that streaming can resume
+            _truncated = true;
+            _hasNext = false;
+        }
+    }
+
+    /**
+     * Rejects the evaluated record for exceeding the row budget. It is passed
+     * to the dead letter sink with {@link ErrorPolicy#DEAD_LETTER}, see
+     * {@link #isRejected()}.
+     *
+     * @throws AvroAdaptorException
+     *             if the record is not passed to the dead letter sink
+     */
+    void rejectOverBudget() throws AvroAdaptorException {
+        rejectRecord("record exceeds the row budget of " + _rowLimit + " rows");
+    }
+
+    /**
+     * Rejects the evaluated record for producing more rows than a list can
+     * hold, see {@link #rejectOverBudget()}.
+     */
+    private void rejectOversized() throws AvroAdaptorException {
+        rejectRecord("record exceeds the maximum of " + Integer.MAX_VALUE + " rows of a list");
+    }
+
+    private void rejectRecord(String reason) throws AvroAdaptorException {
+        _hasNext = false;
+        if (_policy != ErrorPolicy.DEAD_LETTER || _deadLetters == null || _record == null) {
+            throw new AvroAdaptorException(reason);
+        }
+        _deadLetters.accept(_record, reason);
+        _rejected = true;
+    }
+
+    /**
+     * Splits the mapped columns into those set by the pending arrays and
+     * those shared by all rows of the record. The shared columns are
+     * converted with the first row.
+     */
+    private void hoist() {
+        _hoisted = !_arrays.isEmpty();
+        if (!_hoisted) {
+            return;
+        }
+
+        Arrays.fill(_varying, false);
+        for (ArrayPlan.Instance array : _arrays) {
+            for (int column : array.getPlan().getScopeColumns()) {
+                _varying[column] = true;
+            }
+        }
+        _prefixCount = 0;
+        _varyingCount = 0;
+        for (int i : _columns) {
+            if (_varying[i]) {
+                _varyingColumns[_varyingCount++] = i;
+            } else {
+                _prefixColumns[_prefixCount++] = i;
+            }
+        }
+        _prefixReady = false;
+    }
+
+    /**
+     * Starts the expansion of all pending arrays below the current depth at
+     * their first element. Arrays nested in an element are appended to the
+     * pending arrays and expanded after the remaining sibling arrays.
+     */
+    private void descend() throws AvroAdaptorException {
+        while (_depth < _arrays.size()) {
+            if (_depth == _positions.length) {
+                _positions = Arrays.copyOf(_positions, _depth * 2);
+                _marks = Arrays.copyOf(_marks, _depth * 2);
+            }
+            if (_depth == 0) {
+                _positions[_depth] = _sliceFrom;
+            } else {
+                _positions[_depth] = 0;
+            }
+            _marks[_depth] = _arrays.size();
+            evaluateCurrent(_depth);
+            ++_depth;
+        }
+    }
+
+    /**
+     * Moves to the next combination of array elements, like an odometer where
+     * the array expanded last varies fastest.
+     *
+     * @return false if all combinations have been produced
+     */
+    private boolean advance() throws AvroAdaptorException {
+        while (_depth > 0) {
+            int level = _depth - 1;
+            ArrayPlan.Instance array = _arrays.get(level);
+            truncate(_marks[level]);
+            int end = array.getElements().size();
+            if (level == 0 && _sliceTo < end) {
+                end = _sliceTo;
+            }
+            if (++_positions[level] < end) {
+                evaluateCurrent(level);
+                descend();
+                return true;
+            }
+            array.getPlan().clear(_values);
+            _depth = level;
+        }
+        return false;
+    }
+
+    private void evaluateCurrent(int level) throws AvroAdaptorException {
+        ArrayPlan.Instance array = _arrays.get(level);
+        ArrayPlan plan = array.getPlan();
+        plan.clear(_values);
+        plan.evaluate(array.getElements().get(_positions[level]), _values, _arrays);
+    }
+
+    private void truncate(int size) {
+        while (_arrays.size() > size) {
+            _arrays.remove(_arrays.size() - 1);
+        }
+    }
+
+    /**
+     * Converts rows into the lookahead row until a row has no failed value.
+     *
+     * @return false if no row is left or the record was rejected
+     */
+    private boolean findRow() throws AvroAdaptorException {
+        int failed = createRow(_lookahead);
+        while (failed >= 0) {
+            if (_policy == ErrorPolicy.DEAD_LETTER) {
+                reject(failed);
+                return false;
+            }
+            if (!advance()) {
+                return false;
+            }
+            failed = createRow(_lookahead);
+        }
+        return true;
+    }
+
+    private void reject(int column) throws AvroAdaptorException {
+        if (_deadLetters == null || _record == null) {
+            throw _converters[column].createException(_values[column]);
+        }
+        // a dead letter only needs the reason, not an exception
+        _deadLetters.accept(_record, _converters[column].describeFailure(_values[column]));
+        _rejected = true;
+    }
+
+    /**
+     * Converts the current values of the mapped columns into a row. The
+     * columns shared by all rows of the record are copied from the prefix.
+     *
+     * @return the index of the first column whose value failed to convert if
+     *         the row is to be dropped, otherwise -1
+     */
+    private int createRow(Object[] row) throws AvroAdaptorException {
+        if (!_hoisted) {
+            return convertColumns(row, _columns, _columns.length);
+        }
+
+        if (!_prefixReady) {
+            convertPrefix();
+            _prefixReady = true;
+        }
+        // a failed shared value counts once for every row it fails
+        for (int i = 0; i < _prefixFailureCount && !_replaying; ++i) {
+            _converters[_prefixFailures[i]].recordFailure();
+        }
+        if (_prefixFailureCount > 0 && _policy != ErrorPolicy.NULL_VALUE) {
+            return _prefixFailures[0];
+        }
+        System.arraycopy(_prefix, 0, row, 0, row.length);
+        return convertColumns(row, _varyingColumns, _varyingCount);
+    }
+
+    /**
+     * Converts the columns shared by all rows of the record into the prefix.
+     * Failed values are remembered instead of recorded, as they are recorded
+     * per row.
+     */
+    private void convertPrefix() throws AvroAdaptorException {
+        _prefixFailureCount = 0;
+        for (int n = 0; n < _prefixCount; ++n) {
+            int i = _prefixColumns[n];
+            if (_values[i] == null) {
+                _prefix[i] = null;
+            } else if (_policy == ErrorPolicy.FAIL) {
+                _prefix[i] = _converters[i].convert(_values[i]);
+            } else {
+                Object value = _converters[i].tryConvert(_values[i]);
+                if (value == ColumnConverter.INVALID) {
+                    _prefixFailures[_prefixFailureCount++] = i;
+                    if (_policy != ErrorPolicy.NULL_VALUE) {
+                        return;
+                    }
+                    value = null;
+                }
+                _prefix[i] = value;
+            }
+        }
+    }
+
+    /**
+     * Converts the current values of the given columns into a row.
+     *
+     * @return the index of the first column whose value failed to convert if
+     *         the row is to be dropped, otherwise -1
+     */
+    private int convertColumns(Object[] row, int[] columns, int count) throws AvroAdaptorException {
+        for (int n = 0; n < count; ++n) {
+            int i = columns[n];
+            if (_values[i] == null) {
+                row[i] = null;
+            } else if (_policy == ErrorPolicy.FAIL) {
+                row[i] = _converters[i].convert(_values[i]);
+            } else {
+                Object value = _converters[i].tryConvert(_values[i]);
+                if (value == ColumnConverter.INVALID) {
+                    if (!_replaying) {
+                        _converters[i].recordFailure();
+                    }
+                    if (_policy != ErrorPolicy.NULL_VALUE) {
+                        return i;
+                    }
+                    value = null;
+                }
+                row[i] = value;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright 2015 ParStream GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parstream.adaptor.avro;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A ring of preallocated row lists, used by a single thread. Every conversion
+ * fills the next generation of the ring, reusing its list and the row arrays
+ * it held before, so converting a record allocates no row once each
+ * generation has seen the largest fan-out.
+ * <p>
+ * A row array is only ever written at the mapped columns, the unmapped
+ * columns keep the null they were allocated with. The rows and the list of a
+ * generation therefore stay valid until the ring has wrapped around, i.e.
+ * until the thread has done as many further conversions as the ring is deep.
+ */
+final class RowPool {
+
+    private final Generation[] _generations;
+    private final int _columnCount;
+    private int _next;
+
+    /**
+     * Creates a ring of empty generations.
+     *
+     * @param depth
+     *            the number of generations, must be positive
+     * @param columnCount
+     *            the number of ParStream columns of a row
+     */
+    RowPool(int depth, int columnCount) {
+        _generations = new Generation[depth];
+        for (int i = 0; i < depth; ++i) {
+            _generations[i] = new Generation();
+        }
+        _columnCount = columnCount;
+        _next = 0;
+    }
+
+    /**
+     * Collects all rows of the iterator into the next generation of the ring.
+     *
+     * @param iterator
+     *            the iterator positioned at the first row of a record
+     * @return the reused list of the generation, empty if the record was
+     *         rejected
+     * @throws AvroAdaptorException
+     *             if an incompatible datatype conversion is encountered
+     */
+    List<Object[]> createRows(RowIterator iterator) throws AvroAdaptorException {
+        Generation generation = _generations[_next];
+        if (++_next == _generations.length) {
+            _next = 0;
+        }
+
+        List<Object[]> rows = generation._rows;
+        List<Object[]> buffers = generation._buffers;
+        rows.clear();
+        while (iterator.hasNext()) {
+            if (rows.size() == buffers.size()) {
+                buffers.add(new Object[_columnCount]);
+            }
+            rows.add(iterator.next(buffers.get(rows.size())));
+        }
+        if (iterator.isRejected()) {
+            rows.clear();
+        }
+        return rows;
+    }
+
+    /**
+     * The list handed out for one conversion and all row arrays allocated for
+     * it so far.
+     */
+    private static final class Generation {
+
+        private final List<Object[]> _rows;
+        private final List<Object[]> _buffers;
+
+        Generation() {
+            _rows = new ArrayList<Object[]>(1);
+            _buffers = new ArrayList<Object[]>(1);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+/**
+ * Copyright 2015 ParStream GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parstream.adaptor.avro;
+
+/**
+ * Receives the ParStream rows produced by the <code>convertRecord</code> and
+ * <code>convertBinary</code> methods of {@link AvroAdaptor} one by one. A
+ * typical sink inserts each row through the ParStream Java Streaming Import
+ * Interface.
+ */
+public interface RowSink {
+
+    /**
+     * Declares whether the sink is done with a row once
+     * {@link #accept(Object[])} returns, i.e. it inserts or copies the row but
+     * keeps no reference to the array. In this case the adaptor passes the
+     * same array for every row, otherwise each row is a new array.
+     * 
+     * @return true if the adaptor may reuse the row array
+     */
+    boolean consumesRowsSynchronously();
+
+    /**
+     * Receives a single row.
+     * 
+     * @param row
+     *            the row, an Object[] with one value per ParStream column
+     * @throws AvroAdaptorException
+     *             to abort the conversion of the current record
+     */
+    void accept(Object[] row) throws AvroAdaptorException;
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright 2015 ParStream GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parstream.adaptor.avro;
+
+import java.util.AbstractList;
+import java.util.List;
+
+/**
+ * The rows of a record exceeding its row budget with
+ * {@link RowBudgetPolicy#STREAM}. The rows up to the budget are held in
+ * memory like any other row. The rows beyond the budget are produced again
+ * from a snapshot of the evaluated record whenever one of them is requested,
+ * so the list holds no more memory than the arrays of the record, regardless
+ * of the number of rows they produce.
+ * <p>
+ * The list is read-only. All its rows are converted once before it is
+ * created, so failed values are reported right away. The snapshot does not
+ * refer to the record, so the record may be reused. Rows beyond the budget
+ * are produced in order: requesting a row before the one requested last
+ * starts again from the first row of the record.
+ */
+final class StreamedRowList extends AbstractList<Object[]> {
+
+    private final List<Object[]> _head;
+    private final RowIterator _record;
+    private final int _size;
+    // receives the rows skipped to reach a requested row
+    private final Object[] _skipped;
+    // the iteration producing the rows beyond the head, the index of the row
+    // it produces next and the row it produced last
+    private RowIterator _replay;
+    private int _next;
+    private Object[] _last;
+
+    /**
+     * @param head
+     *            the first rows of the record, not empty
+     * @param record
+     *            a detached snapshot of the evaluated record, see
+     *            {@link RowIterator#snapshot()}
+     * @param size
+     *            the number of rows of the record
+     */
+    StreamedRowList(List<Object[]> head, RowIterator record, int size) {
+        _head = head;
+        _record = record;
+        _size = size;
+        _skipped = new Object[head.get(0).length];
+    }
+
+    @Override
+    public int size() {
+        return _size;
+    }
+
+    /**
+     * Returns a row of the record. Rows beyond the head are converted anew,
+     * unless the same row was requested last.
+     *
+     * @param index
+     *            the index of the row
+     * @return the row
+     * @throws IllegalStateException
+     *             if a row fails to convert, which only happens if the
+     *             converters changed their mind about a value
+     */
+    @Override
+    public Object[] get(int index) {
+        if (index < 0 || index >= _size) {
+            throw new IndexOutOfBoundsException("index " + index + ", size " + _size);
+        }
+        if (index < _head.size()) {
+            return _head.get(index);
+        }
+        return replay(index);
+    }
+
+    private synchronized Object[] replay(int index) {
+        if (index == _next - 1) {
+            return _last;
+        }
+        try {
+            if (_replay == null || index < _next) {
+                _replay = _record.replay();
+                _next = 0;
+            }
+            while (_next < index) {
+                _replay.next(_skipped);
+                ++_next;
+            }
+            _last = _replay.next();
+            ++_next;
+            return _last;
+        } catch (AvroAdaptorException e) {
+            throw new IllegalStateException("row " + index + " of a streamed record failed: " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/**
+ * Copyright 2015 ParStream GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parstream.adaptor.avro;
+
+import java.util.Arrays;
+
+import org.apache.avro.util.Utf8;
+
+/**
+ * Maps the UTF-8 bytes of Avro strings to canonical String instances for a
+ * single VARSTRING column and thread. Columns like a country or a status code
+ * repeat a few distinct values in billions of rows, so most values are found
+ * by comparing bytes without decoding them into a new String.
+ * <p>
+ * The dictionary holds at most a fixed number of entries in an open
+ * addressing table and is cleared when it is full. It watches its hit ratio
+ * over windows of lookups and switches itself off for the rest of its life if
+ * more than half of the lookups of a window miss, as high-cardinality columns
+ * would only pay for hashing and copying the bytes.
+ * <p>
+ * Hits and misses are published to the metrics in batches, values decoded
+ * after the dictionary switched itself off count as misses.
+ */
+final class StringDictionary {
+
+    /**
+     * The number of lookups counted locally before they are published.
+     */
+    static final int PUBLISH_INTERVAL = 256;
+
+    private static final int MIN_WINDOW = 1024;
+
+    private final AdaptorMetrics _metrics;
+    private final int _column;
+    private final int _maxEntries;
+    private final int _window;
+    private final byte[][] _keys;
+    private final int[] _hashes;
+    private final String[] _values;
+    private final int _mask;
+    private int _size;
+    private boolean _disabled;
+
+    private int _windowLookups;
+    private int _windowMisses;
+    private int _pendingHits;
+    private int _pendingMisses;
+
+    /**
+     * Creates an empty dictionary.
+     *
+     * @param maxEntries
+     *            the maximum number of distinct values kept, must be positive
+     * @param metrics
+     *            receives the hits and misses
+     * @param column
+     *            the index of the column the dictionary serves
+     */
+    StringDictionary(int maxEntries, AdaptorMetrics metrics, int column) {
+        _metrics = metrics;
+        _column = column;
+        _maxEntries = maxEntries;
+        _window = Math.max(MIN_WINDOW, 4 * maxEntries);
+        int capacity = Integer.highestOneBit(Math.max(maxEntries, 1) * 2 - 1) << 1;
+        _keys = new byte[capacity][];
+        _hashes = new int[capacity];
+        _values = new String[capacity];
+        _mask = capacity - 1;
+    }
+
+    /**
+     * Returns the canonical String of an Avro string.
+     *
+     * @param value
+     *            the Avro string
+     * @return the String with the same characters
+     */
+    String get(Utf8 value) {
+        if (_disabled) {
+            count(false);
+            return value.toString();
+        }
+
+        byte[] bytes = value.getBytes();
+        int length = value.getByteLength();
+        int hash = value.hashCode();
+        int slot = mix(hash) & _mask;
+        while (_keys[slot] != null) {
+            if (_hashes[slot] == hash && equals(_keys[slot], bytes, length)) {
+                count(true);
+                return _values[slot];
+            }
+            slot = (slot + 1) & _mask;
+        }
+
+        String string = value.toString();
+        if (_size == _maxEntries) {
+            clear();
+            slot = mix(hash) & _mask;
+        }
+        _keys[slot] = Arrays.copyOf(bytes, length);
+        _hashes[slot] = hash;
+        _values[slot] = string;
+        ++_size;
+        count(false);
+        return string;
+    }
+
+    /**
+     * @return true if the dictionary switched itself off
+     */
+    boolean isDisabled() {
+        return _disabled;
+    }
+
+    private void count(boolean hit) {
+        if (hit) {
+            ++_pendingHits;
+        } else {
+            ++_pendingMisses;
+            ++_windowMisses;
+        }
+        if (_pendingHits + _pendingMisses == PUBLISH_INTERVAL) {
+            _metrics.recordDictionaryLookups(_column, _pendingHits, _pendingMisses);
+            _pendingHits = 0;
+            _pendingMisses = 0;
+        }
+
+        if (++_windowLookups == _window) {
+            if (_windowMisses * 2 > _window && !_disabled) {
+                _disabled = true;
+                clear();
+            }
+            _windowLookups = 0;
+            _windowMisses = 0;
+        }
+    }
+
+    private void clear() {
+        Arrays.fill(_keys, null);
+        Arrays.fill(_values, null);
+        _size = 0;
+    }
+
+    private static boolean equals(byte[] key, byte[] bytes, int length) {
+        if (key.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; ++i) {
+            if (key[i] != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Spreads the polynomial hash of the bytes over the low bits used as the
+     * table index.
+     */
+    private static int mix(int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
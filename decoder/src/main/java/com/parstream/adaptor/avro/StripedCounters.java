@@ -0,0 +1,94 @@
+/**
+ * Copyright 2015 ParStream GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parstream.adaptor.avro;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed number of counters updated concurrently by many threads. Every
+ * counter is split into stripes and a thread only adds to the stripe selected
+ * by its id, so threads converting records in parallel rarely write to the
+ * same cache line. Reading a counter sums its stripes and is not atomic with
+ * respect to concurrent updates.
+ */
+class StripedCounters {
+
+    // longs per cache line, the stripes of different threads do not share one
+    private static final int LINE = 8;
+
+    private final int _size;
+    private final int _stride;
+    private final int _mask;
+    private final AtomicLongArray _cells;
+
+    /**
+     * Creates counters starting at 0, with one stripe per available processor.
+     *
+     * @param size
+     *            the number of counters
+     */
+    StripedCounters(int size) {
+        int stripes = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1);
+        _size = size;
+        _stride = (size + LINE - 1) / LINE * LINE;
+        _mask = stripes - 1;
+        _cells = new AtomicLongArray(stripes * _stride);
+    }
+
+    /**
+     * @return the number of counters
+     */
+    int size() {
+        return _size;
+    }
+
+    /**
+     * Adds to a counter.
+     *
+     * @param counter
+     *            the index of the counter
+     * @param delta
+     *            the value to add
+     */
+    void add(int counter, long delta) {
+        int stripe = (int) Thread.currentThread().getId() & _mask;
+        _cells.getAndAdd(stripe * _stride + counter, delta);
+    }
+
+    /**
+     * @param counter
+     *            the index of the counter
+     * @return the sum of all stripes of the counter
+     */
+    long get(int counter) {
+        long sum = 0;
+        for (int i = counter; i < _cells.length(); i += _stride) {
+            sum += _cells.get(i);
+        }
+        return sum;
+    }
+
+    /**
+     * @return the sums of all counters
+     */
+    long[] getAll() {
+        long[] sums = new long[_size];
+        for (int i = 0; i < _size; ++i) {
+            sums[i] = get(i);
+        }
+        return sums;
+    }
+}
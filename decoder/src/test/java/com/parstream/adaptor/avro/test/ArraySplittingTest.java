@@ -0,0 +1,204 @@
+/**
+ * Copyright 2015 ParStream GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parstream.adaptor.avro.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.apache.avro.Schema;
+import org.apache.avro.Schema.Parser;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.parstream.adaptor.avro.AvroAdaptor;
+import com.parstream.adaptor.avro.AvroAdaptorException;
+import com.parstream.adaptor.avro.DeadLetterSink;
+import com.parstream.adaptor.avro.ErrorPolicy;
+import com.parstream.driver.ColumnInfo;
+
+public class ArraySplittingTest {
+
+    private ForkJoinPool _pool;
+    private Schema _schema;
+    private AvroAdaptor _sequential;
+    private AvroAdaptor _split;
+
+    @Before
+    public void setUp() throws Exception {
+        _pool = new ForkJoinPool(4);
+        _schema = new Parser().parse(new File("target/test-classes/arraySplitting/Samples/record.avsc"));
+        _sequential = createAdaptor("arraySplitting/Samples", AdaptorTestUtils.Type.INT64);
+        _split = createAdaptor("arraySplitting/Samples", AdaptorTestUtils.Type.INT64);
+        _split.setArraySplitting(_pool, 3);
+    }
+
+    @After
+    public void tearDown() {
+        _pool.shutdown();
+    }
+
+    private static AvroAdaptor createAdaptor(String resource, AdaptorTestUtils.Type valueType) throws Exception {
+        ColumnInfo[] colInfo = new ColumnInfo[3];
+        colInfo[0] = AdaptorTestUtils.constructColumnInfo("id", AdaptorTestUtils.Type.INT32, 0, 0);
+        colInfo[1] = AdaptorTestUtils.constructColumnInfo("value", valueType, 0, 0);
+        colInfo[2] = AdaptorTestUtils.constructColumnInfo("tag", AdaptorTestUtils.Type.VARSTRING, 0, 0);
+        return new AvroAdaptor(new File("target/test-classes/" + resource + "/avro.ini"), colInfo);
+    }
+
+    private GenericRecord createRecord(int id, int samples, int tags) {
+        Schema samplesSchema = _schema.getField("samples").schema();
+        Schema tagsSchema = samplesSchema.getElementType().getField("tags").schema();
+        List<GenericRecord> elements = new ArrayList<GenericRecord>();
+        for (int i = 0; i < samples; ++i) {
+            List<String> tagValues = new ArrayList<String>();
+            for (int j = 0; j < tags; ++j) {
+                tagValues.add("tag" + i + "." + j);
+            }
+            GenericRecord sample = new GenericData.Record(samplesSchema.getElementType());
+            sample.put("value", (long) i);
+            sample.put("tags", new GenericData.Array<String>(tagsSchema, tagValues));
+            elements.add(sample);
+        }
+
+        GenericRecord record = new GenericData.Record(_schema);
+        record.put("id", id);
+        record.put("samples", new GenericData.Array<GenericRecord>(samplesSchema, elements));
+        return record;
+    }
+
+    private byte[] encode(GenericRecord record) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(out, null);
+        new GenericDatumWriter<GenericRecord>(record.getSchema()).write(record, encoder);
+        encoder.flush();
+        return out.toByteArray();
+    }
+
+    private static void assertSameRows(List<Object[]> expected, List<Object[]> res) {
+        assertEquals("resulting list size", expected.size(), res.size());
+        for (int i = 0; i < res.size(); ++i) {
+            assertArrayEquals("resulting item", expected.get(i), res.get(i));
+        }
+    }
+
+    @Test
+    public void testSplitRowsInOrder() throws Exception {
+        assertEquals("threshold", 3, _split.getArraySplitThreshold());
+        for (int samples : new int[] { 1, 3, 4, 10, 100 }) {
+            GenericRecord record = createRecord(samples, samples, 2);
+            List<Object[]> res = _split.convertRecord(record);
+            assertSameRows(_sequential.convertRecord(record), res);
+            assertEquals("resulting list size", samples * 2, res.size());
+        }
+
+        List<Object[]> res = _split.convertRecord(createRecord(5, 7, 1));
+        assertArrayEquals("resulting item", new Object[] { 5, 6L, "tag6.0" }, res.get(6));
+    }
+
+    @Test
+    public void testSplitBinary() throws Exception {
+        GenericRecord record = createRecord(1, 20, 3);
+        assertSameRows(_sequential.convertRecord(record), _split.convertBinary(encode(record), _schema));
+    }
+
+    @Test
+    public void testSplitWithRowPool() throws Exception {
+        _split.setRowPoolDepth(1);
+        List<Object[]> first = _split.convertRecord(createRecord(1, 10, 1));
+        List<Object[]> expected = _sequential.convertRecord(createRecord(1, 10, 1));
+        _split.convertRecord(createRecord(2, 10, 1));
+        assertSameRows(expected, first);
+    }
+
+    @Test
+    public void testSplitFailure() throws Exception {
+        Schema schema = new Parser().parse(new File("target/test-classes/errorPolicy/MixedValues/record.avsc"));
+        AvroAdaptor adaptor = createMixedAdaptor();
+        try {
+            adaptor.convertRecord(createMixedRecord(schema, 1, 10, 20, 30, 40, "bad", 60, "worse"));
+            fail("AvroAdaptorException expected");
+        } catch (AvroAdaptorException e) {
+            assertTrue(e.getMessage().startsWith("Incompatible datatypes for column (value)"));
+            assertTrue("first failed value", e.getMessage().endsWith(": bad"));
+        }
+    }
+
+    @Test
+    public void testSplitDeadLetter() throws Exception {
+        Schema schema = new Parser().parse(new File("target/test-classes/errorPolicy/MixedValues/record.avsc"));
+        AvroAdaptor adaptor = createMixedAdaptor();
+        final List<String> reasons = new ArrayList<String>();
+        adaptor.setErrorPolicy(ErrorPolicy.DEAD_LETTER);
+        adaptor.setDeadLetterSink(new DeadLetterSink() {
+
+            @Override
+            public void accept(GenericRecord record, String reason) {
+                reasons.add(reason);
+            }
+        });
+
+        assertTrue("rejected record",
+                adaptor.convertRecord(createMixedRecord(schema, 1, 10, "bad", 30, 40, 50, "worse", 70)).isEmpty());
+        assertEquals("dead letters", 1, reasons.size());
+        assertTrue("reason", reasons.get(0).endsWith(": bad"));
+        assertEquals("good record", 8, adaptor.convertRecord(createMixedRecord(schema, 2, 1, 2, 3, 4, 5, 6, 7, 8))
+                .size());
+    }
+
+    @Test
+    public void testInvalidThreshold() throws Exception {
+        try {
+            _split.setArraySplitting(_pool, 0);
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+            assertEquals("array split threshold must be positive: 0", e.getMessage());
+        }
+        _split.setArraySplitting(null, 0);
+        assertEquals("disabled", 0, _split.getArraySplitThreshold());
+    }
+
+    private AvroAdaptor createMixedAdaptor() throws Exception {
+        ColumnInfo[] colInfo = new ColumnInfo[2];
+        colInfo[0] = AdaptorTestUtils.constructColumnInfo("id", AdaptorTestUtils.Type.INT32, 0, 0);
+        colInfo[1] = AdaptorTestUtils.constructColumnInfo("value", AdaptorTestUtils.Type.INT64, 0, 0);
+        AvroAdaptor adaptor = new AvroAdaptor(new File("target/test-classes/errorPolicy/MixedValues/avro.ini"),
+                colInfo);
+        adaptor.setArraySplitting(_pool, 2);
+        return adaptor;
+    }
+
+    private static GenericRecord createMixedRecord(Schema schema, int id, Object... values) {
+        GenericRecord record = new GenericData.Record(schema);
+        record.put("id", id);
+        record.put("values", new GenericData.Array<Object>(schema.getField("values").schema(), Arrays.asList(values)));
+        return record;
+    }
+}
@@ -0,0 +1,364 @@
+/**
+ * Copyright 2015 ParStream GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parstream.adaptor.avro.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.avro.Schema;
+import org.apache.avro.Schema.Parser;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.parstream.adaptor.avro.AvroAdaptor;
+import com.parstream.adaptor.avro.AvroAdaptorException;
+import com.parstream.adaptor.avro.AvroRowProcessor;
+import com.parstream.adaptor.avro.ReactiveStreams;
+import com.parstream.driver.ColumnInfo;
+
+public class AvroRowProcessorTest {
+
+    private static final Executor DIRECT = new Executor() {
+
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private Schema _schema;
+    private AvroAdaptor _decoder;
+
+    @Before
+    public void setUp() throws Exception {
+        _schema = new Parser().parse(new File("target/test-classes/errorPolicy/MixedValues/record.avsc"));
+
+        ColumnInfo[] colInfo = new ColumnInfo[2];
+        colInfo[0] = AdaptorTestUtils.constructColumnInfo("id", AdaptorTestUtils.Type.INT32, 0, 0);
+        colInfo[1] = AdaptorTestUtils.constructColumnInfo("value", AdaptorTestUtils.Type.INT64, 0, 0);
+        _decoder = new AvroAdaptor(new File("target/test-classes/errorPolicy/MixedValues/avro.ini"), colInfo);
+    }
+
+    private GenericRecord createRecord(int id, Object... values) {
+        GenericRecord record = new GenericData.Record(_schema);
+        record.put("id", id);
+        record.put("values", new GenericData.Array<Object>(_schema.getField("values").schema(), Arrays.asList(values)));
+        return record;
+    }
+
+    private List<GenericRecord> createRecords(int count) {
+        List<GenericRecord> records = new ArrayList<GenericRecord>();
+        for (int i = 0; i < count; ++i) {
+            records.add(createRecord(i, i, i + 1000));
+        }
+        return records;
+    }
+
+    @Test
+    public void testBatchesOnDemand() throws Exception {
+        RecordPublisher publisher = new RecordPublisher(createRecords(10));
+        AvroRowProcessor processor = new AvroRowProcessor(_decoder, DIRECT, 4);
+        publisher.subscribe(processor);
+        BatchSubscriber subscriber = new BatchSubscriber();
+        processor.subscribe(subscriber);
+        assertEquals("no records before demand", 0, publisher._requested);
+
+        subscriber._subscription.request(1);
+        assertEquals("batches", 1, subscriber._batches.size());
+        assertEquals("records of one batch", 4, publisher._requested);
+        assertEquals("resulting list size", 8, subscriber._batches.get(0).size());
+        assertArrayEquals("resulting item", new Object[] { 0, 0 }, subscriber._batches.get(0).get(0));
+        assertArrayEquals("resulting item", new Object[] { 3, 1003 }, subscriber._batches.get(0).get(7));
+
+        subscriber._subscription.request(5);
+        assertEquals("batches", 3, subscriber._batches.size());
+        assertEquals("resulting list size", 4, subscriber._batches.get(2).size());
+        assertArrayEquals("resulting item", new Object[] { 9, 1009 }, subscriber._batches.get(2).get(3));
+        assertTrue("completed", subscriber._completed);
+        assertNull("no failure", subscriber._failure);
+    }
+
+    @Test
+    public void testUpstreamNotOverrun() throws Exception {
+        RecordPublisher publisher = new RecordPublisher(createRecords(100));
+        AvroRowProcessor processor = new AvroRowProcessor(_decoder, DIRECT, 8);
+        publisher.subscribe(processor);
+        BatchSubscriber subscriber = new BatchSubscriber();
+        processor.subscribe(subscriber);
+
+        for (int i = 1; i <= 5; ++i) {
+            subscriber._subscription.request(1);
+            assertEquals("batches", i, subscriber._batches.size());
+            assertEquals("requested records", 8 * i, publisher._requested);
+        }
+        subscriber._subscription.cancel();
+        assertTrue("upstream cancelled", publisher._cancelled);
+        assertFalse("not completed", subscriber._completed);
+    }
+
+    @Test
+    public void testConversionFailure() throws Exception {
+        List<GenericRecord> records = createRecords(3);
+        records.add(createRecord(3, "bad"));
+        records.addAll(createRecords(3));
+        RecordPublisher publisher = new RecordPublisher(records);
+        AvroRowProcessor processor = new AvroRowProcessor(_decoder, DIRECT, 2);
+        publisher.subscribe(processor);
+        BatchSubscriber subscriber = new BatchSubscriber();
+        processor.subscribe(subscriber);
+
+        subscriber._subscription.request(Long.MAX_VALUE);
+        assertEquals("batches before the failure", 1, subscriber._batches.size());
+        assertTrue(subscriber._failure instanceof AvroAdaptorException);
+        assertTrue("upstream cancelled", publisher._cancelled);
+        assertFalse("not completed", subscriber._completed);
+    }
+
+    @Test
+    public void testSubscriberFailure() throws Exception {
+        RecordPublisher publisher = new RecordPublisher(createRecords(10));
+        AvroRowProcessor processor = new AvroRowProcessor(_decoder, DIRECT, 2);
+        publisher.subscribe(processor);
+        final IllegalStateException failure = new IllegalStateException("insert failed");
+        BatchSubscriber subscriber = new BatchSubscriber() {
+
+            @Override
+            public void onNext(List<Object[]> batch) {
+                throw failure;
+            }
+        };
+        processor.subscribe(subscriber);
+
+        subscriber._subscription.request(Long.MAX_VALUE);
+        assertEquals("signalled failure", failure, subscriber._failure);
+        assertTrue("upstream cancelled", publisher._cancelled);
+    }
+
+    @Test
+    public void testSubscriberErrorPropagates() throws Exception {
+        RecordPublisher publisher = new RecordPublisher(createRecords(10));
+        AvroRowProcessor processor = new AvroRowProcessor(_decoder, DIRECT, 2);
+        publisher.subscribe(processor);
+        final Error error = new Error("out of resources");
+        BatchSubscriber subscriber = new BatchSubscriber() {
+
+            @Override
+            public void onNext(List<Object[]> batch) {
+                throw error;
+            }
+        };
+        processor.subscribe(subscriber);
+
+        try {
+            subscriber._subscription.request(1);
+            fail("Error expected");
+        } catch (Error e) {
+            assertEquals("propagated error", error, e);
+        }
+        assertNull("not signalled", subscriber._failure);
+    }
+
+    @Test
+    public void testTerminalSignalFailurePropagates() throws Exception {
+        RecordPublisher publisher = new RecordPublisher(createRecords(2));
+        AvroRowProcessor processor = new AvroRowProcessor(_decoder, DIRECT, 4);
+        publisher.subscribe(processor);
+        final IllegalStateException failure = new IllegalStateException("close failed");
+        BatchSubscriber subscriber = new BatchSubscriber() {
+
+            @Override
+            public void onComplete() {
+                throw failure;
+            }
+        };
+        processor.subscribe(subscriber);
+
+        try {
+            subscriber._subscription.request(1);
+            fail("IllegalStateException expected");
+        } catch (IllegalStateException e) {
+            assertEquals("propagated failure", failure, e);
+        }
+        assertEquals("batches", 1, subscriber._batches.size());
+        assertNull("not signalled", subscriber._failure);
+    }
+
+    @Test
+    public void testUpstreamFailure() throws Exception {
+        AvroRowProcessor processor = new AvroRowProcessor(_decoder, DIRECT, 2);
+        BatchSubscriber subscriber = new BatchSubscriber();
+        processor.subscribe(subscriber);
+        processor.onSubscribe(new RecordPublisher(createRecords(0)).new RecordSubscription(processor));
+        IllegalStateException failure = new IllegalStateException("read failed");
+        processor.onError(failure);
+        assertEquals("forwarded failure", failure, subscriber._failure);
+    }
+
+    @Test
+    public void testInvalidRequest() throws Exception {
+        RecordPublisher publisher = new RecordPublisher(createRecords(10));
+        AvroRowProcessor processor = new AvroRowProcessor(_decoder, DIRECT, 2);
+        publisher.subscribe(processor);
+        BatchSubscriber subscriber = new BatchSubscriber();
+        processor.subscribe(subscriber);
+
+        subscriber._subscription.request(0);
+        assertTrue(subscriber._failure instanceof IllegalArgumentException);
+        assertTrue("upstream cancelled", publisher._cancelled);
+    }
+
+    @Test
+    public void testSingleSubscriber() throws Exception {
+        AvroRowProcessor processor = new AvroRowProcessor(_decoder, DIRECT, 2);
+        processor.subscribe(new BatchSubscriber());
+        BatchSubscriber second = new BatchSubscriber();
+        processor.subscribe(second);
+        assertTrue(second._failure instanceof IllegalStateException);
+    }
+
+    @Test
+    public void testExecutor() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            RecordPublisher publisher = new RecordPublisher(createRecords(1000));
+            AvroRowProcessor processor = new AvroRowProcessor(_decoder, executor, 16);
+            publisher.subscribe(processor);
+            final CountDownLatch done = new CountDownLatch(1);
+            BatchSubscriber subscriber = new BatchSubscriber() {
+
+                @Override
+                public void onNext(List<Object[]> batch) {
+                    super.onNext(batch);
+                    _subscription.request(1);
+                }
+
+                @Override
+                public void onComplete() {
+                    super.onComplete();
+                    done.countDown();
+                }
+            };
+            processor.subscribe(subscriber);
+            subscriber._subscription.request(1);
+            assertTrue("completed", done.await(10, TimeUnit.SECONDS));
+
+            int rows = 0;
+            int expectedId = 0;
+            for (List<Object[]> batch : subscriber._batches) {
+                for (int i = 0; i < batch.size(); i += 2) {
+                    assertEquals("record order", expectedId++, batch.get(i)[0]);
+                }
+                rows += batch.size();
+            }
+            assertEquals("rows", 2000, rows);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Publishes a list of records synchronously on request.
+     */
+    private static class RecordPublisher implements ReactiveStreams.Publisher<GenericRecord> {
+
+        private final List<GenericRecord> _records;
+        private int _next;
+        private long _requested;
+        private boolean _cancelled;
+
+        RecordPublisher(List<GenericRecord> records) {
+            _records = records;
+        }
+
+        @Override
+        public void subscribe(ReactiveStreams.Subscriber<? super GenericRecord> subscriber) {
+            subscriber.onSubscribe(new RecordSubscription(subscriber));
+        }
+
+        private class RecordSubscription implements ReactiveStreams.Subscription {
+
+            private final ReactiveStreams.Subscriber<? super GenericRecord> _subscriber;
+
+            RecordSubscription(ReactiveStreams.Subscriber<? super GenericRecord> subscriber) {
+                _subscriber = subscriber;
+            }
+
+            @Override
+            public synchronized void request(long n) {
+                _requested += n;
+                while (n-- > 0 && _next < _records.size() && !_cancelled) {
+                    _subscriber.onNext(_records.get(_next++));
+                }
+                if (_next == _records.size() && !_cancelled) {
+                    _next++;
+                    _subscriber.onComplete();
+                }
+            }
+
+            @Override
+            public void cancel() {
+                _cancelled = true;
+            }
+        }
+    }
+
+    /**
+     * Collects the published batches, requesting nothing by itself.
+     */
+    private static class BatchSubscriber implements ReactiveStreams.Subscriber<List<Object[]>> {
+
+        protected volatile ReactiveStreams.Subscription _subscription;
+        private final List<List<Object[]>> _batches = new ArrayList<List<Object[]>>();
+        private volatile Throwable _failure;
+        private volatile boolean _completed;
+
+        @Override
+        public void onSubscribe(ReactiveStreams.Subscription subscription) {
+            _subscription = subscription;
+        }
+
+        @Override
+        public void onNext(List<Object[]> batch) {
+            _batches.add(batch);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            _failure = throwable;
+        }
+
+        @Override
+        public void onComplete() {
+            _completed = true;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/**
+ * Copyright 2015 ParStream GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parstream.adaptor.avro.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.avro.Schema;
+import org.apache.avro.Schema.Parser;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.EncoderFactory;
+import org.junit.Test;
+
+import com.parstream.adaptor.avro.AvroAdaptor;
+import com.parstream.adaptor.avro.AvroAdaptorException;
+import com.parstream.driver.ColumnInfo;
+
+public class BinaryDecodingTest {
+
+    @Test
+    public void testNestedRecordSkipsUnmappedMap() throws Exception {
+        Schema schema = new Parser().parse(new File("target/test-classes/nested/NestedRecord/schema.avsc"));
+
+        GenericRecord address = new GenericData.Record(schema.getField("location").schema());
+        address.put("city", "Cologne");
+        address.put("zip", 50667);
+
+        Map<String, String> attributes = new HashMap<String, String>();
+        attributes.put("key", "value");
+
+        GenericRecord record = new GenericData.Record(schema);
+        record.put("id", 7);
+        record.put("location", address);
+        record.put("attributes", attributes);
+
+        ColumnInfo[] colInfo = new ColumnInfo[3];
+        colInfo[0] = AdaptorTestUtils.constructColumnInfo("id", AdaptorTestUtils.Type.UINT32, 0, 0);
+        colInfo[1] = AdaptorTestUtils.constructColumnInfo("city", AdaptorTestUtils.Type.VARSTRING, 0, 0);
+        colInfo[2] = AdaptorTestUtils.constructColumnInfo("zip", AdaptorTestUtils.Type.UINT32, 0, 0);
+
+        AvroAdaptor decoder = new AvroAdaptor(new File("target/test-classes/nested/NestedRecord/avro.ini"), colInfo);
+        List<Object[]> res = decoder.convertBinary(encode(record), schema);
+        assertEquals("resulting list size", 1, res.size());
+        assertArrayEquals("resulting item", new Object[] { 7, "Cologne", 50667 }, res.get(0));
+    }
+
+    @Test
+    public void testNestedArrays() throws Exception {
+        Schema schema = new Parser().parse(new File("target/test-classes/nested/NestedArrays/schema.avsc"));
+        Schema ordersSchema = schema.getField("orders").schema();
+        Schema orderSchema = ordersSchema.getElementType();
+        Schema itemsSchema = orderSchema.getField("items").schema();
+
+        GenericRecord order1 = new GenericData.Record(orderSchema);
+        order1.put("orderId", 1);
+        order1.put("items", new GenericData.Array<String>(itemsSchema, Arrays.asList("a", "b")));
+
+        GenericRecord order2 = new GenericData.Record(orderSchema);
+        order2.put("orderId", 2);
+        order2.put("items", new GenericData.Array<String>(itemsSchema, new ArrayList<String>(0)));
+
+        GenericRecord record = new GenericData.Record(schema);
+        record.put("name", "customer");
+        record.put("orders", new GenericData.Array<GenericRecord>(ordersSchema, Arrays.asList(order1, order2)));
+
+        ColumnInfo[] colInfo = new ColumnInfo[3];
+        colInfo[0] = AdaptorTestUtils.constructColumnInfo("name", AdaptorTestUtils.Type.VARSTRING, 0, 0);
+        colInfo[1] = AdaptorTestUtils.constructColumnInfo("orderId", AdaptorTestUtils.Type.UINT32, 0, 0);
+        colInfo[2] = AdaptorTestUtils.constructColumnInfo("item", AdaptorTestUtils.Type.VARSTRING, 0, 0);
+
+        AvroAdaptor decoder = new AvroAdaptor(new File("target/test-classes/nested/NestedArrays/avro.ini"), colInfo);
+        List<Object[]> expected = decoder.convertRecord(record);
+        List<Object[]> res = decoder.convertBinary(ByteBuffer.wrap(encode(record)), schema);
+        assertEquals("resulting list size", expected.size(), res.size());
+        for (int i = 0; i < expected.size(); ++i) {
+            assertArrayEquals("resulting item", expected.get(i), res.get(i));
+        }
+    }
+
+    @Test
+    public void testRecordStream() throws Exception {
+        Schema schema = new Parser().parse(new File("target/test-classes/array/RecordWithRecordAndArray/schema.avsc"));
+        Schema addressArraySchema = schema.getField("addressArray").schema();
+
+        GenericRecord first = new GenericData.Record(schema);
+        first.put("name", "first");
+        first.put("addressArray", new GenericData.Array<String>(addressArraySchema, Arrays.asList("street 1")));
+
+        GenericRecord second = new GenericData.Record(schema);
+        second.put("name", "second");
+        second.put("addressArray",
+                new GenericData.Array<String>(addressArraySchema, Arrays.asList("street 2", "street 3")));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(out, null);
+        GenericDatumWriter<GenericRecord> writer = new GenericDatumWriter<GenericRecord>(schema);
+        writer.write(first, encoder);
+        writer.write(second, encoder);
+        encoder.flush();
+
+        ColumnInfo[] colInfo = new ColumnInfo[1];
+        colInfo[0] = AdaptorTestUtils.constructColumnInfo("address", AdaptorTestUtils.Type.VARSTRING, 0, 0);
+
+        AvroAdaptor decoder = new AvroAdaptor(new File("target/test-classes/array/RecordWithRecordAndArray/avro.ini"),
+                colInfo);
+        BinaryDecoder in = DecoderFactory.get().binaryDecoder(out.toByteArray(), null);
+        List<Object[]> res = decoder.convertBinary(in, schema);
+        assertEquals("resulting list size", 1, res.size());
+        assertArrayEquals("resulting item", new Object[] { "street 1" }, res.get(0));
+
+        res = decoder.convertBinary(in, schema);
+        assertEquals("resulting list size", 2, res.size());
+        assertArrayEquals("resulting item", new Object[] { "street 2" }, res.get(0));
+        assertArrayEquals("resulting item", new Object[] { "street 3" }, res.get(1));
+        assertTrue("all records consumed", in.isEnd());
+    }
+
+    @Test
+    public void testCorruptArrayCount() throws Exception {
+        Schema schema = new Parser().parse(new File("target/test-classes/array/RecordWithRecordAndArray/schema.avsc"));
+
+        // a block count far beyond the data must not be allocated up front
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(out, null);
+        encoder.writeString("name");
+        encoder.writeLong(Integer.MAX_VALUE - 16);
+        encoder.writeString("street 1");
+        encoder.flush();
+
+        ColumnInfo[] colInfo = new ColumnInfo[1];
+        colInfo[0] = AdaptorTestUtils.constructColumnInfo("address", AdaptorTestUtils.Type.VARSTRING, 0, 0);
+
+        AvroAdaptor decoder = new AvroAdaptor(new File("target/test-classes/array/RecordWithRecordAndArray/avro.ini"),
+                colInfo);
+        try {
+            decoder.convertBinary(out.toByteArray(), schema);
+            fail("IOException expected");
+        } catch (IOException expected) {
+            // the data ends after the first element
+        }
+    }
+
+    @Test
+    public void testIncompatibleType() throws Exception {
+        Schema schema = new Parser().parse(new File("target/test-classes/invalidTypeMapping/StringToUINT32/record.avsc"));
+        GenericRecord record = new GenericData.Record(schema);
+        record.put(0, "str");
+
+        ColumnInfo[] colInfo = new ColumnInfo[1];
+        colInfo[0] = AdaptorTestUtils.constructColumnInfo("name", AdaptorTestUtils.Type.UINT32, 0, 0);
+
+        AvroAdaptor decoder = new AvroAdaptor(
+                new File("target/test-classes/invalidTypeMapping/StringToUINT32/avro.ini"), colInfo);
+        try {
+            decoder.convertBinary(encode(record), schema);
+            fail();
+        } catch (AvroAdaptorException expected) {
+            assertTrue(expected.getMessage().startsWith("Incompatible datatypes for column"));
+        }
+    }
+
+    private static byte[] encode(GenericRecord record) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(out, null);
+        new GenericDatumWriter<GenericRecord>(record.getSchema()).write(record, encoder);
+        encoder.flush();
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,143 @@
+/**
+ * Copyright 2015 ParStream GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parstream.adaptor.avro.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import org.apache.avro.Schema;
+import org.apache.avro.Schema.Parser;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.util.Utf8;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.parstream.adaptor.avro.AvroAdaptor;
+import com.parstream.adaptor.avro.AvroAdaptorException;
+import com.parstream.driver.ColumnInfo;
+
+public class CodeGenerationTest {
+
+    private Schema _schema;
+    private AvroAdaptor _interpreted;
+    private AvroAdaptor _generated;
+
+    @Before
+    public void setUp() throws Exception {
+        _schema = new Parser().parse(new File("target/test-classes/codeGeneration/FlatRecord/record.avsc"));
+        _interpreted = createAdaptor();
+        _generated = createAdaptor();
+        _generated.setCodeGeneration(true);
+    }
+
+    private static AvroAdaptor createAdaptor() throws Exception {
+        ColumnInfo[] colInfo = new ColumnInfo[9];
+        colInfo[0] = AdaptorTestUtils.constructColumnInfo("intCol", AdaptorTestUtils.Type.INT32, 0, 0);
+        colInfo[1] = AdaptorTestUtils.constructColumnInfo("longCol", AdaptorTestUtils.Type.INT64, 0, 0);
+        colInfo[2] = AdaptorTestUtils.constructColumnInfo("floatCol", AdaptorTestUtils.Type.FLOAT, 0, 0);
+        colInfo[3] = AdaptorTestUtils.constructColumnInfo("doubleCol", AdaptorTestUtils.Type.DOUBLE, 0, 0);
+        colInfo[4] = AdaptorTestUtils.constructColumnInfo("stringCol", AdaptorTestUtils.Type.VARSTRING, 0, 0);
+        colInfo[5] = AdaptorTestUtils.constructColumnInfo("boolCol", AdaptorTestUtils.Type.UINT8, 0, 0);
+        colInfo[6] = AdaptorTestUtils.constructColumnInfo("optionalCol", AdaptorTestUtils.Type.VARSTRING, 0, 0);
+        colInfo[7] = AdaptorTestUtils.constructColumnInfo("nestedCol", AdaptorTestUtils.Type.INT32, 0, 0);
+        colInfo[8] = AdaptorTestUtils.constructColumnInfo("itemCol", AdaptorTestUtils.Type.INT64, 0, 0);
+        return new AvroAdaptor(new File("target/test-classes/codeGeneration/FlatRecord/avro.ini"), colInfo);
+    }
+
+    private GenericRecord createRecord(Object optional, Long... items) {
+        GenericRecord nested = new GenericData.Record(_schema.getField("nested").schema());
+        nested.put("value", 7);
+
+        GenericRecord record = new GenericData.Record(_schema);
+        record.put("intField", 1);
+        record.put("unmapped", "ignored");
+        record.put("longField", 2L);
+        record.put("floatField", 3.5f);
+        record.put("doubleField", 4.25);
+        record.put("stringField", new Utf8("text"));
+        record.put("boolField", true);
+        record.put("optionalField", optional);
+        record.put("nested", nested);
+        record.put("items", new GenericData.Array<Long>(_schema.getField("items").schema(), Arrays.asList(items)));
+        return record;
+    }
+
+    private void assertSameRows(GenericRecord record) throws Exception {
+        List<Object[]> expected = _interpreted.convertRecord(record);
+        List<Object[]> res = _generated.convertRecord(record);
+        assertEquals("resulting list size", expected.size(), res.size());
+        for (int i = 0; i < expected.size(); ++i) {
+            assertArrayEquals("resulting item", expected.get(i), res.get(i));
+        }
+    }
+
+    @Test
+    public void testDisabledByDefault() {
+        assertFalse("default", _interpreted.isCodeGeneration());
+        assertTrue("enabled", _generated.isCodeGeneration());
+    }
+
+    @Test
+    public void testScalarFields() throws Exception {
+        List<Object[]> res = _generated.convertRecord(createRecord("optional", 10L, 20L));
+        assertEquals("resulting list size", 2, res.size());
+        assertArrayEquals("resulting item", new Object[] { 1, 2L, 3.5f, 4.25, "text", 1, "optional", 7, 10L },
+                res.get(0));
+        assertArrayEquals("resulting item", new Object[] { 1, 2L, 3.5f, 4.25, "text", 1, "optional", 7, 20L },
+                res.get(1));
+        assertSameRows(createRecord("optional", 10L, 20L));
+    }
+
+    @Test
+    public void testNullAndEmptyValues() throws Exception {
+        List<Object[]> res = _generated.convertRecord(createRecord(null));
+        assertEquals("resulting list size", 1, res.size());
+        assertArrayEquals("resulting item", new Object[] { 1, 2L, 3.5f, 4.25, "text", 1, null, 7, null }, res.get(0));
+        assertSameRows(createRecord(null));
+        assertSameRows(createRecord(new Utf8("optional"), 10L));
+    }
+
+    @Test
+    public void testValueNotMatchingSchema() throws Exception {
+        GenericRecord record = createRecord(null, 10L);
+        record.put("intField", false);
+        assertEquals("boolean in int field", 0, _generated.convertRecord(record).get(0)[0]);
+        assertSameRows(record);
+
+        record.put("longField", new HashMap<String, Object>());
+        try {
+            _generated.convertRecord(record);
+            fail("AvroAdaptorException expected");
+        } catch (AvroAdaptorException e) {
+            assertTrue(e.getMessage().startsWith("Unsupported datatype"));
+        }
+    }
+
+    @Test
+    public void testIterateRecord() throws Exception {
+        assertArrayEquals("resulting item", _interpreted.iterateRecord(createRecord(null, 10L)).next(), _generated
+                .iterateRecord(createRecord(null, 10L)).next());
+    }
+}
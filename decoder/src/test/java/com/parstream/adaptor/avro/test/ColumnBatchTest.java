@@ -0,0 +1,178 @@
+/**
+ * Copyright 2015 ParStream GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parstream.adaptor.avro.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.avro.Schema;
+import org.apache.avro.Schema.Parser;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.util.Utf8;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.parstream.adaptor.avro.AvroAdaptor;
+import com.parstream.adaptor.avro.AvroAdaptorException;
+import com.parstream.adaptor.avro.ColumnBatch;
+import com.parstream.adaptor.avro.DeadLetterSink;
+import com.parstream.adaptor.avro.ErrorPolicy;
+import com.parstream.driver.ColumnInfo;
+
+public class ColumnBatchTest {
+
+    private Schema _schema;
+    private AvroAdaptor _decoder;
+
+    @Before
+    public void setUp() throws Exception {
+        _schema = new Parser().parse(new File("target/test-classes/codeGeneration/FlatRecord/record.avsc"));
+
+        ColumnInfo[] colInfo = new ColumnInfo[9];
+        colInfo[0] = AdaptorTestUtils.constructColumnInfo("intCol", AdaptorTestUtils.Type.INT32, 0, 0);
+        colInfo[1] = AdaptorTestUtils.constructColumnInfo("longCol", AdaptorTestUtils.Type.INT64, 0, 0);
+        colInfo[2] = AdaptorTestUtils.constructColumnInfo("floatCol", AdaptorTestUtils.Type.FLOAT, 0, 0);
+        colInfo[3] = AdaptorTestUtils.constructColumnInfo("doubleCol", AdaptorTestUtils.Type.DOUBLE, 0, 0);
+        colInfo[4] = AdaptorTestUtils.constructColumnInfo("stringCol", AdaptorTestUtils.Type.VARSTRING, 0, 0);
+        colInfo[5] = AdaptorTestUtils.constructColumnInfo("boolCol", AdaptorTestUtils.Type.UINT8, 0, 0);
+        colInfo[6] = AdaptorTestUtils.constructColumnInfo("optionalCol", AdaptorTestUtils.Type.VARSTRING, 0, 0);
+        colInfo[7] = AdaptorTestUtils.constructColumnInfo("nestedCol", AdaptorTestUtils.Type.INT32, 0, 0);
+        colInfo[8] = AdaptorTestUtils.constructColumnInfo("itemCol", AdaptorTestUtils.Type.INT64, 0, 0);
+        _decoder = new AvroAdaptor(new File("target/test-classes/codeGeneration/FlatRecord/avro.ini"), colInfo);
+    }
+
+    private GenericRecord createRecord(int id, Object optional, Long... items) {
+        GenericRecord nested = new GenericData.Record(_schema.getField("nested").schema());
+        nested.put("value", 7);
+
+        GenericRecord record = new GenericData.Record(_schema);
+        record.put("intField", id);
+        record.put("unmapped", "ignored");
+        record.put("longField", 2L);
+        record.put("floatField", 3.5f);
+        record.put("doubleField", id / 4.0);
+        record.put("stringField", new Utf8("text" + id));
+        record.put("boolField", id % 2 == 0);
+        record.put("optionalField", optional);
+        record.put("nested", nested);
+        record.put("items", new GenericData.Array<Long>(_schema.getField("items").schema(), Arrays.asList(items)));
+        return record;
+    }
+
+    @Test
+    public void testRowView() throws Exception {
+        List<GenericRecord> records = new ArrayList<GenericRecord>();
+        records.add(createRecord(1, "optional", 10L, 20L));
+        records.add(null);
+        records.add(createRecord(2, null));
+        records.add(createRecord(3, "optional", 30L));
+
+        List<Object[]> expected = new ArrayList<Object[]>();
+        for (GenericRecord record : records) {
+            expected.addAll(_decoder.convertRecord(record));
+        }
+
+        ColumnBatch batch = _decoder.convertRecords(records);
+        assertEquals("row count", 4, batch.getRowCount());
+        assertEquals("column count", 9, batch.getColumnCount());
+        for (int i = 0; i < expected.size(); ++i) {
+            assertArrayEquals("resulting item", expected.get(i), batch.getRow(i));
+        }
+        assertEquals("records", 6, _decoder.getMetrics().getRecords());
+        assertEquals("rows", 8, _decoder.getMetrics().getRows());
+    }
+
+    @Test
+    public void testColumns() throws Exception {
+        ColumnBatch batch = _decoder.convertRecords(Arrays.asList(createRecord(1, "optional", 10L, 20L),
+                createRecord(2, null)));
+        assertEquals("row count", 3, batch.getRowCount());
+
+        long[] ints = batch.getLongs(0);
+        assertEquals("int column", 1, ints[0]);
+        assertEquals("int column", 2, ints[2]);
+        assertEquals("boolean column", 1, batch.getLongs(5)[2]);
+        assertEquals("float column", 3.5f, batch.getFloats(2)[1], 0);
+        assertEquals("double column", 0.5, batch.getDoubles(3)[2], 0);
+        assertEquals("string column", "text1", batch.getObjects(4)[1]);
+        assertEquals("array column", 20, batch.getLongs(8)[1]);
+
+        assertFalse("optional value", batch.isNull(6, 0));
+        assertTrue("optional null", batch.isNull(6, 2));
+        assertTrue("empty array", batch.isNull(8, 2));
+        assertEquals("null bitmap", 4, batch.getNulls(8)[0]);
+        assertEquals("boxed long", 2L, batch.getValue(1, 0));
+        assertEquals("boxed int", 1, batch.getValue(0, 0));
+
+        try {
+            batch.getLongs(4);
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            batch.getValue(0, 3);
+            fail("IndexOutOfBoundsException expected");
+        } catch (IndexOutOfBoundsException e) {
+        }
+    }
+
+    @Test
+    public void testGrowth() throws Exception {
+        List<GenericRecord> records = new ArrayList<GenericRecord>();
+        for (int i = 0; i < 100; ++i) {
+            records.add(createRecord(i, null, (long) i, (long) -i));
+        }
+
+        ColumnBatch batch = _decoder.convertRecords(records);
+        assertEquals("row count", 200, batch.getRowCount());
+        for (int i = 0; i < 200; ++i) {
+            assertEquals("int column", i / 2, batch.getLongs(0)[i]);
+            assertEquals("resulting item", batch.getValue(0, i), batch.getRow(i)[0]);
+        }
+    }
+
+    @Test
+    public void testRejectedRecord() throws Exception {
+        final List<GenericRecord> rejected = new ArrayList<GenericRecord>();
+        _decoder.setErrorPolicy(ErrorPolicy.DEAD_LETTER);
+        _decoder.setDeadLetterSink(new DeadLetterSink() {
+
+            @Override
+            public void accept(GenericRecord record, String reason) throws AvroAdaptorException {
+                rejected.add(record);
+            }
+        });
+
+        GenericRecord bad = createRecord(2, "optional", 30L, 40L);
+        bad.put("floatField", 1.0);
+        ColumnBatch batch = _decoder.convertRecords(Arrays.asList(createRecord(1, null, 10L), bad,
+                createRecord(3, "optional", 50L)));
+        assertEquals("row count", 2, batch.getRowCount());
+        assertEquals("first record", 1, batch.getValue(0, 0));
+        assertEquals("record after rejected record", 3, batch.getValue(0, 1));
+        assertEquals("record after rejected record", "optional", batch.getValue(6, 1));
+        assertEquals("rejected records", 1, rejected.size());
+    }
+}
@@ -0,0 +1,136 @@
+/**
+ * Copyright 2015 ParStream GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parstream.adaptor.avro.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.avro.Schema;
+import org.apache.avro.Schema.Parser;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+import org.junit.Test;
+
+import com.parstream.adaptor.avro.AvroAdaptor;
+import com.parstream.adaptor.avro.RowSink;
+import com.parstream.driver.ColumnInfo;
+
+public class ConcurrencyTest {
+
+    private static final int THREADS = 8;
+    private static final int RECORDS = 500;
+
+    /**
+     * a single adaptor is shared by several threads, each thread parses its
+     * own schema instance and converts records through all conversion methods
+     */
+    @Test
+    public void testSharedAdaptor() throws Exception {
+        ColumnInfo[] colInfo = new ColumnInfo[3];
+        colInfo[0] = AdaptorTestUtils.constructColumnInfo("name", AdaptorTestUtils.Type.VARSTRING, 0, 0);
+        colInfo[1] = AdaptorTestUtils.constructColumnInfo("orderId", AdaptorTestUtils.Type.UINT32, 0, 0);
+        colInfo[2] = AdaptorTestUtils.constructColumnInfo("item", AdaptorTestUtils.Type.VARSTRING, 0, 0);
+        final AvroAdaptor decoder = new AvroAdaptor(new File("target/test-classes/nested/NestedArrays/avro.ini"),
+                colInfo);
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<Integer>> results = new ArrayList<Future<Integer>>(THREADS);
+            for (int t = 0; t < THREADS; ++t) {
+                final int thread = t;
+                results.add(executor.submit(new Callable<Integer>() {
+
+                    @Override
+                    public Integer call() throws Exception {
+                        return convert(decoder, thread);
+                    }
+                }));
+            }
+            for (Future<Integer> result : results) {
+                assertEquals("converted records", Integer.valueOf(RECORDS), result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals("plan cache misses", 1, decoder.getPlanCacheMisses());
+    }
+
+    private static int convert(AvroAdaptor decoder, int thread) throws Exception {
+        Schema schema = new Parser().parse(new File("target/test-classes/nested/NestedArrays/schema.avsc"));
+        Schema ordersSchema = schema.getField("orders").schema();
+        Schema orderSchema = ordersSchema.getElementType();
+        Schema itemsSchema = orderSchema.getField("items").schema();
+        GenericDatumWriter<GenericRecord> writer = new GenericDatumWriter<GenericRecord>(schema);
+
+        for (int i = 0; i < RECORDS; ++i) {
+            String name = "thread" + thread + "-" + i;
+            GenericRecord order = new GenericData.Record(orderSchema);
+            order.put("orderId", i);
+            order.put("items", new GenericData.Array<String>(itemsSchema, Arrays.asList(name + "a", name + "b")));
+
+            GenericRecord record = new GenericData.Record(schema);
+            record.put("name", name);
+            record.put("orders", new GenericData.Array<GenericRecord>(ordersSchema, Arrays.asList(order)));
+
+            Object[][] expected = new Object[][] { { name, i, name + "a" }, { name, i, name + "b" } };
+
+            List<Object[]> res = decoder.convertRecord(record);
+            assertEquals("resulting list size", 2, res.size());
+            assertArrayEquals("resulting item", expected[0], res.get(0));
+            assertArrayEquals("resulting item", expected[1], res.get(1));
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(out, null);
+            writer.write(record, encoder);
+            encoder.flush();
+            res = decoder.convertBinary(out.toByteArray(), schema);
+            assertEquals("resulting list size", 2, res.size());
+            assertArrayEquals("resulting item", expected[0], res.get(0));
+            assertArrayEquals("resulting item", expected[1], res.get(1));
+
+            final List<Object[]> sinkRows = new ArrayList<Object[]>(2);
+            decoder.convertRecord(record, new RowSink() {
+
+                @Override
+                public boolean consumesRowsSynchronously() {
+                    return true;
+                }
+
+                @Override
+                public void accept(Object[] row) {
+                    sinkRows.add(row.clone());
+                }
+            });
+            assertEquals("resulting list size", 2, sinkRows.size());
+            assertArrayEquals("resulting item", expected[0], sinkRows.get(0));
+            assertArrayEquals("resulting item", expected[1], sinkRows.get(1));
+        }
+        return RECORDS;
+    }
+}
@@ -19,8 +19,12 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.GregorianCalendar;
 import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
 
 import org.apache.avro.Schema;
 import org.apache.avro.Schema.Parser;
@@ -126,4 +130,101 @@ public class DateTest {
         assertTrue("resulting ParstreamTimestamp", AdaptorTestUtils.isParstreamDateObjectIdentical(
                 ParstreamTimestamp.class, new ParstreamTimestamp(cal), (ParstreamTimestamp) res.get(0)[0]));
     }
+
+    @Test
+    public void testDaylightSavingTransitions() throws Exception {
+        String[] zones = { "Europe/Berlin", "America/Sao_Paulo", "Australia/Lord_Howe", "UTC" };
+        TimeZone defaultZone = TimeZone.getDefault();
+        try {
+            for (String zone : zones) {
+                TimeZone.setDefault(TimeZone.getTimeZone(zone));
+                List<Long> instants = createInstants();
+                checkInstants(zone, instants);
+                Collections.shuffle(instants, new Random(42));
+                checkInstants(zone, instants);
+            }
+        } finally {
+            TimeZone.setDefault(defaultZone);
+        }
+    }
+
+    @Test
+    public void testIntToShortDateSameDay() throws Exception {
+        Schema schema = new Parser().parse(new File("target/test-classes/date/IntToShortDate/record.avsc"));
+        ColumnInfo[] colInfo = new ColumnInfo[1];
+        colInfo[0] = AdaptorTestUtils.constructColumnInfo("id", AdaptorTestUtils.Type.SHORTDATE, 0, 0);
+        AvroAdaptor decoder = new AvroAdaptor(new File("target/test-classes/date/IntToShortDate/avro.ini"), colInfo);
+
+        GregorianCalendar cal = new GregorianCalendar(2016, 1, 29, 23, 59, 59);
+        int seconds = (int) (cal.getTimeInMillis() / 1000L);
+        for (int i = 0; i < 3; ++i) {
+            GenericRecord newRecord = new GenericData.Record(schema);
+            newRecord.put(0, seconds + i);
+            GregorianCalendar expected = new GregorianCalendar();
+            expected.setTimeInMillis((seconds + i) * 1000L);
+
+            List<Object[]> res = decoder.convertRecord(newRecord);
+            assertEquals("resulting list size", 1, res.size());
+            assertTrue("short date of second " + i, AdaptorTestUtils.isParstreamDateObjectIdentical(
+                    ParstreamShortDate.class, new ParstreamShortDate(expected), (ParstreamShortDate) res.get(0)[0]));
+        }
+    }
+
+    /**
+     * instants every 20 minutes around the daylight saving transitions of
+     * the default time zone, leap days and the turn of a year
+     */
+    private static List<Long> createInstants() {
+        List<Long> instants = new ArrayList<Long>();
+        TimeZone zone = TimeZone.getDefault();
+        GregorianCalendar cal = new GregorianCalendar(2015, 0, 1);
+        long end = new GregorianCalendar(2017, 0, 1).getTimeInMillis();
+        long step = 3600000L;
+        for (long millis = cal.getTimeInMillis(); millis < end; millis += step) {
+            if (zone.getOffset(millis) != zone.getOffset(millis + step)) {
+                addDay(instants, millis - 86400000L);
+            }
+        }
+        addDay(instants, new GregorianCalendar(2000, 1, 28, 12, 0).getTimeInMillis());
+        addDay(instants, new GregorianCalendar(2016, 1, 28, 12, 0).getTimeInMillis());
+        addDay(instants, new GregorianCalendar(2015, 11, 31, 12, 0).getTimeInMillis());
+        return instants;
+    }
+
+    private static void addDay(List<Long> instants, long start) {
+        for (int i = 0; i < 2 * 72; ++i) {
+            instants.add(start + i * 1200000L + i);
+        }
+    }
+
+    private static void checkInstants(String zone, List<Long> instants) throws Exception {
+        Schema schema = new Parser().parse(new File("target/test-classes/date/DaylightSaving/record.avsc"));
+        ColumnInfo[] colInfo = new ColumnInfo[4];
+        colInfo[0] = AdaptorTestUtils.constructColumnInfo("shortDate", AdaptorTestUtils.Type.SHORTDATE, 0, 0);
+        colInfo[1] = AdaptorTestUtils.constructColumnInfo("date", AdaptorTestUtils.Type.DATE, 0, 0);
+        colInfo[2] = AdaptorTestUtils.constructColumnInfo("time", AdaptorTestUtils.Type.TIME, 0, 0);
+        colInfo[3] = AdaptorTestUtils.constructColumnInfo("timestamp", AdaptorTestUtils.Type.TIMESTAMP, 0, 0);
+        AvroAdaptor decoder = new AvroAdaptor(new File("target/test-classes/date/DaylightSaving/avro.ini"), colInfo);
+
+        for (Long millis : instants) {
+            GenericRecord newRecord = new GenericData.Record(schema);
+            for (int i = 0; i < 4; ++i) {
+                newRecord.put(i, millis);
+            }
+            GregorianCalendar cal = new GregorianCalendar();
+            cal.setTimeInMillis(millis);
+            String message = zone + " " + millis;
+
+            List<Object[]> res = decoder.convertRecord(newRecord);
+            assertEquals("resulting list size", 1, res.size());
+            assertTrue("short date " + message, AdaptorTestUtils.isParstreamDateObjectIdentical(
+                    ParstreamShortDate.class, new ParstreamShortDate(cal), (ParstreamShortDate) res.get(0)[0]));
+            assertTrue("date " + message, AdaptorTestUtils.isParstreamDateObjectIdentical(ParstreamDate.class,
+                    new ParstreamDate(cal), (ParstreamDate) res.get(0)[1]));
+            assertTrue("time " + message, AdaptorTestUtils.isParstreamDateObjectIdentical(ParstreamTime.class,
+                    new ParstreamTime(cal), (ParstreamTime) res.get(0)[2]));
+            assertTrue("timestamp " + message, AdaptorTestUtils.isParstreamDateObjectIdentical(
+                    ParstreamTimestamp.class, new ParstreamTimestamp(cal), (ParstreamTimestamp) res.get(0)[3]));
+        }
+    }
 }
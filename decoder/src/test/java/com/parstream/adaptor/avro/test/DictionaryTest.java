@@ -0,0 +1,176 @@
+/**
+ * Copyright 2015 ParStream GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parstream.adaptor.avro.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.avro.Schema;
+import org.apache.avro.Schema.Parser;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.avro.util.Utf8;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.parstream.adaptor.avro.AvroAdaptor;
+import com.parstream.adaptor.avro.AvroAdaptorException;
+import com.parstream.adaptor.avro.MetricsSnapshot;
+import com.parstream.driver.ColumnInfo;
+
+public class DictionaryTest {
+
+    private Schema _schema;
+    private ColumnInfo[] _colInfo;
+    private AvroAdaptor _decoder;
+
+    @Before
+    public void setUp() throws Exception {
+        _schema = new Parser().parse(new File("target/test-classes/dictionary/Country/record.avsc"));
+
+        _colInfo = new ColumnInfo[4];
+        _colInfo[0] = AdaptorTestUtils.constructColumnInfo("id", AdaptorTestUtils.Type.INT32, 0, 0);
+        _colInfo[1] = AdaptorTestUtils.constructColumnInfo("name", AdaptorTestUtils.Type.VARSTRING, 0, 0);
+        _colInfo[2] = AdaptorTestUtils.constructColumnInfo("country", AdaptorTestUtils.Type.VARSTRING, 0, 0);
+        _colInfo[3] = AdaptorTestUtils.constructColumnInfo("tag", AdaptorTestUtils.Type.VARSTRING, 0, 0);
+        _decoder = new AvroAdaptor(new File("target/test-classes/dictionary/Country/avro.ini"), _colInfo);
+    }
+
+    private GenericRecord createRecord(int id, String country, String... tags) {
+        List<Utf8> tagValues = new ArrayList<Utf8>();
+        for (String tag : tags) {
+            tagValues.add(createUtf8(tag));
+        }
+
+        GenericRecord record = new GenericData.Record(_schema);
+        record.put("id", id);
+        record.put("name", createUtf8("name"));
+        record.put("country", createUtf8(country));
+        record.put("tags", new GenericData.Array<Utf8>(_schema.getField("tags").schema(), tagValues));
+        return record;
+    }
+
+    /**
+     * Creates a Utf8 like the binary decoder does, without a cached String.
+     */
+    private static Utf8 createUtf8(String value) {
+        return new Utf8(Utf8.getBytesFor(value));
+    }
+
+    @Test
+    public void testCanonicalStrings() throws Exception {
+        Object[] first = _decoder.convertRecord(createRecord(1, "DE", "a")).get(0);
+        Object[] second = _decoder.convertRecord(createRecord(2, "DE", "a")).get(0);
+        assertArrayEquals("resulting item", new Object[] { 1, "name", "DE", "a" }, first);
+        assertArrayEquals("resulting item", new Object[] { 2, "name", "DE", "a" }, second);
+        assertSame("dictionary column", first[2], second[2]);
+        assertSame("dictionary array column", first[3], second[3]);
+        assertNotSame("plain column", first[1], second[1]);
+
+        Object[] other = _decoder.convertRecord(createRecord(3, "FR", "b")).get(0);
+        assertArrayEquals("resulting item", new Object[] { 3, "name", "FR", "b" }, other);
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        String[] countries = { "DE", "FR", "IT", "ES", "NL", "BE" };
+        for (int i = 0; i < 30; ++i) {
+            String country = countries[i % countries.length];
+            Object[] row = _decoder.convertRecord(createRecord(i, country)).get(0);
+            assertEquals("resulting item", country, row[2]);
+        }
+    }
+
+    @Test
+    public void testHitMetrics() throws Exception {
+        String[] countries = { "DE", "FR", "IT" };
+        for (int i = 0; i < 1024; ++i) {
+            _decoder.convertRecord(createRecord(i, countries[i % countries.length]));
+        }
+
+        MetricsSnapshot metrics = _decoder.getMetrics();
+        assertEquals("dictionary hits", 1021, metrics.getDictionaryHits().get("country").longValue());
+        assertEquals("dictionary misses", 3, metrics.getDictionaryMisses().get("country").longValue());
+        assertTrue("only dictionary columns", !metrics.getDictionaryHits().containsKey("name"));
+    }
+
+    @Test
+    public void testHighCardinalitySwitchesOff() throws Exception {
+        for (int i = 0; i < 2048; ++i) {
+            Object[] row = _decoder.convertRecord(createRecord(i, "country" + i)).get(0);
+            assertEquals("resulting item", "country" + i, row[2]);
+        }
+        Object[] first = _decoder.convertRecord(createRecord(1, "DE")).get(0);
+        Object[] second = _decoder.convertRecord(createRecord(2, "DE")).get(0);
+        assertEquals("resulting item", "DE", second[2]);
+        assertNotSame("switched off", first[2], second[2]);
+
+        MetricsSnapshot metrics = _decoder.getMetrics();
+        assertEquals("dictionary hits", 0, metrics.getDictionaryHits().get("country").longValue());
+        assertEquals("dictionary misses", 2048, metrics.getDictionaryMisses().get("country").longValue());
+    }
+
+    @Test
+    public void testBinary() throws Exception {
+        Object[] first = _decoder.convertBinary(encode(createRecord(1, "DE", "a", "b")), _schema).get(1);
+        Object[] second = _decoder.convertBinary(encode(createRecord(2, "DE", "b")), _schema).get(0);
+        assertArrayEquals("resulting item", new Object[] { 1, "name", "DE", "b" }, first);
+        assertArrayEquals("resulting item", new Object[] { 2, "name", "DE", "b" }, second);
+        assertSame("dictionary column", first[2], second[2]);
+        assertSame("dictionary array column", first[3], second[3]);
+    }
+
+    @Test
+    public void testInvalidSize() throws Exception {
+        try {
+            new AvroAdaptor(new File("target/test-classes/dictionary/InvalidSize/avro.ini"), _colInfo);
+            fail("AvroAdaptorException expected");
+        } catch (AvroAdaptorException e) {
+            assertEquals("invalid dictionary size for column country: many", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testNonStringColumn() throws Exception {
+        try {
+            new AvroAdaptor(new File("target/test-classes/dictionary/NonStringColumn/avro.ini"), _colInfo);
+            fail("AvroAdaptorException expected");
+        } catch (AvroAdaptorException e) {
+            assertEquals("dictionary requires a VARSTRING column: id", e.getMessage());
+        }
+    }
+
+    private static org.apache.avro.io.BinaryDecoder encode(GenericRecord record) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(out, null);
+        new GenericDatumWriter<GenericRecord>(record.getSchema()).write(record, encoder);
+        encoder.flush();
+        return DecoderFactory.get().binaryDecoder(out.toByteArray(), null);
+    }
+}
@@ -0,0 +1,219 @@
+/**
+ * Copyright 2015 ParStream GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parstream.adaptor.avro.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.avro.Schema;
+import org.apache.avro.Schema.Parser;
+import org.apache.avro.file.DataFileReader;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericRecord;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.parstream.adaptor.avro.AvroAdaptor;
+import com.parstream.adaptor.avro.AvroAdaptorException;
+import com.parstream.adaptor.avro.AvroDeadLetterWriter;
+import com.parstream.adaptor.avro.ErrorPolicy;
+import com.parstream.adaptor.avro.RowIterator;
+import com.parstream.adaptor.avro.RowSink;
+import com.parstream.driver.ColumnInfo;
+
+public class ErrorPolicyTest {
+
+    @Rule
+    public TemporaryFolder _folder = new TemporaryFolder();
+
+    private Schema _schema;
+    private AvroAdaptor _decoder;
+
+    @Before
+    public void setUp() throws Exception {
+        _schema = new Parser().parse(new File("target/test-classes/errorPolicy/MixedValues/record.avsc"));
+
+        ColumnInfo[] colInfo = new ColumnInfo[2];
+        colInfo[0] = AdaptorTestUtils.constructColumnInfo("id", AdaptorTestUtils.Type.INT32, 0, 0);
+        colInfo[1] = AdaptorTestUtils.constructColumnInfo("value", AdaptorTestUtils.Type.INT64, 0, 0);
+        _decoder = new AvroAdaptor(new File("target/test-classes/errorPolicy/MixedValues/avro.ini"), colInfo);
+    }
+
+    @Test
+    public void testFail() throws Exception {
+        assertEquals("default policy", ErrorPolicy.FAIL, _decoder.getErrorPolicy());
+        try {
+            _decoder.convertRecord(createRecord(1, 10, "bad", 30));
+            fail("AvroAdaptorException expected");
+        } catch (AvroAdaptorException e) {
+            assertTrue(e.getMessage().startsWith("Incompatible datatypes for column (value)"));
+        }
+        assertEquals("failures", 1, _decoder.getMetrics().getFailures());
+    }
+
+    @Test
+    public void testSkipRow() throws Exception {
+        _decoder.setErrorPolicy(ErrorPolicy.SKIP_ROW);
+        List<Object[]> res = _decoder.convertRecord(createRecord(1, 10, "bad", 30, "worse"));
+        assertEquals("resulting list size", 2, res.size());
+        assertArrayEquals("resulting item", new Object[] { 1, 10 }, res.get(0));
+        assertArrayEquals("resulting item", new Object[] { 1, 30 }, res.get(1));
+
+        RowIterator rows = _decoder.iterateRecord(createRecord(2, "bad", 20, "worse"));
+        assertTrue("first row", rows.hasNext());
+        assertArrayEquals("resulting item", new Object[] { 2, 20 }, rows.next());
+        assertFalse("trailing bad row skipped", rows.hasNext());
+
+        assertTrue("all rows skipped", _decoder.convertRecord(createRecord(3, "bad")).isEmpty());
+        assertEquals("failures", 5, _decoder.getMetrics().getFailures());
+    }
+
+    @Test
+    public void testNullValue() throws Exception {
+        _decoder.setErrorPolicy(ErrorPolicy.NULL_VALUE);
+        List<Object[]> res = _decoder.convertRecord(createRecord(1, 10, "bad", 30));
+        assertEquals("resulting list size", 3, res.size());
+        assertArrayEquals("resulting item", new Object[] { 1, 10 }, res.get(0));
+        assertArrayEquals("resulting item", new Object[] { 1, null }, res.get(1));
+        assertArrayEquals("resulting item", new Object[] { 1, 30 }, res.get(2));
+        assertEquals("failures", 1, _decoder.getMetrics().getColumnFailures().get("value").longValue());
+    }
+
+    @Test
+    public void testDeadLetter() throws Exception {
+        File file = _folder.newFile("deadLetters.avro");
+        AvroDeadLetterWriter deadLetters = new AvroDeadLetterWriter(file);
+        _decoder.setErrorPolicy(ErrorPolicy.DEAD_LETTER);
+        _decoder.setDeadLetterSink(deadLetters);
+
+        assertEquals("good record", 2, _decoder.convertRecord(createRecord(1, 10, 20)).size());
+        assertTrue("rejected record", _decoder.convertRecord(createRecord(2, 10, "bad", 30)).isEmpty());
+
+        final List<Object[]> sinkRows = new ArrayList<Object[]>();
+        RowSink sink = new RowSink() {
+
+            @Override
+            public boolean consumesRowsSynchronously() {
+                return false;
+            }
+
+            @Override
+            public void accept(Object[] row) {
+                sinkRows.add(row);
+            }
+        };
+        _decoder.convertRecord(createRecord(3, 10, 20, "bad"), sink);
+        assertTrue("no rows of a rejected record", sinkRows.isEmpty());
+        deadLetters.close();
+
+        DataFileReader<GenericRecord> reader = new DataFileReader<GenericRecord>(file,
+                new GenericDatumReader<GenericRecord>());
+        List<GenericRecord> entries = new ArrayList<GenericRecord>();
+        for (GenericRecord entry : reader) {
+            entries.add(entry);
+        }
+        reader.close();
+
+        assertEquals("dead letters", 2, entries.size());
+        assertTrue("reason", entries.get(0).get(AvroDeadLetterWriter.REASON_FIELD).toString()
+                .startsWith("Incompatible datatypes for column (value)"));
+        GenericRecord replayed = (GenericRecord) entries.get(0).get(AvroDeadLetterWriter.RECORD_FIELD);
+        assertEquals("replayed record", 2, replayed.get("id"));
+        assertEquals("replayed record", 3, ((GenericRecord) entries.get(1).get(AvroDeadLetterWriter.RECORD_FIELD))
+                .get("id"));
+
+        _decoder.setErrorPolicy(ErrorPolicy.NULL_VALUE);
+        assertEquals("replayed rows", 3, _decoder.convertRecord(replayed).size());
+    }
+
+    @Test
+    public void testDeadLetterMixedSchemas() throws Exception {
+        Schema noted = new Parser().parse("{\"name\":\"rootRecord\",\"type\":\"record\",\"fields\":["
+                + "{\"name\":\"id\",\"type\":\"int\"},{\"name\":\"note\",\"type\":\"string\"},"
+                + "{\"name\":\"values\",\"type\":{\"type\":\"array\",\"items\":[\"int\",\"string\"]}}]}");
+        GenericRecord notedRecord = new GenericData.Record(noted);
+        notedRecord.put("id", 2);
+        notedRecord.put("note", "second schema");
+        notedRecord.put("values", new GenericData.Array<Object>(noted.getField("values").schema(),
+                Arrays.<Object> asList("bad")));
+
+        File file = _folder.newFile("deadLetters.avro");
+        AvroDeadLetterWriter deadLetters = new AvroDeadLetterWriter(file);
+        _decoder.setErrorPolicy(ErrorPolicy.DEAD_LETTER);
+        _decoder.setDeadLetterSink(deadLetters);
+
+        assertTrue("rejected record", _decoder.convertRecord(createRecord(1, "bad")).isEmpty());
+        assertTrue("rejected record", _decoder.convertRecord(notedRecord).isEmpty());
+        assertTrue("rejected record", _decoder.convertRecord(createRecord(3, "bad")).isEmpty());
+        deadLetters.close();
+
+        List<File> files = deadLetters.getFiles();
+        assertEquals("dead letter files", 2, files.size());
+        assertEquals("first schema file", file, files.get(0));
+        assertEquals("first schema ids", Arrays.asList(1, 3), readIds(files.get(0)));
+        assertEquals("second schema ids", Arrays.asList(2), readIds(files.get(1)));
+    }
+
+    private static List<Object> readIds(File file) throws Exception {
+        DataFileReader<GenericRecord> reader = new DataFileReader<GenericRecord>(file,
+                new GenericDatumReader<GenericRecord>());
+        List<Object> ids = new ArrayList<Object>();
+        for (GenericRecord entry : reader) {
+            ids.add(((GenericRecord) entry.get(AvroDeadLetterWriter.RECORD_FIELD)).get("id"));
+        }
+        reader.close();
+        return ids;
+    }
+
+    @Test
+    public void testDeadLetterWithoutSink() throws Exception {
+        _decoder.setErrorPolicy(ErrorPolicy.DEAD_LETTER);
+        try {
+            _decoder.convertRecord(createRecord(1, "bad"));
+            fail("AvroAdaptorException expected");
+        } catch (AvroAdaptorException e) {
+            assertTrue(e.getMessage().startsWith("Incompatible datatypes for column (value)"));
+        }
+    }
+
+    @Test
+    public void testNullPolicy() throws Exception {
+        try {
+            _decoder.setErrorPolicy(null);
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+            assertEquals("policy unchanged", ErrorPolicy.FAIL, _decoder.getErrorPolicy());
+        }
+    }
+
+    private GenericRecord createRecord(int id, Object... values) {
+        GenericRecord record = new GenericData.Record(_schema);
+        record.put("id", id);
+        record.put("values", new GenericData.Array<Object>(_schema.getField("values").schema(), Arrays.asList(values)));
+        return record;
+    }
+}
@@ -0,0 +1,189 @@
+/**
+ * Copyright 2015 ParStream GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parstream.adaptor.avro.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.avro.Schema;
+import org.apache.avro.Schema.Parser;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.parstream.adaptor.avro.AvroAdaptor;
+import com.parstream.adaptor.avro.AvroAdaptorException;
+import com.parstream.adaptor.avro.IngestPipeline;
+import com.parstream.adaptor.avro.RowInserter;
+import com.parstream.driver.ColumnInfo;
+
+public class IngestPipelineTest {
+
+    private static final int RECORDS = 1000;
+
+    private List<GenericRecord> _records;
+
+    @Before
+    public void setUp() throws Exception {
+        Schema schema = new Parser().parse(new File("target/test-classes/nested/NestedArrays/schema.avsc"));
+        Schema ordersSchema = schema.getField("orders").schema();
+        Schema orderSchema = ordersSchema.getElementType();
+        Schema itemsSchema = orderSchema.getField("items").schema();
+
+        _records = new ArrayList<GenericRecord>(RECORDS);
+        for (int i = 0; i < RECORDS; ++i) {
+            GenericRecord order = new GenericData.Record(orderSchema);
+            order.put("orderId", i);
+            order.put("items", new GenericData.Array<String>(itemsSchema, Arrays.asList("a" + i, "b" + i)));
+
+            GenericRecord record = new GenericData.Record(schema);
+            record.put("name", "customer" + i);
+            record.put("orders", new GenericData.Array<GenericRecord>(ordersSchema, Arrays.asList(order)));
+            _records.add(record);
+        }
+    }
+
+    @Test
+    public void testIngest() throws Exception {
+        CollectingInserter inserter = new CollectingInserter();
+        IngestPipeline pipeline = new IngestPipeline(createAdaptor(), inserter);
+        pipeline.setConverterThreads(4);
+        pipeline.setBatchSize(10);
+        pipeline.setQueueCapacity(2);
+        pipeline.setCommitInterval(500);
+
+        assertEquals("inserted rows", 2 * RECORDS, pipeline.run(_records.iterator()));
+        assertEquals("records read", RECORDS, pipeline.getRecordsRead());
+        assertEquals("rows inserted", 2 * RECORDS, pipeline.getRowsInserted());
+        assertEquals("resulting list size", 2 * RECORDS, inserter._rows.size());
+        assertEquals("committed rows", 2 * RECORDS, inserter._committedRows);
+        assertEquals("commits", inserter._commits, pipeline.getCommits());
+        assertTrue("several commits", inserter._commits > 1);
+        assertEquals("inserter threads", 1, inserter._threads.size());
+        assertEquals("record queue depth", 0, pipeline.getRecordQueueDepth());
+        assertEquals("row queue depth", 0, pipeline.getRowQueueDepth());
+
+        Set<Object> items = new HashSet<Object>();
+        for (Object[] row : inserter._rows) {
+            items.add(row[2]);
+        }
+        assertEquals("distinct items", 2 * RECORDS, items.size());
+    }
+
+    @Test
+    public void testConversionFailure() throws Exception {
+        CollectingInserter inserter = new CollectingInserter();
+        IngestPipeline pipeline = new IngestPipeline(createFailingAdaptor(), inserter);
+        pipeline.setConverterThreads(2);
+        try {
+            pipeline.run(_records.iterator());
+            fail("AvroAdaptorException expected");
+        } catch (AvroAdaptorException e) {
+            assertTrue("incompatible type message",
+                    e.getMessage().startsWith("Incompatible datatypes for column (name)"));
+        }
+        assertEquals("commits", 0, inserter._commits);
+    }
+
+    @Test
+    public void testInsertFailure() throws Exception {
+        final AvroAdaptorException failure = new AvroAdaptorException("connection lost");
+        CollectingInserter inserter = new CollectingInserter() {
+
+            @Override
+            public void accept(List<Object[]> rows) throws AvroAdaptorException {
+                throw failure;
+            }
+        };
+        IngestPipeline pipeline = new IngestPipeline(createAdaptor(), inserter);
+        pipeline.setQueueCapacity(1);
+        try {
+            pipeline.run(_records.iterator());
+            fail("AvroAdaptorException expected");
+        } catch (AvroAdaptorException e) {
+            assertSame("insert failure", failure, e);
+        }
+    }
+
+    @Test
+    public void testShutdown() throws Exception {
+        final List<IngestPipeline> pipelines = new ArrayList<IngestPipeline>(1);
+        CollectingInserter inserter = new CollectingInserter() {
+
+            @Override
+            public void accept(List<Object[]> rows) throws AvroAdaptorException {
+                super.accept(rows);
+                pipelines.get(0).shutdown();
+            }
+        };
+        IngestPipeline pipeline = new IngestPipeline(createAdaptor(), inserter);
+        pipelines.add(pipeline);
+        pipeline.setBatchSize(1);
+        pipeline.setQueueCapacity(1);
+
+        long rows = pipeline.run(_records.iterator());
+        assertTrue("stopped early", pipeline.getRecordsRead() < RECORDS);
+        assertEquals("inserted rows", 2 * pipeline.getRecordsRead(), rows);
+        assertEquals("committed rows", rows, inserter._committedRows);
+    }
+
+    private static AvroAdaptor createAdaptor() throws Exception {
+        ColumnInfo[] colInfo = new ColumnInfo[3];
+        colInfo[0] = AdaptorTestUtils.constructColumnInfo("name", AdaptorTestUtils.Type.VARSTRING, 0, 0);
+        colInfo[1] = AdaptorTestUtils.constructColumnInfo("orderId", AdaptorTestUtils.Type.UINT32, 0, 0);
+        colInfo[2] = AdaptorTestUtils.constructColumnInfo("item", AdaptorTestUtils.Type.VARSTRING, 0, 0);
+        return new AvroAdaptor(new File("target/test-classes/nested/NestedArrays/avro.ini"), colInfo);
+    }
+
+    /**
+     * maps the string field name to a numeric column
+     */
+    private static AvroAdaptor createFailingAdaptor() throws Exception {
+        ColumnInfo[] colInfo = new ColumnInfo[1];
+        colInfo[0] = AdaptorTestUtils.constructColumnInfo("name", AdaptorTestUtils.Type.UINT32, 0, 0);
+        return new AvroAdaptor(new File("target/test-classes/nested/NestedArrays/avro.ini"), colInfo);
+    }
+
+    private static class CollectingInserter implements RowInserter {
+
+        private final List<Object[]> _rows = new ArrayList<Object[]>();
+        private final Set<Thread> _threads = new HashSet<Thread>();
+        private int _committedRows;
+        private int _commits;
+
+        @Override
+        public void accept(List<Object[]> rows) throws AvroAdaptorException {
+            _rows.addAll(rows);
+            _threads.add(Thread.currentThread());
+        }
+
+        @Override
+        public void commit() {
+            _committedRows = _rows.size();
+            ++_commits;
+        }
+    }
+}
@@ -0,0 +1,241 @@
+/**
+ * Copyright 2015 ParStream GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parstream.adaptor.avro.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.avro.Schema;
+import org.apache.avro.Schema.Parser;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.parstream.adaptor.avro.AvroAdaptor;
+import com.parstream.adaptor.avro.MappedFileReader;
+import com.parstream.adaptor.avro.RowSink;
+import com.parstream.driver.ColumnInfo;
+
+public class MappedFileReaderTest {
+
+    private static final int RECORDS = 500;
+
+    @Rule
+    public TemporaryFolder _folder = new TemporaryFolder();
+
+    private Schema _schema;
+    private AvroAdaptor _decoder;
+    private List<GenericRecord> _records;
+
+    @Before
+    public void setUp() throws Exception {
+        _schema = new Parser().parse(new File("target/test-classes/codeGeneration/FlatRecord/record.avsc"));
+
+        ColumnInfo[] colInfo = new ColumnInfo[9];
+        colInfo[0] = AdaptorTestUtils.constructColumnInfo("intCol", AdaptorTestUtils.Type.INT32, 0, 0);
+        colInfo[1] = AdaptorTestUtils.constructColumnInfo("longCol", AdaptorTestUtils.Type.INT64, 0, 0);
+        colInfo[2] = AdaptorTestUtils.constructColumnInfo("floatCol", AdaptorTestUtils.Type.FLOAT, 0, 0);
+        colInfo[3] = AdaptorTestUtils.constructColumnInfo("doubleCol", AdaptorTestUtils.Type.DOUBLE, 0, 0);
+        colInfo[4] = AdaptorTestUtils.constructColumnInfo("stringCol", AdaptorTestUtils.Type.VARSTRING, 0, 0);
+        colInfo[5] = AdaptorTestUtils.constructColumnInfo("boolCol", AdaptorTestUtils.Type.UINT8, 0, 0);
+        colInfo[6] = AdaptorTestUtils.constructColumnInfo("optionalCol", AdaptorTestUtils.Type.VARSTRING, 0, 0);
+        colInfo[7] = AdaptorTestUtils.constructColumnInfo("nestedCol", AdaptorTestUtils.Type.INT32, 0, 0);
+        colInfo[8] = AdaptorTestUtils.constructColumnInfo("itemCol", AdaptorTestUtils.Type.INT64, 0, 0);
+        _decoder = new AvroAdaptor(new File("target/test-classes/codeGeneration/FlatRecord/avro.ini"), colInfo);
+
+        _records = new ArrayList<GenericRecord>();
+        for (int i = 0; i < RECORDS; ++i) {
+            GenericRecord nested = new GenericData.Record(_schema.getField("nested").schema());
+            nested.put("value", -i);
+
+            GenericRecord record = new GenericData.Record(_schema);
+            record.put("intField", i);
+            record.put("unmapped", "unmapped value " + i);
+            record.put("longField", 1000L * i);
+            record.put("floatField", i / 2.0f);
+            record.put("doubleField", i / 4.0);
+            record.put("stringField", "text" + i);
+            record.put("boolField", i % 3 == 0);
+            if (i % 2 == 0) {
+                record.put("optionalField", "optional" + i);
+            }
+            record.put("nested", nested);
+            List<Long> items = new ArrayList<Long>();
+            for (int j = 0; j < i % 4; ++j) {
+                items.add((long) j);
+            }
+            record.put("items", new GenericData.Array<Long>(_schema.getField("items").schema(), items));
+            _records.add(record);
+        }
+    }
+
+    private File writeFile(CodecFactory codec) throws IOException {
+        File file = _folder.newFile();
+        DataFileWriter<GenericRecord> writer = new DataFileWriter<GenericRecord>(
+                new GenericDatumWriter<GenericRecord>(_schema));
+        writer.setCodec(codec);
+        writer.setSyncInterval(256);
+        writer.create(_schema, file);
+        try {
+            for (GenericRecord record : _records) {
+                writer.append(record);
+            }
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+
+    private void assertConverted(File file, long windowSize) throws Exception {
+        final List<Object[]> rows = new ArrayList<Object[]>();
+        RowSink sink = new RowSink() {
+
+            @Override
+            public boolean consumesRowsSynchronously() {
+                return false;
+            }
+
+            @Override
+            public void accept(Object[] row) {
+                rows.add(row);
+            }
+        };
+
+        MappedFileReader reader = new MappedFileReader(file, windowSize);
+        try {
+            assertEquals("schema", _schema, reader.getSchema());
+            assertEquals("records", RECORDS, reader.convert(_decoder, sink));
+            assertFalse("no more blocks", reader.nextBlock());
+        } finally {
+            reader.close();
+        }
+
+        List<Object[]> expected = new ArrayList<Object[]>();
+        for (GenericRecord record : _records) {
+            expected.addAll(_decoder.convertRecord(record));
+        }
+        assertEquals("resulting list size", expected.size(), rows.size());
+        for (int i = 0; i < expected.size(); ++i) {
+            assertArrayEquals("resulting item", expected.get(i), rows.get(i));
+        }
+    }
+
+    @Test
+    public void testNullCodec() throws Exception {
+        assertConverted(writeFile(CodecFactory.nullCodec()), MappedFileReader.DEFAULT_WINDOW_SIZE);
+    }
+
+    @Test
+    public void testDeflateCodec() throws Exception {
+        File file = writeFile(CodecFactory.deflateCodec(6));
+        MappedFileReader reader = new MappedFileReader(file);
+        try {
+            assertEquals("codec", "deflate", reader.getCodec());
+        } finally {
+            reader.close();
+        }
+        assertConverted(file, MappedFileReader.DEFAULT_WINDOW_SIZE);
+    }
+
+    @Test
+    public void testSmallWindows() throws Exception {
+        // windows smaller than the header and the blocks are enlarged
+        assertConverted(writeFile(CodecFactory.nullCodec()), 64);
+        assertConverted(writeFile(CodecFactory.deflateCodec(6)), 1024);
+    }
+
+    @Test
+    public void testBlocks() throws Exception {
+        MappedFileReader reader = new MappedFileReader(writeFile(CodecFactory.nullCodec()), 4096);
+        try {
+            int records = 0;
+            int blocks = 0;
+            while (reader.nextBlock()) {
+                assertTrue("block length", reader.getBlockLength() > 0);
+                for (long i = 0; i < reader.getBlockRecordCount(); ++i) {
+                    List<Object[]> res = _decoder.convertBinary(reader.getBlockDecoder(), reader.getSchema());
+                    assertEquals("resulting item", records, res.get(0)[0]);
+                    ++records;
+                }
+                ++blocks;
+            }
+            assertEquals("records", RECORDS, records);
+            assertTrue("multiple blocks", blocks > 1);
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testDamagedSyncMarker() throws Exception {
+        File file = writeFile(CodecFactory.nullCodec());
+        RandomAccessFile out = new RandomAccessFile(file, "rw");
+        try {
+            out.seek(file.length() - 1);
+            int last = out.read();
+            out.seek(file.length() - 1);
+            out.write(last ^ 0xff);
+        } finally {
+            out.close();
+        }
+
+        MappedFileReader reader = new MappedFileReader(file);
+        try {
+            while (reader.nextBlock()) {
+                reader.getBlockDecoder().skipFixed(reader.getBlockLength());
+            }
+            fail("IOException expected");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().startsWith("invalid sync marker"));
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testNoContainerFile() throws Exception {
+        File file = _folder.newFile();
+        RandomAccessFile out = new RandomAccessFile(file, "rw");
+        try {
+            out.write(Arrays.copyOf("no Avro".getBytes("UTF-8"), 64));
+        } finally {
+            out.close();
+        }
+
+        try {
+            new MappedFileReader(file);
+            fail("IOException expected");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().startsWith("not an Avro container file"));
+        }
+    }
+}
@@ -0,0 +1,244 @@
+/**
+ * Copyright 2015 ParStream GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parstream.adaptor.avro.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.TabularData;
+
+import org.apache.avro.Schema;
+import org.apache.avro.Schema.Parser;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.parstream.adaptor.avro.AvroAdaptor;
+import com.parstream.adaptor.avro.AvroAdaptorException;
+import com.parstream.adaptor.avro.MetricsSnapshot;
+import com.parstream.adaptor.avro.RowSink;
+import com.parstream.driver.ColumnInfo;
+
+public class MetricsTest {
+
+    private Schema _schema;
+    private Schema _ordersSchema;
+    private Schema _orderSchema;
+    private Schema _itemsSchema;
+
+    @Before
+    public void setUp() throws Exception {
+        _schema = new Parser().parse(new File("target/test-classes/nested/NestedArrays/schema.avsc"));
+        _ordersSchema = _schema.getField("orders").schema();
+        _orderSchema = _ordersSchema.getElementType();
+        _itemsSchema = _orderSchema.getField("items").schema();
+    }
+
+    @Test
+    public void testCounters() throws Exception {
+        AvroAdaptor decoder = createAdaptor(AdaptorTestUtils.Type.UINT32);
+        decoder.setLatencySampling(1);
+        assertEquals("records", 0, decoder.getMetrics().getRecords());
+
+        decoder.convertRecord(createRecord(1));
+        decoder.convertRecord(createRecord(3));
+        decoder.convertRecord(createRecord(3), new RowSink() {
+
+            @Override
+            public boolean consumesRowsSynchronously() {
+                return true;
+            }
+
+            @Override
+            public void accept(Object[] row) {
+            }
+        });
+        decoder.iterateRecord(createRecord(5));
+
+        MetricsSnapshot metrics = decoder.getMetrics();
+        assertEquals("records", 3, metrics.getRecords());
+        assertEquals("rows", 7, metrics.getRows());
+        assertEquals("mean fan-out", 7.0 / 3, metrics.getMeanFanOut(), 1e-9);
+        assertEquals("failures", 0, metrics.getFailures());
+        assertTrue("no column failures", metrics.getColumnFailures().isEmpty());
+
+        long[] fanOut = metrics.getFanOutHistogram();
+        assertEquals("records with one row", 1, fanOut[1]);
+        assertEquals("records with two or three rows", 2, fanOut[2]);
+        assertEquals("histogram total", 3, sum(fanOut));
+        assertEquals("latency samples", 3, sum(metrics.getLatencyHistogram()));
+    }
+
+    @Test
+    public void testLatencySampling() throws Exception {
+        AvroAdaptor decoder = createAdaptor(AdaptorTestUtils.Type.UINT32);
+        assertEquals("default sampling", AvroAdaptor.DEFAULT_LATENCY_SAMPLING, decoder.getLatencySampling());
+
+        decoder.setLatencySampling(2);
+        for (int i = 0; i < 4; ++i) {
+            decoder.convertRecord(createRecord(1));
+        }
+        assertEquals("latency samples", 2, sum(decoder.getMetrics().getLatencyHistogram()));
+
+        decoder.setLatencySampling(0);
+        for (int i = 0; i < 4; ++i) {
+            decoder.convertRecord(createRecord(1));
+        }
+        assertEquals("latency samples", 2, sum(decoder.getMetrics().getLatencyHistogram()));
+        assertEquals("records", 8, decoder.getMetrics().getRecords());
+
+        try {
+            decoder.setLatencySampling(-1);
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+            assertEquals("sampling unchanged", 0, decoder.getLatencySampling());
+        }
+    }
+
+    @Test
+    public void testBucketBounds() {
+        assertEquals("bucket 0", 0, MetricsSnapshot.getBucketLowerBound(0));
+        assertEquals("bucket 1", 1, MetricsSnapshot.getBucketLowerBound(1));
+        assertEquals("bucket 2", 2, MetricsSnapshot.getBucketLowerBound(2));
+        assertEquals("bucket 11", 1024, MetricsSnapshot.getBucketLowerBound(11));
+    }
+
+    @Test
+    public void testColumnFailures() throws Exception {
+        AvroAdaptor decoder = createAdaptor(AdaptorTestUtils.Type.DOUBLE);
+        for (int i = 0; i < 2; ++i) {
+            try {
+                decoder.convertRecord(createRecord(1));
+                fail("AvroAdaptorException expected");
+            } catch (AvroAdaptorException e) {
+                assertTrue(e.getMessage().startsWith("Incompatible datatypes for column (orderId)"));
+            }
+        }
+
+        MetricsSnapshot metrics = decoder.getMetrics();
+        assertEquals("records", 0, metrics.getRecords());
+        assertEquals("failures", 2, metrics.getFailures());
+        assertEquals("column failures", 1, metrics.getColumnFailures().size());
+        assertEquals("orderId failures", Long.valueOf(2), metrics.getColumnFailures().get("orderId"));
+        assertEquals("DOUBLE failures", Long.valueOf(2), metrics.getFailuresByType().get("DOUBLE"));
+    }
+
+    @Test
+    public void testConcurrentCounting() throws Exception {
+        final AvroAdaptor decoder = createAdaptor(AdaptorTestUtils.Type.UINT32);
+        final GenericRecord record = createRecord(2);
+        final List<Throwable> failures = new ArrayList<Throwable>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 4; ++i) {
+            threads.add(new Thread() {
+
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < 1000; ++j) {
+                            decoder.convertRecord(record);
+                        }
+                    } catch (Throwable e) {
+                        synchronized (failures) {
+                            failures.add(e);
+                        }
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertTrue("conversion failures " + failures, failures.isEmpty());
+        MetricsSnapshot metrics = decoder.getMetrics();
+        assertEquals("records", 4000, metrics.getRecords());
+        assertEquals("rows", 8000, metrics.getRows());
+        assertEquals("records with two rows", 4000, metrics.getFanOutHistogram()[2]);
+    }
+
+    @Test
+    public void testMBean() throws Exception {
+        AvroAdaptor decoder = createAdaptor(AdaptorTestUtils.Type.UINT32);
+        decoder.registerMBean("metricsTest");
+        try {
+            try {
+                decoder.registerMBean("metricsTest");
+                fail("AvroAdaptorException expected");
+            } catch (AvroAdaptorException e) {
+                assertTrue(e.getMessage().startsWith("cannot register MBean metricsTest"));
+            }
+
+            decoder.convertRecord(createRecord(2));
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("com.parstream.adaptor.avro:type=AvroAdaptor,name=\"metricsTest\"");
+            assertEquals("records", 1L, server.getAttribute(name, "Records"));
+            assertEquals("rows", 2L, server.getAttribute(name, "Rows"));
+            assertEquals("plan cache misses", 1L, server.getAttribute(name, "PlanCacheMisses"));
+            assertArrayEquals("fan-out histogram", decoder.getMetrics().getFanOutHistogram(),
+                    (long[]) server.getAttribute(name, "FanOutHistogram"));
+            assertTrue("column failures", ((TabularData) server.getAttribute(name, "ColumnFailures")).isEmpty());
+        } finally {
+            decoder.unregisterMBean("metricsTest");
+        }
+        assertTrue("unregistered", ManagementFactory.getPlatformMBeanServer()
+                .queryNames(new ObjectName("com.parstream.adaptor.avro:*"), null).isEmpty());
+    }
+
+    private GenericRecord createRecord(int orders) {
+        List<GenericRecord> orderList = new ArrayList<GenericRecord>(orders);
+        for (int i = 0; i < orders; ++i) {
+            GenericRecord order = new GenericData.Record(_orderSchema);
+            order.put("orderId", i);
+            order.put("items", new GenericData.Array<String>(_itemsSchema, Arrays.asList("item" + i)));
+            orderList.add(order);
+        }
+        GenericRecord record = new GenericData.Record(_schema);
+        record.put("name", "customer");
+        record.put("orders", new GenericData.Array<GenericRecord>(_ordersSchema, orderList));
+        return record;
+    }
+
+    private static AvroAdaptor createAdaptor(AdaptorTestUtils.Type orderIdType) throws Exception {
+        ColumnInfo[] colInfo = new ColumnInfo[3];
+        colInfo[0] = AdaptorTestUtils.constructColumnInfo("name", AdaptorTestUtils.Type.VARSTRING, 0, 0);
+        colInfo[1] = AdaptorTestUtils.constructColumnInfo("orderId", orderIdType, 0, 0);
+        colInfo[2] = AdaptorTestUtils.constructColumnInfo("item", AdaptorTestUtils.Type.VARSTRING, 0, 0);
+        return new AvroAdaptor(new File("target/test-classes/nested/NestedArrays/avro.ini"), colInfo);
+    }
+
+    private static long sum(long[] histogram) {
+        long sum = 0;
+        for (long count : histogram) {
+            sum += count;
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,148 @@
+/**
+ * Copyright 2015 ParStream GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parstream.adaptor.avro.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.avro.Schema;
+import org.apache.avro.Schema.Parser;
+import org.apache.avro.generic.GenericArray;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.util.Utf8;
+import org.junit.Test;
+
+import com.parstream.adaptor.avro.AvroAdaptor;
+import com.parstream.driver.ColumnInfo;
+
+public class NestedRecordTest {
+
+    /**
+     * nested records are addressed by their schema name, unmapped fields of
+     * unsupported types (here a map) are ignored
+     */
+    @Test
+    public void testNestedRecord() throws Exception {
+        Schema schema = new Parser().parse(new File("target/test-classes/nested/NestedRecord/schema.avsc"));
+        Schema addressSchema = schema.getField("location").schema();
+
+        GenericRecord address = new GenericData.Record(addressSchema);
+        address.put("city", new Utf8("Cologne"));
+        address.put("zip", 50667);
+
+        Map<String, String> attributes = new HashMap<String, String>();
+        attributes.put("key", "value");
+
+        GenericRecord record = new GenericData.Record(schema);
+        record.put("id", 7);
+        record.put("location", address);
+        record.put("attributes", attributes);
+
+        ColumnInfo[] colInfo = new ColumnInfo[3];
+        colInfo[0] = AdaptorTestUtils.constructColumnInfo("id", AdaptorTestUtils.Type.UINT32, 0, 0);
+        colInfo[1] = AdaptorTestUtils.constructColumnInfo("city", AdaptorTestUtils.Type.VARSTRING, 0, 0);
+        colInfo[2] = AdaptorTestUtils.constructColumnInfo("zip", AdaptorTestUtils.Type.UINT32, 0, 0);
+
+        AvroAdaptor decoder = new AvroAdaptor(new File("target/test-classes/nested/NestedRecord/avro.ini"), colInfo);
+        List<Object[]> res = decoder.convertRecord(record);
+        assertEquals("resulting list size", 1, res.size());
+        assertArrayEquals("resulting item", new Object[] { 7, "Cologne", 50667 }, res.get(0));
+
+        // a null union value leaves the column empty
+        address.put("zip", null);
+        res = decoder.convertRecord(record);
+        assertEquals("resulting list size", 1, res.size());
+        assertArrayEquals("resulting item", new Object[] { 7, "Cologne", null }, res.get(0));
+    }
+
+    /**
+     * an array of records, each holding an array itself, produces one row per
+     * innermost element, an empty inner array still produces a row
+     */
+    @Test
+    public void testNestedArrays() throws Exception {
+        Schema schema = new Parser().parse(new File("target/test-classes/nested/NestedArrays/schema.avsc"));
+        Schema ordersSchema = schema.getField("orders").schema();
+        Schema orderSchema = ordersSchema.getElementType();
+        Schema itemsSchema = orderSchema.getField("items").schema();
+
+        GenericRecord order1 = new GenericData.Record(orderSchema);
+        order1.put("orderId", 1);
+        order1.put("items", new GenericData.Array<String>(itemsSchema, Arrays.asList("a", "b")));
+
+        GenericRecord order2 = new GenericData.Record(orderSchema);
+        order2.put("orderId", 2);
+        order2.put("items", new GenericData.Array<String>(itemsSchema, new ArrayList<String>(0)));
+
+        List<GenericRecord> orders = new ArrayList<GenericRecord>(2);
+        orders.add(order1);
+        orders.add(order2);
+
+        GenericRecord record = new GenericData.Record(schema);
+        record.put("name", "customer");
+        record.put("orders", new GenericData.Array<GenericRecord>(ordersSchema, orders));
+
+        ColumnInfo[] colInfo = new ColumnInfo[3];
+        colInfo[0] = AdaptorTestUtils.constructColumnInfo("name", AdaptorTestUtils.Type.VARSTRING, 0, 0);
+        colInfo[1] = AdaptorTestUtils.constructColumnInfo("orderId", AdaptorTestUtils.Type.UINT32, 0, 0);
+        colInfo[2] = AdaptorTestUtils.constructColumnInfo("item", AdaptorTestUtils.Type.VARSTRING, 0, 0);
+
+        AvroAdaptor decoder = new AvroAdaptor(new File("target/test-classes/nested/NestedArrays/avro.ini"), colInfo);
+        List<Object[]> res = decoder.convertRecord(record);
+        assertEquals("resulting list size", 3, res.size());
+        assertArrayEquals("resulting item", new Object[] { "customer", 1, "a" }, res.get(0));
+        assertArrayEquals("resulting item", new Object[] { "customer", 1, "b" }, res.get(1));
+        assertArrayEquals("resulting item", new Object[] { "customer", 2, null }, res.get(2));
+    }
+
+    /**
+     * two sibling arrays produce the cartesian product of their elements, the
+     * first array in schema order varies slowest
+     */
+    @Test
+    public void testSiblingArrays() throws Exception {
+        Schema schema = new Parser().parse(new File("target/test-classes/nested/SiblingArrays/schema.avsc"));
+
+        GenericArray<Integer> numbers = new GenericData.Array<Integer>(schema.getField("numbers").schema(),
+                Arrays.asList(1, 2));
+        GenericArray<String> labels = new GenericData.Array<String>(schema.getField("labels").schema(),
+                Arrays.asList("x", "y"));
+
+        GenericRecord record = new GenericData.Record(schema);
+        record.put("numbers", numbers);
+        record.put("labels", labels);
+
+        ColumnInfo[] colInfo = new ColumnInfo[2];
+        colInfo[0] = AdaptorTestUtils.constructColumnInfo("number", AdaptorTestUtils.Type.UINT32, 0, 0);
+        colInfo[1] = AdaptorTestUtils.constructColumnInfo("label", AdaptorTestUtils.Type.VARSTRING, 0, 0);
+
+        AvroAdaptor decoder = new AvroAdaptor(new File("target/test-classes/nested/SiblingArrays/avro.ini"), colInfo);
+        List<Object[]> res = decoder.convertRecord(record);
+        assertEquals("resulting list size", 4, res.size());
+        assertArrayEquals("resulting item", new Object[] { 1, "x" }, res.get(0));
+        assertArrayEquals("resulting item", new Object[] { 1, "y" }, res.get(1));
+        assertArrayEquals("resulting item", new Object[] { 2, "x" }, res.get(2));
+        assertArrayEquals("resulting item", new Object[] { 2, "y" }, res.get(3));
+    }
+}
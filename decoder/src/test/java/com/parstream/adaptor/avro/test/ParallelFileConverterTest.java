@@ -0,0 +1,180 @@
+/**
+ * Copyright 2015 ParStream GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parstream.adaptor.avro.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.avro.Schema;
+import org.apache.avro.Schema.Parser;
+import org.apache.avro.file.DataFileReader;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.parstream.adaptor.avro.AvroAdaptor;
+import com.parstream.adaptor.avro.AvroAdaptorException;
+import com.parstream.adaptor.avro.ParallelFileConverter;
+import com.parstream.adaptor.avro.RowBatchSink;
+import com.parstream.driver.ColumnInfo;
+
+public class ParallelFileConverterTest {
+
+    private static final int THREADS = 4;
+    private static final int RECORDS = 2000;
+
+    @Rule
+    public TemporaryFolder _folder = new TemporaryFolder();
+
+    private ExecutorService _executor;
+    private AvroAdaptor _decoder;
+    private File _file;
+
+    @Before
+    public void setUp() throws Exception {
+        _executor = Executors.newFixedThreadPool(THREADS);
+
+        ColumnInfo[] colInfo = new ColumnInfo[3];
+        colInfo[0] = AdaptorTestUtils.constructColumnInfo("name", AdaptorTestUtils.Type.VARSTRING, 0, 0);
+        colInfo[1] = AdaptorTestUtils.constructColumnInfo("orderId", AdaptorTestUtils.Type.UINT32, 0, 0);
+        colInfo[2] = AdaptorTestUtils.constructColumnInfo("item", AdaptorTestUtils.Type.VARSTRING, 0, 0);
+        _decoder = new AvroAdaptor(new File("target/test-classes/nested/NestedArrays/avro.ini"), colInfo);
+
+        Schema schema = new Parser().parse(new File("target/test-classes/nested/NestedArrays/schema.avsc"));
+        Schema ordersSchema = schema.getField("orders").schema();
+        Schema orderSchema = ordersSchema.getElementType();
+        Schema itemsSchema = orderSchema.getField("items").schema();
+
+        _file = _folder.newFile("records.avro");
+        DataFileWriter<GenericRecord> writer = new DataFileWriter<GenericRecord>(
+                new GenericDatumWriter<GenericRecord>(schema));
+        // small blocks, so that the file is cut into many splits
+        writer.setSyncInterval(512);
+        writer.create(schema, _file);
+        for (int i = 0; i < RECORDS; ++i) {
+            GenericRecord order = new GenericData.Record(orderSchema);
+            order.put("orderId", i);
+            order.put("items", new GenericData.Array<String>(itemsSchema, Arrays.asList("a" + i, "b" + i)));
+
+            GenericRecord record = new GenericData.Record(schema);
+            record.put("name", "customer" + i);
+            record.put("orders", new GenericData.Array<GenericRecord>(ordersSchema, Arrays.asList(order)));
+            writer.append(record);
+        }
+        writer.close();
+    }
+
+    @After
+    public void tearDown() {
+        _executor.shutdown();
+    }
+
+    @Test
+    public void testOrderedOutput() throws Exception {
+        List<Object[]> expected = new ArrayList<Object[]>();
+        DataFileReader<GenericRecord> reader = new DataFileReader<GenericRecord>(_file,
+                new GenericDatumReader<GenericRecord>());
+        for (GenericRecord record : reader) {
+            expected.addAll(_decoder.convertRecord(record));
+        }
+        reader.close();
+
+        ParallelFileConverter converter = new ParallelFileConverter(_decoder, _executor, THREADS);
+        converter.setSplitSize(2048);
+        CollectingSink sink = new CollectingSink();
+        assertEquals("resulting row count", 2 * RECORDS, converter.convert(_file, sink));
+
+        assertTrue("several batches", sink._batches > 1);
+        assertEquals("resulting list size", expected.size(), sink._rows.size());
+        for (int i = 0; i < expected.size(); ++i) {
+            assertArrayEquals("resulting item", expected.get(i), sink._rows.get(i));
+        }
+    }
+
+    @Test
+    public void testUnorderedOutput() throws Exception {
+        ParallelFileConverter converter = new ParallelFileConverter(_decoder, _executor, THREADS);
+        converter.setSplitSize(1000);
+        converter.setOrdered(false);
+        CollectingSink sink = new CollectingSink();
+        converter.convert(_file, sink);
+
+        assertEquals("resulting list size", 2 * RECORDS, sink._rows.size());
+        Set<Object> items = new HashSet<Object>();
+        for (Object[] row : sink._rows) {
+            items.add(row[2]);
+        }
+        assertEquals("distinct items", 2 * RECORDS, items.size());
+    }
+
+    @Test
+    public void testSingleSplit() throws Exception {
+        ParallelFileConverter converter = new ParallelFileConverter(_decoder, _executor, 1);
+        converter.setSplitSize(Long.MAX_VALUE / 2);
+        CollectingSink sink = new CollectingSink();
+        converter.convert(_file, sink);
+
+        assertEquals("batches", 1, sink._batches);
+        assertEquals("resulting list size", 2 * RECORDS, sink._rows.size());
+    }
+
+    @Test
+    public void testIncompatibleType() throws Exception {
+        ColumnInfo[] colInfo = new ColumnInfo[1];
+        colInfo[0] = AdaptorTestUtils.constructColumnInfo("name", AdaptorTestUtils.Type.UINT32, 0, 0);
+        AvroAdaptor decoder = new AvroAdaptor(new File("target/test-classes/nested/NestedArrays/avro.ini"), colInfo);
+
+        ParallelFileConverter converter = new ParallelFileConverter(decoder, _executor, THREADS);
+        converter.setSplitSize(2048);
+        try {
+            converter.convert(_file, new CollectingSink());
+            fail("AvroAdaptorException expected");
+        } catch (AvroAdaptorException e) {
+            assertTrue("incompatible type message",
+                    e.getMessage().startsWith("Incompatible datatypes for column (name)"));
+        }
+    }
+
+    private static class CollectingSink implements RowBatchSink {
+
+        private final List<Object[]> _rows = new ArrayList<Object[]>();
+        private int _batches;
+
+        @Override
+        public void accept(List<Object[]> rows) {
+            _rows.addAll(rows);
+            ++_batches;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/**
+ * Copyright 2015 ParStream GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parstream.adaptor.avro.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.avro.Schema;
+import org.apache.avro.Schema.Parser;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.parstream.adaptor.avro.AvroAdaptor;
+import com.parstream.adaptor.avro.AvroAdaptorException;
+import com.parstream.adaptor.avro.ErrorPolicy;
+import com.parstream.driver.ColumnInfo;
+
+public class ParentColumnTest {
+
+    private Schema _schema;
+    private AvroAdaptor _decoder;
+
+    @Before
+    public void setUp() throws Exception {
+        _schema = new Parser().parse(new File("target/test-classes/parentColumns/OrderRecord/record.avsc"));
+
+        ColumnInfo[] colInfo = new ColumnInfo[4];
+        colInfo[0] = AdaptorTestUtils.constructColumnInfo("sku", AdaptorTestUtils.Type.INT32, 0, 0);
+        colInfo[1] = AdaptorTestUtils.constructColumnInfo("customer", AdaptorTestUtils.Type.INT32, 0, 0);
+        colInfo[2] = AdaptorTestUtils.constructColumnInfo("unused", AdaptorTestUtils.Type.INT32, 0, 0);
+        colInfo[3] = AdaptorTestUtils.constructColumnInfo("region", AdaptorTestUtils.Type.VARSTRING, 0, 0);
+        _decoder = new AvroAdaptor(new File("target/test-classes/parentColumns/OrderRecord/avro.ini"), colInfo);
+    }
+
+    @Test
+    public void testParentValuesInEveryRow() throws Exception {
+        List<Object[]> res = _decoder.convertRecord(createRecord(7, 1, 2, 3));
+        assertEquals("resulting list size", 3, res.size());
+        for (int i = 0; i < res.size(); ++i) {
+            assertArrayEquals("resulting item", new Object[] { i + 1, 7, null, "north" }, res.get(i));
+        }
+        assertSame("shared value", res.get(0)[3], res.get(2)[3]);
+
+        res = _decoder.convertRecord(createRecord(8, 4));
+        assertEquals("resulting list size", 1, res.size());
+        assertArrayEquals("resulting item", new Object[] { 4, 8, null, "north" }, res.get(0));
+    }
+
+    @Test
+    public void testFailedParentValue() throws Exception {
+        try {
+            _decoder.convertRecord(createRecord("bad", 1, 2));
+            fail("AvroAdaptorException expected");
+        } catch (AvroAdaptorException e) {
+            assertTrue(e.getMessage().startsWith("Incompatible datatypes for column (customer)"));
+        }
+        assertEquals("failures", 1, _decoder.getMetrics().getFailures());
+    }
+
+    @Test
+    public void testSkippedParentValue() throws Exception {
+        _decoder.setErrorPolicy(ErrorPolicy.SKIP_ROW);
+        assertTrue("all rows skipped", _decoder.convertRecord(createRecord("bad", 1, 2, 3)).isEmpty());
+        assertEquals("failures", 3, _decoder.getMetrics().getFailures());
+
+        List<Object[]> res = _decoder.convertRecord(createRecord(7, 1));
+        assertEquals("resulting list size", 1, res.size());
+        assertArrayEquals("resulting item", new Object[] { 1, 7, null, "north" }, res.get(0));
+    }
+
+    @Test
+    public void testNullParentValue() throws Exception {
+        _decoder.setErrorPolicy(ErrorPolicy.NULL_VALUE);
+        List<Object[]> res = _decoder.convertRecord(createRecord("bad", 1, 2));
+        assertEquals("resulting list size", 2, res.size());
+        assertArrayEquals("resulting item", new Object[] { 1, null, null, "north" }, res.get(0));
+        assertArrayEquals("resulting item", new Object[] { 2, null, null, "north" }, res.get(1));
+        assertEquals("failures", 2, _decoder.getMetrics().getColumnFailures().get("customer").longValue());
+    }
+
+    private GenericRecord createRecord(Object customer, int... skus) {
+        Schema itemsSchema = _schema.getField("items").schema();
+        List<GenericRecord> items = new ArrayList<GenericRecord>();
+        for (int sku : skus) {
+            GenericRecord item = new GenericData.Record(itemsSchema.getElementType());
+            item.put("sku", sku);
+            items.add(item);
+        }
+
+        GenericRecord record = new GenericData.Record(_schema);
+        record.put("customer", customer);
+        record.put("region", "north");
+        record.put("items", new GenericData.Array<GenericRecord>(itemsSchema, items));
+        return record;
+    }
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright 2015 ParStream GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parstream.adaptor.avro.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+
+import org.apache.avro.Schema;
+import org.apache.avro.Schema.Parser;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.parstream.adaptor.avro.AvroAdaptor;
+import com.parstream.driver.ColumnInfo;
+
+public class PlanCacheTest {
+
+    private GenericRecord _recordV1;
+    private GenericRecord _recordV2;
+    private AvroAdaptor _decoder;
+
+    @Before
+    public void setUp() throws Exception {
+        _recordV1 = new GenericData.Record(new Parser().parse(new File("target/test-classes/planCache/schemaV1.avsc")));
+        _recordV1.put("id", 1);
+
+        _recordV2 = new GenericData.Record(new Parser().parse(new File("target/test-classes/planCache/schemaV2.avsc")));
+        _recordV2.put("id", 2);
+        _recordV2.put("name", "second");
+
+        ColumnInfo[] colInfo = new ColumnInfo[2];
+        colInfo[0] = AdaptorTestUtils.constructColumnInfo("id", AdaptorTestUtils.Type.UINT32, 0, 0);
+        colInfo[1] = AdaptorTestUtils.constructColumnInfo("name", AdaptorTestUtils.Type.VARSTRING, 0, 0);
+        _decoder = new AvroAdaptor(new File("target/test-classes/planCache/avro.ini"), colInfo);
+    }
+
+    @Test
+    public void testMixedSchemaVersions() throws Exception {
+        for (int i = 0; i < 3; ++i) {
+            assertArrayEquals("version 1 row", new Object[] { 1, null }, _decoder.convertRecord(_recordV1).get(0));
+            assertArrayEquals("version 2 row", new Object[] { 2, "second" }, _decoder.convertRecord(_recordV2).get(0));
+        }
+        assertEquals("plan cache misses", 2, _decoder.getPlanCacheMisses());
+        assertEquals("plan cache hits", 4, _decoder.getPlanCacheHits());
+    }
+
+    @Test
+    public void testEqualSchemaInstancesShareAPlan() throws Exception {
+        _decoder.convertRecord(_recordV1);
+
+        Schema reparsed = new Parser().parse(new File("target/test-classes/planCache/schemaV1.avsc"));
+        GenericRecord record = new GenericData.Record(reparsed);
+        record.put("id", 3);
+        assertArrayEquals("reparsed schema row", new Object[] { 3, null }, _decoder.convertRecord(record).get(0));
+
+        assertEquals("plan cache misses", 1, _decoder.getPlanCacheMisses());
+        assertEquals("plan cache hits", 1, _decoder.getPlanCacheHits());
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        _decoder.setPlanCacheSize(1);
+        for (int i = 0; i < 2; ++i) {
+            _decoder.convertRecord(_recordV1);
+            _decoder.convertRecord(_recordV2);
+        }
+        assertEquals("plan cache misses", 4, _decoder.getPlanCacheMisses());
+        assertEquals("plan cache hits", 0, _decoder.getPlanCacheHits());
+    }
+}
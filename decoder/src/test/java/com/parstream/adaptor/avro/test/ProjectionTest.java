@@ -0,0 +1,151 @@
+/**
+ * Copyright 2015 ParStream GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parstream.adaptor.avro.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.avro.Schema;
+import org.apache.avro.Schema.Parser;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.EncoderFactory;
+import org.junit.Test;
+
+import com.parstream.adaptor.avro.AvroAdaptor;
+import com.parstream.driver.ColumnInfo;
+
+public class ProjectionTest {
+
+    @Test
+    public void testUnmappedFieldsPruned() throws Exception {
+        Schema schema = new Parser().parse(new File("target/test-classes/projection/Projection/schema.avsc"));
+        Schema ordersSchema = schema.getField("orders").schema();
+        Schema orderSchema = ordersSchema.getElementType();
+
+        GenericRecord address = new GenericData.Record(schema.getField("location").schema());
+        address.put("street", "Main Street");
+        address.put("city", "Cologne");
+
+        GenericRecord blob = new GenericData.Record(schema.getField("payload").schema().getTypes().get(1));
+        blob.put("data", ByteBuffer.wrap(new byte[] { 1, 2, 3 }));
+
+        GenericRecord order1 = new GenericData.Record(orderSchema);
+        order1.put("note", "first");
+        order1.put("orderId", 1);
+
+        GenericRecord order2 = new GenericData.Record(orderSchema);
+        order2.put("note", "second");
+        order2.put("orderId", 2);
+
+        Map<String, String> attributes = new HashMap<String, String>();
+        attributes.put("key", "value");
+
+        GenericRecord record = new GenericData.Record(schema);
+        record.put("id", 7);
+        record.put("comment", "unmapped");
+        record.put("location", address);
+        record.put("attributes", attributes);
+        record.put("payload", blob);
+        record.put("orders", new GenericData.Array<GenericRecord>(ordersSchema, Arrays.asList(order1, order2)));
+
+        ColumnInfo[] colInfo = new ColumnInfo[3];
+        colInfo[0] = AdaptorTestUtils.constructColumnInfo("id", AdaptorTestUtils.Type.UINT32, 0, 0);
+        colInfo[1] = AdaptorTestUtils.constructColumnInfo("city", AdaptorTestUtils.Type.VARSTRING, 0, 0);
+        colInfo[2] = AdaptorTestUtils.constructColumnInfo("orderId", AdaptorTestUtils.Type.UINT32, 0, 0);
+
+        AvroAdaptor decoder = new AvroAdaptor(new File("target/test-classes/projection/Projection/avro.ini"), colInfo);
+        Schema readerSchema = decoder.createReaderSchema(schema);
+
+        assertEquals("root fields", 3, readerSchema.getFields().size());
+        assertNotNull("id field", readerSchema.getField("id"));
+        assertNull("comment field", readerSchema.getField("comment"));
+        assertNull("attributes field", readerSchema.getField("attributes"));
+        assertNull("payload field", readerSchema.getField("payload"));
+        Schema addressSchema = readerSchema.getField("location").schema();
+        assertEquals("address fields", 1, addressSchema.getFields().size());
+        assertNotNull("city field", addressSchema.getField("city"));
+        Schema readerOrderSchema = readerSchema.getField("orders").schema().getElementType();
+        assertEquals("order fields", 1, readerOrderSchema.getFields().size());
+        assertNotNull("orderId field", readerOrderSchema.getField("orderId"));
+
+        GenericRecord projected = read(record, schema, readerSchema);
+        List<Object[]> expected = decoder.convertRecord(record);
+        List<Object[]> res = decoder.convertRecord(projected);
+        assertEquals("resulting list size", 2, res.size());
+        for (int i = 0; i < expected.size(); ++i) {
+            assertArrayEquals("resulting item", expected.get(i), res.get(i));
+        }
+    }
+
+    @Test
+    public void testRecursiveSchema() throws Exception {
+        Schema schema = new Parser().parse(new File("target/test-classes/projection/Recursive/schema.avsc"));
+
+        GenericRecord third = new GenericData.Record(schema);
+        third.put("value", 3);
+        third.put("label", "third");
+
+        GenericRecord second = new GenericData.Record(schema);
+        second.put("value", 2);
+        second.put("label", "second");
+        second.put("next", third);
+
+        GenericRecord first = new GenericData.Record(schema);
+        first.put("value", 1);
+        first.put("label", "first");
+        first.put("next", second);
+
+        ColumnInfo[] colInfo = new ColumnInfo[2];
+        colInfo[0] = AdaptorTestUtils.constructColumnInfo("value", AdaptorTestUtils.Type.UINT32, 0, 0);
+        colInfo[1] = AdaptorTestUtils.constructColumnInfo("nextValue", AdaptorTestUtils.Type.UINT32, 0, 0);
+
+        AvroAdaptor decoder = new AvroAdaptor(new File("target/test-classes/projection/Recursive/avro.ini"), colInfo);
+        Schema readerSchema = decoder.createReaderSchema(schema);
+        assertEquals("node fields", 2, readerSchema.getFields().size());
+        assertNull("label field", readerSchema.getField("label"));
+
+        List<Object[]> res = decoder.convertRecord(read(first, schema, readerSchema));
+        assertEquals("resulting list size", 1, res.size());
+        assertArrayEquals("resulting item", new Object[] { 1, 2 }, res.get(0));
+    }
+
+    private static GenericRecord read(GenericRecord record, Schema writerSchema, Schema readerSchema)
+            throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(out, null);
+        new GenericDatumWriter<GenericRecord>(writerSchema).write(record, encoder);
+        encoder.flush();
+
+        GenericDatumReader<GenericRecord> reader = new GenericDatumReader<GenericRecord>(writerSchema, readerSchema);
+        return reader.read(null, DecoderFactory.get().binaryDecoder(out.toByteArray(), null));
+    }
+}
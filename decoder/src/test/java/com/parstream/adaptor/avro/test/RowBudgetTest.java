@@ -0,0 +1,378 @@
+/**
+ * Copyright 2015 ParStream GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parstream.adaptor.avro.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.apache.avro.Schema;
+import org.apache.avro.Schema.Parser;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.util.Utf8;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.parstream.adaptor.avro.AvroAdaptor;
+import com.parstream.adaptor.avro.AvroAdaptorException;
+import com.parstream.adaptor.avro.ColumnBatch;
+import com.parstream.adaptor.avro.DeadLetterSink;
+import com.parstream.adaptor.avro.ErrorPolicy;
+import com.parstream.adaptor.avro.RowBudgetPolicy;
+import com.parstream.adaptor.avro.RowIterator;
+import com.parstream.driver.ColumnInfo;
+
+public class RowBudgetTest {
+
+    private Schema _schema;
+    private AvroAdaptor _decoder;
+
+    @Before
+    public void setUp() throws Exception {
+        _schema = new Parser().parse(new File("target/test-classes/rowBudget/SiblingArrays/record.avsc"));
+
+        ColumnInfo[] colInfo = new ColumnInfo[3];
+        colInfo[0] = AdaptorTestUtils.constructColumnInfo("id", AdaptorTestUtils.Type.INT32, 0, 0);
+        colInfo[1] = AdaptorTestUtils.constructColumnInfo("number", AdaptorTestUtils.Type.INT32, 0, 0);
+        colInfo[2] = AdaptorTestUtils.constructColumnInfo("label", AdaptorTestUtils.Type.VARSTRING, 0, 0);
+        _decoder = new AvroAdaptor(new File("target/test-classes/rowBudget/SiblingArrays/avro.ini"), colInfo);
+    }
+
+    private GenericRecord createRecord(int id, int numbers, int labels) {
+        List<Object> numberValues = new ArrayList<Object>();
+        for (int i = 0; i < numbers; ++i) {
+            numberValues.add(i);
+        }
+        List<String> labelValues = new ArrayList<String>();
+        for (int i = 0; i < labels; ++i) {
+            labelValues.add("label" + i);
+        }
+        return createRecord(id, numberValues, labelValues);
+    }
+
+    private GenericRecord createRecord(int id, List<Object> numbers, List<String> labels) {
+        GenericRecord record = new GenericData.Record(_schema);
+        record.put("id", id);
+        record.put("numbers", new GenericData.Array<Object>(_schema.getField("numbers").schema(), numbers));
+        record.put("labels", new GenericData.Array<String>(_schema.getField("labels").schema(), labels));
+        return record;
+    }
+
+    @Test
+    public void testDefaultUnlimited() throws Exception {
+        assertEquals("record budget", 0, _decoder.getMaxRecordRows());
+        assertEquals("batch budget", 0, _decoder.getMaxBatchRows());
+        assertEquals("resulting list size", 100 * 50, _decoder.convertRecord(createRecord(1, 100, 50)).size());
+    }
+
+    @Test
+    public void testReject() throws Exception {
+        _decoder.setRowBudget(10, 0, RowBudgetPolicy.REJECT);
+        assertEquals("within budget", 10, _decoder.convertRecord(createRecord(1, 5, 2)).size());
+        try {
+            _decoder.convertRecord(createRecord(2, 1000, 1000));
+            fail("AvroAdaptorException expected");
+        } catch (AvroAdaptorException e) {
+            assertEquals("record exceeds the row budget of 10 rows", e.getMessage());
+        }
+
+        // dropped rows are only known while converting
+        _decoder.setErrorPolicy(ErrorPolicy.SKIP_ROW);
+        List<Object> numbers = new ArrayList<Object>(Arrays.<Object> asList("bad", "bad", 1, 2));
+        assertEquals("bad rows skipped", 10,
+                _decoder.convertRecord(createRecord(3, numbers, Arrays.asList("a", "b", "c", "d", "e"))).size());
+        numbers.add(3);
+        try {
+            _decoder.convertRecord(createRecord(4, numbers, Arrays.asList("a", "b", "c", "d", "e")));
+            fail("AvroAdaptorException expected");
+        } catch (AvroAdaptorException e) {
+            assertEquals("record exceeds the row budget of 10 rows", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testRejectToDeadLetters() throws Exception {
+        final List<String> reasons = new ArrayList<String>();
+        _decoder.setErrorPolicy(ErrorPolicy.DEAD_LETTER);
+        _decoder.setDeadLetterSink(new DeadLetterSink() {
+
+            @Override
+            public void accept(GenericRecord record, String reason) {
+                reasons.add(reason);
+            }
+        });
+        _decoder.setRowBudget(10, 0, RowBudgetPolicy.REJECT);
+
+        assertTrue("rejected record", _decoder.convertRecord(createRecord(1, 4, 3)).isEmpty());
+        assertEquals("dead letters", Arrays.asList("record exceeds the row budget of 10 rows"), reasons);
+    }
+
+    @Test
+    public void testTruncate() throws Exception {
+        _decoder.setRowBudget(10, 0, RowBudgetPolicy.TRUNCATE);
+        List<Object[]> res = _decoder.convertRecord(createRecord(1, 1000, 1000));
+        assertEquals("resulting list size", 10, res.size());
+        assertArrayEquals("resulting item", new Object[] { 1, 0, "label9" }, res.get(9));
+
+        RowIterator rows = _decoder.iterateRecord(createRecord(2, 4, 4));
+        int count = 0;
+        while (rows.hasNext()) {
+            rows.next();
+            ++count;
+        }
+        assertEquals("iterated rows", 10, count);
+    }
+
+    @Test
+    public void testStream() throws Exception {
+        GenericRecord record = createRecord(1, 30, 20);
+        List<Object[]> expected = _decoder.convertRecord(record);
+
+        _decoder.setRowBudget(10, 0, RowBudgetPolicy.STREAM);
+        List<Object[]> res = _decoder.convertRecord(record);
+        assertEquals("resulting list size", expected.size(), res.size());
+        int i = 0;
+        for (Object[] row : res) {
+            assertArrayEquals("resulting item", expected.get(i++), row);
+        }
+        assertEquals("iterated rows", expected.size(), i);
+        assertArrayEquals("resulting item", expected.get(123), res.get(123));
+        assertArrayEquals("resulting item", expected.get(5), res.get(5));
+
+        RowIterator rows = _decoder.iterateRecord(record);
+        int count = 0;
+        while (rows.hasNext()) {
+            rows.next();
+            ++count;
+        }
+        assertEquals("iterated rows", expected.size(), count);
+    }
+
+    @Test
+    public void testStreamReusedRecord() throws Exception {
+        _decoder.setRowBudget(10, 0, RowBudgetPolicy.STREAM);
+        List<Object> numbers = new ArrayList<Object>();
+        List<Utf8> labels = new ArrayList<Utf8>();
+        for (int i = 0; i < 5; ++i) {
+            numbers.add(i);
+            labels.add(new Utf8("label" + i));
+        }
+        GenericRecord record = new GenericData.Record(_schema);
+        record.put("id", 1);
+        record.put("numbers", numbers);
+        record.put("labels", labels);
+        List<Object[]> res = _decoder.convertRecord(record);
+
+        // like a reader reusing the record and its strings for the next one
+        record.put("id", 2);
+        numbers.clear();
+        for (Utf8 label : labels) {
+            label.set("other");
+        }
+        assertEquals("resulting list size", 25, res.size());
+        for (int i = 0; i < res.size(); ++i) {
+            assertArrayEquals("resulting item", new Object[] { 1, i / 5, "label" + i % 5 }, res.get(i));
+        }
+    }
+
+    @Test
+    public void testStreamOutOfOrder() throws Exception {
+        List<Object> numbers = new ArrayList<Object>();
+        for (int i = 0; i < 20; ++i) {
+            numbers.add(i);
+        }
+        numbers.add("bad");
+        GenericRecord record = createRecord(1, numbers, Arrays.asList("a", "b"));
+        _decoder.setErrorPolicy(ErrorPolicy.SKIP_ROW);
+        List<Object[]> expected = _decoder.convertRecord(record);
+        long failures = _decoder.getMetrics().getFailures();
+
+        _decoder.setRowBudget(10, 0, RowBudgetPolicy.STREAM);
+        List<Object[]> res = _decoder.convertRecord(record);
+        assertEquals("failures", failures + 2, _decoder.getMetrics().getFailures());
+        assertEquals("resulting list size", expected.size(), res.size());
+        int[] indexes = { 30, 30, 12, 39, 10, 5, 31 };
+        for (int i : indexes) {
+            assertArrayEquals("resulting item", expected.get(i), res.get(i));
+        }
+        // rows produced again do not count their failed values again
+        assertEquals("failures", failures + 2, _decoder.getMetrics().getFailures());
+    }
+
+    @Test
+    public void testStreamTooManyRows() throws Exception {
+        _decoder.setRowBudget(10, 0, RowBudgetPolicy.STREAM);
+        try {
+            _decoder.convertRecord(createRecord(1, 50000, 50000));
+            fail("AvroAdaptorException expected");
+        } catch (AvroAdaptorException e) {
+            assertEquals("record exceeds the maximum of 2147483647 rows of a list", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testStreamWithSplitting() throws Exception {
+        GenericRecord record = createRecord(1, 30, 20);
+        List<Object[]> expected = _decoder.convertRecord(record);
+
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            _decoder.setArraySplitting(pool, 4);
+            _decoder.setRowBudget(100, 0, RowBudgetPolicy.STREAM);
+            List<Object[]> res = _decoder.convertRecord(record);
+            assertEquals("resulting list size", expected.size(), res.size());
+            for (int i = 0; i < res.size(); i += 37) {
+                assertArrayEquals("resulting item", expected.get(i), res.get(i));
+            }
+            assertEquals("split within budget", 80, _decoder.convertRecord(createRecord(2, 8, 10)).size());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testBudgetWithSplitting() throws Exception {
+        List<Object> numbers = new ArrayList<Object>();
+        for (int i = 0; i < 20; ++i) {
+            numbers.add(i);
+        }
+        numbers.add("bad");
+        GenericRecord record = createRecord(1, numbers, Arrays.asList("a", "b"));
+
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            _decoder.setRowBudget(25, 0, RowBudgetPolicy.TRUNCATE);
+            List<Object[]> expected = _decoder.convertRecord(record);
+            _decoder.setArraySplitting(pool, 4);
+            List<Object[]> res = _decoder.convertRecord(record);
+            assertEquals("resulting list size", 25, res.size());
+            for (int i = 0; i < res.size(); ++i) {
+                assertArrayEquals("resulting item", expected.get(i), res.get(i));
+            }
+
+            _decoder.setErrorPolicy(ErrorPolicy.SKIP_ROW);
+            _decoder.setRowBudget(25, 0, RowBudgetPolicy.REJECT);
+            try {
+                _decoder.convertRecord(record);
+                fail("AvroAdaptorException expected");
+            } catch (AvroAdaptorException e) {
+                assertEquals("record exceeds the row budget of 25 rows", e.getMessage());
+            }
+
+            // every row is converted once, so each failed value counts once
+            _decoder.setErrorPolicy(ErrorPolicy.NULL_VALUE);
+            _decoder.setRowBudget(10, 0, RowBudgetPolicy.STREAM);
+            long failures = _decoder.getMetrics().getFailures();
+            res = _decoder.convertRecord(record);
+            assertEquals("resulting list size", 42, res.size());
+            assertArrayEquals("resulting item", new Object[] { 1, null, "b" }, res.get(41));
+            assertEquals("failures", failures + 2, _decoder.getMetrics().getFailures());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testStreamReportsFailures() throws Exception {
+        _decoder.setRowBudget(10, 0, RowBudgetPolicy.STREAM);
+        List<Object> numbers = new ArrayList<Object>();
+        for (int i = 0; i < 20; ++i) {
+            numbers.add(i);
+        }
+        numbers.add("bad");
+        try {
+            _decoder.convertRecord(createRecord(1, numbers, Arrays.asList("a", "b")));
+            fail("AvroAdaptorException expected");
+        } catch (AvroAdaptorException e) {
+            assertTrue(e.getMessage().startsWith("Incompatible datatypes for column (number)"));
+        }
+
+        _decoder.setErrorPolicy(ErrorPolicy.SKIP_ROW);
+        List<Object[]> res = _decoder.convertRecord(createRecord(1, numbers, Arrays.asList("a", "b")));
+        assertEquals("resulting list size", 40, res.size());
+        for (Object[] row : res) {
+            assertFalse("no failed row", row[1] == null);
+        }
+        assertEquals("failures", 3, _decoder.getMetrics().getFailures());
+    }
+
+    @Test
+    public void testBatchBudget() throws Exception {
+        List<GenericRecord> records = new ArrayList<GenericRecord>();
+        for (int i = 0; i < 5; ++i) {
+            records.add(createRecord(i, 2, 2));
+        }
+
+        _decoder.setRowBudget(0, 6, RowBudgetPolicy.STREAM);
+        Iterator<GenericRecord> it = records.iterator();
+        List<Integer> sizes = new ArrayList<Integer>();
+        while (it.hasNext()) {
+            sizes.add(_decoder.convertRecords(it).getRowCount());
+        }
+        assertEquals("batch sizes", Arrays.asList(8, 8, 4), sizes);
+
+        _decoder.setRowBudget(0, 6, RowBudgetPolicy.TRUNCATE);
+        ColumnBatch batch = _decoder.convertRecords(records);
+        assertEquals("truncated batch", 6, batch.getRowCount());
+        assertEquals("last row", 1, batch.getValue(0, 5));
+
+        _decoder.setRowBudget(0, 6, RowBudgetPolicy.REJECT);
+        try {
+            _decoder.convertRecords(records);
+            fail("AvroAdaptorException expected");
+        } catch (AvroAdaptorException e) {
+            assertEquals("batch exceeds the row budget of 6 rows", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testBatchRejectsStreamedRecord() throws Exception {
+        _decoder.setRowBudget(10, 0, RowBudgetPolicy.STREAM);
+        try {
+            _decoder.convertRecords(Arrays.asList(createRecord(1, 4, 4)));
+            fail("AvroAdaptorException expected");
+        } catch (AvroAdaptorException e) {
+            assertEquals("record exceeds the row budget of 10 rows", e.getMessage());
+        }
+        assertEquals("streamed list", 16, _decoder.convertRecord(createRecord(1, 4, 4)).size());
+    }
+
+    @Test
+    public void testInvalidBudget() throws Exception {
+        try {
+            _decoder.setRowBudget(-1, 0, RowBudgetPolicy.REJECT);
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+            assertEquals("row budget must not be negative: -1, 0", e.getMessage());
+        }
+        try {
+            _decoder.setRowBudget(1, 0, null);
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+            assertEquals("row budget policy must not be null", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/**
+ * Copyright 2015 ParStream GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parstream.adaptor.avro.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.apache.avro.Schema;
+import org.apache.avro.Schema.Parser;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.junit.Test;
+
+import com.parstream.adaptor.avro.AvroAdaptor;
+import com.parstream.adaptor.avro.RowIterator;
+import com.parstream.driver.ColumnInfo;
+
+public class RowIteratorTest {
+
+    @Test
+    public void testNestedArrays() throws Exception {
+        Schema schema = new Parser().parse(new File("target/test-classes/nested/NestedArrays/schema.avsc"));
+        Schema ordersSchema = schema.getField("orders").schema();
+        Schema orderSchema = ordersSchema.getElementType();
+        Schema itemsSchema = orderSchema.getField("items").schema();
+
+        GenericRecord order1 = new GenericData.Record(orderSchema);
+        order1.put("orderId", 1);
+        order1.put("items", new GenericData.Array<String>(itemsSchema, Arrays.asList("a", "b")));
+
+        GenericRecord order2 = new GenericData.Record(orderSchema);
+        order2.put("orderId", 2);
+        order2.put("items", new GenericData.Array<String>(itemsSchema, new ArrayList<String>(0)));
+
+        GenericRecord order3 = new GenericData.Record(orderSchema);
+        order3.put("orderId", 3);
+        order3.put("items", new GenericData.Array<String>(itemsSchema, Arrays.asList("c")));
+
+        GenericRecord record = new GenericData.Record(schema);
+        record.put("name", "customer");
+        record.put("orders",
+                new GenericData.Array<GenericRecord>(ordersSchema, Arrays.asList(order1, order2, order3)));
+
+        ColumnInfo[] colInfo = new ColumnInfo[3];
+        colInfo[0] = AdaptorTestUtils.constructColumnInfo("name", AdaptorTestUtils.Type.VARSTRING, 0, 0);
+        colInfo[1] = AdaptorTestUtils.constructColumnInfo("orderId", AdaptorTestUtils.Type.UINT32, 0, 0);
+        colInfo[2] = AdaptorTestUtils.constructColumnInfo("item", AdaptorTestUtils.Type.VARSTRING, 0, 0);
+
+        AvroAdaptor decoder = new AvroAdaptor(new File("target/test-classes/nested/NestedArrays/avro.ini"), colInfo);
+        RowIterator rows = decoder.iterateRecord(record);
+        assertArrayEquals("resulting item", new Object[] { "customer", 1, "a" }, rows.next());
+        assertArrayEquals("resulting item", new Object[] { "customer", 1, "b" }, rows.next());
+        assertArrayEquals("resulting item", new Object[] { "customer", 2, null }, rows.next());
+        assertTrue("more rows", rows.hasNext());
+        assertArrayEquals("resulting item", new Object[] { "customer", 3, "c" }, rows.next());
+        assertFalse("no more rows", rows.hasNext());
+
+        try {
+            rows.next();
+            fail("NoSuchElementException expected");
+        } catch (NoSuchElementException e) {
+            // expected
+        }
+    }
+
+    /**
+     * the cartesian product of two large sibling arrays is produced row by row
+     */
+    @Test
+    public void testLargeSiblingArrays() throws Exception {
+        Schema schema = new Parser().parse(new File("target/test-classes/nested/SiblingArrays/schema.avsc"));
+
+        final int count = 500;
+        List<Integer> numbers = new ArrayList<Integer>(count);
+        List<String> labels = new ArrayList<String>(count);
+        for (int i = 0; i < count; ++i) {
+            numbers.add(i);
+            labels.add("label" + i);
+        }
+
+        GenericRecord record = new GenericData.Record(schema);
+        record.put("numbers", new GenericData.Array<Integer>(schema.getField("numbers").schema(), numbers));
+        record.put("labels", new GenericData.Array<String>(schema.getField("labels").schema(), labels));
+
+        ColumnInfo[] colInfo = new ColumnInfo[2];
+        colInfo[0] = AdaptorTestUtils.constructColumnInfo("number", AdaptorTestUtils.Type.UINT32, 0, 0);
+        colInfo[1] = AdaptorTestUtils.constructColumnInfo("label", AdaptorTestUtils.Type.VARSTRING, 0, 0);
+
+        AvroAdaptor decoder = new AvroAdaptor(new File("target/test-classes/nested/SiblingArrays/avro.ini"), colInfo);
+        RowIterator rows = decoder.iterateRecord(record);
+        int produced = 0;
+        while (rows.hasNext()) {
+            Object[] row = rows.next();
+            assertEquals("number", produced / count, row[0]);
+            assertEquals("label", "label" + (produced % count), row[1]);
+            ++produced;
+        }
+        assertEquals("resulting row count", count * count, produced);
+    }
+
+    @Test
+    public void testNullRecord() throws Exception {
+        ColumnInfo[] colInfo = new ColumnInfo[2];
+        colInfo[0] = AdaptorTestUtils.constructColumnInfo("number", AdaptorTestUtils.Type.UINT32, 0, 0);
+        colInfo[1] = AdaptorTestUtils.constructColumnInfo("label", AdaptorTestUtils.Type.VARSTRING, 0, 0);
+
+        AvroAdaptor decoder = new AvroAdaptor(new File("target/test-classes/nested/SiblingArrays/avro.ini"), colInfo);
+        assertFalse("no rows", decoder.iterateRecord(null).hasNext());
+    }
+}
@@ -0,0 +1,144 @@
+/**
+ * Copyright 2015 ParStream GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parstream.adaptor.avro.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.avro.Schema;
+import org.apache.avro.Schema.Parser;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.parstream.adaptor.avro.AvroAdaptor;
+import com.parstream.driver.ColumnInfo;
+
+public class RowPoolTest {
+
+    private Schema _schema;
+    private AvroAdaptor _adaptor;
+
+    @Before
+    public void setUp() throws Exception {
+        _schema = new Parser().parse(new File("target/test-classes/rowPool/WideRecord/record.avsc"));
+
+        ColumnInfo[] colInfo = new ColumnInfo[5];
+        colInfo[0] = AdaptorTestUtils.constructColumnInfo("idCol", AdaptorTestUtils.Type.INT32, 0, 0);
+        colInfo[1] = AdaptorTestUtils.constructColumnInfo("unusedCol", AdaptorTestUtils.Type.INT64, 0, 0);
+        colInfo[2] = AdaptorTestUtils.constructColumnInfo("nameCol", AdaptorTestUtils.Type.VARSTRING, 0, 0);
+        colInfo[3] = AdaptorTestUtils.constructColumnInfo("itemCol", AdaptorTestUtils.Type.INT64, 0, 0);
+        colInfo[4] = AdaptorTestUtils.constructColumnInfo("otherCol", AdaptorTestUtils.Type.VARSTRING, 0, 0);
+        _adaptor = new AvroAdaptor(new File("target/test-classes/rowPool/WideRecord/avro.ini"), colInfo);
+    }
+
+    private GenericRecord createRecord(int id, String name, Long... items) {
+        GenericRecord record = new GenericData.Record(_schema);
+        record.put("id", id);
+        record.put("name", name);
+        record.put("items", new GenericData.Array<Long>(_schema.getField("items").schema(), Arrays.asList(items)));
+        return record;
+    }
+
+    private byte[] encode(GenericRecord record) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(out, null);
+        new GenericDatumWriter<GenericRecord>(_schema).write(record, encoder);
+        encoder.flush();
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testDefaultReturnsNewRows() throws Exception {
+        assertEquals("default depth", 0, _adaptor.getRowPoolDepth());
+
+        List<Object[]> first = _adaptor.convertRecord(createRecord(1, "a", 10L));
+        List<Object[]> second = _adaptor.convertRecord(createRecord(2, "b", 20L));
+        assertNotSame("resulting list", first, second);
+        assertNotSame("resulting row", first.get(0), second.get(0));
+        assertArrayEquals("resulting item", new Object[] { 1, null, "a", 10L, null }, first.get(0));
+    }
+
+    @Test
+    public void testRowsReusedAfterDepth() throws Exception {
+        _adaptor.setRowPoolDepth(2);
+
+        List<Object[]> first = _adaptor.convertRecord(createRecord(1, "a", 10L, 11L));
+        Object[] firstRow = first.get(0);
+        List<Object[]> second = _adaptor.convertRecord(createRecord(2, "b", 20L));
+        assertNotSame("resulting row", firstRow, second.get(0));
+        assertEquals("resulting list size", 2, first.size());
+        assertArrayEquals("resulting item", new Object[] { 1, null, "a", 10L, null }, first.get(0));
+        assertArrayEquals("resulting item", new Object[] { 1, null, "a", 11L, null }, first.get(1));
+
+        List<Object[]> third = _adaptor.convertRecord(createRecord(3, null, 30L));
+        assertSame("resulting list", first, third);
+        assertSame("resulting row", firstRow, third.get(0));
+        assertEquals("resulting list size", 1, third.size());
+        assertArrayEquals("resulting item", new Object[] { 3, null, null, 30L, null }, third.get(0));
+    }
+
+    @Test
+    public void testPooledRowsMatchNewRows() throws Exception {
+        List<GenericRecord> records = new ArrayList<GenericRecord>();
+        records.add(createRecord(1, "a", 10L, 11L, 12L));
+        records.add(createRecord(2, null));
+        records.add(createRecord(3, "c", 30L));
+
+        List<List<Object[]>> expected = new ArrayList<List<Object[]>>();
+        for (GenericRecord record : records) {
+            expected.add(_adaptor.convertRecord(record));
+        }
+
+        _adaptor.setRowPoolDepth(1);
+        for (int i = 0; i < records.size(); ++i) {
+            List<Object[]> res = _adaptor.convertRecord(records.get(i));
+            assertEquals("resulting list size", expected.get(i).size(), res.size());
+            for (int j = 0; j < res.size(); ++j) {
+                assertArrayEquals("resulting item", expected.get(i).get(j), res.get(j));
+            }
+
+            res = _adaptor.convertBinary(encode(records.get(i)), _schema);
+            assertEquals("resulting list size", expected.get(i).size(), res.size());
+            for (int j = 0; j < res.size(); ++j) {
+                assertArrayEquals("resulting item", expected.get(i).get(j), res.get(j));
+            }
+        }
+    }
+
+    @Test
+    public void testNegativeDepth() {
+        try {
+            _adaptor.setRowPoolDepth(-1);
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+            assertEquals("row pool depth must not be negative: -1", e.getMessage());
+        }
+    }
+}
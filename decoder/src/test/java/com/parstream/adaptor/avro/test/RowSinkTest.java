@@ -0,0 +1,141 @@
+/**
+ * Copyright 2015 ParStream GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parstream.adaptor.avro.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.avro.Schema;
+import org.apache.avro.Schema.Parser;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.junit.Test;
+
+import com.parstream.adaptor.avro.AvroAdaptor;
+import com.parstream.adaptor.avro.AvroAdaptorException;
+import com.parstream.adaptor.avro.RowSink;
+import com.parstream.driver.ColumnInfo;
+
+public class RowSinkTest {
+
+    @Test
+    public void testReusedRows() throws Exception {
+        AvroAdaptor decoder = createAdaptor();
+        CollectingSink sink = new CollectingSink(true);
+        decoder.convertRecord(createRecord("first", 1, 2), sink);
+        decoder.convertRecord(createRecord("second", 3), sink);
+
+        assertEquals("resulting list size", 3, sink._rows.size());
+        assertArrayEquals("resulting item", new Object[] { "first", 1 }, sink._rows.get(0));
+        assertArrayEquals("resulting item", new Object[] { "first", 2 }, sink._rows.get(1));
+        assertArrayEquals("resulting item", new Object[] { "second", 3 }, sink._rows.get(2));
+        assertSame("reused row", sink._received.get(0), sink._received.get(1));
+        assertSame("reused row", sink._received.get(0), sink._received.get(2));
+    }
+
+    @Test
+    public void testNewRows() throws Exception {
+        AvroAdaptor decoder = createAdaptor();
+        CollectingSink sink = new CollectingSink(false);
+        GenericRecord record = createRecord("first", 1, 2);
+        decoder.convertRecord(record, sink);
+
+        assertEquals("resulting list size", 2, sink._received.size());
+        assertNotSame("new row", sink._received.get(0), sink._received.get(1));
+        List<Object[]> expected = decoder.convertRecord(record);
+        for (int i = 0; i < expected.size(); ++i) {
+            assertArrayEquals("resulting item", expected.get(i), sink._received.get(i));
+        }
+    }
+
+    @Test
+    public void testSinkFailure() throws Exception {
+        AvroAdaptor decoder = createAdaptor();
+        final IllegalStateException cause = new IllegalStateException("insert failed");
+        RowSink sink = new RowSink() {
+
+            @Override
+            public boolean consumesRowsSynchronously() {
+                return true;
+            }
+
+            @Override
+            public void accept(Object[] row) throws AvroAdaptorException {
+                throw new AvroAdaptorException(cause.getMessage(), cause);
+            }
+        };
+
+        try {
+            decoder.convertRecord(createRecord("first", 1, 2), sink);
+            fail("AvroAdaptorException expected");
+        } catch (AvroAdaptorException e) {
+            assertSame("cause", cause, e.getCause());
+        }
+
+        // the failed record leaves no state behind
+        CollectingSink collectingSink = new CollectingSink(true);
+        decoder.convertRecord(createRecord("second", 3), collectingSink);
+        assertEquals("resulting list size", 1, collectingSink._rows.size());
+        assertArrayEquals("resulting item", new Object[] { "second", 3 }, collectingSink._rows.get(0));
+    }
+
+    private static AvroAdaptor createAdaptor() throws Exception {
+        ColumnInfo[] colInfo = new ColumnInfo[2];
+        colInfo[0] = AdaptorTestUtils.constructColumnInfo("label", AdaptorTestUtils.Type.VARSTRING, 0, 0);
+        colInfo[1] = AdaptorTestUtils.constructColumnInfo("number", AdaptorTestUtils.Type.UINT32, 0, 0);
+        return new AvroAdaptor(new File("target/test-classes/nested/SiblingArrays/avro.ini"), colInfo);
+    }
+
+    private static GenericRecord createRecord(String label, Integer... numbers) throws Exception {
+        Schema schema = new Parser().parse(new File("target/test-classes/nested/SiblingArrays/schema.avsc"));
+        GenericRecord record = new GenericData.Record(schema);
+        record.put("numbers", new GenericData.Array<Integer>(schema.getField("numbers").schema(),
+                Arrays.asList(numbers)));
+        record.put("labels", new GenericData.Array<String>(schema.getField("labels").schema(),
+                Arrays.asList(label)));
+        return record;
+    }
+
+    private static class CollectingSink implements RowSink {
+
+        private final boolean _synchronous;
+        private final List<Object[]> _received = new ArrayList<Object[]>();
+        private final List<Object[]> _rows = new ArrayList<Object[]>();
+
+        CollectingSink(boolean synchronous) {
+            _synchronous = synchronous;
+        }
+
+        @Override
+        public boolean consumesRowsSynchronously() {
+            return _synchronous;
+        }
+
+        @Override
+        public void accept(Object[] row) {
+            _received.add(row);
+            _rows.add(row.clone());
+        }
+    }
+}
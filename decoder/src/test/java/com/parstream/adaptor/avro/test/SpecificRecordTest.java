@@ -0,0 +1,249 @@
+/**
+ * Copyright 2015 ParStream GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.parstream.adaptor.avro.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.apache.avro.Schema;
+import org.apache.avro.Schema.Parser;
+import org.apache.avro.specific.SpecificRecordBase;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.parstream.adaptor.avro.AvroAdaptor;
+import com.parstream.driver.ColumnInfo;
+
+public class SpecificRecordTest {
+
+    private static final Schema READING_SCHEMA = new Parser().parse("{\"type\":\"record\",\"name\":\"Reading\","
+            + "\"fields\":[{\"name\":\"value\",\"type\":\"double\"}]}");
+
+    private static final Schema LOCATION_SCHEMA = new Parser().parse("{\"type\":\"record\",\"name\":\"Location\","
+            + "\"fields\":[{\"name\":\"city\",\"type\":\"string\"}]}");
+
+    private static final Schema EVENT_SCHEMA = Schema.createRecord("Event", null, null, false);
+
+    static {
+        List<Schema.Field> fields = new ArrayList<Schema.Field>();
+        fields.add(new Schema.Field("id", Schema.create(Schema.Type.INT), null, null));
+        fields.add(new Schema.Field("location", LOCATION_SCHEMA, null, null));
+        fields.add(new Schema.Field("tags", Schema.createArray(Schema.create(Schema.Type.STRING)), null, null));
+        fields.add(new Schema.Field("readings", Schema.createArray(READING_SCHEMA), null, null));
+        EVENT_SCHEMA.setFields(fields);
+    }
+
+    /**
+     * A record class like those generated by the Avro compiler.
+     */
+    public static class Event extends SpecificRecordBase {
+
+        private int _id;
+        private Location _location;
+        private List<CharSequence> _tags;
+        private List<Reading> _readings;
+
+        @Override
+        public Schema getSchema() {
+            return EVENT_SCHEMA;
+        }
+
+        @Override
+        public Object get(int field) {
+            switch (field) {
+            case 0:
+                return _id;
+            case 1:
+                return _location;
+            case 2:
+                return _tags;
+            case 3:
+                return _readings;
+            default:
+                throw new IndexOutOfBoundsException();
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public void put(int field, Object value) {
+            switch (field) {
+            case 0:
+                _id = (Integer) value;
+                break;
+            case 1:
+                _location = (Location) value;
+                break;
+            case 2:
+                _tags = (List<CharSequence>) value;
+                break;
+            case 3:
+                _readings = (List<Reading>) value;
+                break;
+            default:
+                throw new IndexOutOfBoundsException();
+            }
+        }
+    }
+
+    public static class Location extends SpecificRecordBase {
+
+        private CharSequence _city;
+
+        @Override
+        public Schema getSchema() {
+            return LOCATION_SCHEMA;
+        }
+
+        @Override
+        public Object get(int field) {
+            if (field != 0) {
+                throw new IndexOutOfBoundsException();
+            }
+            return _city;
+        }
+
+        @Override
+        public void put(int field, Object value) {
+            if (field != 0) {
+                throw new IndexOutOfBoundsException();
+            }
+            _city = (CharSequence) value;
+        }
+    }
+
+    /**
+     * A location whose schema is an equal but distinct instance, like the
+     * schema of a record read with a parser of its own.
+     */
+    public static class ParsedLocation extends Location {
+
+        private static final Schema PARSED_SCHEMA = new Parser().parse(LOCATION_SCHEMA.toString());
+
+        @Override
+        public Schema getSchema() {
+            return PARSED_SCHEMA;
+        }
+    }
+
+    public static class Reading extends SpecificRecordBase {
+
+        private double _value;
+
+        @Override
+        public Schema getSchema() {
+            return READING_SCHEMA;
+        }
+
+        @Override
+        public Object get(int field) {
+            if (field != 0) {
+                throw new IndexOutOfBoundsException();
+            }
+            return _value;
+        }
+
+        @Override
+        public void put(int field, Object value) {
+            if (field != 0) {
+                throw new IndexOutOfBoundsException();
+            }
+            _value = (Double) value;
+        }
+    }
+
+    private AvroAdaptor _decoder;
+
+    @Before
+    public void setUp() throws Exception {
+        ColumnInfo[] colInfo = new ColumnInfo[4];
+        colInfo[0] = AdaptorTestUtils.constructColumnInfo("id", AdaptorTestUtils.Type.INT32, 0, 0);
+        colInfo[1] = AdaptorTestUtils.constructColumnInfo("city", AdaptorTestUtils.Type.VARSTRING, 0, 0);
+        colInfo[2] = AdaptorTestUtils.constructColumnInfo("tag", AdaptorTestUtils.Type.VARSTRING, 0, 0);
+        colInfo[3] = AdaptorTestUtils.constructColumnInfo("reading", AdaptorTestUtils.Type.DOUBLE, 0, 0);
+        _decoder = new AvroAdaptor(new File("target/test-classes/specific/Event/avro.ini"), colInfo);
+    }
+
+    private static Event createEvent(List<CharSequence> tags, List<Reading> readings) {
+        Location location = new Location();
+        location.put(0, "Cologne");
+
+        Event event = new Event();
+        event.put(0, 1);
+        event.put(1, location);
+        event.put(2, tags);
+        event.put(3, readings);
+        return event;
+    }
+
+    private static Reading createReading(double value) {
+        Reading reading = new Reading();
+        reading.put(0, value);
+        return reading;
+    }
+
+    @Test
+    public void testNestedSpecificRecord() throws Exception {
+        List<Object[]> res = _decoder.convertRecord(createEvent(new ArrayList<CharSequence>(),
+                new ArrayList<Reading>()));
+        assertEquals("resulting list size", 1, res.size());
+        assertArrayEquals("resulting item", new Object[] { 1, "Cologne", null, null }, res.get(0));
+    }
+
+    @Test
+    public void testListArrays() throws Exception {
+        List<CharSequence> tags = Arrays.<CharSequence> asList("a", "b");
+        List<Reading> readings = new LinkedList<Reading>();
+        readings.add(createReading(0.5));
+        readings.add(createReading(1.5));
+
+        List<Object[]> res = _decoder.convertRecord(createEvent(tags, readings));
+        assertEquals("resulting list size", 4, res.size());
+        assertArrayEquals("resulting item", new Object[] { 1, "Cologne", "a", 0.5 }, res.get(0));
+        assertArrayEquals("resulting item", new Object[] { 1, "Cologne", "a", 1.5 }, res.get(1));
+        assertArrayEquals("resulting item", new Object[] { 1, "Cologne", "b", 0.5 }, res.get(2));
+        assertArrayEquals("resulting item", new Object[] { 1, "Cologne", "b", 1.5 }, res.get(3));
+    }
+
+    @Test
+    public void testCodeGeneration() throws Exception {
+        _decoder.setCodeGeneration(true);
+        List<Object[]> res = _decoder.convertRecord(createEvent(Arrays.<CharSequence> asList("a"),
+                Arrays.asList(createReading(2.5))));
+        assertEquals("resulting list size", 1, res.size());
+        assertArrayEquals("resulting item", new Object[] { 1, "Cologne", "a", 2.5 }, res.get(0));
+    }
+
+    @Test
+    public void testEqualNestedSchema() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            Location location = new ParsedLocation();
+            location.put(0, "Bonn" + i);
+            Event event = createEvent(new ArrayList<CharSequence>(), new ArrayList<Reading>());
+            event.put(1, location);
+
+            List<Object[]> res = _decoder.convertRecord(event);
+            assertEquals("resulting list size", 1, res.size());
+            assertArrayEquals("resulting item", new Object[] { 1, "Bonn" + i, null, null }, res.get(0));
+        }
+    }
+}
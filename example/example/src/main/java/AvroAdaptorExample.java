@@ -18,15 +18,14 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.List;
 
 import org.apache.avro.file.DataFileReader;
 import org.apache.avro.generic.GenericDatumReader;
 import org.apache.avro.generic.GenericRecord;
-import org.apache.avro.io.DatumReader;
 
 import com.parstream.adaptor.avro.AvroAdaptor;
 import com.parstream.adaptor.avro.AvroAdaptorException;
+import com.parstream.adaptor.avro.RowIterator;
 import com.parstream.driver.ColumnInfo;
 import com.parstream.driver.ParstreamConnection;
 
@@ -80,16 +79,18 @@ public class AvroAdaptorExample {
 
         AvroAdaptor decoder = new AvroAdaptor(configFile, columnInfo);
 
-        DatumReader<GenericRecord> userDatumReader = new GenericDatumReader<GenericRecord>();
+        GenericDatumReader<GenericRecord> userDatumReader = new GenericDatumReader<GenericRecord>();
         DataFileReader<GenericRecord> dataFileReader = new DataFileReader<GenericRecord>(avroFile, userDatumReader);
+        // only decode the Avro fields which are mapped to a ParStream column
+        userDatumReader.setExpected(decoder.createReaderSchema(dataFileReader.getSchema()));
         GenericRecord user = null;
         parstreamConn.prepareInsert(tableName);
         while (dataFileReader.hasNext()) {
             user = dataFileReader.next(user);
             try {
-                List<Object[]> objList = decoder.convertRecord(user);
-                for (Object[] objArr : objList) {
-                    parstreamConn.rawInsert(objArr);
+                RowIterator rows = decoder.iterateRecord(user);
+                while (rows.hasNext()) {
+                    parstreamConn.rawInsert(rows.next());
                     System.out.println("Inserted row into ParStream");
                 }
             } catch (AvroAdaptorException e) {